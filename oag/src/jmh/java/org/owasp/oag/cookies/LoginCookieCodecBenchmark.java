@@ -0,0 +1,105 @@
+package org.owasp.oag.cookies;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.owasp.oag.exception.CookieDecryptionException;
+import org.owasp.oag.services.crypto.DirectJweCookieEncryptor;
+import org.owasp.oag.session.UserModel;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the formats of the login cookie of an OIDC login, which carries the original ID and
+ * access token: {@code JSON}, {@code COMPACT} and {@code COMPACT_DEFLATE}. The setup prints the
+ * length of the cookie value in each format, the browser uploads it with every request.
+ * {@code decrypt} runs on every request missing the login cookie cache, {@code encrypt} on every
+ * login and session renewal. Run with {@code -PjmhIncludes=LoginCookieCodec}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoginCookieCodecBenchmark {
+
+    /** The format new cookies are written in. */
+    @Param({"JSON", "COMPACT", "COMPACT_DEFLATE"})
+    public String format;
+
+    private LoginCookieCodec codec;
+    private LoginCookie cookie;
+    private String value;
+
+    /**
+     * Creates the codec and a login cookie as an OIDC login would.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        var random = new SplittableRandom(42);
+        byte[] key = new byte[32];
+        random.nextBytes(key);
+        var encryptor = new DirectJweCookieEncryptor(key);
+        codec = new LoginCookieCodec(encryptor, !format.equals("JSON"), format.equals("COMPACT_DEFLATE"));
+
+        var user = new UserModel("a8c4e1f0-5b2d-4d7e-9c3a-6f1e2d4b8a90");
+        user.getMappings().put("original-id-token", jwt(random, "{\"iss\":\"https://iam.example.com/realms/oag\","
+                + "\"sub\":\"a8c4e1f0-5b2d-4d7e-9c3a-6f1e2d4b8a90\",\"aud\":\"oag\",\"exp\":1700003600,"
+                + "\"iat\":1700000000,\"auth_time\":1700000000,\"nonce\":\"n-0S6_WzA2Mj\",\"sid\":\"4f7a2c1e\","
+                + "\"email\":\"alice@example.com\",\"email_verified\":true,\"name\":\"Alice Example\"}"));
+        user.getMappings().put("original-access-token", jwt(random, "{\"iss\":\"https://iam.example.com/realms/oag\","
+                + "\"sub\":\"a8c4e1f0-5b2d-4d7e-9c3a-6f1e2d4b8a90\",\"aud\":[\"oag\",\"account\"],\"exp\":1700000300,"
+                + "\"iat\":1700000000,\"scope\":\"openid email profile\",\"realm_access\":{\"roles\":"
+                + "[\"offline_access\",\"uma_authorization\",\"user\"]},\"sid\":\"4f7a2c1e\"}"));
+        user.getMappings().put("email", "alice@example.com");
+        user.getMappings().put("email_verified", "true");
+        user.getMappings().put("name", "Alice Example");
+        cookie = new LoginCookie(1_700_000_000, "keycloak", user, "Q2hhbmdlIHRoZSBzZXNzaW9uIGlkZW50aWZpZXI");
+        cookie.setCsrfToken("c3JmLXRva2VuLW9mLXRoZS1zZXNzaW9u");
+        value = codec.encrypt(cookie);
+        System.out.println(format + " login cookie: " + value.length() + " characters");
+    }
+
+    private static String jwt(SplittableRandom random, String claims) {
+        var encoder = Base64.getUrlEncoder().withoutPadding();
+        byte[] signature = new byte[256];
+        random.nextBytes(signature);
+        return encoder.encodeToString("{\"alg\":\"RS256\",\"typ\":\"JWT\",\"kid\":\"k1\"}".getBytes(StandardCharsets.UTF_8))
+                + "." + encoder.encodeToString(claims.getBytes(StandardCharsets.UTF_8))
+                + "." + encoder.encodeToString(signature);
+    }
+
+    /**
+     * Serializes and encrypts the login cookie.
+     *
+     * @return the cookie value
+     */
+    @Benchmark
+    public String encrypt() {
+        return codec.encrypt(cookie);
+    }
+
+    /**
+     * Decrypts and deserializes the login cookie.
+     *
+     * @return the login cookie
+     * @throws CookieDecryptionException never, the cookie is valid
+     */
+    @Benchmark
+    public LoginCookie decrypt() throws CookieDecryptionException {
+        return codec.decrypt(value);
+    }
+}
@@ -0,0 +1,112 @@
+package org.owasp.oag.filters.proxy;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.owasp.oag.config.configuration.GatewayRoute;
+import org.owasp.oag.config.configuration.SecurityProfile;
+import org.owasp.oag.filters.GatewayRouteContext;
+import org.owasp.oag.filters.RouteRuntime;
+import org.owasp.oag.services.csrf.CsrfNoneValidation;
+import org.owasp.oag.services.tokenMapping.nouser.NoUserMapper;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.core.annotation.AnnotationAwareOrderComparator;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the per-request overhead of the OAG filters on an anonymous passthrough route, i.e. a route that allows
+ * anonymous access, has no CSRF protection, no user mapping and no response headers. {@code allStages} runs every
+ * filter as the gateway did before the chains were compiled per route, {@code compiled} runs the chain that
+ * {@link RouteFilterDispatcher#compile} selects for the route. Both create the request and end in a gateway chain
+ * that completes immediately, so the difference is the cost of the skipped stages. Run with
+ * {@code -PjmhIncludes=RouteFilterChain}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RouteFilterChainBenchmark {
+
+    private final GatewayFilterChain upstream = exchange -> Mono.empty();
+    private RouteAwareFilter[] allFilters;
+    private RouteAwareFilter[] compiledFilters;
+    private GatewayRouteContext routeContext;
+
+    /**
+     * Creates the filters, the passthrough route and its compiled chain.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+
+        var profile = new SecurityProfile();
+        profile.setAllowedMethods(List.of("GET", "POST"));
+        profile.setCsrfProtection("none");
+        profile.setCsrfSafeMethods(List.of("GET", "HEAD", "OPTIONS"));
+
+        var route = new GatewayRoute("/static/**", "http://localhost:7777/", "static", true, null);
+        var runtime = new RouteRuntime("static", route, profile, new CsrfNoneValidation(), new NoUserMapper());
+        routeContext = new GatewayRouteContext(runtime, "http://localhost:8080/static/app.js",
+                "http://localhost:7777/static/app.js", Optional.empty());
+
+        List<RouteAwareFilter> filters = List.of(
+                new MethodWhitelistFilter(),
+                new AccessControlFilter(),
+                new CsrfValidationFilter(),
+                new CsrfValidationFilterWithBody(),
+                new ResponseHeaderFilter(),
+                new DownstreamHeaderFilter(),
+                new UserMappingFilter(),
+                new GatewayLoggingFilter());
+        var sorted = new ArrayList<>(filters);
+        AnnotationAwareOrderComparator.sort(sorted);
+        allFilters = sorted.toArray(new RouteAwareFilter[0]);
+        compiledFilters = RouteFilterDispatcher.compile(filters, runtime);
+    }
+
+    private MockServerWebExchange newExchange() {
+        return MockServerWebExchange.from(MockServerHttpRequest.get("http://localhost:8080/static/app.js").build());
+    }
+
+    /**
+     * Runs every filter.
+     *
+     * @return the exchange
+     */
+    @Benchmark
+    public MockServerWebExchange allStages() {
+
+        var exchange = newExchange();
+        RouteFilterDispatcher.run(allFilters, exchange, upstream, routeContext).block();
+        return exchange;
+    }
+
+    /**
+     * Runs the compiled chain of the route.
+     *
+     * @return the exchange
+     */
+    @Benchmark
+    public MockServerWebExchange compiled() {
+
+        var exchange = newExchange();
+        RouteFilterDispatcher.run(compiledFilters, exchange, upstream, routeContext).block();
+        return exchange;
+    }
+}
@@ -0,0 +1,111 @@
+package org.owasp.oag.gateway;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares finding the route of a request with the {@link RouteIndex} against matching the path with the pattern of
+ * every route in their order of specificity, as the gateway did with one predicate per route. The routes are a mix of
+ * {@code /serviceN/**}, {@code /serviceN/api/*}, {@code /serviceN/static/*.js} and a {@code /**} catch-all, the
+ * requests hit all of them. Run with {@code -PjmhIncludes=RouteIndex}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RouteIndexBenchmark {
+
+    /** The number of routes. */
+    @Param({"10", "100", "1000"})
+    public int routes;
+
+    private final ProxyPathMatcher matcher = new ProxyPathMatcher();
+    private RouteIndex index;
+    private List<Map.Entry<String, String>> sortedRoutes;
+    private String[] paths;
+    private int next;
+
+    /**
+     * Creates the routes, their index and the request paths.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        var patternsByRoute = new LinkedHashMap<String, String>();
+        patternsByRoute.put("catch-all", "/**");
+        for (int i = 0; patternsByRoute.size() < routes; i++) {
+            switch (i % 3) {
+                case 0 -> patternsByRoute.put("service" + i, "/service" + i + "/**");
+                case 1 -> patternsByRoute.put("api" + i, "/service" + (i - 1) + "/api/*");
+                default -> patternsByRoute.put("scripts" + i, "/service" + (i - 2) + "/static/*.js");
+            }
+        }
+        index = new RouteIndex(patternsByRoute, matcher);
+
+        var comparator = matcher.getPatternComparator();
+        sortedRoutes = new ArrayList<>(patternsByRoute.entrySet());
+        sortedRoutes.sort((r1, r2) -> comparator.compare(r1.getValue(), r2.getValue()));
+
+        var random = new SplittableRandom(42);
+        paths = new String[1024];
+        for (int i = 0; i < paths.length; i++) {
+            int service = random.nextInt(routes) / 3 * 3;
+            paths[i] = switch (random.nextInt(4)) {
+                case 0 -> "/service" + service + "/orders/" + random.nextInt(1000);
+                case 1 -> "/service" + service + "/api/orders";
+                case 2 -> "/service" + service + "/static/app.js";
+                default -> "/index.html";
+            };
+        }
+    }
+
+    private String nextPath() {
+        String path = paths[next];
+        next = (next + 1) & (paths.length - 1);
+        return path;
+    }
+
+    /**
+     * Finds the route with the index.
+     *
+     * @return the route name
+     */
+    @Benchmark
+    public String index() {
+        return index.findRoute(nextPath());
+    }
+
+    /**
+     * Finds the route by matching the patterns one by one.
+     *
+     * @return the route name
+     */
+    @Benchmark
+    public String linear() {
+        String path = nextPath();
+        for (var route : sortedRoutes) {
+            if (matcher.matchesPath(path, route.getValue())) {
+                return route.getKey();
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,131 @@
+package org.owasp.oag.persistentmap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures how much the background compactions of a {@link FilePersistentMap} hold up writers.
+ * <p>
+ * {@code putDuringCompactions} samples the latency of {@code put} from four threads overwriting
+ * random live keys, so a compaction starts after about twice as many appends as there are live
+ * entries; the pauses show in the high percentiles and the maximum of the sample distribution.
+ * The number and durations of the compactions that ran are printed to the benchmark output at the
+ * end of each trial.
+ * {@code compact} measures a whole compaction of the live entries, which runs in the background
+ * and does not block writers apart from the segment swap.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class FilePersistentMapCompactionBenchmark {
+
+    /** Number of live entries, which the compaction writes. */
+    @Param({"100000", "1000000"})
+    public int entries;
+
+    /** The durability of the map. */
+    @Param({"FLUSH_PER_BATCH", "FSYNC_INTERVAL"})
+    public DurabilityPolicy durability;
+
+    private Path directory;
+    private FilePersistentMap<Integer> map;
+    private String[] keys;
+
+    /**
+     * Opens the map and writes the live entries.
+     *
+     * @throws IOException if the log directory cannot be created
+     */
+    @Setup(Level.Trial)
+    public void fill() throws IOException {
+        directory = Files.createTempDirectory("persistent-map-compaction");
+        var settings = new FilePersistentMapSettings();
+        settings.setDurability(durability);
+        map = new FilePersistentMap<>(directory.resolve("compaction.db").toString(), Integer.class, settings);
+        keys = new String[entries];
+        CompletableFuture<Void> last = CompletableFuture.completedFuture(null);
+        for (int i = 0; i < entries; i++) {
+            keys[i] = FilePersistentMapStartupBenchmark.sessionId(i);
+            last = map.putAsync(keys[i], i);
+        }
+        last.join();
+    }
+
+    /**
+     * The random keys of one writer thread.
+     */
+    @State(Scope.Thread)
+    public static class Writer {
+
+        private final SplittableRandom random = new SplittableRandom(Thread.currentThread().threadId());
+
+        int nextIndex(int entries) {
+            return random.nextInt(entries);
+        }
+    }
+
+    /**
+     * Overwrites a random live key while compactions run in the background.
+     *
+     * @param writer the random keys of the thread
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @Threads(4)
+    public void putDuringCompactions(Writer writer) {
+        int index = writer.nextIndex(entries);
+        map.put(keys[index], index);
+    }
+
+    /**
+     * Compacts the log and waits for the compaction to finish.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Measurement(iterations = 10)
+    public void compact() {
+        map.compact();
+    }
+
+    /**
+     * Reports the compactions, then closes the map and deletes its log.
+     *
+     * @throws IOException if a file cannot be deleted
+     */
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        CompactionMetrics metrics = map.getCompactionMetrics();
+        System.out.printf("%n%d entries, %s: %d compactions, last %d ms, average %.1f ms%n",
+                entries, durability, metrics.compactions(), metrics.lastDurationMillis(),
+                metrics.compactions() == 0 ? 0.0 : (double) metrics.totalDurationMillis() / metrics.compactions());
+        map.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+}
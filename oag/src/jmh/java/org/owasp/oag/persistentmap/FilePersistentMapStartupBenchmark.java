@@ -0,0 +1,117 @@
+package org.owasp.oag.persistentmap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures how long a {@link FilePersistentMap} takes to open, i.e. to replay its log, the part
+ * of the gateway startup that blocks the {@code sessionBlacklist} bean.
+ * <p>
+ * The log is built once per trial: every entry is written, the log is compacted into a snapshot
+ * and a tenth of the keys is overwritten afterwards, so the replay covers both snapshot files and
+ * segments. {@code replayParallelism = 1} replays sequentially, {@code 0} uses all processors.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms6g", "-Xmx6g"})
+public class FilePersistentMapStartupBenchmark {
+
+    /** Number of live entries in the log. */
+    @Param({"1000000", "5000000", "10000000"})
+    public int entries;
+
+    /** Number of replay threads; {@code 0} means the number of available processors. */
+    @Param({"1", "0"})
+    public int replayParallelism;
+
+    private Path directory;
+    private String filename;
+
+    /**
+     * Writes the log replayed by the benchmark.
+     *
+     * @throws IOException if the log cannot be written
+     */
+    @Setup(Level.Trial)
+    public void writeLog() throws IOException {
+        directory = Files.createTempDirectory("persistent-map-startup");
+        filename = directory.resolve("blacklist.db").toString();
+
+        var settings = new FilePersistentMapSettings();
+        settings.setDurability(DurabilityPolicy.FLUSH_PER_BATCH);
+        try (var map = new FilePersistentMap<>(filename, Integer.class, settings)) {
+            CompletableFuture<Void> last = CompletableFuture.completedFuture(null);
+            for (int i = 0; i < entries; i++) {
+                last = map.putAsync(sessionId(i), i);
+            }
+            last.join();
+            map.compact();
+            for (int i = 0; i < entries; i += 10) {
+                last = map.putAsync(sessionId(i), -i);
+            }
+            last.join();
+        }
+    }
+
+    /**
+     * Opens the map, replaying the whole log.
+     *
+     * @return the number of replayed entries
+     */
+    @Benchmark
+    public int open() {
+        var settings = new FilePersistentMapSettings();
+        if (replayParallelism > 0) {
+            settings.setReplayParallelism(replayParallelism);
+        }
+        try (var map = new FilePersistentMap<>(filename, Integer.class, settings)) {
+            return map.size();
+        }
+    }
+
+    /**
+     * Deletes the log.
+     *
+     * @throws IOException if a file cannot be deleted
+     */
+    @TearDown(Level.Trial)
+    public void deleteLog() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /**
+     * Derives a session id shaped like the ones created by the session cookie hook.
+     *
+     * @param i the entry index
+     * @return a 16 digit hex session id
+     */
+    static String sessionId(int i) {
+        return String.format("%016x", i * 0x9E3779B97F4A7C15L);
+    }
+}
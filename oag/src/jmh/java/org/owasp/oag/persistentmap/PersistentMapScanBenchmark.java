@@ -0,0 +1,141 @@
+package org.owasp.oag.persistentmap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Compares the ways to visit every entry of a {@link PersistentMap}: the {@code entrySet()}
+ * snapshot, {@code forEach}, the {@code scan()} cursor and a {@code removeIf} that matches
+ * nothing, the cost of a blacklist cleanup when nothing expired.
+ * <p>
+ * The interesting number is the allocation per operation, so run with the GC profiler,
+ * {@code ./gradlew jmh -PjmhIncludes=Scan -PjmhProfilers=gc}, and compare
+ * {@code gc.alloc.rate.norm}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class PersistentMapScanBenchmark {
+
+    /** The map implementation: {@code FILE} or {@code IN_MEMORY}. */
+    @Param({"FILE", "IN_MEMORY"})
+    public String implementation;
+
+    /** Number of entries in the map. */
+    @Param({"100000", "1000000"})
+    public int entries;
+
+    private Path directory;
+    private PersistentMap<Integer> map;
+
+    /**
+     * Fills the map.
+     *
+     * @throws IOException if the log directory cannot be created
+     */
+    @Setup(Level.Trial)
+    public void fill() throws IOException {
+        directory = Files.createTempDirectory("persistent-map-scan");
+        if ("FILE".equals(implementation)) {
+            var settings = new FilePersistentMapSettings();
+            settings.setDurability(DurabilityPolicy.FLUSH_PER_BATCH);
+            map = new FilePersistentMap<>(directory.resolve("scan.db").toString(), Integer.class, settings);
+        } else {
+            map = new InMemoryPersistentMap<>();
+        }
+        CompletableFuture<Void> last = CompletableFuture.completedFuture(null);
+        for (int i = 0; i < entries; i++) {
+            last = map.putAsync(FilePersistentMapStartupBenchmark.sessionId(i), i);
+        }
+        last.join();
+    }
+
+    /**
+     * Sums the values through the {@code entrySet()} snapshot.
+     *
+     * @return the sum of the values
+     */
+    @Benchmark
+    public long entrySet() {
+        long sum = 0;
+        for (Map.Entry<String, Integer> entry : map.entrySet()) {
+            sum += entry.getValue();
+        }
+        return sum;
+    }
+
+    /**
+     * Sums the values through {@code forEach}.
+     *
+     * @return the sum of the values
+     */
+    @Benchmark
+    public long forEach() {
+        long[] sum = new long[1];
+        map.forEach((key, value) -> sum[0] += value);
+        return sum[0];
+    }
+
+    /**
+     * Sums the values through the {@code scan()} cursor.
+     *
+     * @return the sum of the values
+     */
+    @Benchmark
+    public long scan() {
+        long sum = 0;
+        ScanCursor<Integer> cursor = map.scan();
+        while (cursor.next()) {
+            sum += cursor.value();
+        }
+        return sum;
+    }
+
+    /**
+     * Runs a {@code removeIf} that matches no entry.
+     *
+     * @return the number of removed entries, always 0
+     */
+    @Benchmark
+    public int removeIfNothingMatches() {
+        return map.removeIf((key, value) -> value < 0);
+    }
+
+    /**
+     * Closes the map and deletes its log.
+     *
+     * @throws IOException if a file cannot be deleted
+     */
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        map.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package org.owasp.oag.persistentmap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures the write throughput of the {@link PersistentMap} implementations with 1, 4 and 16
+ * writer threads, and the latency of {@code get} while other threads write.
+ * <p>
+ * Writes overwrite keys of a fixed key space, so the live entry count stays constant and the
+ * {@link FilePersistentMap} log is compacted in the background now and then, as in production.
+ * Each writer thread has its own slice of the key space. {@code remove} first re-adds its key
+ * without waiting, so every removal removes a present key and appends a tombstone; subtract the
+ * {@code putAsync} cost seen in {@code put} with {@link DurabilityPolicy#FLUSH_PER_BATCH} to
+ * compare. {@code IN_MEMORY} is the baseline without any I/O; the durability is only used by
+ * {@code FILE}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class PersistentMapWriteBenchmark {
+
+    /** The map implementation: {@code FILE}, {@code MAPPED} or {@code IN_MEMORY}. */
+    @Param({"FILE", "MAPPED", "IN_MEMORY"})
+    public String implementation;
+
+    /** The durability of a {@code FILE} map. */
+    @Param({"FLUSH_PER_BATCH", "FSYNC_PER_BATCH"})
+    public DurabilityPolicy durability;
+
+    /** Number of keys written to. */
+    static final int KEY_SPACE = 100_000;
+
+    /** Number of disjoint slices of the key space, at least the highest thread count. */
+    private static final int SLICES = 16;
+
+    private Path directory;
+    private PersistentMap<Integer> map;
+    private String[] keys;
+
+    /**
+     * Opens the map and writes every key once.
+     *
+     * @throws IOException if the log directory cannot be created
+     */
+    @Setup(Level.Trial)
+    public void fill() throws IOException {
+        directory = Files.createTempDirectory("persistent-map-write");
+        String filename = directory.resolve("write.db").toString();
+        map = switch (implementation) {
+            case "FILE" -> {
+                var settings = new FilePersistentMapSettings();
+                settings.setDurability(durability);
+                yield new FilePersistentMap<>(filename, Integer.class, settings);
+            }
+            case "MAPPED" -> new MappedPersistentMap<>(filename, Integer.class);
+            default -> new InMemoryPersistentMap<>();
+        };
+        keys = new String[KEY_SPACE];
+        CompletableFuture<Void> last = CompletableFuture.completedFuture(null);
+        for (int i = 0; i < KEY_SPACE; i++) {
+            keys[i] = FilePersistentMapStartupBenchmark.sessionId(i);
+            last = map.putAsync(keys[i], i);
+        }
+        last.join();
+    }
+
+    /**
+     * The position of one writer thread in its slice of the key space.
+     */
+    @State(Scope.Thread)
+    public static class Writer {
+
+        private static int nextSlice;
+
+        private int offset;
+        private int next;
+
+        /**
+         * Assigns the next slice of the key space.
+         */
+        @Setup(Level.Trial)
+        public void assignSlice() {
+            synchronized (Writer.class) {
+                offset = nextSlice++ % SLICES * (KEY_SPACE / SLICES);
+            }
+        }
+
+        String nextKey(String[] keys) {
+            next = next + 1 == KEY_SPACE / SLICES ? 0 : next + 1;
+            return keys[offset + next];
+        }
+    }
+
+    /**
+     * The random keys of one reader thread.
+     */
+    @State(Scope.Thread)
+    public static class Reader {
+
+        private final SplittableRandom random = new SplittableRandom(42);
+
+        String nextKey(String[] keys) {
+            return keys[random.nextInt(KEY_SPACE)];
+        }
+    }
+
+    /**
+     * Overwrites a key with one writer thread.
+     *
+     * @param writer the key position of the thread
+     */
+    @Benchmark
+    @Threads(1)
+    public void put1(Writer writer) {
+        map.put(writer.nextKey(keys), writer.next);
+    }
+
+    /**
+     * Overwrites a key with four writer threads.
+     *
+     * @param writer the key position of the thread
+     */
+    @Benchmark
+    @Threads(4)
+    public void put4(Writer writer) {
+        map.put(writer.nextKey(keys), writer.next);
+    }
+
+    /**
+     * Overwrites a key with sixteen writer threads.
+     *
+     * @param writer the key position of the thread
+     */
+    @Benchmark
+    @Threads(16)
+    public void put16(Writer writer) {
+        map.put(writer.nextKey(keys), writer.next);
+    }
+
+    /**
+     * Removes a key with one writer thread.
+     *
+     * @param writer the key position of the thread
+     */
+    @Benchmark
+    @Threads(1)
+    public void remove1(Writer writer) {
+        remove(writer);
+    }
+
+    /**
+     * Removes a key with four writer threads.
+     *
+     * @param writer the key position of the thread
+     */
+    @Benchmark
+    @Threads(4)
+    public void remove4(Writer writer) {
+        remove(writer);
+    }
+
+    /**
+     * Removes a key with sixteen writer threads.
+     *
+     * @param writer the key position of the thread
+     */
+    @Benchmark
+    @Threads(16)
+    public void remove16(Writer writer) {
+        remove(writer);
+    }
+
+    private void remove(Writer writer) {
+        String key = writer.nextKey(keys);
+        map.putAsync(key, writer.next);
+        map.remove(key);
+    }
+
+    /**
+     * Reads a random key while a writer thread overwrites keys.
+     *
+     * @param reader the random keys of the thread
+     * @return the value of the key
+     */
+    @Benchmark
+    @Group("getWhileWriting")
+    @GroupThreads(3)
+    public Integer get(Reader reader) {
+        return map.get(reader.nextKey(keys));
+    }
+
+    /**
+     * The writer thread of {@link #get}.
+     *
+     * @param writer the key position of the thread
+     */
+    @Benchmark
+    @Group("getWhileWriting")
+    @GroupThreads(1)
+    public void write(Writer writer) {
+        map.put(writer.nextKey(keys), writer.next);
+    }
+
+    /**
+     * Closes the map and deletes its log.
+     *
+     * @throws IOException if a file cannot be deleted
+     */
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        map.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+}
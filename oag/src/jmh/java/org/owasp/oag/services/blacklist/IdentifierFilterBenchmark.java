@@ -0,0 +1,110 @@
+package org.owasp.oag.services.blacklist;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the {@link IdentifierFilter} implementations in front of a
+ * {@link LocalPersistentBlacklist}: the latency of lookups for added and unknown identifiers, and
+ * the false positive rate and memory per identifier.
+ * <p>
+ * The identifiers expire evenly over an hour, as sessions invalidated over the last hour would.
+ * The filters are sized as the blacklist sizes them: the bloom filter with its defaults, the
+ * cuckoo filter for twice the identifiers, as after a rebuild. The false positive rate is measured
+ * once per trial with a million unknown identifiers and printed to the benchmark output with the
+ * size of the filter tables.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class IdentifierFilterBenchmark {
+
+    /** The filter implementation. */
+    @Param({"BLOOM", "CUCKOO"})
+    public IdentifierFilterType type;
+
+    /** Number of added identifiers. */
+    @Param({"100000", "1000000", "10000000"})
+    public int entries;
+
+    private static final int SAMPLE_SIZE = 4096;
+    private static final int MAX_TTL_SECONDS = 3600;
+    private static final int FPP_LOOKUPS = 1_000_000;
+
+    private IdentifierFilter filter;
+    private final String[] added = new String[SAMPLE_SIZE];
+    private final String[] unknown = new String[SAMPLE_SIZE];
+    private int next;
+
+    /**
+     * Fills the filter, then reports its false positive rate and size.
+     */
+    @Setup(Level.Trial)
+    public void fill() {
+        filter = type == IdentifierFilterType.CUCKOO
+                ? new CuckooFilter(2 * entries)
+                : new TimeSlicedBloomFilter(MAX_TTL_SECONDS / LocalPersistentBlacklist.BLOOM_FILTER_SLICES,
+                        LocalPersistentBlacklist.BLOOM_FILTER_SLICES + 1,
+                        LocalPersistentBlacklist.EXPECTED_BLOOM_FILTER_FALSE_POSITIVES);
+
+        var random = new SplittableRandom(42);
+        long seed = random.nextLong();
+        for (int i = 0; i < entries; i++) {
+            filter.put(identifier(seed, i), 1_000_000 + (int) ((long) i * MAX_TTL_SECONDS / entries));
+        }
+        for (int i = 0; i < SAMPLE_SIZE; i++) {
+            added[i] = identifier(seed, random.nextInt(entries));
+            unknown[i] = Long.toHexString(random.nextLong());
+        }
+
+        int falsePositives = 0;
+        for (int i = 0; i < FPP_LOOKUPS; i++) {
+            if (filter.mightContain(Long.toHexString(random.nextLong()))) {
+                falsePositives++;
+            }
+        }
+        System.out.printf("%n%s with %d identifiers: false positive rate %.2e (estimated %.2e), %.2f bytes per identifier%n",
+                type, entries, (double) falsePositives / FPP_LOOKUPS, filter.estimatedFpp(),
+                (double) filter.sizeBytes() / entries);
+    }
+
+    private static String identifier(long seed, int i) {
+        return Long.toHexString(seed ^ i * 0x9E3779B97F4A7C15L);
+    }
+
+    /**
+     * Looks up an added identifier.
+     *
+     * @return whether the identifier might have been added
+     */
+    @Benchmark
+    public boolean lookupAdded() {
+        return filter.mightContain(added[next++ & (SAMPLE_SIZE - 1)]);
+    }
+
+    /**
+     * Looks up an identifier that was not added.
+     *
+     * @return whether the identifier might have been added
+     */
+    @Benchmark
+    public boolean lookupUnknown() {
+        return filter.mightContain(unknown[next++ & (SAMPLE_SIZE - 1)]);
+    }
+}
@@ -0,0 +1,170 @@
+package org.owasp.oag.services.blacklist;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.owasp.oag.infrastructure.GlobalClockSource;
+import org.owasp.oag.persistentmap.DurabilityPolicy;
+import org.owasp.oag.persistentmap.FilePersistentMap;
+import org.owasp.oag.persistentmap.FilePersistentMapSettings;
+import org.owasp.oag.persistentmap.PersistentLongIntMap;
+
+import java.io.IOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Compares {@link LocalPersistentBlacklist} on a {@link FilePersistentMap} with
+ * {@link OffHeapSessionBlacklist}: the latency of {@code isInvalidated} for blacklisted and
+ * unknown session ids, and the memory per entry.
+ * <p>
+ * The memory is measured once per trial when the blacklist is opened: the growth of the used heap
+ * and of the direct buffer pool after a full GC, divided by the number of entries. It is printed
+ * to the benchmark output. Run with {@code -prof gc} to see the allocation rate of the lookups.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class SessionBlacklistBenchmark {
+
+    /** The blacklist implementation. */
+    @Param({"LOCAL", "OFF_HEAP"})
+    public String store;
+
+    /** Number of blacklisted sessions. */
+    @Param({"100000", "1000000"})
+    public int entries;
+
+    private static final int SAMPLE_SIZE = 4096;
+
+    private Path directory;
+    private SessionBlacklist blacklist;
+    private final String[] blacklisted = new String[SAMPLE_SIZE];
+    private final String[] unknown = new String[SAMPLE_SIZE];
+    private int next;
+
+    /**
+     * Writes the blacklist file, then opens the blacklist and reports its memory per entry.
+     *
+     * @throws IOException if the file cannot be written
+     */
+    @Setup(Level.Trial)
+    public void open() throws IOException {
+        directory = Files.createTempDirectory("session-blacklist");
+        String filename = directory.resolve("blacklist.db").toString();
+        var clockSource = new GlobalClockSource();
+        int expiry = clockSource.getEpochSeconds() + 3600;
+
+        var random = new SplittableRandom(42);
+        long[] ids = new long[entries];
+        for (int i = 0; i < entries; i++) {
+            ids[i] = random.nextLong();
+        }
+        for (int i = 0; i < SAMPLE_SIZE; i++) {
+            blacklisted[i] = Long.toHexString(ids[random.nextInt(entries)]);
+            unknown[i] = Long.toHexString(random.nextLong());
+        }
+        writeFile(filename, ids, expiry);
+        ids = null;
+
+        long heapBefore = usedHeap();
+        long directBefore = usedDirect();
+        blacklist = "LOCAL".equals(store)
+                ? new LocalPersistentBlacklist(clockSource, new FilePersistentMap<>(filename, Integer.class))
+                : OffHeapSessionBlacklist.open(clockSource, filename);
+        long heap = usedHeap() - heapBefore;
+        long direct = usedDirect() - directBefore;
+        System.out.printf("%n%s with %d entries: %.1f heap bytes and %.1f off-heap bytes per entry%n",
+                store, entries, (double) heap / entries, (double) direct / entries);
+    }
+
+    private void writeFile(String filename, long[] ids, int expiry) {
+        if ("LOCAL".equals(store)) {
+            var settings = new FilePersistentMapSettings();
+            settings.setDurability(DurabilityPolicy.FLUSH_PER_BATCH);
+            try (var map = new FilePersistentMap<>(filename, Integer.class, settings)) {
+                CompletableFuture<Void> last = CompletableFuture.completedFuture(null);
+                for (long id : ids) {
+                    last = map.putAsync(Long.toHexString(id), expiry);
+                }
+                last.join();
+            }
+        } else {
+            try (var map = new PersistentLongIntMap(filename + ".ids", ids.length)) {
+                for (long id : ids) {
+                    map.put(id, expiry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Looks up a blacklisted session id.
+     *
+     * @return whether the session is invalidated
+     */
+    @Benchmark
+    public Boolean lookupBlacklisted() {
+        return blacklist.isInvalidated(blacklisted[next++ & (SAMPLE_SIZE - 1)]).block();
+    }
+
+    /**
+     * Looks up a session id that is not on the blacklist.
+     *
+     * @return whether the session is invalidated
+     */
+    @Benchmark
+    public Boolean lookupUnknown() {
+        return blacklist.isInvalidated(unknown[next++ & (SAMPLE_SIZE - 1)]).block();
+    }
+
+    /**
+     * Closes the blacklist and deletes its files.
+     *
+     * @throws IOException if a file cannot be deleted
+     */
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        blacklist.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        var heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        return heap.getUsed();
+    }
+
+    private static long usedDirect() {
+        return ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class).stream()
+                .filter(pool -> "direct".equals(pool.getName()))
+                .mapToLong(BufferPoolMXBean::getMemoryUsed)
+                .sum();
+    }
+}
@@ -0,0 +1,98 @@
+package org.owasp.oag.services.blacklist;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.owasp.oag.infrastructure.GlobalClockSource;
+import org.owasp.oag.persistentmap.InMemoryPersistentMap;
+import org.owasp.oag.persistentmap.PersistentMap;
+
+import java.io.IOException;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency distribution of {@link LocalPersistentBlacklist#isInvalidated} when the bloom filter
+ * cannot answer, with eight threads looking up concurrently like the request threads of an
+ * authenticated gateway. {@code INLINE} reads the map on the calling thread, which is what a map
+ * with non-blocking reads gets. {@code HOP} hides that capability so every lookup switches to the
+ * bounded elastic scheduler, the behaviour before.
+ * <p>
+ * The sample time mode reports the percentiles; compare {@code p0.99}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class SessionBlacklistLatencyBenchmark {
+
+    /** How the map lookup is run. */
+    @Param({"INLINE", "HOP"})
+    public String lookup;
+
+    private static final int SAMPLE_SIZE = 4096;
+
+    private LocalPersistentBlacklist blacklist;
+    private final String[] blacklisted = new String[SAMPLE_SIZE];
+
+    /**
+     * Opens a blacklist with 100k invalidated sessions.
+     */
+    @Setup(Level.Trial)
+    public void open() {
+        PersistentMap<Integer> map = "INLINE".equals(lookup)
+                ? new InMemoryPersistentMap<>()
+                : new InMemoryPersistentMap<>() {
+                    @Override
+                    public boolean hasNonBlockingReads() {
+                        return false;
+                    }
+                };
+        var clockSource = new GlobalClockSource();
+        int expiry = clockSource.getEpochSeconds() + 3600;
+        var random = new SplittableRandom(42);
+        for (int i = 0; i < 100_000; i++) {
+            String id = Long.toHexString(random.nextLong());
+            map.put(id, expiry);
+            if (i < SAMPLE_SIZE) {
+                blacklisted[i] = id;
+            }
+        }
+        blacklist = new LocalPersistentBlacklist(clockSource, map);
+    }
+
+    /**
+     * Looks up an invalidated session.
+     *
+     * @return whether the session is invalidated
+     */
+    @Benchmark
+    public Boolean lookupBlacklisted() {
+        return blacklist.isInvalidated(blacklisted[ThreadLocalRandom.current().nextInt(SAMPLE_SIZE)]).block();
+    }
+
+    /**
+     * Closes the blacklist.
+     *
+     * @throws IOException never for the in-memory map
+     */
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        blacklist.close();
+    }
+}
@@ -0,0 +1,83 @@
+package org.owasp.oag.services.crypto;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.owasp.oag.cookies.LoginCookie;
+import org.owasp.oag.exception.CookieDecryptionException;
+import org.owasp.oag.session.UserModel;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the {@link CookieEncryptor} implementations on a login cookie: {@code NIMBUS} is the
+ * generic {@link JweEncrypter}, {@code DIRECT} the {@link DirectJweCookieEncryptor}.
+ * {@code decrypt} runs on every request carrying a session cookie, {@code encrypt} on every login
+ * and session renewal. Run with {@code -PjmhIncludes=CookieEncryptor -PjmhProfilers=gc} to see the
+ * allocations per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CookieEncryptorBenchmark {
+
+    /** The encryptor implementation. */
+    @Param({"NIMBUS", "DIRECT"})
+    public String implementation;
+
+    private CookieEncryptor encryptor;
+    private LoginCookie cookie;
+    private String jwe;
+
+    /**
+     * Creates the encryptor and a login cookie with a few user mappings, as a login would.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        byte[] key = new byte[32];
+        new SplittableRandom(42).nextBytes(key);
+        encryptor = implementation.equals("DIRECT") ? new DirectJweCookieEncryptor(key) : new JweEncrypter(key);
+
+        var user = new UserModel("a8c4e1f0-5b2d-4d7e-9c3a-6f1e2d4b8a90");
+        user.getMappings().put("email", "alice@example.com");
+        user.getMappings().put("email_verified", "true");
+        user.getMappings().put("phone", "+41 00 000 00 00");
+        cookie = new LoginCookie(1_700_000_000, "iam", user, "Q2hhbmdlIHRoZSBzZXNzaW9uIGlkZW50aWZpZXI");
+        cookie.setCsrfToken("c3JmLXRva2VuLW9mLXRoZS1zZXNzaW9u");
+        jwe = encryptor.encryptObject(cookie);
+    }
+
+    /**
+     * Serializes and encrypts the login cookie.
+     *
+     * @return the JWE
+     */
+    @Benchmark
+    public String encrypt() {
+        return encryptor.encryptObject(cookie);
+    }
+
+    /**
+     * Decrypts and deserializes the login cookie.
+     *
+     * @return the login cookie
+     * @throws CookieDecryptionException never, the JWE is valid
+     */
+    @Benchmark
+    public LoginCookie decrypt() throws CookieDecryptionException {
+        return encryptor.decryptObject(jwe, LoginCookie.class);
+    }
+}
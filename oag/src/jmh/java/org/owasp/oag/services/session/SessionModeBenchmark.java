@@ -0,0 +1,155 @@
+package org.owasp.oag.services.session;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.owasp.oag.cookies.LoginCookie;
+import org.owasp.oag.cookies.LoginCookieCodec;
+import org.owasp.oag.exception.CookieDecryptionException;
+import org.owasp.oag.infrastructure.GlobalClockSource;
+import org.owasp.oag.persistentmap.FilePersistentMap;
+import org.owasp.oag.persistentmap.FilePersistentMapSettings;
+import org.owasp.oag.services.crypto.DirectJweCookieEncryptor;
+import org.owasp.oag.session.UserModel;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the session modes on the request path of the authentication filter with the login cookie cache missed:
+ * {@code COOKIE} decrypts the whole session from the cookie, {@code SERVER} decrypts the reference and looks the
+ * session up in a {@link SessionStore} of {@code sessions} sessions, whose near-cache holds {@code nearCacheShare}
+ * of them. A near-cache miss decrypts the session from the map. The setup prints the size of the {@code Cookie}
+ * request header of each mode. Sample mode reports the percentiles, run with {@code -PjmhIncludes=SessionMode} and
+ * compare the p0.99 rows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SessionModeBenchmark {
+
+    /** Where the session is kept. */
+    @Param({"COOKIE", "SERVER"})
+    public String mode;
+
+    /** The number of sessions in the store. */
+    @Param({"20000"})
+    public int sessions;
+
+    /** The share of the sessions held by the near-cache, the other lookups read the map. */
+    @Param({"1.0", "0.1"})
+    public double nearCacheShare;
+
+    private Path directory;
+    private LoginCookieCodec codec;
+    private SessionStore store;
+    private String[] values;
+    private int next;
+
+    /**
+     * Creates the codec, the store with its sessions, and the cookie values of the sessions.
+     *
+     * @throws IOException if the store cannot be created
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        var random = new SplittableRandom(42);
+        byte[] key = new byte[32];
+        random.nextBytes(key);
+        codec = new LoginCookieCodec(new DirectJweCookieEncryptor(key), true, true);
+
+        var clockSource = new GlobalClockSource();
+        directory = Files.createTempDirectory("oag-session-mode");
+        var map = new FilePersistentMap<>(directory.resolve("sessions.db").toString(), SessionStore.StoredSession.class,
+                new FilePersistentMapSettings());
+        store = new SessionStore(map, codec, clockSource, Math.max(1, (long) (sessions * nearCacheShare)));
+
+        // Every request carries the cookie of another session, so a small near-cache misses
+        values = new String[sessions];
+        var entries = new HashMap<String, SessionStore.StoredSession>();
+        int exp = clockSource.getEpochSeconds() + 3600;
+        for (int i = 0; i < sessions; i++) {
+            var cookie = loginCookie(random, exp, Long.toHexString(random.nextLong()));
+            entries.put(cookie.getId(), new SessionStore.StoredSession(exp, codec.encryptStored(cookie)));
+            values[i] = mode.equals("SERVER") ? codec.encryptReference(cookie) : codec.encrypt(cookie);
+        }
+        map.putAllAsync(entries).join();
+        System.out.println(mode + " Cookie header: " + ("Cookie: " + LoginCookie.NAME + "=" + values[0]).length() + " bytes");
+    }
+
+    /**
+     * Removes the store.
+     *
+     * @throws IOException if the files cannot be deleted
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        store.close();
+        try (var files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    private static LoginCookie loginCookie(SplittableRandom random, int exp, String id) {
+        var user = new UserModel(Long.toHexString(random.nextLong()));
+        user.getMappings().put("original-id-token", jwt(random, "{\"iss\":\"https://iam.example.com/realms/oag\","
+                + "\"sub\":\"" + user.getId() + "\",\"aud\":\"oag\",\"exp\":" + exp + ",\"iat\":" + (exp - 3600)
+                + ",\"email\":\"alice@example.com\",\"email_verified\":true,\"name\":\"Alice Example\"}"));
+        user.getMappings().put("original-access-token", jwt(random, "{\"iss\":\"https://iam.example.com/realms/oag\","
+                + "\"sub\":\"" + user.getId() + "\",\"aud\":[\"oag\",\"account\"],\"exp\":" + exp
+                + ",\"scope\":\"openid email profile\",\"realm_access\":{\"roles\":[\"offline_access\",\"user\"]}}"));
+        user.getMappings().put("email", "alice@example.com");
+        user.getMappings().put("name", "Alice Example");
+        var cookie = new LoginCookie(exp, "keycloak", user, id);
+        cookie.setCsrfToken(Long.toHexString(random.nextLong()));
+        return cookie;
+    }
+
+    private static String jwt(SplittableRandom random, String claims) {
+        var encoder = Base64.getUrlEncoder().withoutPadding();
+        byte[] signature = new byte[256];
+        random.nextBytes(signature);
+        return encoder.encodeToString("{\"alg\":\"RS256\",\"typ\":\"JWT\",\"kid\":\"k1\"}".getBytes(StandardCharsets.UTF_8))
+                + "." + encoder.encodeToString(claims.getBytes(StandardCharsets.UTF_8))
+                + "." + encoder.encodeToString(signature);
+    }
+
+    /**
+     * Resolves the login cookie of a request as the authentication filter does.
+     *
+     * @return the login cookie
+     * @throws CookieDecryptionException never, the cookies are valid
+     */
+    @Benchmark
+    public LoginCookie resolve() throws CookieDecryptionException {
+        String value = values[next];
+        next = next + 1 == values.length ? 0 : next + 1;
+        LoginCookie cookie = codec.decrypt(value);
+        if (LoginCookieCodec.isReference(cookie)) {
+            return store.find(cookie.getId()).block();
+        }
+        return cookie;
+    }
+}
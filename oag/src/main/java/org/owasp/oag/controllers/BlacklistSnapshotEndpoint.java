@@ -0,0 +1,141 @@
+package org.owasp.oag.controllers;
+
+import org.owasp.oag.services.blacklist.BlacklistSnapshot;
+import org.owasp.oag.services.blacklist.SessionBlacklist;
+import org.owasp.oag.services.blacklist.SnapshotCapableBlacklist;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.web.WebEndpointResponse;
+import org.springframework.boot.actuate.endpoint.web.annotation.WebEndpoint;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Actuator endpoint streaming a snapshot of the session blacklist, so a new instance can import it on startup instead
+ * of starting with an empty blacklist. Like the other actuator endpoints it is only served on the management port,
+ * which binds to localhost unless configured otherwise, and only once {@value #ID} is added to
+ * {@code management.endpoints.web.exposure.include}. Responds with 404 if the blacklist is not kept locally.
+ */
+@Component
+@WebEndpoint(id = BlacklistSnapshotEndpoint.ID)
+public class BlacklistSnapshotEndpoint {
+
+    /** The id of the endpoint, served at {@code /actuator/blacklistsnapshot}. */
+    public static final String ID = "blacklistsnapshot";
+
+    private static final Logger log = LoggerFactory.getLogger(BlacklistSnapshotEndpoint.class);
+
+    private final SessionBlacklist sessionBlacklist;
+
+    /**
+     * Creates a new BlacklistSnapshotEndpoint
+     * @param sessionBlacklist The session blacklist to export
+     */
+    @Autowired
+    BlacklistSnapshotEndpoint(SessionBlacklist sessionBlacklist) {
+        this.sessionBlacklist = sessionBlacklist;
+    }
+
+    /**
+     * Writes a snapshot of all live entries of the session blacklist to a temporary file and streams it, see
+     * {@link BlacklistSnapshot} for the format. The file is deleted once it has been sent.
+     *
+     * @return the snapshot, or 404 if the blacklist cannot export one
+     * @throws IOException if the snapshot cannot be written
+     */
+    @ReadOperation(produces = BlacklistSnapshot.MEDIA_TYPE)
+    public WebEndpointResponse<Resource> snapshot() throws IOException {
+
+        if (!(sessionBlacklist instanceof SnapshotCapableBlacklist snapshots)) {
+            return new WebEndpointResponse<>(WebEndpointResponse.STATUS_NOT_FOUND);
+        }
+
+        Path file = Files.createTempFile("oag-blacklist-snapshot", ".bin");
+        try (var out = new BufferedOutputStream(Files.newOutputStream(file))) {
+            long exported = snapshots.exportSnapshot(out);
+            log.info("Exported {} session blacklist entries", exported);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+        return new WebEndpointResponse<>(new TemporaryFileResource(file.toFile()));
+    }
+
+    /**
+     * A file that is deleted once it has been read. It does not report itself as a file, so it is not sent with a
+     * zero-copy transfer that would bypass the deletion.
+     */
+    private static final class TemporaryFileResource extends FileSystemResource {
+
+        TemporaryFileResource(File file) {
+            super(file);
+        }
+
+        @Override
+        public ReadableByteChannel readableChannel() throws IOException {
+
+            ReadableByteChannel channel = super.readableChannel();
+            return new ReadableByteChannel() {
+                @Override
+                public int read(ByteBuffer dst) throws IOException {
+                    return channel.read(dst);
+                }
+
+                @Override
+                public boolean isOpen() {
+                    return channel.isOpen();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    try {
+                        channel.close();
+                    } finally {
+                        deleteFile();
+                    }
+                }
+            };
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+
+            return new FilterInputStream(super.getInputStream()) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        deleteFile();
+                    }
+                }
+            };
+        }
+
+        @Override
+        public boolean isFile() {
+            return false;
+        }
+
+        private void deleteFile() {
+            try {
+                Files.deleteIfExists(getFile().toPath());
+            } catch (IOException e) {
+                log.warn("Could not delete the temporary snapshot file {}", getFile(), e);
+            }
+        }
+    }
+}
@@ -146,22 +146,24 @@ public class LoginController {
      * Retrieves session information for the current user.
      *
      * @param exchange The ServerWebExchange for the current request.
-     * @return A SessionInformation object containing the session state.
+     * @return A Mono containing a SessionInformation object with the session state.
      */
     @GetMapping("session")
-    public SessionInformation sessionInfo(ServerWebExchange exchange) {
-        SessionInformation sessionInformation;
-        Optional<Session> sessionOptional = exchange.getAttribute(ExtractAuthenticationFilter.OAG_SESSION);
+    public Mono<SessionInformation> sessionInfo(ServerWebExchange exchange) {
 
-        if (sessionOptional != null && sessionOptional.isPresent()) {
-            sessionInformation = new SessionInformation(SessionInformation.SESSION_STATE_AUTHENTICATED);
-            sessionInformation.setExpiresIn(sessionOptional.get().getRemainingTimeSeconds());
+        return ExtractAuthenticationFilter.resolveSession(exchange).map(sessionOptional -> {
+            SessionInformation sessionInformation;
 
-        } else {
-            sessionInformation = new SessionInformation(SessionInformation.SESSION_STATE_ANONYMOUS);
-        }
+            if (sessionOptional.isPresent()) {
+                sessionInformation = new SessionInformation(SessionInformation.SESSION_STATE_AUTHENTICATED);
+                sessionInformation.setExpiresIn(sessionOptional.get().getRemainingTimeSeconds());
+
+            } else {
+                sessionInformation = new SessionInformation(SessionInformation.SESSION_STATE_ANONYMOUS);
+            }
 
-        return sessionInformation;
+            return sessionInformation;
+        });
     }
 
     /**
@@ -322,12 +324,21 @@ public class LoginController {
      * Handles the logout process, destroying the user session and redirecting to the logout URL.
      *
      * @param exchange The ServerWebExchange for the current request.
-     * @throws ResponseStatusException if CSRF validation fails.
+     * @return A Mono that completes when the logout response is prepared, it fails with a ResponseStatusException if
+     *         CSRF validation fails.
      */
     @GetMapping("logout")
-    public void logout(
+    public Mono<Void> logout(
             ServerWebExchange exchange) {
 
+        // The csrf validation and the session hooks read the resolved session
+        return ExtractAuthenticationFilter.resolveSession(exchange)
+                .doOnNext(sessionOptional -> destroySessionAndRedirect(exchange, sessionOptional))
+                .then();
+    }
+
+    private void destroySessionAndRedirect(ServerWebExchange exchange, Optional<Session> sessionOptional) {
+
         var request = exchange.getRequest();
         var response = exchange.getResponse();
 
@@ -344,8 +355,7 @@ public class LoginController {
             String returnUrl = loadLogoutReturnUrl(request);
 
             // To load the federated logout url we need the instance of the login provider
-            Optional<Session> sessionOptional = exchange.getAttribute(ExtractAuthenticationFilter.OAG_SESSION);
-            if (sessionOptional != null && sessionOptional.isPresent()) {
+            if (sessionOptional.isPresent()) {
                 var session = sessionOptional.get();
                 var provider = session.getProvider();
                 var userModel = session.getUserModel();
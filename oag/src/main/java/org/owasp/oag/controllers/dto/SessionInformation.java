@@ -16,6 +16,11 @@ public class SessionInformation {
      */
     public static final String SESSION_STATE_ANONYMOUS = "anonymous";
 
+    /**
+     * Constant representing a request with a login cookie whose session has not been resolved
+     */
+    public static final String SESSION_STATE_UNKNOWN = "unknown";
+
     private String state;
     private int expiresIn;
 
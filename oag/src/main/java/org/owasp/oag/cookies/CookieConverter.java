@@ -21,16 +21,21 @@ public class CookieConverter {
 
     private final CookieEncryptor encryptor;
 
+    private final LoginCookieCodec loginCookieCodec;
+
     /**
      * Constructor for CookieConverter.
      *
-     * @param config    The main configuration.
-     * @param encryptor The cookie encryptor.
+     * @param config           The main configuration.
+     * @param encryptor        The cookie encryptor.
+     * @param loginCookieCodec The codec of the login cookie.
      */
     @Autowired
-    public CookieConverter(@Lazy MainConfig config, @Lazy CookieEncryptor encryptor) {
+    public CookieConverter(@Lazy MainConfig config, @Lazy CookieEncryptor encryptor,
+                           @Lazy LoginCookieCodec loginCookieCodec) {
         this.config = config;
         this.encryptor = encryptor;
+        this.loginCookieCodec = loginCookieCodec;
     }
 
     /**
@@ -100,7 +105,22 @@ public class CookieConverter {
      */
     public ResponseCookie convertLoginCookie(LoginCookie loginCookie, int sessionDurationSeconds) {
 
-        var value = encryptor.encryptObject(loginCookie);
+        return loginResponseCookie(loginCookieCodec.encrypt(loginCookie), sessionDurationSeconds);
+    }
+
+    /**
+     * Converts a LoginCookie kept in the session store to a ResponseCookie carrying only a reference to it.
+     *
+     * @param loginCookie           The LoginCookie to reference.
+     * @param sessionDurationSeconds The session duration in seconds.
+     * @return The converted ResponseCookie.
+     */
+    public ResponseCookie convertSessionReference(LoginCookie loginCookie, int sessionDurationSeconds) {
+
+        return loginResponseCookie(loginCookieCodec.encryptReference(loginCookie), sessionDurationSeconds);
+    }
+
+    private ResponseCookie loginResponseCookie(String value, int sessionDurationSeconds) {
 
         var sameSiteValue = config.isHttpsHost() ? "None" : null;
 
@@ -122,6 +142,6 @@ public class CookieConverter {
      */
     public LoginCookie convertLoginCookie(HttpCookie cookie) throws CookieDecryptionException {
 
-        return encryptor.decryptObject(cookie.getValue(), LoginCookie.class);
+        return loginCookieCodec.decrypt(cookie.getValue());
     }
 }
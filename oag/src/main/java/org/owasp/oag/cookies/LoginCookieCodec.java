@@ -0,0 +1,469 @@
+package org.owasp.oag.cookies;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.owasp.oag.exception.CookieDecryptionException;
+import org.owasp.oag.services.crypto.CookieEncryptor;
+import org.owasp.oag.session.UserModel;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Encrypts and decrypts login cookies, as JSON or in a compact binary format.
+ * <p>
+ * The mappings of an OIDC login carry the original ID and access tokens, which makes the JSON of
+ * a login cookie several kilobytes large, uploaded with every request. The compact format writes
+ * the fields without names, the common mapping names as one byte, and tokens in compact JWS/JWE
+ * form as their decoded bytes instead of Base64URL, which alone saves a quarter of their size.
+ * Optionally the result is compressed with DEFLATE, which pays off for larger mappings.
+ * <p>
+ * The plaintext starts with a format byte. JSON always starts with <code>{</code>, so cookies
+ * written as JSON, including all cookies written before the compact format existed, are still
+ * read whatever format is configured:
+ * <pre>
+ * 0x01 body            compact
+ * 0x02 deflate(body)   compact, raw DEFLATE
+ * 0x03 reference       reference to a session kept on the server
+ * body = varint sessionExpSeconds, string id, string providerKey, string csrfToken,
+ *        string userId, varint (mapping count + 1, 0 if null), mappings
+ * mapping = varint name (index + 1 into {@link #NAMES}, or 0 followed by string), value
+ * value = 0x00 null | 0x01 string | 0x02 varint segment count, segments as varint length and bytes
+ * string = varint (UTF-8 length + 1, 0 if null), UTF-8 bytes
+ * reference = varint sessionExpSeconds, string id
+ * </pre>
+ * A reference decrypts to a login cookie with only the session id and expiry, see {@link #isReference}.
+ */
+public class LoginCookieCodec {
+
+    /**
+     * Mapping names written as their index. Part of the format: names may be added at the end,
+     * but never removed or reordered.
+     */
+    static final List<String> NAMES = List.of(
+            "original-id-token", "original-access-token", "access-token", "refreshToken",
+            "sub", "email", "email_verified", "name", "given_name", "family_name", "preferred_username",
+            "picture", "profile", "locale", "phone_number", "updated_at", "created_at");
+
+    private static final Map<String, Integer> NAME_INDEX = new HashMap<>();
+
+    static {
+        for (int i = 0; i < NAMES.size(); i++) {
+            NAME_INDEX.put(NAMES.get(i), i);
+        }
+    }
+
+    private static final byte COMPACT = 0x01;
+    private static final byte COMPACT_DEFLATED = 0x02;
+    private static final byte REFERENCE = 0x03;
+    private static final byte VALUE_NULL = 0x00;
+    private static final byte VALUE_STRING = 0x01;
+    private static final byte VALUE_TOKEN = 0x02;
+
+    /** Bodies shorter than this are not compressed, DEFLATE would not make them smaller. */
+    private static final int MIN_DEFLATE_LENGTH = 256;
+
+    /** Upper bound of an inflated body, far above any cookie a browser accepts. */
+    private static final int MAX_BODY_LENGTH = 1 << 20;
+
+    private static final ObjectReader JSON_READER = new ObjectMapper().readerFor(LoginCookie.class);
+
+    private final CookieEncryptor encryptor;
+    private final boolean compact;
+    private final boolean deflate;
+
+    /**
+     * Creates a codec.
+     *
+     * @param encryptor encrypts and decrypts the cookies
+     * @param compact   whether new cookies are written in the compact format instead of JSON
+     * @param deflate   whether the compact format is compressed if that makes it smaller
+     */
+    public LoginCookieCodec(CookieEncryptor encryptor, boolean compact, boolean deflate) {
+        this.encryptor = encryptor;
+        this.compact = compact;
+        this.deflate = deflate;
+    }
+
+    /**
+     * Encrypts a login cookie in the configured format. A {@code null} cookie, the value of a
+     * deleted cookie, is always written as JSON and never decrypts to a login cookie.
+     *
+     * @param cookie the login cookie, or {@code null}
+     * @return the encrypted cookie value
+     */
+    public String encrypt(LoginCookie cookie) {
+        if (!compact || cookie == null) {
+            return encryptor.encryptObject(cookie);
+        }
+        return encryptor.encryptBytes(encode(cookie, deflate));
+    }
+
+    /**
+     * Encrypts a reference to a session kept on the server, see
+     * {@link org.owasp.oag.services.session.SessionStore}.
+     *
+     * @param cookie the login cookie of the session
+     * @return the encrypted cookie value
+     */
+    public String encryptReference(LoginCookie cookie) {
+        return encryptor.encryptBytes(encodeReference(cookie));
+    }
+
+    /**
+     * Encrypts a login cookie kept on the server by the
+     * {@link org.owasp.oag.services.session.SessionStore}. It is always written in the compact
+     * format without DEFLATE, whatever format is configured for cookies, and decrypted with
+     * {@link #decrypt}.
+     *
+     * @param cookie the login cookie of the session
+     * @return the encrypted login cookie
+     */
+    public String encryptStored(LoginCookie cookie) {
+        return encryptor.encryptBytes(encode(cookie, false));
+    }
+
+    /**
+     * Returns whether a decrypted login cookie is only a reference to a session kept on the server.
+     *
+     * @param cookie the decrypted login cookie
+     * @return {@code true} if the cookie carries no user model
+     */
+    public static boolean isReference(LoginCookie cookie) {
+        return cookie.getUserModel() == null;
+    }
+
+    /**
+     * Decrypts a login cookie written in any format.
+     *
+     * @param value the encrypted cookie value
+     * @return the login cookie
+     * @throws CookieDecryptionException if the cookie cannot be decrypted or has an unknown format
+     */
+    public LoginCookie decrypt(String value) throws CookieDecryptionException {
+        return decode(encryptor.decryptBytes(value));
+    }
+
+    /**
+     * Serializes a login cookie in the compact format.
+     *
+     * @param cookie  the login cookie
+     * @param deflate whether to compress the body if that makes it smaller
+     * @return the plaintext
+     */
+    static byte[] encode(LoginCookie cookie, boolean deflate) {
+        var body = new Writer();
+        body.write(COMPACT);
+        body.writeVarint(cookie.getSessionExpSeconds());
+        body.writeString(cookie.getId());
+        body.writeString(cookie.getProviderKey());
+        body.writeString(cookie.getCsrfToken());
+        UserModel user = cookie.getUserModel();
+        body.writeString(user == null ? null : user.getId());
+        Map<String, String> mappings = user == null ? null : user.getMappings();
+        if (mappings == null) {
+            body.writeVarint(0);
+        } else {
+            body.writeVarint(mappings.size() + 1L);
+            for (Map.Entry<String, String> mapping : mappings.entrySet()) {
+                Integer index = NAME_INDEX.get(mapping.getKey());
+                if (index != null) {
+                    body.writeVarint(index + 1);
+                } else {
+                    body.writeVarint(0);
+                    body.writeString(mapping.getKey());
+                }
+                body.writeValue(mapping.getValue());
+            }
+        }
+        byte[] plaintext = body.toByteArray();
+        if (!deflate || plaintext.length < MIN_DEFLATE_LENGTH) {
+            return plaintext;
+        }
+
+        var deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        try {
+            deflater.setInput(plaintext, 1, plaintext.length - 1);
+            deflater.finish();
+            byte[] deflated = new byte[plaintext.length];
+            deflated[0] = COMPACT_DEFLATED;
+            int length = 1 + deflater.deflate(deflated, 1, deflated.length - 1);
+            // Not finished means the compressed body would not be smaller
+            return deflater.finished() ? Arrays.copyOf(deflated, length) : plaintext;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Serializes a reference to the session of a login cookie.
+     *
+     * @param cookie the login cookie
+     * @return the plaintext
+     */
+    static byte[] encodeReference(LoginCookie cookie) {
+        var reference = new Writer();
+        reference.write(REFERENCE);
+        reference.writeVarint(cookie.getSessionExpSeconds());
+        reference.writeString(cookie.getId());
+        return reference.toByteArray();
+    }
+
+    /**
+     * Deserializes a login cookie from any format.
+     *
+     * @param plaintext the plaintext
+     * @return the login cookie
+     * @throws CookieDecryptionException if the plaintext is malformed or has an unknown format
+     */
+    static LoginCookie decode(byte[] plaintext) throws CookieDecryptionException {
+        if (plaintext.length == 0) {
+            throw new CookieDecryptionException("Login cookie is empty");
+        }
+        byte format = plaintext[0];
+        if (format == '{') {
+            try {
+                return JSON_READER.readValue(plaintext);
+            } catch (IOException e) {
+                throw new CookieDecryptionException("JWE could not be deserialized", e);
+            }
+        }
+        if (format == REFERENCE) {
+            try {
+                var reference = new Reader(plaintext);
+                var cookie = new LoginCookie();
+                cookie.setSessionExpSeconds(Math.toIntExact(reference.readVarint()));
+                cookie.setId(Objects.requireNonNull(reference.readString()));
+                if (reference.remaining() != 0) {
+                    throw new IllegalArgumentException("trailing bytes");
+                }
+                return cookie;
+            } catch (RuntimeException e) {
+                throw new CookieDecryptionException("Login cookie is malformed", e);
+            }
+        }
+        if (format != COMPACT && format != COMPACT_DEFLATED) {
+            throw new CookieDecryptionException("Login cookie has an unknown format: " + format);
+        }
+
+        try {
+            var body = new Reader(format == COMPACT ? plaintext : inflate(plaintext));
+            var cookie = new LoginCookie();
+            cookie.setSessionExpSeconds(Math.toIntExact(body.readVarint()));
+            cookie.setId(body.readString());
+            cookie.setProviderKey(body.readString());
+            cookie.setCsrfToken(body.readString());
+            var user = new UserModel(body.readString());
+            long mappingCount = body.readVarint() - 1;
+            if (mappingCount < 0) {
+                user.setMappings(null);
+            }
+            for (long i = 0; i < mappingCount; i++) {
+                int name = Math.toIntExact(body.readVarint());
+                String key = name == 0 ? body.readString() : NAMES.get(name - 1);
+                user.getMappings().put(key, body.readValue());
+            }
+            if (body.remaining() != 0) {
+                throw new IllegalArgumentException("trailing bytes");
+            }
+            cookie.setUserModel(user);
+            return cookie;
+        } catch (RuntimeException e) {
+            throw new CookieDecryptionException("Login cookie is malformed", e);
+        }
+    }
+
+    private static byte[] inflate(byte[] plaintext) throws CookieDecryptionException {
+        var inflater = new Inflater(true);
+        try {
+            inflater.setInput(plaintext, 1, plaintext.length - 1);
+            var body = new ByteArrayOutputStream(plaintext.length * 4);
+            body.write(COMPACT);
+            byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new CookieDecryptionException("Login cookie is truncated");
+                }
+                body.write(buffer, 0, length);
+                if (body.size() > MAX_BODY_LENGTH) {
+                    throw new CookieDecryptionException("Login cookie is too large");
+                }
+            }
+            return body.toByteArray();
+        } catch (DataFormatException e) {
+            throw new CookieDecryptionException("Login cookie is malformed", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Returns whether a value is a compact JWS or JWE: Base64URL segments separated by dots, each
+     * in canonical form so it is restored exactly from its bytes.
+     */
+    private static boolean isToken(String value) {
+        int segments = 1;
+        int segmentLength = 0;
+        for (int i = 0; i <= value.length(); i++) {
+            char c = i == value.length() ? '.' : value.charAt(i);
+            if (c == '.') {
+                if (!isCanonical(value, i, segmentLength)) {
+                    return false;
+                }
+                segments += i == value.length() ? 0 : 1;
+                segmentLength = 0;
+            } else if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '-' || c == '_') {
+                segmentLength++;
+            } else {
+                return false;
+            }
+        }
+        return segments >= 3;
+    }
+
+    /**
+     * Returns whether the unused bits of the last character of a segment ending at {@code end} are zero.
+     */
+    private static boolean isCanonical(String value, int end, int segmentLength) {
+        int rest = segmentLength % 4;
+        if (rest == 0) {
+            return true;
+        }
+        if (rest == 1) {
+            return false;
+        }
+        char c = value.charAt(end - 1);
+        int bits = c == '_' ? 63 : c >= 'a' ? c - 'a' + 26 : c >= 'A' ? c - 'A' : c >= '0' ? c - '0' + 52 : 62;
+        return (bits & (rest == 2 ? 0x0f : 0x03)) == 0;
+    }
+
+    private static final class Writer extends ByteArrayOutputStream {
+
+        Writer() {
+            super(1024);
+        }
+
+        void writeVarint(long value) {
+            while ((value & ~0x7fL) != 0) {
+                write((int) (value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void writeBytes(byte[] bytes, boolean nullable) {
+            writeVarint(nullable ? bytes.length + 1L : bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+
+        void writeString(String value) {
+            if (value == null) {
+                writeVarint(0);
+            } else {
+                writeBytes(value.getBytes(StandardCharsets.UTF_8), true);
+            }
+        }
+
+        void writeValue(String value) {
+            if (value == null) {
+                write(VALUE_NULL);
+            } else if (isToken(value)) {
+                write(VALUE_TOKEN);
+                String[] segments = value.split("\\.", -1);
+                writeVarint(segments.length);
+                for (String segment : segments) {
+                    writeBytes(Base64.getUrlDecoder().decode(segment), false);
+                }
+            } else {
+                write(VALUE_STRING);
+                writeBytes(value.getBytes(StandardCharsets.UTF_8), false);
+            }
+        }
+    }
+
+    private static final class Reader {
+
+        private static final Base64.Encoder BASE64URL = Base64.getUrlEncoder().withoutPadding();
+
+        private final byte[] bytes;
+        private int position = 1;
+
+        Reader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        int remaining() {
+            return bytes.length - position;
+        }
+
+        long readVarint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = bytes[position++];
+                value |= (long) (b & 0x7f) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("varint too long");
+        }
+
+        private int readLength(long length) {
+            if (length < 0 || length > remaining()) {
+                throw new IllegalArgumentException("length out of bounds");
+            }
+            return (int) length;
+        }
+
+        String readString() {
+            long length = readVarint() - 1;
+            if (length < 0) {
+                return null;
+            }
+            int n = readLength(length);
+            String value = new String(bytes, position, n, StandardCharsets.UTF_8);
+            position += n;
+            return value;
+        }
+
+        String readValue() {
+            byte type = bytes[position++];
+            switch (type) {
+                case VALUE_NULL:
+                    return null;
+                case VALUE_STRING: {
+                    int n = readLength(readVarint());
+                    String value = new String(bytes, position, n, StandardCharsets.UTF_8);
+                    position += n;
+                    return value;
+                }
+                case VALUE_TOKEN: {
+                    long segments = readVarint();
+                    var token = new StringBuilder();
+                    for (long i = 0; i < segments; i++) {
+                        int n = readLength(readVarint());
+                        if (i > 0) {
+                            token.append('.');
+                        }
+                        token.append(BASE64URL.encodeToString(Arrays.copyOfRange(bytes, position, position + n)));
+                        position += n;
+                    }
+                    return token.toString();
+                }
+                default:
+                    throw new IllegalArgumentException("unknown value type " + type);
+            }
+        }
+    }
+}
@@ -10,33 +10,55 @@ import java.util.Optional;
  * Contains context information about the current gateway route processing.
  * This class aggregates all information needed during request routing and filtering,
  * including route configuration, security profiles, and session information.
+ * The gateway creates it once per request and shares it between its filters.
  */
 public class GatewayRouteContext {
 
-    private final String routeName;
-    private final GatewayRoute route;
-    private final SecurityProfile securityProfile;
     private final String requestUri;
     private final String upstreamUri;
     private final Optional<Session> sessionOptional;
+    private final boolean sessionResolved;
+    private final RouteRuntime runtime;
 
     /**
-     * Creates a new gateway route context with all required information.
+     * Creates a new gateway route context for a route resolved at startup.
      *
-     * @param routeName The name of the route being processed
-     * @param route The gateway route configuration
-     * @param securityProfile The security profile applied to the route
+     * @param runtime The runtime of the route being processed
      * @param requestUri The original request URI
      * @param upstreamUri The URI to which the request will be forwarded
      * @param sessionOptional The optional user session information
      */
-    public GatewayRouteContext(String routeName, GatewayRoute route, SecurityProfile securityProfile, String requestUri, String upstreamUri, Optional<Session> sessionOptional) {
-        this.routeName = routeName;
-        this.route = route;
-        this.securityProfile = securityProfile;
+    public GatewayRouteContext(RouteRuntime runtime, String requestUri, String upstreamUri, Optional<Session> sessionOptional) {
         this.requestUri = requestUri;
         this.upstreamUri = upstreamUri;
         this.sessionOptional = sessionOptional;
+        this.sessionResolved = true;
+        this.runtime = runtime;
+    }
+
+    /**
+     * Creates a new gateway route context for a request whose session has not been resolved, because no filter of the
+     * route needs it, see {@link RouteRuntime#needsSession}.
+     *
+     * @param runtime The runtime of the route being processed
+     * @param requestUri The original request URI
+     * @param upstreamUri The URI to which the request will be forwarded
+     */
+    public GatewayRouteContext(RouteRuntime runtime, String requestUri, String upstreamUri) {
+        this.requestUri = requestUri;
+        this.upstreamUri = upstreamUri;
+        this.sessionOptional = Optional.empty();
+        this.sessionResolved = false;
+        this.runtime = runtime;
+    }
+
+    /**
+     * Gets the runtime of the route, which holds the route settings resolved at startup.
+     *
+     * @return The route runtime
+     */
+    public RouteRuntime getRuntime() {
+        return runtime;
     }
 
     /**
@@ -45,7 +67,7 @@ public class GatewayRouteContext {
      * @return The route name
      */
     public String getRouteName() {
-        return routeName;
+        return runtime.getRouteName();
     }
 
     /**
@@ -54,7 +76,7 @@ public class GatewayRouteContext {
      * @return The gateway route configuration
      */
     public GatewayRoute getRoute() {
-        return route;
+        return runtime.getRoute();
     }
 
     /**
@@ -63,7 +85,7 @@ public class GatewayRouteContext {
      * @return The security profile
      */
     public SecurityProfile getSecurityProfile() {
-        return securityProfile;
+        return runtime.getSecurityProfile();
     }
 
     /**
@@ -92,4 +114,14 @@ public class GatewayRouteContext {
     public Optional<Session> getSessionOptional() {
         return sessionOptional;
     }
+
+    /**
+     * Whether the session of the request has been resolved. If not, the session optional is empty even if the request
+     * carries a valid login cookie.
+     *
+     * @return true if the session optional tells whether the request has a session
+     */
+    public boolean isSessionResolved() {
+        return sessionResolved;
+    }
 }
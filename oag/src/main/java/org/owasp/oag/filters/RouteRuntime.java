@@ -0,0 +1,176 @@
+package org.owasp.oag.filters;
+
+import org.owasp.oag.config.configuration.GatewayRoute;
+import org.owasp.oag.config.configuration.SecurityProfile;
+import org.owasp.oag.services.csrf.CsrfProtectionValidation;
+import org.owasp.oag.services.tokenMapping.UserMapper;
+import org.springframework.http.HttpHeaders;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Everything the gateway filters need to know about a route, resolved once at startup from the route, its security
+ * profile and the beans they name. It is immutable and shared by all requests of the route, see
+ * {@link RouteRuntimeRegistry}. The filters of a route are selected based on it when the gateway starts.
+ */
+public class RouteRuntime {
+
+    /** The response header value that removes a header instead of setting it. */
+    public static final String REMOVE_HEADER = "<<remove>>";
+
+    private final String routeName;
+    private final GatewayRoute route;
+    private final SecurityProfile securityProfile;
+    private final Set<String> allowedMethods;
+    private final Set<String> csrfSafeMethods;
+    private final CsrfProtectionValidation csrfValidation;
+    private final UserMapper userMapper;
+    private final List<ResponseHeaderOperation> responseHeaderOperations;
+
+    /**
+     * Creates the runtime of a route.
+     *
+     * @param routeName       The name of the route
+     * @param route           The gateway route configuration
+     * @param securityProfile The security profile of the route
+     * @param csrfValidation  The CSRF protection of the security profile
+     * @param userMapper      The user mapper of the security profile
+     */
+    public RouteRuntime(String routeName, GatewayRoute route, SecurityProfile securityProfile,
+                        CsrfProtectionValidation csrfValidation, UserMapper userMapper) {
+        this.routeName = routeName;
+        this.route = route;
+        this.securityProfile = securityProfile;
+        this.allowedMethods = Set.copyOf(securityProfile.getAllowedMethods());
+        this.csrfSafeMethods = Set.copyOf(securityProfile.getCsrfSafeMethods());
+        this.csrfValidation = csrfValidation;
+        this.userMapper = userMapper;
+        this.responseHeaderOperations = securityProfile.getResponseHeaders().entrySet().stream()
+                .map(entry -> new ResponseHeaderOperation(entry.getKey(),
+                        REMOVE_HEADER.equals(entry.getValue()) ? null : entry.getValue()))
+                .toList();
+    }
+
+    /**
+     * Checks whether the security profile allows a request method.
+     *
+     * @param method The name of the request method
+     * @return true if the method is allowed
+     */
+    public boolean isMethodAllowed(String method) {
+        return allowedMethods.contains(method);
+    }
+
+    /**
+     * Checks whether a request method is safe, i.e. not checked by the CSRF protection.
+     *
+     * @param method The name of the request method
+     * @return true if the method is safe
+     */
+    public boolean isCsrfSafeMethod(String method) {
+        return csrfSafeMethods.contains(method);
+    }
+
+    /**
+     * Determines whether a filter of the route reads the user session of a request. This is the case if the route is
+     * restricted to authenticated users, if its user mapper needs the session, or if the request method is checked by
+     * a CSRF protection that compares the request with the session. No-op mappers and protections are left out of the
+     * filter chain, see {@link UserMapper#isNoop()} and {@link CsrfProtectionValidation#isNoop()}, so they never count.
+     *
+     * @param method The name of the request method
+     * @return true if the session has to be resolved
+     */
+    public boolean needsSession(String method) {
+        return !route.isAllowAnonymous()
+                || (!userMapper.isNoop() && userMapper.needsSession())
+                || (!isCsrfSafeMethod(method) && !csrfValidation.isNoop() && csrfValidation.needsSession());
+    }
+
+    /**
+     * Applies the response headers of the security profile.
+     *
+     * @param responseHeaders The headers of the response
+     */
+    public void applyResponseHeaders(HttpHeaders responseHeaders) {
+        for (var operation : responseHeaderOperations) {
+            if (operation.value() == null) {
+                responseHeaders.remove(operation.name());
+            } else {
+                responseHeaders.set(operation.name(), operation.value());
+            }
+        }
+    }
+
+    /**
+     * Gets the name of the route.
+     *
+     * @return The route name
+     */
+    public String getRouteName() {
+        return routeName;
+    }
+
+    /**
+     * Gets the gateway route configuration.
+     *
+     * @return The gateway route configuration
+     */
+    public GatewayRoute getRoute() {
+        return route;
+    }
+
+    /**
+     * Gets the security profile of the route.
+     *
+     * @return The security profile
+     */
+    public SecurityProfile getSecurityProfile() {
+        return securityProfile;
+    }
+
+    /**
+     * Gets the allowed request methods.
+     *
+     * @return The names of the allowed methods
+     */
+    public Set<String> getAllowedMethods() {
+        return allowedMethods;
+    }
+
+    /**
+     * Gets the CSRF protection of the route.
+     *
+     * @return The CSRF protection validation
+     */
+    public CsrfProtectionValidation getCsrfValidation() {
+        return csrfValidation;
+    }
+
+    /**
+     * Gets the user mapper of the route.
+     *
+     * @return The user mapper
+     */
+    public UserMapper getUserMapper() {
+        return userMapper;
+    }
+
+    /**
+     * Gets the response header operations of the security profile, in their configured order.
+     *
+     * @return The response header operations
+     */
+    public List<ResponseHeaderOperation> getResponseHeaderOperations() {
+        return responseHeaderOperations;
+    }
+
+    /**
+     * Sets or removes a response header.
+     *
+     * @param name  The header name
+     * @param value The header value, null to remove the header
+     */
+    public record ResponseHeaderOperation(String name, String value) {
+    }
+}
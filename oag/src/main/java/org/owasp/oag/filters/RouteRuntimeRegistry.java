@@ -0,0 +1,71 @@
+package org.owasp.oag.filters;
+
+import org.owasp.oag.config.configuration.MainConfig;
+import org.owasp.oag.exception.ConfigurationException;
+import org.owasp.oag.infrastructure.factories.CsrfValidationImplementationFactory;
+import org.owasp.oag.infrastructure.factories.UserMappingFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Holds the {@link RouteRuntime} of every configured route. The runtimes are built when the gateway starts, so the
+ * filters do not look up the route configuration, the security profile and its beans on every request.
+ */
+@Component
+public class RouteRuntimeRegistry {
+
+    private final Map<String, RouteRuntime> runtimes = new HashMap<>();
+
+    /**
+     * Builds the runtimes of all routes.
+     *
+     * @param config                              The main configuration containing the routes
+     * @param userMappingFactory                  The factory of the user mappers of the security profiles
+     * @param csrfValidationImplementationFactory The factory of the CSRF protections
+     */
+    @Autowired
+    public RouteRuntimeRegistry(MainConfig config, UserMappingFactory userMappingFactory,
+                                CsrfValidationImplementationFactory csrfValidationImplementationFactory) {
+
+        for (var entry : config.getRoutes().entrySet()) {
+            var routeName = entry.getKey();
+            var route = entry.getValue();
+            var securityProfile = config.getSecurityProfiles().get(route.getType());
+            if (securityProfile == null)
+                continue; // reported by the configuration validation
+
+            var csrfValidation = csrfValidationImplementationFactory.loadCsrfValidationImplementation(securityProfile.getCsrfProtection());
+            var userMapper = userMappingFactory.getUserMapperForSecurityProfile(route.getType());
+            runtimes.put(routeName, new RouteRuntime(routeName, route, securityProfile, csrfValidation, userMapper));
+        }
+    }
+
+    /**
+     * Gets the runtimes of all routes.
+     *
+     * @return The runtimes
+     */
+    public Collection<RouteRuntime> getAll() {
+        return runtimes.values();
+    }
+
+    /**
+     * Gets the runtime of a route.
+     *
+     * @param routeName The name of the route
+     * @return The runtime of the route
+     * @throws ConfigurationException if there is no route with that name
+     */
+    public RouteRuntime get(String routeName) {
+
+        var runtime = runtimes.get(routeName);
+        if (runtime == null)
+            throw new ConfigurationException("Unknown route: " + routeName, null);
+
+        return runtime;
+    }
+}
@@ -1,6 +1,7 @@
 package org.owasp.oag.filters.proxy;
 
 import org.owasp.oag.filters.GatewayRouteContext;
+import org.owasp.oag.filters.RouteRuntime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.cloud.gateway.filter.GatewayFilterChain;
@@ -22,6 +23,17 @@ public class AccessControlFilter extends RouteAwareFilter {
 
     private static final Logger log = LoggerFactory.getLogger(AccessControlFilter.class);
 
+    /**
+     * Routes that allow anonymous access are never blocked by this filter.
+     *
+     * @param runtime The runtime of the route
+     * @return true if the route is restricted to authenticated users
+     */
+    @Override
+    public boolean isActiveFor(RouteRuntime runtime) {
+        return !runtime.getRoute().isAllowAnonymous();
+    }
+
     /**
      * Filters the incoming request based on access control rules.
      *
@@ -1,12 +1,10 @@
 package org.owasp.oag.filters.proxy;
 
-import org.owasp.oag.config.configuration.MainConfig;
 import org.owasp.oag.filters.GatewayRouteContext;
-import org.owasp.oag.infrastructure.factories.CsrfValidationImplementationFactory;
+import org.owasp.oag.filters.RouteRuntime;
 import org.owasp.oag.services.csrf.CsrfProtectionValidation;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.cloud.gateway.filter.GatewayFilterChain;
 import org.springframework.core.annotation.Order;
 import org.springframework.http.HttpMethod;
@@ -36,33 +34,32 @@ public class CsrfValidationFilter extends RouteAwareFilter {
     private static final Logger log = LoggerFactory.getLogger(CsrfValidationFilter.class);
 
     /**
-     * Main configuration of the application.
-     * Used to access security profiles and CSRF settings.
+     * The filter is left out of routes without CSRF protection and of routes whose CSRF protection needs the request
+     * body, which are validated by CsrfValidationFilterWithBody.
+     *
+     * @param runtime The runtime of the route
+     * @return true if the CSRF protection of the route is validated by this filter
      */
-    @Autowired
-    private MainConfig config;
+    @Override
+    public boolean isActiveFor(RouteRuntime runtime) {
 
-    /**
-     * Factory for creating CSRF validation implementations.
-     * Used to load the appropriate CSRF validation strategy based on the security profile.
-     */
-    @Autowired
-    private CsrfValidationImplementationFactory csrfValidationImplementationFactory;
+        var csrfValidation = runtime.getCsrfValidation();
+        return !csrfValidation.isNoop() && !csrfValidation.needsRequestBody();
+    }
 
     @Override
     public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain, GatewayRouteContext routeContext) {
 
         logTrace(log, exchange, "Execute CsrfValidationFilter");
-        var securityProfile = routeContext.getSecurityProfile();
+        var runtime = routeContext.getRuntime();
 
-        // Load security profile
         HttpMethod reqMethod = exchange.getRequest().getMethod();
-        boolean isSafeMethod = securityProfile.getCsrfSafeMethods().contains(reqMethod.name());
+        boolean isSafeMethod = runtime.isCsrfSafeMethod(reqMethod.name());
 
         if (!isSafeMethod) {
 
-            String csrfProtectionMethod = securityProfile.getCsrfProtection();
-            CsrfProtectionValidation csrfValidation = csrfValidationImplementationFactory.loadCsrfValidationImplementation(csrfProtectionMethod);
+            String csrfProtectionMethod = routeContext.getSecurityProfile().getCsrfProtection();
+            CsrfProtectionValidation csrfValidation = runtime.getCsrfValidation();
 
             if (csrfValidation.needsRequestBody())
                 return chain.filter(exchange); // will be done by CsrfValidationFilterWithBody instead
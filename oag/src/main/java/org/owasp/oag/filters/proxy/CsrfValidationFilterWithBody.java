@@ -1,13 +1,10 @@
 package org.owasp.oag.filters.proxy;
 
 import org.owasp.oag.filters.GatewayRouteContext;
-import org.owasp.oag.filters.spring.ExtractAuthenticationFilter;
-import org.owasp.oag.infrastructure.factories.CsrfValidationImplementationFactory;
+import org.owasp.oag.filters.RouteRuntime;
 import org.owasp.oag.services.csrf.CsrfProtectionValidation;
-import org.owasp.oag.session.Session;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.annotation.Order;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
@@ -15,8 +12,6 @@ import org.springframework.stereotype.Component;
 import org.springframework.web.server.ResponseStatusException;
 import org.springframework.web.server.ServerWebExchange;
 
-import java.util.Optional;
-
 import static org.owasp.oag.utils.LoggingUtils.logInfo;
 import static org.owasp.oag.utils.LoggingUtils.logTrace;
 
@@ -37,9 +32,17 @@ public class CsrfValidationFilterWithBody extends ReadRequestBodyFilter {
     /** Logger for this class. */
     private static final Logger log = LoggerFactory.getLogger(CsrfValidationFilterWithBody.class);
 
-    /** Factory for creating the appropriate CSRF validation implementation based on configuration. */
-    @Autowired
-    private CsrfValidationImplementationFactory csrfValidationImplementationFactory;
+    /**
+     * The filter is only part of routes whose CSRF protection needs the request body.
+     *
+     * @param runtime The runtime of the route
+     * @return true if the CSRF protection of the route needs the request body
+     */
+    @Override
+    public boolean isActiveFor(RouteRuntime runtime) {
+        var csrfValidation = runtime.getCsrfValidation();
+        return !csrfValidation.isNoop() && csrfValidation.needsRequestBody();
+    }
 
     /**
      * Determines whether this filter should run for the current request.
@@ -56,22 +59,17 @@ public class CsrfValidationFilterWithBody extends ReadRequestBodyFilter {
     protected boolean shouldRun(ServerWebExchange exchange, GatewayRouteContext routeContext) {
 
         HttpMethod reqMethod = exchange.getRequest().getMethod();
-        boolean isSafeMethod = routeContext.getSecurityProfile().getCsrfSafeMethods().contains(reqMethod.name());
+        boolean isSafeMethod = routeContext.getRuntime().isCsrfSafeMethod(reqMethod.name());
 
         if (isSafeMethod)
             return false;
 
         // Dont do the validation if there is no user session
-        Optional<Session> sessionOptional = exchange.getAttribute(ExtractAuthenticationFilter.OAG_SESSION);
-        //noinspection ConstantConditions
-        if ( sessionOptional.isEmpty())
+        if (routeContext.getSessionOptional().isEmpty())
             return false;
 
         // Only execute if body is needed for csrf validation, otherwise validation is done by CsrfValidationFilter
-        String csrfProtectionMethod = routeContext.getSecurityProfile().getCsrfProtection();
-        CsrfProtectionValidation csrfValidation = csrfValidationImplementationFactory.loadCsrfValidationImplementation(csrfProtectionMethod);
-
-        return csrfValidation.needsRequestBody();
+        return routeContext.getRuntime().getCsrfValidation().needsRequestBody();
     }
 
     /**
@@ -90,7 +88,7 @@ public class CsrfValidationFilterWithBody extends ReadRequestBodyFilter {
         logTrace(log, exchange, "Execute ExtractAuthenticationFilterWithBody");
 
         String csrfProtectionMethod = routeContext.getSecurityProfile().getCsrfProtection();
-        CsrfProtectionValidation csrfValidation = csrfValidationImplementationFactory.loadCsrfValidationImplementation(csrfProtectionMethod);
+        CsrfProtectionValidation csrfValidation = routeContext.getRuntime().getCsrfValidation();
 
         // In the case that we have a post request but no body
         body = body == null ? "" : body;
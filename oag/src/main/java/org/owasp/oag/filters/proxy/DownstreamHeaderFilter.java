@@ -7,6 +7,7 @@ import org.owasp.oag.cookies.CsrfCookie;
 import org.owasp.oag.cookies.LoginCookie;
 import org.owasp.oag.cookies.LoginStateCookie;
 import org.owasp.oag.filters.GatewayRouteContext;
+import org.owasp.oag.filters.RouteRuntime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -39,7 +40,9 @@ public class DownstreamHeaderFilter extends RouteAwareFilter {
     public static final String X_PROXY = "X-PROXY";
 
     /**
-     * Header name for indicating the authentication status
+     * Header name for indicating the authentication status. Routes that do not need the user session, see
+     * {@link RouteRuntime#needsSession}, do not resolve it, so on them a request with a login cookie is reported as
+     * {@value SessionInformation#SESSION_STATE_UNKNOWN} instead of authenticated or anonymous.
      */
     public static final String X_OAG_STATUS = "X-OAG-Status";
 
@@ -59,7 +62,7 @@ public class DownstreamHeaderFilter extends RouteAwareFilter {
 
         var request = exchange.getRequest().mutate();
 
-        request = addOagHeaders(routeContext, request);
+        request = addOagHeaders(exchange, routeContext, request);
         request = filterRequestCookies(exchange, request);
 
         return chain.filter(exchange.mutate().request(request.build()).build());
@@ -68,16 +71,19 @@ public class DownstreamHeaderFilter extends RouteAwareFilter {
     /**
      * Adds OAG-specific headers to the request
      *
+     * @param exchange The server web exchange containing the original request
      * @param routeContext The gateway route context containing session information
      * @param request The request builder to add headers to
      * @return The updated request builder with added headers
      */
-    protected ServerHttpRequest.@NonNull Builder addOagHeaders(GatewayRouteContext routeContext, ServerHttpRequest.Builder request) {
+    protected ServerHttpRequest.@NonNull Builder addOagHeaders(ServerWebExchange exchange, GatewayRouteContext routeContext, ServerHttpRequest.Builder request) {
 
         // Add OAG status headers
         request = request.header(X_PROXY, X_PROXY_VALUE);
         if (routeContext.getSessionOptional().isPresent()) {
             request = request.header(X_OAG_STATUS, SessionInformation.SESSION_STATE_AUTHENTICATED);
+        } else if (!routeContext.isSessionResolved() && exchange.getRequest().getCookies().containsKey(LoginCookie.NAME)) {
+            request = request.header(X_OAG_STATUS, SessionInformation.SESSION_STATE_UNKNOWN);
         } else {
             request = request.header(X_OAG_STATUS, SessionInformation.SESSION_STATE_ANONYMOUS);
         }
@@ -36,14 +36,14 @@ public class MethodWhitelistFilter extends RouteAwareFilter {
         logTrace(log, exchange, "Execute MethodWhitelistFilter");
 
         var reqMethod = exchange.getRequest().getMethod();
-        var allowedMethods = routeContext.getSecurityProfile().getAllowedMethods();
+        var runtime = routeContext.getRuntime();
 
-        boolean isAllowed = allowedMethods.contains(reqMethod.name());
+        boolean isAllowed = runtime.isMethodAllowed(reqMethod.name());
 
         if (!isAllowed) {
 
             logInfo(log, exchange, "Request to {} was blocked because method {} was not in list of allowed methods {}",
-                    routeContext.getRequestUri(), reqMethod, allowedMethods);
+                    routeContext.getRequestUri(), reqMethod, runtime.getAllowedMethods());
 
             var response = exchange.getResponse();
 
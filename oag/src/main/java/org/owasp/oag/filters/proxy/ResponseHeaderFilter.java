@@ -1,6 +1,7 @@
 package org.owasp.oag.filters.proxy;
 
 import org.owasp.oag.filters.GatewayRouteContext;
+import org.owasp.oag.filters.RouteRuntime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.cloud.gateway.filter.GatewayFilterChain;
@@ -9,9 +10,6 @@ import org.springframework.stereotype.Component;
 import org.springframework.web.server.ServerWebExchange;
 import reactor.core.publisher.Mono;
 
-import java.util.ArrayList;
-import java.util.Collections;
-
 import static org.owasp.oag.utils.LoggingUtils.logTrace;
 
 /**
@@ -24,6 +22,17 @@ public class ResponseHeaderFilter extends RouteAwareFilter {
 
     private static final Logger log = LoggerFactory.getLogger(ResponseHeaderFilter.class);
 
+    /**
+     * The filter is left out of routes whose security profile does not change any response headers.
+     *
+     * @param runtime The runtime of the route
+     * @return true if the security profile has response headers
+     */
+    @Override
+    public boolean isActiveFor(RouteRuntime runtime) {
+        return !runtime.getResponseHeaderOperations().isEmpty();
+    }
+
     @Override
     public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain, GatewayRouteContext routeContext) {
 
@@ -31,20 +40,8 @@ public class ResponseHeaderFilter extends RouteAwareFilter {
 
             logTrace(log, exchange, "Execute ResponseHeaderFilter");
 
-            var responseHeaders = exchange.getResponse().getHeaders();
-
             // Change headers according to security policy
-            for (var entry : routeContext.getSecurityProfile().getResponseHeaders().entrySet()) {
-
-                String name = entry.getKey();
-                String value = entry.getValue();
-
-                if ("<<remove>>".equals(value)) {
-                    responseHeaders.remove(name);
-                } else {
-                    responseHeaders.put(name, new ArrayList<>(Collections.singleton(value)));
-                }
-            }
+            routeContext.getRuntime().applyResponseHeaders(exchange.getResponse().getHeaders());
         });
     }
 }
@@ -2,27 +2,23 @@ package org.owasp.oag.filters.proxy;
 
 import org.owasp.oag.config.configuration.MainConfig;
 import org.owasp.oag.filters.GatewayRouteContext;
-import org.owasp.oag.filters.spring.ExtractAuthenticationFilter;
-import org.owasp.oag.gateway.SpringCloudGatewayConfiguration;
+import org.owasp.oag.filters.RouteRuntime;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.cloud.gateway.filter.GatewayFilterChain;
-import org.springframework.cloud.gateway.filter.GlobalFilter;
 import org.springframework.web.server.ServerWebExchange;
 import reactor.core.publisher.Mono;
 
-import java.net.URI;
-import java.util.Collections;
-
-import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_ORIGINAL_REQUEST_URL_ATTR;
-import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_REQUEST_URL_ATTR;
-
 /**
  * Abstract base class for gateway filters that load the gateway route and security profile.
- * This class implements the GlobalFilter interface and provides common functionality
- * for filters that need access to route information and security profiles.
+ * This class provides common functionality for filters that need access to route information and security profiles.
  * Subclasses must implement the abstract filter method to provide specific filtering behavior.
+ * <p>
+ * The filters are not registered with the gateway one by one. The {@link RouteFilterDispatcher} compiles them into a
+ * chain per route at startup, which only contains the filters that are active for the route (see
+ * {@link #isActiveFor}), and runs it in the order of their {@code @Order} annotations. The route context is created
+ * once per request by the dispatcher and passed to every filter.
  */
-public abstract class RouteAwareFilter implements GlobalFilter {
+public abstract class RouteAwareFilter {
 
     /**
      * The main configuration of the application.
@@ -31,25 +27,15 @@ public abstract class RouteAwareFilter implements GlobalFilter {
     @Autowired
     MainConfig config;
 
-    @Override
-    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
-
-        // Load security profile
-        var routeName = (String) exchange.getAttribute(SpringCloudGatewayConfiguration.ATTRIBUTE_ROUTE_NAME);
-        var gatewayRoute = config.getRoutes().get(routeName);
-        var type = gatewayRoute.getType();
-        var securityProfile = config.getSecurityProfiles().get(type);
-
-        // Load session from exchange context
-        var sessionOptional = ExtractAuthenticationFilter.extractSessionFromExchange(exchange);
-
-        // Load additional request info
-        var uris = exchange.getAttributeOrDefault(GATEWAY_ORIGINAL_REQUEST_URL_ATTR, Collections.emptySet());
-        var requestUri = (uris.isEmpty()) ? "Unknown" : uris.iterator().next().toString();
-        var upstreamUri = (URI) exchange.getAttribute(GATEWAY_REQUEST_URL_ATTR);
-
-        var routeContext = new GatewayRouteContext(routeName, gatewayRoute, securityProfile, requestUri, upstreamUri.toString(), sessionOptional);
-        return filter(exchange, chain, routeContext);
+    /**
+     * Determines whether the filter can act on the requests of a route. Filters that would only pass the requests of
+     * a route on are left out of its chain.
+     *
+     * @param runtime The runtime of the route
+     * @return true if the filter has to run for the route
+     */
+    public boolean isActiveFor(RouteRuntime runtime) {
+        return true;
     }
 
     /**
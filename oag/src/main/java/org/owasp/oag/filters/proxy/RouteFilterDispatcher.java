@@ -0,0 +1,156 @@
+package org.owasp.oag.filters.proxy;
+
+import org.owasp.oag.filters.GatewayRouteContext;
+import org.owasp.oag.filters.RouteRuntime;
+import org.owasp.oag.filters.RouteRuntimeRegistry;
+import org.owasp.oag.filters.spring.ExtractAuthenticationFilter;
+import org.owasp.oag.gateway.SpringCloudGatewayConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.springframework.core.annotation.AnnotationAwareOrderComparator;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_ORIGINAL_REQUEST_URL_ATTR;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_REQUEST_URL_ATTR;
+
+/**
+ * The only global filter of OAG in the gateway. It runs the {@link RouteAwareFilter}s of the route of a request.
+ * <p>
+ * At startup the filters are compiled into a chain per route that leaves out the filters which can never act on the
+ * requests of the route, e.g. the CSRF validation of a route with {@code csrfProtection: none}. A request then only
+ * pays for the filters of its route. The filters run in the order of their {@code @Order} annotations, all of them
+ * between the route filters and the routing filters of the gateway.
+ * <p>
+ * The route context is created once per request and passed to every filter of the chain. The user session is only
+ * resolved if the route needs it, see {@link RouteRuntime#needsSession}. On the other routes the context carries no
+ * session, the filters handle the request as anonymous and {@link DownstreamHeaderFilter#X_OAG_STATUS} reports a
+ * request with a login cookie as unknown. Sessions that are not resolved are not renewed either.
+ */
+@Order(10)
+@Component
+public class RouteFilterDispatcher implements GlobalFilter {
+
+    private static final Logger log = LoggerFactory.getLogger(RouteFilterDispatcher.class);
+
+    private final RouteRuntimeRegistry routeRuntimeRegistry;
+
+    /** The active filters of each route by the route name. */
+    private final Map<String, RouteAwareFilter[]> chains = new HashMap<>();
+
+    /**
+     * Compiles the filter chains of all routes.
+     *
+     * @param filters              All route aware filters
+     * @param routeRuntimeRegistry The runtimes of the routes
+     */
+    @Autowired
+    public RouteFilterDispatcher(List<RouteAwareFilter> filters, RouteRuntimeRegistry routeRuntimeRegistry) {
+
+        this.routeRuntimeRegistry = routeRuntimeRegistry;
+
+        for (var runtime : routeRuntimeRegistry.getAll()) {
+            var chain = compile(filters, runtime);
+            chains.put(runtime.getRouteName(), chain);
+            log.debug("Compiled filter chain of route {}: {}", runtime.getRouteName(), chainDescription(chain));
+        }
+    }
+
+    /**
+     * Selects the filters that are active for a route, in the order they run.
+     *
+     * @param filters All route aware filters
+     * @param runtime The runtime of the route
+     * @return The filter chain of the route
+     */
+    public static RouteAwareFilter[] compile(List<RouteAwareFilter> filters, RouteRuntime runtime) {
+
+        var chain = new ArrayList<RouteAwareFilter>();
+        for (var filter : filters) {
+            if (filter.isActiveFor(runtime))
+                chain.add(filter);
+        }
+        AnnotationAwareOrderComparator.sort(chain);
+        return chain.toArray(new RouteAwareFilter[0]);
+    }
+
+    private static String chainDescription(RouteAwareFilter[] chain) {
+
+        var names = new ArrayList<String>();
+        for (var filter : chain) {
+            names.add(filter.getClass().getSimpleName());
+        }
+        return String.join(", ", names);
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+
+        // Load route settings
+        var routeName = (String) exchange.getAttribute(SpringCloudGatewayConfiguration.ATTRIBUTE_ROUTE_NAME);
+        var runtime = routeRuntimeRegistry.get(routeName);
+        var filters = chains.get(routeName);
+
+        // Load additional request info
+        var uris = exchange.getAttributeOrDefault(GATEWAY_ORIGINAL_REQUEST_URL_ATTR, Collections.emptySet());
+        var requestUri = (uris.isEmpty()) ? "Unknown" : uris.iterator().next().toString();
+        var upstreamUri = (URI) exchange.getAttribute(GATEWAY_REQUEST_URL_ATTR);
+
+        if (!runtime.needsSession(exchange.getRequest().getMethod().name())) {
+            var routeContext = new GatewayRouteContext(runtime, requestUri, upstreamUri.toString());
+            return run(filters, exchange, chain, routeContext);
+        }
+
+        // Load session from exchange context
+        return ExtractAuthenticationFilter.resolveSession(exchange).flatMap(sessionOptional -> {
+            var routeContext = new GatewayRouteContext(runtime, requestUri, upstreamUri.toString(), sessionOptional);
+            return run(filters, exchange, chain, routeContext);
+        });
+    }
+
+    /**
+     * Runs a filter chain and continues with the gateway filter chain after its last filter.
+     *
+     * @param filters      The filters to run
+     * @param exchange     The server web exchange
+     * @param chain        The gateway filter chain to continue with
+     * @param routeContext The route context passed to the filters
+     * @return A Mono that completes when the filters and the rest of the gateway filter chain are done
+     */
+    public static Mono<Void> run(RouteAwareFilter[] filters, ServerWebExchange exchange, GatewayFilterChain chain,
+                                 GatewayRouteContext routeContext) {
+
+        if (filters.length == 0)
+            return chain.filter(exchange);
+
+        return new StageChain(filters, 0, chain, routeContext).filter(exchange);
+    }
+
+    /**
+     * The rest of a filter chain, starting at a filter.
+     */
+    private record StageChain(RouteAwareFilter[] filters, int index, GatewayFilterChain next,
+                              GatewayRouteContext routeContext) implements GatewayFilterChain {
+
+        @Override
+        public Mono<Void> filter(ServerWebExchange exchange) {
+
+            if (index == filters.length)
+                return next.filter(exchange);
+
+            return filters[index].filter(exchange, new StageChain(filters, index + 1, next, routeContext), routeContext);
+        }
+    }
+}
@@ -1,10 +1,9 @@
 package org.owasp.oag.filters.proxy;
 
 import org.owasp.oag.filters.GatewayRouteContext;
-import org.owasp.oag.infrastructure.factories.UserMappingFactory;
+import org.owasp.oag.filters.RouteRuntime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.cloud.gateway.filter.GatewayFilterChain;
 import org.springframework.core.annotation.Order;
 import org.springframework.stereotype.Component;
@@ -25,8 +24,16 @@ public class UserMappingFilter extends RouteAwareFilter {
 
     private static final Logger log = LoggerFactory.getLogger(UserMappingFilter.class);
 
-    @Autowired
-    private UserMappingFactory mappingFactory;
+    /**
+     * The filter is left out of routes that do not map the user to the request.
+     *
+     * @param runtime The runtime of the route
+     * @return true if the user mapper of the route changes the requests
+     */
+    @Override
+    public boolean isActiveFor(RouteRuntime runtime) {
+        return !runtime.getUserMapper().isNoop();
+    }
 
     /**
      * Applies user mapping to the request based on the security profile.
@@ -43,8 +50,7 @@ public class UserMappingFilter extends RouteAwareFilter {
 
         logTrace(log, exchange, "Execute DownstreamAuthenticationFilter");
 
-        var securityProfileName = routeContext.getRoute().getType();
-        var userMapper = mappingFactory.getUserMapperForSecurityProfile(securityProfileName);
+        var userMapper = routeContext.getRuntime().getUserMapper();
 
         var potentiallyMutatedExchange = userMapper.mapUserToRequest(exchange, routeContext);
 
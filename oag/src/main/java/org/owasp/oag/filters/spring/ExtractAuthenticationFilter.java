@@ -2,10 +2,12 @@ package org.owasp.oag.filters.spring;
 
 import org.jspecify.annotations.NonNull;
 import org.owasp.oag.cookies.LoginCookie;
+import org.owasp.oag.cookies.LoginCookieCodec;
 import org.owasp.oag.exception.CookieDecryptionException;
 import org.owasp.oag.infrastructure.GlobalClockSource;
 import org.owasp.oag.services.blacklist.SessionBlacklist;
-import org.owasp.oag.services.crypto.CookieEncryptor;
+import org.owasp.oag.services.crypto.LoginCookieCache;
+import org.owasp.oag.services.session.SessionStore;
 import org.owasp.oag.session.Session;
 import org.owasp.oag.utils.LoggingUtils;
 import org.slf4j.Logger;
@@ -24,6 +26,12 @@ import java.util.Optional;
 /**
  * This filter extracts authentication information from login cookies and makes it available in the request context.
  * It validates sessions and handles CSRF token extraction.
+ * A login cookie that only references a session kept on the server is resolved through the {@link SessionStore}.
+ * <p>
+ * The session is resolved lazily: the filter only stores a memoized Mono in the request, which decrypts the login
+ * cookie and checks the blacklist when it is first subscribed by {@link #resolveSession}. Requests that never need the
+ * session, e.g. anonymous requests for static content, skip that work. Until then {@link #extractSessionFromExchange}
+ * returns an empty Optional.
  */
 @Order(40)
 @Component
@@ -35,10 +43,13 @@ public class ExtractAuthenticationFilter implements WebFilter {
     /** Key for the CSRF token in the request  */
     public final static String OAG_SESSION_CSRF_TOKEN = "oag-session-csrf-token";
 
+    /** Key for the Mono resolving the session in the request */
+    public final static String OAG_SESSION_RESOLVER = "oag-session-resolver";
+
     private static final Logger log = LoggerFactory.getLogger(ExtractAuthenticationFilter.class);
 
     @Autowired
-    private CookieEncryptor cookieEncryptor;
+    private LoginCookieCache loginCookieCache;
 
     @Autowired
     private GlobalClockSource globalClockSource;
@@ -46,8 +57,30 @@ public class ExtractAuthenticationFilter implements WebFilter {
     @Autowired
     private SessionBlacklist sessionBlacklist;
 
+    /** The store of the sessions, {@code null} if the whole session is kept in the cookie. */
+    @Autowired(required = false)
+    private SessionStore sessionStore;
+
     /**
-     * Extracts the session from the server web exchange.
+     * Resolves the session of the request, on the first call by extracting it from the login cookie. Later calls
+     * return the same result, after which it is also stored in the {@link #OAG_SESSION} and
+     * {@link #OAG_SESSION_CSRF_TOKEN} attributes.
+     *
+     * @param exchange The server web exchange
+     * @return A Mono containing an Optional with the Session if found and valid, empty otherwise
+     */
+    public static Mono<Optional<Session>> resolveSession(ServerWebExchange exchange) {
+
+        Mono<Void> resolver = exchange.getAttribute(OAG_SESSION_RESOLVER);
+        if (resolver == null)
+            return Mono.fromSupplier(() -> extractSessionFromExchange(exchange));
+
+        return resolver.then(Mono.fromSupplier(() -> extractSessionFromExchange(exchange)));
+    }
+
+    /**
+     * Extracts the session from the server web exchange. The session has to be resolved with
+     * {@link #resolveSession} before, otherwise the result is empty.
      * 
      * @param exchange The server web exchange containing the session attribute
      * @return An Optional containing the Session if found and valid, empty otherwise
@@ -70,7 +103,7 @@ public class ExtractAuthenticationFilter implements WebFilter {
     }
 
     /**
-     * Filters the HTTP request to extract and process authentication information.
+     * Filters the HTTP request to make the authentication information resolvable through {@link #resolveSession}.
      * 
      * @param exchange The server web exchange
      * @param chain The web filter chain
@@ -82,8 +115,10 @@ public class ExtractAuthenticationFilter implements WebFilter {
 
         LoggingUtils.logTrace(log, exchange, "Execute ExtractAuthenticationFilter");
 
-        return extractAndStoreAuthentication(exchange)
-                .then(chain.filter(exchange));
+        exchange.getAttributes().put(OAG_SESSION_RESOLVER,
+                Mono.defer(() -> extractAndStoreAuthentication(exchange)).cache());
+
+        return chain.filter(exchange);
     }
 
     /**
@@ -105,6 +140,43 @@ public class ExtractAuthenticationFilter implements WebFilter {
 
         var loginCookie = loginCookieOptional.get();
 
+        if (LoginCookieCodec.isReference(loginCookie)) {
+            return resolveSessionReference(exchange, loginCookie);
+        }
+        return storeAuthentication(exchange, loginCookie);
+    }
+
+    /**
+     * Looks up the session a login cookie refers to and stores it in the exchange attributes.
+     *
+     * @param exchange  The server web exchange
+     * @param reference The login cookie carrying only the session id
+     * @return A Mono that completes when the lookup and storing is done
+     */
+    private Mono<Void> resolveSessionReference(ServerWebExchange exchange, LoginCookie reference) {
+
+        if (sessionStore == null) {
+            LoggingUtils.logInfo(log, exchange, "Received session reference but server-side sessions are disabled");
+            return Mono.empty();
+        }
+        if (reference.getSessionExpSeconds() <= globalClockSource.getEpochSeconds()) {
+            LoggingUtils.logDebug(log, exchange, "Received expired session reference");
+            return Mono.empty();
+        }
+        return sessionStore.find(reference.getId())
+                .switchIfEmpty(Mono.fromRunnable(() -> LoggingUtils.logInfo(log, exchange, "Received reference to unknown session with id: {}", reference.getId())))
+                .flatMap(loginCookie -> storeAuthentication(exchange, loginCookie));
+    }
+
+    /**
+     * Checks if the session of a login cookie has been invalidated and otherwise stores it in the exchange attributes.
+     *
+     * @param exchange    The server web exchange
+     * @param loginCookie The login cookie holding the session
+     * @return A Mono that completes when the check and storing is done
+     */
+    private Mono<Void> storeAuthentication(ServerWebExchange exchange, LoginCookie loginCookie) {
+
         return sessionBlacklist.isInvalidated(loginCookie.getId())
                 .doOnSuccess(isInvalidated -> {
 
@@ -128,7 +200,8 @@ public class ExtractAuthenticationFilter implements WebFilter {
     }
 
     /**
-     * Extracts and decrypts the login cookie from the request.
+     * Extracts and decrypts the login cookie from the request. Cookies decrypted before are taken from the
+     * {@link LoginCookieCache}.
      * 
      * @param exchange The server web exchange
      * @return An Optional containing the LoginCookie if found and successfully decrypted, empty otherwise
@@ -145,7 +218,7 @@ public class ExtractAuthenticationFilter implements WebFilter {
 
         try {
             // Decrypt cookie
-            loginCookie = cookieEncryptor.decryptObject(cookie.getValue(), LoginCookie.class);
+            loginCookie = loginCookieCache.decrypt(cookie.getValue());
 
         } catch (CookieDecryptionException e) {
 
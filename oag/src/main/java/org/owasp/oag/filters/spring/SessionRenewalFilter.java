@@ -1,6 +1,7 @@
 package org.owasp.oag.filters.spring;
 
 import org.owasp.oag.config.configuration.MainConfig;
+import org.owasp.oag.cookies.LoginCookie;
 import org.owasp.oag.hooks.session.SessionHookChain;
 import org.owasp.oag.services.crypto.CookieEncryptor;
 import org.owasp.oag.session.Session;
@@ -22,6 +23,10 @@ import java.util.Optional;
 /**
  * Filter that automatically renews sessions that are about to expire
  * Checks the remaining time of the current session and renews it if it's below the configured threshold
+ * <p>
+ * The check runs before the response is committed and only if the session of the request has been resolved, requests
+ * that never needed the session do not renew it. Responses that already set the login cookie, e.g. on logout, are left
+ * unchanged.
  */
 @Order(50)
 @Component
@@ -46,25 +51,34 @@ public class SessionRenewalFilter implements WebFilter {
 
         LoggingUtils.logTrace(log, exchange, "Execute SessionRenewalFilter");
 
-        Optional<Session> sessionOptional = exchange.getAttribute(ExtractAuthenticationFilter.OAG_SESSION);
         var sessionBehavior = config.getSessionBehaviour();
 
-        if (sessionOptional.isPresent() && sessionBehavior.getRenewWhenLessThan() > 0) // Feature switch if renewal time is <= 0
+        if (sessionBehavior.getRenewWhenLessThan() > 0) // Feature switch if renewal time is <= 0
         {
+            exchange.getResponse().beforeCommit(() -> renewSessionIfExpiring(exchange));
+        }
+
+        return chain.filter(exchange);
+    }
+
+    private Mono<Void> renewSessionIfExpiring(ServerWebExchange exchange) {
+
+        Optional<Session> sessionOptional = ExtractAuthenticationFilter.extractSessionFromExchange(exchange);
+
+        if (sessionOptional.isPresent() && !exchange.getResponse().getCookies().containsKey(LoginCookie.NAME)) {
             var session = sessionOptional.get();
             long remainingTime = session.getRemainingTimeSeconds();
-            int renewWhenLessThan = sessionBehavior.getRenewWhenLessThan();
+            int renewWhenLessThan = config.getSessionBehaviour().getRenewWhenLessThan();
 
             if (remainingTime < renewWhenLessThan)
-                renewSession(session, exchange);
+                return renewSession(session, exchange);
         }
-
-        return chain.filter(exchange);
+        return Mono.empty();
     }
 
-    private void renewSession(Session session, ServerWebExchange exchange) {
+    private Mono<Void> renewSession(Session session, ServerWebExchange exchange) {
 
         LoggingUtils.logDebug(log, exchange,"Start renewing session");
-        sessionHookChain.renewSession(session, exchange.getResponse());
+        return sessionHookChain.renewSession(session, exchange.getResponse());
     }
 }
@@ -0,0 +1,180 @@
+package org.owasp.oag.gateway;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the route of a request path in a single pass over its segments, instead of matching the path against the
+ * pattern of every route in turn.
+ * <p>
+ * The routes are kept in a tree of the literal segments their patterns start with. The patterns of the common forms
+ * {@code /a/b}, {@code /a/b/*} and {@code /a/b/**} are matched by the tree alone, any other pattern (e.g.
+ * {@code /a/*.js} or {@code /a/**}{@code /b}) is stored at the node of its literal prefix and checked with the
+ * {@link ProxyPathMatcher} when the path passes that node. If several routes match, the most specific one according
+ * to {@link ProxyPathMatcher#getPatternComparator()} wins, so the result is the same as checking the routes one by
+ * one in their order of specificity.
+ * <p>
+ * The index is immutable and can be used by any number of threads.
+ */
+public class RouteIndex {
+
+    private static final String SEPARATOR = "/";
+
+    private final ProxyPathMatcher matcher;
+
+    private final Node root = new Node();
+
+    /** The route names by their rank, the most specific route first. */
+    private final String[] routeNames;
+
+    /**
+     * Creates the index of some routes.
+     *
+     * @param patternsByRoute The path pattern of each route by the route name
+     * @param matcher         The matcher used for the patterns the tree cannot match alone
+     */
+    public RouteIndex(Map<String, String> patternsByRoute, ProxyPathMatcher matcher) {
+
+        this.matcher = matcher;
+
+        var patternComparator = matcher.getPatternComparator();
+        var sortedRoutes = new ArrayList<>(patternsByRoute.entrySet());
+        sortedRoutes.sort((r1, r2) -> patternComparator.compare(r1.getValue(), r2.getValue()));
+
+        routeNames = new String[sortedRoutes.size()];
+        for (int rank = 0; rank < sortedRoutes.size(); rank++) {
+            var route = sortedRoutes.get(rank);
+            routeNames[rank] = route.getKey();
+            add(route.getValue(), rank);
+        }
+    }
+
+    private void add(String pattern, int rank) {
+
+        if (!pattern.startsWith(SEPARATOR)) {
+            root.candidates.add(new Candidate(Kind.OTHER, pattern, rank));
+            return;
+        }
+
+        var segments = segments(pattern);
+        var node = root;
+        int depth = 0;
+        while (depth < segments.size() && isLiteral(segments.get(depth))) {
+            node = node.children.computeIfAbsent(segments.get(depth), s -> new Node());
+            depth++;
+        }
+
+        int remaining = segments.size() - depth;
+        Kind kind;
+        if (remaining == 0) {
+            kind = pattern.endsWith(SEPARATOR) ? Kind.EXACT_WITH_SEPARATOR : Kind.EXACT;
+        } else if (remaining == 1 && segments.get(depth).equals("**")) {
+            kind = Kind.ANY_DEPTH;
+        } else if (remaining == 1 && segments.get(depth).equals("*")) {
+            kind = pattern.endsWith(SEPARATOR) ? Kind.ONE_SEGMENT_WITH_SEPARATOR : Kind.ONE_SEGMENT;
+        } else {
+            kind = Kind.OTHER;
+        }
+        node.candidates.add(new Candidate(kind, pattern, rank));
+    }
+
+    /**
+     * Finds the most specific route matching a request path.
+     *
+     * @param requestPath The path of the request
+     * @return The name of the route, null if no route matches
+     */
+    public String findRoute(String requestPath) {
+
+        var segments = segments(requestPath);
+        boolean endsWithSeparator = requestPath.endsWith(SEPARATOR);
+        boolean startsWithSeparator = requestPath.startsWith(SEPARATOR);
+
+        int best = Integer.MAX_VALUE;
+        var node = root;
+        for (int depth = 0; node != null; depth++) {
+
+            for (var candidate : node.candidates) {
+                if (candidate.rank >= best)
+                    break; // the candidates are ordered by rank
+                if (matches(candidate, segments.size() - depth, startsWithSeparator, endsWithSeparator, requestPath)) {
+                    best = candidate.rank;
+                    break;
+                }
+            }
+
+            node = depth < segments.size() ? node.children.get(segments.get(depth)) : null;
+        }
+
+        return best == Integer.MAX_VALUE ? null : routeNames[best];
+    }
+
+    /**
+     * Checks a candidate whose literal prefix matched the path.
+     *
+     * @param remaining The number of path segments after the literal prefix
+     */
+    private boolean matches(Candidate candidate, int remaining, boolean startsWithSeparator, boolean endsWithSeparator,
+                            String requestPath) {
+
+        if (candidate.kind == Kind.OTHER)
+            return matcher.matchesPath(requestPath, candidate.pattern);
+
+        // The rules follow AntPathMatcher, which ignores empty segments
+        return startsWithSeparator && switch (candidate.kind) {
+            case EXACT -> remaining == 0 && !endsWithSeparator;
+            case EXACT_WITH_SEPARATOR -> remaining == 0 && endsWithSeparator;
+            case ANY_DEPTH -> true;
+            case ONE_SEGMENT -> (remaining == 1 && !endsWithSeparator) || (remaining == 0 && endsWithSeparator);
+            case ONE_SEGMENT_WITH_SEPARATOR -> remaining <= 1 && endsWithSeparator;
+            default -> false;
+        };
+    }
+
+    private static boolean isLiteral(String segment) {
+        return segment.indexOf('*') < 0 && segment.indexOf('?') < 0 && segment.indexOf('{') < 0;
+    }
+
+    private static List<String> segments(String path) {
+
+        var segments = new ArrayList<String>();
+        int start = 0;
+        while (start <= path.length()) {
+            int end = path.indexOf(SEPARATOR, start);
+            if (end < 0)
+                end = path.length();
+            if (end > start)
+                segments.add(path.substring(start, end));
+            start = end + 1;
+        }
+        return segments;
+    }
+
+    private enum Kind {
+        /** A pattern of literal segments only. */
+        EXACT,
+        /** A pattern of literal segments only, ending with a separator. */
+        EXACT_WITH_SEPARATOR,
+        /** A literal prefix followed by {@code **}. */
+        ANY_DEPTH,
+        /** A literal prefix followed by {@code *}. */
+        ONE_SEGMENT,
+        /** A literal prefix followed by {@code *}, ending with a separator. */
+        ONE_SEGMENT_WITH_SEPARATOR,
+        /** Any other pattern, checked with the matcher. */
+        OTHER
+    }
+
+    private record Candidate(Kind kind, String pattern, int rank) {
+    }
+
+    private static class Node {
+
+        private final Map<String, Node> children = new HashMap<>();
+
+        /** The routes whose literal prefix ends at this node, ordered by rank as they are added in that order. */
+        private final List<Candidate> candidates = new ArrayList<>();
+    }
+}
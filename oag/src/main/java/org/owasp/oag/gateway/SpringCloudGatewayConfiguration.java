@@ -10,7 +10,9 @@ import org.springframework.cloud.gateway.route.builder.RouteLocatorBuilder;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.web.server.ServerWebExchange;
 
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -27,6 +29,11 @@ public class SpringCloudGatewayConfiguration {
      * Attribute name for storing the route name in the exchange attributes
      */
     public final static String ATTRIBUTE_ROUTE_NAME = "RouteName";
+
+    /**
+     * Attribute name for marking that the route of the request has been looked up
+     */
+    private final static String ATTRIBUTE_ROUTE_RESOLVED = "RouteResolved";
     private static final Logger log = LoggerFactory.getLogger(SpringCloudGatewayConfiguration.class);
     @Autowired
     private MainConfig config;
@@ -95,24 +102,22 @@ public class SpringCloudGatewayConfiguration {
                 .stream().sorted((p1, p2) -> patternComparator.compare(p1.getValue().getPath(), p2.getValue().getPath()))
                 .collect(Collectors.toList());
 
+        // The route of a request is found once by the index, the predicates of the routes only compare its name
+        var patternsByRoute = new LinkedHashMap<String, String>();
+        sortedConfigRoutes.forEach(entry -> patternsByRoute.put(entry.getKey(), entry.getValue().getPath()));
+        var routeIndex = new RouteIndex(patternsByRoute, matcher);
+
         // Add the routes within their order of specificity
         for (var entry : sortedConfigRoutes) {
 
             var routeName = entry.getKey();
             var route = entry.getValue();
-            var routePath = entry.getValue().getPath();
             var routeUrl = entry.getValue().getUrl();
 
             routes.route(r -> {
 
-                // Add route predicate that uses the ProxyPathMatcher to find out if a route matches a request
-                var path = r.predicate(exchange -> {
-                    exchange.getAttributes().put(ATTRIBUTE_ROUTE_NAME, routeName);
-                    var requestUrl = exchange.getRequest().getURI().getPath();
-                    var isMatch = matcher.matchesPath(requestUrl, routePath);
-                    logTrace(log, exchange, "Evaluate route {} for {} -> {}", routeName, requestUrl, isMatch ? "match" : "false");
-                    return isMatch;
-                });
+                // Add route predicate that uses the RouteIndex to find out if a route matches a request
+                var path = r.predicate(exchange -> routeName.equals(findRoute(exchange, routeIndex)));
 
                 var rewriteConfig = route.getRewrite().build(route);
                 var filters = path.filters(rw -> rw.rewritePath(rewriteConfig.getRegex(), rewriteConfig.getReplacement()));
@@ -126,4 +131,28 @@ public class SpringCloudGatewayConfiguration {
 
         return routes;
     }
+
+    /**
+     * Finds the route of a request on the first call and stores its name in the exchange attributes, later calls
+     * return the stored name.
+     *
+     * @param exchange   The server web exchange
+     * @param routeIndex The index of the routes
+     * @return The name of the route, null if no route matches
+     */
+    private String findRoute(ServerWebExchange exchange, RouteIndex routeIndex) {
+
+        var attributes = exchange.getAttributes();
+        if (attributes.putIfAbsent(ATTRIBUTE_ROUTE_RESOLVED, Boolean.TRUE) == null) {
+
+            var requestUrl = exchange.getRequest().getURI().getPath();
+            var routeName = routeIndex.findRoute(requestUrl);
+            logTrace(log, exchange, "Evaluate routes for {} -> {}", requestUrl, routeName != null ? routeName : "no match");
+
+            if (routeName != null)
+                attributes.put(ATTRIBUTE_ROUTE_NAME, routeName);
+        }
+
+        return exchange.getAttribute(ATTRIBUTE_ROUTE_NAME);
+    }
 }
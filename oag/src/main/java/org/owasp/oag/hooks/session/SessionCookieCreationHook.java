@@ -3,13 +3,19 @@ package org.owasp.oag.hooks.session;
 import org.owasp.oag.config.configuration.MainConfig;
 import org.owasp.oag.cookies.CookieConverter;
 import org.owasp.oag.cookies.LoginCookie;
+import org.owasp.oag.filters.spring.ExtractAuthenticationFilter;
 import org.owasp.oag.infrastructure.GlobalClockSource;
+import org.owasp.oag.services.session.SessionStore;
 import org.owasp.oag.session.Session;
 import org.owasp.oag.session.UserModel;
+import org.owasp.oag.utils.ReactiveUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.server.reactive.ServerHttpResponse;
 import org.springframework.stereotype.Component;
 import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
 
 import java.security.SecureRandom;
 import java.util.Map;
@@ -17,10 +23,14 @@ import java.util.Map;
 /**
  * Hook for creating, renewing, and destroying session cookies
  * Handles the lifecycle of session cookies including creation of new session IDs
+ * With server-side sessions (see {@link SessionStore}) the login cookie is stored on the server and the session
+ * cookie only carries a reference to it
  */
 @Component
 public class SessionCookieCreationHook implements SessionHook {
 
+    private static final Logger log = LoggerFactory.getLogger(SessionCookieCreationHook.class);
+
     @Autowired
     private CookieConverter cookieConverter;
 
@@ -30,6 +40,10 @@ public class SessionCookieCreationHook implements SessionHook {
     @Autowired
     private GlobalClockSource globalClockSource;
 
+    /** The store of the sessions, {@code null} if the whole session is kept in the cookie. */
+    @Autowired(required = false)
+    private SessionStore sessionStore;
+
     @Override
     public void renewSession(Map<String, Object> filterContext, ServerHttpResponse response) {
 
@@ -64,12 +78,31 @@ public class SessionCookieCreationHook implements SessionHook {
             loginCookie.setCsrfToken(csrfToken);
         }
 
-        response.addCookie(cookieConverter.convertLoginCookie(loginCookie, sessionDuration));
+        if (sessionStore == null) {
+            response.addCookie(cookieConverter.convertLoginCookie(loginCookie, sessionDuration));
+            return;
+        }
+
+        // The response is only committed once the session is stored. If that fails the whole session is sent in the
+        // cookie instead, a reference to a session that is only kept in the near-cache would be lost on a restart
+        response.addCookie(cookieConverter.convertSessionReference(loginCookie, sessionDuration));
+        SessionHookChain.addPendingWrite(filterContext, sessionStore.save(loginCookie)
+                .onErrorResume(e -> {
+                    log.error("Could not store session {}, sending it in the cookie instead", sessionId, e);
+                    var cookie = cookieConverter.convertLoginCookie(loginCookie, sessionDuration);
+                    response.getCookies().set(cookie.getName(), cookie);
+                    return Mono.empty();
+                }));
     }
 
     @Override
     public void destroySession(Map<String, Object> filterContext, ServerWebExchange exchange) {
 
+        if (sessionStore != null) {
+            ExtractAuthenticationFilter.extractSessionFromExchange(exchange).ifPresent(session ->
+                    ReactiveUtils.subscribeAsynchronously(sessionStore.remove(session.getId()), exchange));
+        }
+
         // Override session cookie with new cookie that has max-age = 0
         exchange.getResponse().addCookie(cookieConverter.convertLoginCookie(null, 0));
     }
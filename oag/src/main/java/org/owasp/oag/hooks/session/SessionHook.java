@@ -30,7 +30,8 @@ public interface SessionHook {
     int order();
 
     /**
-     * Creates a new session.
+     * Creates a new session. Writes that have to finish before the response is committed, e.g. of state a cookie
+     * refers to, are added with {@link SessionHookChain#addPendingWrite}.
      *
      * @param filterContext The context containing user information and other data needed for session creation
      * @param response The HTTP response where cookies or headers can be added
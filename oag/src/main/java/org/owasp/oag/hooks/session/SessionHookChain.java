@@ -7,10 +7,13 @@ import org.springframework.context.ApplicationContext;
 import org.springframework.http.server.reactive.ServerHttpResponse;
 import org.springframework.stereotype.Component;
 import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
 
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 /**
@@ -22,6 +25,12 @@ import java.util.stream.Collectors;
 @Component
 public class SessionHookChain {
 
+    /**
+     * The filter context entry holding the writes of the hooks that have to finish before the response is committed,
+     * see {@link #addPendingWrite}.
+     */
+    public static final String PENDING_WRITES = "pendingWrites";
+
     private final List<SessionHook> hooks;
 
     /**
@@ -40,7 +49,8 @@ public class SessionHookChain {
      *
      * @param providerKey The authentication provider key
      * @param model The user model containing user information
-     * @param response The HTTP response where cookies or headers can be added
+     * @param response The HTTP response where cookies or headers can be added. It is only committed once the pending
+     *                 writes of the hooks have finished.
      */
     public void createSession(String providerKey, UserModel model, ServerHttpResponse response) {
         var filterContext = new HashMap<String, Object>();
@@ -48,6 +58,7 @@ public class SessionHookChain {
         filterContext.put("userModel", model);
 
         hooks.forEach(h -> h.createSession(filterContext, response));
+        response.beforeCommit(() -> pendingWrites(filterContext));
     }
 
     /**
@@ -57,12 +68,15 @@ public class SessionHookChain {
      *
      * @param oldSession The existing session to be renewed
      * @param response The HTTP response where cookies or headers can be added
+     * @return A Mono that completes when the pending writes of the hooks have finished, the response must not be
+     * committed before
      */
-    public void renewSession(Session oldSession, ServerHttpResponse response) {
+    public Mono<Void> renewSession(Session oldSession, ServerHttpResponse response) {
         var filterContext = new HashMap<String, Object>();
         filterContext.put("old-session", oldSession);
 
         hooks.forEach(h -> h.renewSession(filterContext, response));
+        return pendingWrites(filterContext);
     }
 
     /**
@@ -77,6 +91,24 @@ public class SessionHookChain {
         hooks.forEach(h -> h.destroySession(filterContext, exchange));
     }
 
+    /**
+     * Adds a write that has to finish before the response is committed, e.g. storing the session a cookie of the
+     * response refers to. The write must not fail, a hook handles its errors itself.
+     *
+     * @param filterContext The context passed to the hook
+     * @param write         The write, subscribed to once before the response is committed
+     */
+    @SuppressWarnings("unchecked")
+    public static void addPendingWrite(Map<String, Object> filterContext, Mono<Void> write) {
+        ((List<Mono<Void>>) filterContext.computeIfAbsent(PENDING_WRITES, key -> new ArrayList<Mono<Void>>())).add(write);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Mono<Void> pendingWrites(Map<String, Object> filterContext) {
+        var writes = (List<Mono<Void>>) filterContext.get(PENDING_WRITES);
+        return writes == null ? Mono.empty() : Mono.when(writes);
+    }
+
     /**
      * Collects all session hooks from the application context and sorts them by order.
      *
@@ -1,25 +1,51 @@
 package org.owasp.oag.infrastructure;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import org.owasp.oag.config.ConfigLoader;
 import org.owasp.oag.config.FileConfigLoader;
 import org.owasp.oag.config.configuration.MainConfig;
+import org.owasp.oag.cookies.LoginCookieCodec;
 import org.owasp.oag.exception.ConfigurationException;
+import org.owasp.oag.infrastructure.metrics.PersistentMapMeters;
+import org.owasp.oag.infrastructure.metrics.SessionBlacklistMeters;
+import org.owasp.oag.persistentmap.DurabilityPolicy;
 import org.owasp.oag.persistentmap.FilePersistentMap;
+import org.owasp.oag.persistentmap.FilePersistentMapSettings;
+import org.owasp.oag.persistentmap.MappedPersistentMap;
+import org.owasp.oag.persistentmap.PersistentMap;
+import org.owasp.oag.persistentmap.PersistentMapType;
+import org.owasp.oag.services.blacklist.BlacklistSnapshot;
+import org.owasp.oag.services.blacklist.IdentifierFilterType;
 import org.owasp.oag.services.blacklist.LocalPersistentBlacklist;
+import org.owasp.oag.services.blacklist.OffHeapSessionBlacklist;
+import org.owasp.oag.services.blacklist.RemoteBlacklistSettings;
+import org.owasp.oag.services.blacklist.RemoteSessionBlacklist;
+import org.owasp.oag.services.blacklist.ReplicatedSessionBlacklist;
+import org.owasp.oag.services.blacklist.ReplicationSettings;
 import org.owasp.oag.services.blacklist.SessionBlacklist;
 import org.owasp.oag.services.crypto.CookieEncryptor;
+import org.owasp.oag.services.crypto.DirectJweCookieEncryptor;
 import org.owasp.oag.services.crypto.JweEncrypter;
+import org.owasp.oag.services.crypto.LoginCookieCache;
+import org.owasp.oag.services.session.SessionStore;
+import org.owasp.oag.services.session.SessionStore.StoredSession;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Lazy;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 
 import java.io.IOException;
+import java.time.Duration;
 
 /**
  * Configures all non-trivial beans that can be instanced before the main configuration is loaded.
@@ -75,30 +101,253 @@ public class OAGBeanConfiguration {
     /**
      * Creates a cookie encryptor for handling encrypted cookie data.
      * Will use an environment variable for the key if available, otherwise creates an in-memory instance.
+     * The cookies are dir/A256GCM JWEs, compatible with {@link JweEncrypter}.
      * 
      * @return A CookieEncryptor implementation
-     * @throws IOException if there's an error loading or creating the encryptor
      */
     @Bean
-    public CookieEncryptor cookieEncryptor() throws IOException {
+    public CookieEncryptor cookieEncryptor() {
 
         if (System.getenv("OAG-KEY") != null) {
-            return JweEncrypter.loadFromEnvironmentVariable("OAG-KEY");
+            return DirectJweCookieEncryptor.loadFromEnvironmentVariable("OAG-KEY");
         } else {
-            return JweEncrypter.loadInMemoryInstance();
+            return DirectJweCookieEncryptor.loadInMemoryInstance();
         }
     }
 
+    /**
+     * Creates the codec of the login cookie. Cookies in every format are read, the settings only select the format of
+     * new cookies. Both are off by default, instances that cannot read the compact format would reject the new cookies.
+     *
+     * @param compact Whether login cookies are written in the compact binary format instead of JSON
+     * @param deflate Whether the compact format is compressed with DEFLATE when that makes it smaller
+     * @param cookieEncryptor The encryptor of the cookies
+     * @return A LoginCookieCodec instance
+     */
+    @Bean
+    public LoginCookieCodec loginCookieCodec(@Value("${oag.login-cookie-compact:false}") boolean compact,
+                                             @Value("${oag.login-cookie-deflate:false}") boolean deflate,
+                                             CookieEncryptor cookieEncryptor) {
+        return new LoginCookieCodec(cookieEncryptor, compact, deflate);
+    }
+
+    /**
+     * Creates the cache of decrypted login cookies used by the authentication filter.
+     *
+     * @param maxEntries The maximum number of cached cookies; 0 decrypts the cookie of every request
+     * @param maxTtlSeconds How long a cookie is cached at most, it is dropped earlier when its session expires
+     * @param loginCookieCodec The codec decrypting the cookies
+     * @param meterRegistry The registry the hit and miss counts of the cache are registered with, if metrics are enabled
+     * @return A LoginCookieCache instance
+     */
+    @Bean
+    public LoginCookieCache loginCookieCache(@Value("${oag.login-cookie-cache-size:10000}") long maxEntries,
+                                             @Value("${oag.login-cookie-cache-ttl-seconds:300}") long maxTtlSeconds,
+                                             LoginCookieCodec loginCookieCodec,
+                                             ObjectProvider<MeterRegistry> meterRegistry) {
+
+        if (maxEntries < 0 || maxTtlSeconds <= 0) {
+            throw new ConfigurationException("Invalid login cookie cache settings: size must not be negative and ttl must be positive");
+        }
+        var cache = new LoginCookieCache(loginCookieCodec, clockSource, maxEntries, Duration.ofSeconds(maxTtlSeconds));
+        MeterRegistry registry = meterRegistry.getIfAvailable();
+        if (registry != null && cache.getCache() != null) {
+            CaffeineCacheMetrics.monitor(registry, cache.getCache(), "oag.login.cookie");
+        }
+        return cache;
+    }
+
+    /**
+     * Creates the store of the sessions kept on the server. Only created with {@code oag.session-mode: SERVER}, the
+     * session cookie then only carries a reference to the session. Otherwise the whole session is kept in the cookie.
+     * The bean's destroy method will properly close the store when the application shuts down.
+     *
+     * @param filename The file where the sessions are stored
+     * @param store The map implementation: FILE keeps all sessions on the heap, MAPPED keeps them in a memory-mapped file
+     * @param durability When writes to the session file are considered durable; FILE only
+     * @param nearCacheSize The maximum number of sessions kept in the near-cache in front of the map
+     * @param sweepIntervalSeconds The delay between two sweeps removing expired sessions
+     * @param loginCookieCodec The codec encrypting the sessions kept in the store
+     * @param cleanupScheduler The scheduler running the sweeps
+     * @param meterRegistry The registry the store and its near-cache register their meters with, if metrics are enabled
+     * @return A SessionStore instance
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "oag.session-mode", havingValue = "SERVER")
+    public SessionStore sessionStore(@Value("${oag.session-store-file:session-store.db}") String filename,
+                                     @Value("${oag.session-store:FILE}") PersistentMapType store,
+                                     @Value("${oag.session-store-durability:PER_RECORD}") DurabilityPolicy durability,
+                                     @Value("${oag.session-store-cache-size:10000}") long nearCacheSize,
+                                     @Value("${oag.session-store-sweep-interval-seconds:60}") long sweepIntervalSeconds,
+                                     LoginCookieCodec loginCookieCodec,
+                                     @Qualifier("cleanupScheduler") ThreadPoolTaskScheduler cleanupScheduler,
+                                     ObjectProvider<MeterRegistry> meterRegistry) {
+
+        if (store == PersistentMapType.OFF_HEAP) {
+            throw new ConfigurationException("The session store requires the FILE or MAPPED store");
+        }
+        if (nearCacheSize <= 0) {
+            throw new ConfigurationException("Invalid session store settings: cache size must be positive");
+        }
+
+        MeterRegistry registry = meterRegistry.getIfAvailable();
+        var mapMeters = registry == null ? null : new PersistentMapMeters(registry, "session-store");
+        PersistentMap<StoredSession> map;
+        if (store == PersistentMapType.MAPPED) {
+            map = new MappedPersistentMap<>(filename, StoredSession.class);
+        } else {
+            var settings = new FilePersistentMapSettings();
+            settings.setDurability(durability);
+            if (mapMeters != null) {
+                settings.setObserver(mapMeters);
+            }
+            map = new FilePersistentMap<>(filename, StoredSession.class, settings);
+        }
+        var sessionStore = new SessionStore(map, loginCookieCodec, clockSource, nearCacheSize);
+        if (mapMeters != null) {
+            mapMeters.bind(map);
+            CaffeineCacheMetrics.monitor(registry, sessionStore.getNearCache(), "oag.session.store");
+        }
+        sessionStore.startSweeper(cleanupScheduler, Duration.ofSeconds(sweepIntervalSeconds));
+        return sessionStore;
+    }
+
     /**
      * Creates a session blacklist for tracking invalidated sessions.
      * Uses a local persistent blacklist implementation that stores data in the specified file.
+     * With a replication bind address it replicates the invalidations to the other gateway instances. With a remote
+     * address the blacklist is kept in a shared key-value store instead and the local settings are ignored.
+     * The OFF_HEAP store has neither a filter, an invalidation queue nor a file map, so it only uses the file name and
+     * the sweep interval; the settings marked FILE or MAPPED below are ignored for it and it registers no meters.
      * The bean's destroy method will properly close the blacklist when the application shuts down.
      * 
      * @param filename The file where blacklist data should be stored, injected from properties
+     * @param store The map implementation: FILE keeps all entries on the heap, MAPPED keeps them in a memory-mapped file,
+     *              OFF_HEAP keeps the parsed session ids in native memory
+     * @param durability When writes to the blacklist file are considered durable (PER_RECORD or one of the group-commit policies); FILE only
+     * @param syncIntervalMillis The fsync interval used by the FSYNC_INTERVAL durability policy; FILE only
+     * @param maxDeltaEntries The number of changes kept on the heap before they are merged into the mapped file; MAPPED only
+     * @param sweepIntervalSeconds The delay between two sweeps removing expired entries
+     * @param filterType The filter answering lookups of identifiers that are not blacklisted; FILE and MAPPED only
+     * @param invalidationQueueSize The number of invalidations that can wait to be written in a batch, 0 to write each
+     *                              on its own; FILE and MAPPED only
+     * @param invalidationBatchSize The maximum number of invalidations written at once; FILE and MAPPED only
+     * @param replicationBind The host:port replication datagrams are received on; replication is off if blank. FILE and MAPPED only
+     * @param replicationPeers The comma separated host:port addresses of the other instances
+     * @param replicationSecret The secret shared by all instances, authenticates the replication datagrams
+     * @param remoteAddress The host:port of a key-value store speaking RESP (e.g. Redis) keeping the blacklist; local if blank
+     * @param remotePassword The password of the key-value store, if it needs one
+     * @param remoteKeyPrefix The prefix of the blacklist keys in the key-value store
+     * @param remoteNegativeCacheMillis How long a lookup of a session that is not blacklisted is cached
+     * @param cleanupScheduler The scheduler running the sweeps
+     * @param meterRegistry The registry the blacklist and its store register their meters with, if metrics are enabled;
+     *                      not used by OFF_HEAP
+     * @param config The main configuration, its session duration sizes the bloom filter slices
      * @return A SessionBlacklist implementation
      */
     @Bean(destroyMethod = "close")
-    public SessionBlacklist sessionBlacklist(@Value("${oag.session-blacklist-file}") String filename) {
-        return new LocalPersistentBlacklist(clockSource, new FilePersistentMap<>(filename, Integer.class));
+    public SessionBlacklist sessionBlacklist(@Value("${oag.session-blacklist-file}") String filename,
+                                             @Value("${oag.session-blacklist-store:FILE}") PersistentMapType store,
+                                             @Value("${oag.session-blacklist-durability:PER_RECORD}") DurabilityPolicy durability,
+                                             @Value("${oag.session-blacklist-sync-interval-ms:50}") long syncIntervalMillis,
+                                             @Value("${oag.session-blacklist-max-delta-entries:65536}") int maxDeltaEntries,
+                                             @Value("${oag.session-blacklist-sweep-interval-seconds:60}") long sweepIntervalSeconds,
+                                             @Value("${oag.session-blacklist-filter:BLOOM}") IdentifierFilterType filterType,
+                                             @Value("${oag.session-blacklist-invalidation-queue-size:16384}") int invalidationQueueSize,
+                                             @Value("${oag.session-blacklist-invalidation-batch-size:1024}") int invalidationBatchSize,
+                                             @Value("${oag.session-blacklist-replication-bind:}") String replicationBind,
+                                             @Value("${oag.session-blacklist-replication-peers:}") String replicationPeers,
+                                             @Value("${oag.session-blacklist-replication-secret:}") String replicationSecret,
+                                             @Value("${oag.session-blacklist-remote-address:}") String remoteAddress,
+                                             @Value("${oag.session-blacklist-remote-password:}") String remotePassword,
+                                             @Value("${oag.session-blacklist-remote-key-prefix:oag:blacklist:}") String remoteKeyPrefix,
+                                             @Value("${oag.session-blacklist-remote-negative-cache-ms:1000}") long remoteNegativeCacheMillis,
+                                             @Value("${oag.session-blacklist-snapshot-import:}") String snapshotImport,
+                                             @Qualifier("cleanupScheduler") ThreadPoolTaskScheduler cleanupScheduler,
+                                             ObjectProvider<MeterRegistry> meterRegistry,
+                                             MainConfig config) {
+
+        MeterRegistry registry = meterRegistry.getIfAvailable();
+
+        int sessionDuration = config.getSessionBehaviour().getSessionDuration();
+        boolean importSnapshot = !snapshotImport.isBlank();
+        if (importSnapshot && (!remoteAddress.isBlank() || store == PersistentMapType.OFF_HEAP)) {
+            throw new ConfigurationException("Session blacklist snapshot import requires the FILE or MAPPED store");
+        }
+        if (!remoteAddress.isBlank()) {
+            var remote = new RemoteBlacklistSettings();
+            try {
+                remote.setAddress(ReplicationSettings.parseAddress(remoteAddress));
+                remote.setPassword(remotePassword);
+                remote.setKeyPrefix(remoteKeyPrefix);
+                remote.setNegativeCacheTtl(Duration.ofMillis(remoteNegativeCacheMillis));
+            } catch (IllegalArgumentException e) {
+                throw new ConfigurationException("Invalid remote session blacklist settings: " + e.getMessage(), e);
+            }
+            var blacklist = new RemoteSessionBlacklist(clockSource, remote, sessionDuration);
+            if (registry != null) {
+                SessionBlacklistMeters.bind(registry, blacklist, RemoteSessionBlacklist::getBloomFilterMetrics);
+            }
+            return blacklist;
+        }
+
+        boolean replicated = !replicationBind.isBlank();
+        if (store == PersistentMapType.OFF_HEAP) {
+            if (replicated) {
+                throw new ConfigurationException("Session blacklist replication requires the FILE or MAPPED store");
+            }
+            var blacklist = OffHeapSessionBlacklist.open(clockSource, filename);
+            blacklist.startSweeper(cleanupScheduler, Duration.ofSeconds(sweepIntervalSeconds));
+            return blacklist;
+        }
+
+        var mapMeters = registry == null ? null : new PersistentMapMeters(registry, "session-blacklist");
+        PersistentMap<Integer> map;
+        if (store == PersistentMapType.MAPPED) {
+            map = new MappedPersistentMap<>(filename, Integer.class, maxDeltaEntries);
+        } else {
+            var settings = new FilePersistentMapSettings();
+            settings.setDurability(durability);
+            settings.setSyncIntervalMillis(syncIntervalMillis);
+            if (mapMeters != null) {
+                settings.setObserver(mapMeters);
+            }
+            map = new FilePersistentMap<>(filename, Integer.class, settings);
+        }
+        var blacklist = new LocalPersistentBlacklist(clockSource, map, sessionDuration, filterType);
+        if (mapMeters != null) {
+            mapMeters.bind(map);
+            SessionBlacklistMeters.bind(registry, blacklist, LocalPersistentBlacklist::getBloomFilterMetrics);
+        }
+        blacklist.startSweeper(cleanupScheduler, Duration.ofSeconds(sweepIntervalSeconds));
+        if (invalidationQueueSize > 0) {
+            blacklist.startInvalidationPipeline(invalidationQueueSize, invalidationBatchSize);
+        }
+        if (importSnapshot) {
+            try (var in = BlacklistSnapshot.openSource(snapshotImport, Duration.ofSeconds(30))) {
+                long imported = blacklist.importSnapshot(in);
+                log.info("Imported {} session blacklist entries from {}", imported, snapshotImport);
+            } catch (IOException e) {
+                try {
+                    blacklist.close();
+                } catch (IOException closeFailure) {
+                    e.addSuppressed(closeFailure);
+                }
+                throw new ConfigurationException("Cannot import session blacklist snapshot from " + snapshotImport, e);
+            }
+        }
+        if (!replicated) {
+            return blacklist;
+        }
+
+        var replication = new ReplicationSettings();
+        try {
+            replication.setBindAddress(ReplicationSettings.parseAddress(replicationBind));
+            replication.setPeers(ReplicationSettings.parseAddresses(replicationPeers));
+            replication.setSecret(replicationSecret);
+        } catch (IllegalArgumentException e) {
+            throw new ConfigurationException("Invalid session blacklist replication settings: " + e.getMessage(), e);
+        }
+        return new ReplicatedSessionBlacklist(clockSource, blacklist, replication);
     }
 }
@@ -0,0 +1,109 @@
+package org.owasp.oag.infrastructure.metrics;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.BaseUnits;
+import org.owasp.oag.persistentmap.CompactionMetrics;
+import org.owasp.oag.persistentmap.FilePersistentMap;
+import org.owasp.oag.persistentmap.MappedPersistentMap;
+import org.owasp.oag.persistentmap.PersistentMap;
+import org.owasp.oag.persistentmap.PersistentMapObserver;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Records the meters of a {@link PersistentMap}, tagged with the name of the map.
+ * <p>
+ * As the {@link PersistentMapObserver} of a {@link FilePersistentMap} it records the latency of
+ * appends and the wait for the write lock, so lock contention shows in
+ * {@code oag.persistentmap.lock.wait}. {@link #bind} adds gauges for the live entries and, where
+ * the map has them, the compactions, the appends since the last compaction and the size of the
+ * log, so log growth can be alerted on.
+ */
+public final class PersistentMapMeters implements PersistentMapObserver {
+
+    private final MeterRegistry registry;
+    private final Tags tags;
+    private final Timer appendTimer;
+    private final Timer lockWaitTimer;
+
+    /**
+     * Registers the timers of a map.
+     *
+     * @param registry the registry the meters are registered with
+     * @param name     the name of the map, the value of the {@code map} tag
+     */
+    public PersistentMapMeters(MeterRegistry registry, String name) {
+        this.registry = registry;
+        this.tags = Tags.of("map", name);
+        this.appendTimer = Timer.builder("oag.persistentmap.append")
+                .description("Time from the start of a write until it is durable")
+                .tags(tags)
+                .publishPercentileHistogram()
+                .register(registry);
+        this.lockWaitTimer = Timer.builder("oag.persistentmap.lock.wait")
+                .description("Time writes waited for the write lock")
+                .tags(tags)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    @Override
+    public void lockAcquired(long nanos) {
+        lockWaitTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void appended(long nanos, int records) {
+        appendTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Registers the gauges of a map. The registry only keeps a weak reference to the map.
+     *
+     * @param map the map, usually the one this observer was configured for
+     */
+    public void bind(PersistentMap<?> map) {
+        Gauge.builder("oag.persistentmap.entries", map, PersistentMap::size)
+                .description("Number of live entries")
+                .tags(tags)
+                .register(registry);
+
+        if (map instanceof FilePersistentMap<?> file) {
+            Gauge.builder("oag.persistentmap.appends.since.compaction", file, FilePersistentMap::getAppendsSinceCompaction)
+                    .description("Records appended since the last compaction")
+                    .tags(tags)
+                    .register(registry);
+            Gauge.builder("oag.persistentmap.log.size", file, FilePersistentMap::getLogSizeBytes)
+                    .description("Size of the snapshot and segment files")
+                    .tags(tags)
+                    .baseUnit(BaseUnits.BYTES)
+                    .register(registry);
+            TimeGauge.builder("oag.persistentmap.replay", file, TimeUnit.MILLISECONDS, FilePersistentMap::getReplayDurationMillis)
+                    .description("Duration of the log replay when the map was opened")
+                    .tags(tags)
+                    .register(registry);
+            bindCompactions(file, FilePersistentMap::getCompactionMetrics);
+        } else if (map instanceof MappedPersistentMap<?> mapped) {
+            bindCompactions(mapped, MappedPersistentMap::getCompactionMetrics);
+        }
+    }
+
+    private <M> void bindCompactions(M map, Function<M, CompactionMetrics> metrics) {
+        FunctionTimer.builder("oag.persistentmap.compactions", map, m -> metrics.apply(m).compactions(),
+                        m -> metrics.apply(m).totalDurationMillis(), TimeUnit.MILLISECONDS)
+                .description("Successful background compactions")
+                .tags(tags)
+                .register(registry);
+        FunctionCounter.builder("oag.persistentmap.compaction.failures", map, m -> metrics.apply(m).failures())
+                .description("Failed background compactions")
+                .tags(tags)
+                .register(registry);
+    }
+}
@@ -0,0 +1,65 @@
+package org.owasp.oag.infrastructure.metrics;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.BaseUnits;
+import org.owasp.oag.services.blacklist.BloomFilterMetrics;
+
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Registers the meters of the filter in front of a session blacklist, read from its
+ * {@link BloomFilterMetrics} on every scrape.
+ * <p>
+ * {@code oag.session.blacklist.lookups} splits the lookups by result: {@code filter-negative}
+ * lookups were answered by the filter alone, {@code db-hit} lookups found an invalidated session
+ * in the store and {@code db-miss} lookups were false positives of the filter that went to the
+ * store for nothing. A growing share of {@code db-miss} means the filter is overloaded.
+ */
+public final class SessionBlacklistMeters {
+
+    private SessionBlacklistMeters() {
+    }
+
+    /**
+     * Registers the meters of a blacklist. The registry only keeps a weak reference to the blacklist.
+     *
+     * @param registry  the registry the meters are registered with
+     * @param blacklist the blacklist
+     * @param metrics   reads the filter metrics of the blacklist
+     * @param <B>       the type of the blacklist
+     */
+    public static <B> void bind(MeterRegistry registry, B blacklist, Function<B, BloomFilterMetrics> metrics) {
+        gauge(registry, "oag.session.blacklist.filter.fpp", "Estimated false positive rate of the filter", blacklist,
+                b -> metrics.apply(b).estimatedFpp());
+        gauge(registry, "oag.session.blacklist.filter.entries", "Approximate number of identifiers in the filter",
+                blacklist, b -> metrics.apply(b).entries());
+        Gauge.builder("oag.session.blacklist.filter.size", blacklist, b -> metrics.apply(b).sizeBytes())
+                .description("Size of the filter tables")
+                .baseUnit(BaseUnits.BYTES)
+                .register(registry);
+
+        lookups(registry, "filter-negative", blacklist, b -> metrics.apply(b).misses());
+        lookups(registry, "db-hit", blacklist, b -> {
+            var current = metrics.apply(b);
+            return Math.max(0, current.hits() - current.falsePositives());
+        });
+        lookups(registry, "db-miss", blacklist, b -> metrics.apply(b).falsePositives());
+    }
+
+    private static <B> void gauge(MeterRegistry registry, String name, String description, B blacklist,
+                                  ToDoubleFunction<B> value) {
+        Gauge.builder(name, blacklist, value)
+                .description(description)
+                .register(registry);
+    }
+
+    private static <B> void lookups(MeterRegistry registry, String result, B blacklist, ToDoubleFunction<B> count) {
+        FunctionCounter.builder("oag.session.blacklist.lookups", blacklist, count)
+                .description("Session blacklist lookups by result")
+                .tag("result", result)
+                .register(registry);
+    }
+}
@@ -0,0 +1,72 @@
+package org.owasp.oag.persistentmap;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A small pool of equally sized direct {@link ByteBuffer}s used for log file I/O. Direct buffers
+ * are expensive to allocate and are only released by the garbage collector, so writers and
+ * readers borrow them from here instead of allocating a new one per file.
+ */
+final class BufferPool {
+
+    /** Size of the pooled buffers in bytes. */
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    /** The pool shared by all persistent maps. */
+    static final BufferPool SHARED = new BufferPool(BUFFER_SIZE, 16);
+
+    /** Capacity of every pooled buffer. */
+    private final int bufferSize;
+
+    /** Maximum number of idle buffers kept in the pool. */
+    private final int maxIdle;
+
+    /** Idle buffers ready to be handed out. */
+    private final ConcurrentLinkedQueue<ByteBuffer> idle = new ConcurrentLinkedQueue<>();
+
+    /** Number of buffers in {@link #idle}. */
+    private final AtomicInteger idleCount = new AtomicInteger();
+
+    /**
+     * Creates a pool.
+     *
+     * @param bufferSize the capacity of every buffer
+     * @param maxIdle    the maximum number of idle buffers kept
+     */
+    BufferPool(int bufferSize, int maxIdle) {
+        this.bufferSize = bufferSize;
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * Borrows a cleared buffer, allocating a new one if the pool is empty.
+     *
+     * @return a direct buffer of {@link #BUFFER_SIZE} bytes
+     */
+    ByteBuffer acquire() {
+        ByteBuffer buffer = idle.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        idleCount.decrementAndGet();
+        return buffer.clear();
+    }
+
+    /**
+     * Returns a buffer to the pool. Buffers that were not handed out by this pool are ignored.
+     *
+     * @param buffer the buffer to return, may be {@code null}
+     */
+    void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect() || buffer.capacity() != bufferSize) {
+            return;
+        }
+        if (idleCount.incrementAndGet() <= maxIdle) {
+            idle.offer(buffer);
+        } else {
+            idleCount.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package org.owasp.oag.persistentmap;
+
+/**
+ * Point-in-time statistics of the background compactions of a {@link FilePersistentMap}, or the
+ * background merges of a {@link MappedPersistentMap}.
+ *
+ * @param compactions          the number of successful compactions
+ * @param failures             the number of failed compactions
+ * @param lastDurationMillis   the duration of the last successful compaction
+ * @param totalDurationMillis  the accumulated duration of all successful compactions
+ * @param lastBytesReclaimed   the number of bytes freed by the last successful compaction
+ * @param totalBytesReclaimed  the number of bytes freed by all successful compactions
+ */
+public record CompactionMetrics(long compactions, long failures, long lastDurationMillis,
+                                long totalDurationMillis, long lastBytesReclaimed, long totalBytesReclaimed) {
+
+    /** Metrics of a map that has not compacted yet. */
+    static final CompactionMetrics NONE = new CompactionMetrics(0, 0, 0, 0, 0, 0);
+
+    /**
+     * Returns these metrics with a successful compaction added.
+     *
+     * @param durationMillis the duration of the compaction
+     * @param bytesReclaimed the number of bytes freed by the compaction
+     * @return the updated metrics
+     */
+    CompactionMetrics withCompaction(long durationMillis, long bytesReclaimed) {
+        return new CompactionMetrics(compactions + 1, failures, durationMillis, totalDurationMillis + durationMillis,
+                bytesReclaimed, totalBytesReclaimed + bytesReclaimed);
+    }
+
+    /**
+     * Returns these metrics with a failed compaction added.
+     *
+     * @return the updated metrics
+     */
+    CompactionMetrics withFailure() {
+        return new CompactionMetrics(compactions, failures + 1, lastDurationMillis, totalDurationMillis,
+                lastBytesReclaimed, totalBytesReclaimed);
+    }
+}
@@ -0,0 +1,40 @@
+package org.owasp.oag.persistentmap;
+
+/**
+ * Defines when records appended by a {@link FilePersistentMap} are considered durable and the
+ * waiting writers are released.
+ */
+public enum DurabilityPolicy {
+
+    /**
+     * Every record is written and flushed by the calling thread while holding the write lock.
+     * This is the classic behaviour and the default.
+     */
+    PER_RECORD,
+
+    /**
+     * Records are queued and written in batches by a dedicated committer thread. The writer is
+     * flushed to the operating system once per batch.
+     */
+    FLUSH_PER_BATCH,
+
+    /**
+     * Like {@link #FLUSH_PER_BATCH} but the log file is additionally fsynced once per batch.
+     */
+    FSYNC_PER_BATCH,
+
+    /**
+     * Like {@link #FLUSH_PER_BATCH} but the log file is fsynced at most once per configured
+     * interval. Writers are released once the fsync covering their record has completed.
+     */
+    FSYNC_INTERVAL;
+
+    /**
+     * Checks whether this policy uses the group-commit committer thread.
+     *
+     * @return {@code true} for all batching policies
+     */
+    public boolean isGroupCommit() {
+        return this != PER_RECORD;
+    }
+}
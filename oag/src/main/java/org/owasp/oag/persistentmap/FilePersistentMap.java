@@ -9,32 +9,61 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.UncheckedIOException;
-import java.io.Writer;
-import java.nio.channels.FileChannel;
 import java.nio.charset.CharsetDecoder;
 import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
-import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * A {@link PersistentMap} backed by an append-only log file. Every {@code put}/{@code remove}
- * appends a single JSON record (one per line) and flushes it before returning, giving
- * durability across restarts without any Java serialization.
+ * appends a single length-prefixed, checksummed binary record (see {@link RecordCodec}) and
+ * flushes it before returning, giving durability across restarts without any Java
+ * serialization. Log files in the former single-file JSON-lines format are migrated on first
+ * load.
  * <p>
- * To keep the log from growing without bound the file is compacted (rewritten from the live
- * in-memory state, atomically) once enough records have been appended since the last
- * compaction. Compaction is an internal concern and is never exposed on the interface.
+ * The log consists of the snapshot files written by the last compaction
+ * ({@code <file>.snapshot-<n>-<i>}) followed by numbered segment files ({@code <file>.1},
+ * {@code <file>.2}, ...) holding the records appended since. A manifest
+ * ({@code <file>.manifest}, see {@link LogManifest}) lists the live files. A segment rolls
+ * over to the next one once it reaches the configured size. On startup the files are replayed
+ * in parallel on a {@link ForkJoinPool}: snapshot files straight into the map, segments into
+ * per-segment deltas that are merged in sequence order, so the last write of a key still wins.
+ * <p>
+ * To keep the log from growing without bound it is compacted once enough records have been
+ * appended since the last compaction: appends roll over to a fresh segment and a background
+ * thread writes a new snapshot from the live in-memory state, swaps it in by replacing the
+ * manifest and deletes the files it covers. Writers never wait for that rewrite. Compaction is
+ * an internal concern and is never exposed on the interface; its statistics are available
+ * through {@link #getCompactionMetrics()}.
+ * <p>
+ * With a group-commit {@link DurabilityPolicy} writers only update the in-memory map and queue
+ * their record; a {@link GroupCommitter} thread writes the queued records in batches and
+ * releases the writers once their batch is durable. The write lock is then only held for the
+ * in-memory update, so concurrent writers no longer queue up behind each other's I/O.
  *
  * @param <V> the value type
  */
@@ -51,27 +80,79 @@ public class FilePersistentMap<V> implements PersistentMap<V> {
     /** In-memory mirror of the persisted entries; reads are served from here. */
     private final ConcurrentHashMap<String, V> map = new ConcurrentHashMap<>();
 
-    /** Absolute path of the log file. */
+    /**
+     * Absolute configured path of the log; all log files are named after it. Logs written
+     * before the manifest existed consist of this file followed by the segments.
+     */
     private final Path file;
 
-    /** Directory containing {@link #file}, used for temp files and fsync. */
+    /** Directory containing the log files, used for temp files and fsync. */
     private final Path directory;
 
-    /** Jackson mapper used to (de)serialize log records. */
+    /** The manifest listing the live log files. */
+    private final Path manifestFile;
+
+    /** Jackson mapper used to read legacy JSON log files. */
     private final ObjectMapper objectMapper;
 
-    /** Fully resolved type of {@code LogRecord<V>} for deserialization. */
+    /** Fully resolved type of {@code LogRecord<V>} for legacy JSON deserialization. */
     private final JavaType recordType;
 
+    /** Binary encoding of the log records. */
+    private final RecordCodec<V> codec;
+
+    /** Size after which segments roll over and snapshot files are split. */
+    private final long maxSegmentBytes;
+
     /** Guards all writes and the compaction writer swap. */
     private final ReentrantLock writeLock = new ReentrantLock();
 
-    /** Append writer on {@link #file}; replaced during compaction. */
-    private Writer writer;
+    /** Guards {@link #manifest} and the manifest file, which rollovers and compactions update. */
+    private final ReentrantLock manifestLock = new ReentrantLock();
+
+    /** The committer thread, or {@code null} in {@link DurabilityPolicy#PER_RECORD} mode. */
+    private final GroupCommitter<V> committer;
+
+    /** Runs the background compactions one at a time. */
+    private final ExecutorService compactionExecutor;
+
+    /** Statistics of the background compactions. */
+    private final AtomicReference<CompactionMetrics> compactionMetrics = new AtomicReference<>(CompactionMetrics.NONE);
+
+    /** The live log files; guarded by {@link #manifestLock}. */
+    private LogManifest manifest;
+
+    /**
+     * Append writer on the active segment; replaced on rollover. Like the fields below it is
+     * owned by the thread holding {@link #writeLock}, or by the {@link GroupCommitter} thread in
+     * group-commit mode.
+     */
+    private LogWriter<V> writer;
+
+    /** Sequence number of the next segment, also used to name the snapshot files. */
+    private long nextSegment;
 
-    /** Number of records appended since the last compaction. */
+    /** The most recently started compaction. */
+    private CompletableFuture<Void> pendingCompaction = CompletableFuture.completedFuture(null);
+
+    /** Set once the map is closed; guarded by {@link #writeLock}. */
+    private boolean closed;
+
+    /**
+     * Number of records appended since the last compaction. Read without synchronization by
+     * {@link #getAppendsSinceCompaction()}, which may see a slightly stale value.
+     */
     private int appendsSinceCompaction;
 
+    /** Receives the timings of writes and of the replay. */
+    private final PersistentMapObserver observer;
+
+    /** Whether the writes are timed for a real {@link #observer}. */
+    private final boolean observed;
+
+    /** Duration of the replay when the map was opened. */
+    private long replayNanos;
+
     /**
      * Creates a file-backed map, replaying any existing log file.
      *
@@ -79,7 +160,18 @@ public class FilePersistentMap<V> implements PersistentMap<V> {
      * @param valueType the runtime class of the value type, used for deserialization
      */
     public FilePersistentMap(String filename, Class<V> valueType) {
-        this(filename, valueType, new ObjectMapper());
+        this(filename, valueType, new FilePersistentMapSettings());
+    }
+
+    /**
+     * Creates a file-backed map with custom settings, replaying any existing log file.
+     *
+     * @param filename  the log file path
+     * @param valueType the runtime class of the value type, used for deserialization
+     * @param settings  the tuning settings, e.g. the durability policy
+     */
+    public FilePersistentMap(String filename, Class<V> valueType, FilePersistentMapSettings settings) {
+        this(filename, valueType, new ObjectMapper(), settings);
     }
 
     /**
@@ -88,13 +180,36 @@ public class FilePersistentMap<V> implements PersistentMap<V> {
      * @param filename     the log file path
      * @param valueType    the runtime class of the value type, used for deserialization
      * @param objectMapper the Jackson mapper to use
+     * @param settings     the tuning settings
      */
-    FilePersistentMap(String filename, Class<V> valueType, ObjectMapper objectMapper) {
+    FilePersistentMap(String filename, Class<V> valueType, ObjectMapper objectMapper, FilePersistentMapSettings settings) {
         this.file = Paths.get(filename).toAbsolutePath();
         this.directory = this.file.getParent();
+        this.manifestFile = manifestPath(this.file);
         this.objectMapper = objectMapper;
         this.recordType = objectMapper.getTypeFactory().constructParametricType(LogRecord.class, valueType);
-        load();
+        this.codec = RecordCodec.create(valueType, objectMapper);
+        this.maxSegmentBytes = settings.getMaxSegmentBytes();
+        this.observer = settings.getObserver();
+        this.observed = observer != PersistentMapObserver.NONE;
+        this.compactionExecutor = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "persistent-map-compaction-" + file.getFileName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            long start = System.nanoTime();
+            load(settings.getReplayParallelism());
+            replayNanos = System.nanoTime() - start;
+            observer.replayed(replayNanos, map.size());
+        } catch (RuntimeException e) {
+            compactionExecutor.shutdownNow();
+            closeWriterQuietly();
+            throw e;
+        }
+        this.committer = settings.getDurability().isGroupCommit()
+                ? new GroupCommitter<>(this, settings, "persistent-map-" + file.getFileName())
+                : null;
     }
 
     @Override
@@ -104,12 +219,17 @@ public class FilePersistentMap<V> implements PersistentMap<V> {
 
     @Override
     public void put(String key, V value) {
+        await(putAsync(key, value));
+    }
+
+    @Override
+    public CompletableFuture<Void> putAsync(String key, V value) {
         Objects.requireNonNull(value, "value must not be null");
-        writeLock.lock();
+        long start = lockForWrite();
         try {
+            ensureOpen();
             map.put(key, value);
-            append(new LogRecord<>(key, value));
-            maybeCompact();
+            return observe(start, 1, write(new LogRecord<>(key, value)));
         } finally {
             writeLock.unlock();
         }
@@ -117,15 +237,98 @@ public class FilePersistentMap<V> implements PersistentMap<V> {
 
     @Override
     public void remove(String key) {
+        await(removeAsync(key));
+    }
+
+    @Override
+    public CompletableFuture<Void> removeAsync(String key) {
+        long start = lockForWrite();
+        try {
+            ensureOpen();
+            if (map.remove(key) == null) {
+                return CompletableFuture.completedFuture(null);
+            }
+            return observe(start, 1, write(new LogRecord<>(key, null)));
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> putAllAsync(Map<String, V> entries) {
+        long start = lockForWrite();
+        try {
+            ensureOpen();
+            List<LogRecord<V>> records = new ArrayList<>(entries.size());
+            for (Map.Entry<String, V> entry : entries.entrySet()) {
+                V value = Objects.requireNonNull(entry.getValue(), "value must not be null");
+                map.put(entry.getKey(), value);
+                records.add(new LogRecord<>(entry.getKey(), value));
+            }
+            return observe(start, records.size(), writeBatch(records));
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> removeAllAsync(Collection<String> keys) {
+        long start = lockForWrite();
+        try {
+            ensureOpen();
+            List<LogRecord<V>> records = new ArrayList<>(keys.size());
+            for (String key : keys) {
+                if (map.remove(key) != null) {
+                    records.add(new LogRecord<>(key, null));
+                }
+            }
+            return observe(start, records.size(), writeBatch(records));
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super String, ? super V> action) {
+        map.forEach(action);
+    }
+
+    @Override
+    public ScanCursor<V> scan() {
+        return new MapScanCursor<>(map);
+    }
+
+    @Override
+    public int removeIf(BiPredicate<? super String, ? super V> filter) {
+        // Test the entries without blocking writers, then remove the matches under the lock.
+        List<String> candidates = new ArrayList<>();
+        map.forEach((key, value) -> {
+            if (filter.test(key, value)) {
+                candidates.add(key);
+            }
+        });
+        if (candidates.isEmpty()) {
+            return 0;
+        }
+
+        CompletableFuture<Void> done;
+        List<LogRecord<V>> records = new ArrayList<>(candidates.size());
         writeLock.lock();
         try {
-            if (map.remove(key) != null) {
-                append(new LogRecord<>(key, null));
-                maybeCompact();
+            ensureOpen();
+            for (String key : candidates) {
+                V value = map.get(key);
+                if (value != null && filter.test(key, value)) {
+                    map.remove(key);
+                    records.add(new LogRecord<>(key, null));
+                }
             }
+            done = writeBatch(records);
         } finally {
             writeLock.unlock();
         }
+        await(done);
+        return records.size();
     }
 
     @Override
@@ -133,6 +336,11 @@ public class FilePersistentMap<V> implements PersistentMap<V> {
         return map.containsKey(key);
     }
 
+    @Override
+    public boolean hasNonBlockingReads() {
+        return true;
+    }
+
     @Override
     public int size() {
         return map.size();
@@ -140,13 +348,22 @@ public class FilePersistentMap<V> implements PersistentMap<V> {
 
     @Override
     public void clear() {
+        CompletableFuture<Void> done;
         writeLock.lock();
         try {
+            ensureOpen();
             map.clear();
-            compactLocked();
+            done = write(LogRecord.clearAll());
+            // Everything logged so far is garbage now.
+            if (committer != null) {
+                committer.submitCompaction();
+            } else if (pendingCompaction.isDone()) {
+                startCompaction(false);
+            }
         } finally {
             writeLock.unlock();
         }
+        await(done);
     }
 
     @Override
@@ -158,6 +375,22 @@ public class FilePersistentMap<V> implements PersistentMap<V> {
 
     @Override
     public void close() {
+        writeLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        } finally {
+            writeLock.unlock();
+        }
+
+        // Writers that passed ensureOpen() have already queued their records, so the committer
+        // drains and syncs them before stopping.
+        if (committer != null) {
+            committer.shutdown();
+        }
+
         writeLock.lock();
         try {
             closeWriter();
@@ -165,55 +398,380 @@ public class FilePersistentMap<V> implements PersistentMap<V> {
             throw new UncheckedIOException("Failed to close " + file, e);
         } finally {
             writeLock.unlock();
+            awaitCompactions();
         }
     }
 
     /**
-     * Replays the existing log file into memory and opens the append writer. Records are
-     * applied directly to the in-memory map (never through {@link #put}/{@link #remove}) so a
-     * restart does not re-append existing entries. Unreadable content is skipped; if any was
-     * seen the file is compacted once to rewrite it in the clean format.
+     * Returns the statistics of the background compactions.
+     *
+     * @return the compaction metrics
      */
-    private void load() {
-        boolean sawUnreadable = false;
-        if (Files.exists(file)) {
-            CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
-                    .onMalformedInput(CodingErrorAction.REPLACE)
-                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(file), decoder))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    if (line.isEmpty()) {
-                        continue;
-                    }
-                    if (!apply(line)) {
-                        sawUnreadable = true;
-                    }
-                }
+    public CompactionMetrics getCompactionMetrics() {
+        return compactionMetrics.get();
+    }
+
+    /**
+     * Returns the number of records appended since the last compaction. A compaction starts once
+     * it exceeds twice the live entry count, so steady growth means compactions do not keep up.
+     *
+     * @return the appends since the last compaction
+     */
+    public int getAppendsSinceCompaction() {
+        return appendsSinceCompaction;
+    }
+
+    /**
+     * Returns the total size of the live log files: the snapshot files and the segments.
+     *
+     * @return the log size in bytes
+     */
+    public long getLogSizeBytes() {
+        List<String> names = new ArrayList<>();
+        manifestLock.lock();
+        try {
+            names.addAll(manifest.snapshot());
+            names.addAll(manifest.segments());
+        } finally {
+            manifestLock.unlock();
+        }
+        long bytes = 0;
+        for (String name : names) {
+            try {
+                bytes += Files.size(directory.resolve(name));
             } catch (IOException e) {
-                throw new UncheckedIOException("Failed to read " + file, e);
+                // Deleted by a concurrent compaction, its replacement is counted next time
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns how long the log replay took when the map was opened.
+     *
+     * @return the replay duration in milliseconds
+     */
+    public long getReplayDurationMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(replayNanos);
+    }
+
+    /**
+     * Acquires {@link #writeLock} for a write and reports the wait to the observer.
+     *
+     * @return the start of the write in {@link System#nanoTime()}, or 0 if writes are not observed
+     */
+    private long lockForWrite() {
+        if (!observed) {
+            writeLock.lock();
+            return 0;
+        }
+        long start = System.nanoTime();
+        writeLock.lock();
+        observer.lockAcquired(System.nanoTime() - start);
+        return start;
+    }
+
+    /**
+     * Reports the duration of a write to the observer once it is durable.
+     *
+     * @param start   the start of the write, see {@link #lockForWrite()}
+     * @param records the number of records written
+     * @param done    the completion of the write
+     * @return a future completed like {@code done} once the duration was reported
+     */
+    private CompletableFuture<Void> observe(long start, int records, CompletableFuture<Void> done) {
+        if (!observed || records == 0) {
+            return done;
+        }
+        return done.whenComplete((unused, error) -> {
+            if (error == null) {
+                observer.appended(System.nanoTime() - start, records);
+            }
+        });
+    }
+
+    /**
+     * Returns the files making up a log in replay order: the snapshot files followed by the
+     * segments. Package-private for tests.
+     *
+     * @param filename the log file path
+     * @return the log files
+     * @throws IOException if the manifest or the directory cannot be read
+     */
+    static List<Path> logFiles(String filename) throws IOException {
+        Path base = Paths.get(filename).toAbsolutePath();
+        Path manifestFile = manifestPath(base);
+        LogManifest manifest = Files.exists(manifestFile)
+                ? LogManifest.read(manifestFile, new ObjectMapper())
+                : legacyManifest(base);
+        List<Path> files = new ArrayList<>();
+        manifest.snapshot().forEach(name -> files.add(base.resolveSibling(name)));
+        manifest.segments().forEach(name -> files.add(base.resolveSibling(name)));
+        return files;
+    }
+
+    /**
+     * Writes a record according to the durability policy. Must be called while holding
+     * {@link #writeLock}, after the in-memory map was updated.
+     *
+     * @param record the record to write
+     * @return a future completed once the record is durable
+     */
+    private CompletableFuture<Void> write(LogRecord<V> record) {
+        if (committer != null) {
+            return committer.submitRecord(record);
+        }
+        append(record);
+        maybeRollOver(false);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Writes several records according to the durability policy with a single flush, or as one
+     * group-commit command. Must be called while holding {@link #writeLock}, after the in-memory
+     * map was updated.
+     *
+     * @param records the records to write
+     * @return a future completed once all records are durable
+     */
+    private CompletableFuture<Void> writeBatch(List<LogRecord<V>> records) {
+        if (records.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (committer != null) {
+            return committer.submitRecords(records);
+        }
+        try {
+            for (LogRecord<V> record : records) {
+                writeRecord(record);
+            }
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to append to " + file, e);
+        }
+        maybeRollOver(false);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Throws if the map was closed. Must be called while holding {@link #writeLock}.
+     */
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("Persistent map " + file + " is closed");
+        }
+    }
+
+    /**
+     * Waits for a write to become durable, rethrowing its failure unwrapped.
+     *
+     * @param done the completion of the write
+     */
+    private static void await(CompletableFuture<Void> done) {
+        try {
+            done.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Replays the log into memory and opens the append writer. Records are applied directly to
+     * the in-memory map (never through {@link #put}/{@link #remove}) so a restart does not
+     * re-append existing entries. Corrupt records and torn trailing writes are skipped; if any
+     * were seen, or the log was still in the legacy JSON format, the log is compacted into the
+     * clean binary format before the map is used.
+     *
+     * @param parallelism the number of threads replaying the log files
+     */
+    private void load(int parallelism) {
+        ReplayOutcome outcome;
+        try {
+            boolean hasManifest = Files.exists(manifestFile);
+            LogManifest loaded = hasManifest ? LogManifest.read(manifestFile, objectMapper) : legacyManifest(file);
+            outcome = replay(loaded, parallelism);
+            appendsSinceCompaction = (int) Math.min(Integer.MAX_VALUE, outcome.segmentRecords());
+
+            nextSegment = 1;
+            for (String name : loaded.snapshot()) {
+                nextSegment = Math.max(nextSegment, snapshotSequence(file, directory.resolve(name)) + 1);
+            }
+            for (String name : loaded.segments()) {
+                nextSegment = Math.max(nextSegment, segmentSequence(file, directory.resolve(name)) + 1);
+            }
+            if (hasManifest) {
+                deleteOrphans(loaded);
+            }
+
+            // Keep appending to the last segment unless it may end in a torn record.
+            List<String> segments = loaded.segments();
+            Path last = segments.isEmpty() ? null : directory.resolve(segments.get(segments.size() - 1));
+            if (!outcome.unreadable() && last != null && segmentSequence(file, last) > 0) {
+                manifest = loaded;
+                writer = new LogWriter<>(last, codec);
+                if (!hasManifest) {
+                    writeManifest(manifest);
+                }
+            } else {
+                Path segment = segmentPath(nextSegment++);
+                writer = new LogWriter<>(segment, codec);
+                manifest = loaded.withSegment(segment.getFileName().toString());
+                writeManifest(manifest);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to load " + file, e);
+        }
+
+        if (outcome.unreadable()) {
+            log.warn("Persistent map file {} contained unreadable records; rewriting in clean format", file);
+        }
+        if (outcome.unreadable() || outcome.migrated()) {
+            // Repair the log before the map is handed out.
+            await(startCompaction(false));
+        } else if (needsCompaction()) {
+            startCompaction(false);
+        }
+    }
+
+    /**
+     * Replays the log files on a dedicated {@link ForkJoinPool}. Snapshot files hold every key at
+     * most once and are replayed concurrently straight into the map. Segments are decoded
+     * concurrently into per-segment deltas, which are then applied in sequence order on top of
+     * the snapshot so the last write of every key wins.
+     *
+     * @param logManifest the log files to replay
+     * @param parallelism the number of replay threads
+     * @return what the replay found
+     * @throws IOException if a file cannot be read or has an unsupported format version
+     */
+    private ReplayOutcome replay(LogManifest logManifest, int parallelism) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<CompletableFuture<LogReader.ReplayResult>> snapshotTasks = new ArrayList<>();
+            for (String name : logManifest.snapshot()) {
+                Path snapshotFile = directory.resolve(name);
+                snapshotTasks.add(CompletableFuture.supplyAsync(() -> replaySnapshot(snapshotFile), pool));
+            }
+            List<CompletableFuture<SegmentDelta<V>>> segmentTasks = new ArrayList<>();
+            for (String name : logManifest.segments()) {
+                Path segment = directory.resolve(name);
+                segmentTasks.add(CompletableFuture.supplyAsync(() -> readSegment(segment), pool));
+            }
+
+            boolean unreadable = false;
+            for (CompletableFuture<LogReader.ReplayResult> task : snapshotTasks) {
+                unreadable |= join(task).unreadable() > 0;
+            }
+            boolean migrated = false;
+            long segmentRecords = 0;
+            for (CompletableFuture<SegmentDelta<V>> task : segmentTasks) {
+                SegmentDelta<V> delta = join(task);
+                delta.applyTo(map);
+                segmentRecords += delta.records;
+                unreadable |= delta.unreadable;
+                migrated |= delta.legacy;
             }
+            return new ReplayOutcome(segmentRecords, unreadable, migrated);
+        } finally {
+            pool.shutdownNow();
         }
+    }
 
+    /**
+     * Replays a snapshot file into the map. Runs concurrently with the other snapshot files.
+     *
+     * @param snapshotFile the snapshot file
+     * @return the replay statistics
+     */
+    private LogReader.ReplayResult replaySnapshot(Path snapshotFile) {
         try {
-            openWriter();
+            if (!Files.exists(snapshotFile) || !LogReader.hasBinaryHeader(snapshotFile)) {
+                log.warn("Persistent map file {} is missing or unreadable", snapshotFile);
+                return new LogReader.ReplayResult(0, 1);
+            }
+            return LogReader.replay(snapshotFile, codec, new LogReader.RecordSink<>() {
+                @Override
+                public void accept(String key, V value) {
+                    applyRecord(key, value);
+                }
+
+                @Override
+                public void clear() {
+                    // Snapshots never contain clear records.
+                }
+            });
         } catch (IOException e) {
-            throw new UncheckedIOException("Failed to open " + file, e);
+            throw new UncheckedIOException(e);
         }
+    }
 
-        if (sawUnreadable) {
-            log.warn("Persistent map file {} contained unreadable content; rewriting in clean format", file);
-            compactLocked();
+    /**
+     * Reads a segment into a delta. The base file of a pre-manifest log may still be in the
+     * legacy JSON-lines format and is read accordingly.
+     *
+     * @param segment the segment file
+     * @return the net effect of the segment
+     */
+    private SegmentDelta<V> readSegment(Path segment) {
+        SegmentDelta<V> delta = new SegmentDelta<>();
+        try {
+            if (!Files.exists(segment)) {
+                log.warn("Persistent map file {} is missing", segment);
+                delta.unreadable = true;
+            } else if (Files.size(segment) == 0) {
+                return delta;
+            } else if (LogReader.hasBinaryHeader(segment)) {
+                var result = LogReader.replay(segment, codec, delta);
+                delta.records = result.records();
+                delta.unreadable = result.unreadable() > 0;
+            } else if (segment.equals(file)) {
+                log.info("Migrating persistent map file {} from the JSON format to the binary format", file);
+                loadLegacyJson(delta);
+                delta.legacy = true;
+            } else {
+                delta.unreadable = true;
+            }
+            return delta;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
     }
 
     /**
-     * Applies a single log line to the in-memory map.
+     * Replays the base file in the legacy JSON-lines format. Unreadable lines are skipped.
+     *
+     * @param sink receives the records
+     * @throws IOException if the file cannot be read
+     */
+    private void loadLegacyJson(LogReader.RecordSink<V> sink) throws IOException {
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        boolean unreadable = false;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(file), decoder))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty() && !applyJson(line, sink)) {
+                    unreadable = true;
+                }
+            }
+        }
+        if (unreadable) {
+            log.warn("Persistent map file {} contained unreadable lines; they are dropped during the migration", file);
+        }
+    }
+
+    /**
+     * Applies a single legacy JSON log line.
      *
      * @param line the raw JSON line
+     * @param sink receives the record
      * @return {@code true} if the line was a valid record, {@code false} if it was unreadable
      */
-    private boolean apply(String line) {
+    private boolean applyJson(String line, LogReader.RecordSink<V> sink) {
         LogRecord<V> record;
         try {
             record = objectMapper.readValue(line, recordType);
@@ -223,12 +781,61 @@ public class FilePersistentMap<V> implements PersistentMap<V> {
         if (record.k == null) {
             return false;
         }
-        if (record.v == null) {
-            map.remove(record.k);
+        sink.accept(record.k, record.v);
+        return true;
+    }
+
+    /**
+     * Applies a replayed record to the in-memory map.
+     *
+     * @param key   the key
+     * @param value the value, or {@code null} for a tombstone
+     */
+    private void applyRecord(String key, V value) {
+        if (value == null) {
+            map.remove(key);
         } else {
-            map.put(record.k, record.v);
+            map.put(key, value);
+        }
+    }
+
+    /**
+     * Joins a replay task, unwrapping I/O failures.
+     *
+     * @param task the task
+     * @param <T>  the result type
+     * @return the result
+     * @throws IOException if the task failed with an I/O error
+     */
+    private static <T> T join(CompletableFuture<T> task) throws IOException {
+        try {
+            return task.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException io) {
+                throw io.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Deletes log files of this map that the manifest does not reference, e.g. the snapshot of
+     * an interrupted compaction or files whose deletion was interrupted by a crash.
+     *
+     * @param live the manifest listing the live files
+     * @throws IOException if the directory cannot be listed
+     */
+    private void deleteOrphans(LogManifest live) throws IOException {
+        var names = new HashSet<String>(live.snapshot());
+        names.addAll(live.segments());
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(f -> !names.contains(f.getFileName().toString()))
+                    .filter(f -> f.equals(file) || segmentSequence(file, f) > 0 || snapshotSequence(file, f) > 0)
+                    .forEach(orphan -> {
+                        log.info("Deleting unreferenced persistent map file {}", orphan);
+                        LogFiles.deleteQuietly(orphan);
+                    });
         }
-        return true;
     }
 
     /**
@@ -238,75 +845,294 @@ public class FilePersistentMap<V> implements PersistentMap<V> {
      */
     private void append(LogRecord<V> record) {
         try {
-            writer.write(objectMapper.writeValueAsString(record));
-            writer.write('\n');
+            writeRecord(record);
             writer.flush();
-            appendsSinceCompaction++;
         } catch (IOException e) {
             throw new UncheckedIOException("Failed to append to " + file, e);
         }
     }
 
     /**
-     * Compacts the log when the number of appends since the last compaction exceeds a
-     * threshold proportional to the live entry count.
+     * Writes a record to the log without flushing it.
+     *
+     * @param record the record to write
+     * @throws IOException if writing fails
+     */
+    private void writeRecord(LogRecord<V> record) throws IOException {
+        if (record.k == null) {
+            writer.appendClear();
+        } else {
+            writer.append(record.k, record.v);
+        }
+        appendsSinceCompaction++;
+    }
+
+    /**
+     * Appends a record without flushing. Only called from the {@link GroupCommitter} thread,
+     * which owns the writer in group-commit mode.
+     *
+     * @param record the record to append
+     * @throws IOException if writing fails
+     */
+    void appendFromCommitter(LogRecord<V> record) throws IOException {
+        writeRecord(record);
+    }
+
+    /**
+     * Flushes the writer to the operating system. Only called from the {@link GroupCommitter}.
+     *
+     * @throws IOException if flushing fails
+     */
+    void flushFromCommitter() throws IOException {
+        writer.flush();
+    }
+
+    /**
+     * Flushes the writer and fsyncs the log file. Only called from the {@link GroupCommitter}.
+     *
+     * @throws IOException if flushing or syncing fails
+     */
+    void syncFromCommitter() throws IOException {
+        writer.sync();
+    }
+
+    /**
+     * Starts a compaction. Only called from the {@link GroupCommitter}.
+     *
+     * @return a future completed once the compaction finished
+     */
+    CompletableFuture<Void> compactFromCommitter() {
+        return startCompaction(true);
+    }
+
+    /**
+     * Starts a compaction or rolls over to a new segment if due. Only called from the
+     * {@link GroupCommitter}.
      */
-    private void maybeCompact() {
-        if (appendsSinceCompaction > (long) map.size() * COMPACTION_FACTOR + MIN_APPENDS_BEFORE_COMPACTION) {
-            compactLocked();
+    void maybeRollOverFromCommitter() {
+        maybeRollOver(true);
+    }
+
+    /**
+     * Starts a compaction when the number of appends since the last compaction exceeds a
+     * threshold proportional to the live entry count and no compaction is running; otherwise
+     * rolls over to a new segment once the active one reached the maximum segment size. Must be
+     * called by the owner of {@link #writer}.
+     *
+     * @param syncSealed whether to fsync the sealed segment, needed when writers wait for an fsync
+     */
+    private void maybeRollOver(boolean syncSealed) {
+        if (pendingCompaction.isDone() && needsCompaction()) {
+            startCompaction(syncSealed);
+        } else if (writer.size() >= maxSegmentBytes) {
+            try {
+                rollover(syncSealed);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to start a new segment of " + file, e);
+            }
         }
     }
 
     /**
-     * Rewrites the log file from the current in-memory state. Closes the current writer,
-     * writes and fsyncs a temp file in the same directory, atomically moves it onto the target
-     * and reopens the append writer. Package-private so tests can force the writer swap.
+     * Checks whether enough records were appended since the last compaction to compact again.
+     *
+     * @return {@code true} if the log should be compacted
+     */
+    private boolean needsCompaction() {
+        return appendsSinceCompaction > (long) map.size() * COMPACTION_FACTOR + MIN_APPENDS_BEFORE_COMPACTION;
+    }
+
+    /**
+     * Compacts the log and waits for the compaction to finish. Package-private so tests can
+     * force the segment rollover and swap.
      */
     void compact() {
+        CompletableFuture<Void> done;
         writeLock.lock();
         try {
-            compactLocked();
+            ensureOpen();
+            done = committer != null ? committer.submitCompaction() : startCompaction(false);
         } finally {
             writeLock.unlock();
         }
+        await(done);
     }
 
     /**
-     * Compaction body; must be called while holding {@link #writeLock}.
+     * Rolls the appends over to a fresh segment and schedules a new snapshot of the in-memory
+     * state. Must be called by the owner of {@link #writer}.
+     * <p>
+     * The background snapshot iterates the live map instead of a copy. That iteration may
+     * observe changes made after the rollover, but every such change is also recorded in the new
+     * segment, which is replayed after the snapshot, so the result is the same as a
+     * point-in-time snapshot.
+     *
+     * @param syncSealed whether to fsync the sealed segment, needed when writers wait for an fsync
+     * @return a future completed once the compaction finished
      */
-    private void compactLocked() {
+    private CompletableFuture<Void> startCompaction(boolean syncSealed) {
+        List<String> sealed;
         try {
-            closeWriter();
+            sealed = rollover(syncSealed);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to start a new segment of " + file, e);
+        }
+        long snapshotSequence = nextSegment - 1;
+        appendsSinceCompaction = 0;
+        pendingCompaction = CompletableFuture.runAsync(() -> compactSegments(sealed, snapshotSequence), compactionExecutor);
+        return pendingCompaction;
+    }
 
-            Path temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
-            try (Writer out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8,
-                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
-                for (Map.Entry<String, V> entry : map.entrySet()) {
-                    out.write(objectMapper.writeValueAsString(new LogRecord<>(entry.getKey(), entry.getValue())));
-                    out.write('\n');
-                }
-                out.flush();
-                fsync(temp);
+    /**
+     * Switches {@link #writer} to a new segment and records it in the manifest. The new segment
+     * is opened before the current one is closed, so a failure leaves the current writer in
+     * place.
+     *
+     * @param sync whether to fsync the segment being sealed
+     * @return the segments preceding the new one
+     * @throws IOException if the new segment cannot be created or the current one not closed
+     */
+    private List<String> rollover(boolean sync) throws IOException {
+        Path next = segmentPath(nextSegment);
+        LogWriter<V> nextWriter = new LogWriter<>(next, codec);
+        List<String> sealed;
+        manifestLock.lock();
+        try {
+            LogManifest updated = manifest.withSegment(next.getFileName().toString());
+            writeManifest(updated);
+            sealed = manifest.segments();
+            manifest = updated;
+        } catch (IOException e) {
+            nextWriter.close();
+            LogFiles.deleteQuietly(next);
+            throw e;
+        } finally {
+            manifestLock.unlock();
+        }
+        nextSegment++;
+
+        LogWriter<V> sealedWriter = writer;
+        writer = nextWriter;
+        try {
+            if (sync) {
+                sealedWriter.sync();
+            }
+        } finally {
+            sealedWriter.close();
+        }
+        return sealed;
+    }
+
+    /**
+     * Background part of a compaction: writes and fsyncs the live entries to new snapshot
+     * files, swaps them in by replacing the manifest and deletes the previous snapshot and the
+     * sealed segments. A failure at any point leaves a log that still replays to the same state.
+     *
+     * @param sealed           the segments covered by the new snapshot
+     * @param snapshotSequence the sequence number used to name the snapshot files
+     */
+    private void compactSegments(List<String> sealed, long snapshotSequence) {
+        long start = System.nanoTime();
+        List<Path> written = new ArrayList<>();
+        boolean swapped = false;
+        try {
+            List<String> snapshot = writeSnapshot(snapshotSequence, written);
+
+            List<String> obsolete;
+            manifestLock.lock();
+            try {
+                obsolete = new ArrayList<>(manifest.snapshot());
+                obsolete.addAll(sealed);
+                LogManifest updated = manifest.withSnapshot(snapshot, sealed);
+                writeManifest(updated);
+                manifest = updated;
+                swapped = true;
+            } finally {
+                manifestLock.unlock();
+            }
+
+            long bytesReclaimed = 0;
+            for (String name : obsolete) {
+                Path obsoleteFile = directory.resolve(name);
+                bytesReclaimed += LogFiles.sizeOf(obsoleteFile);
+                Files.deleteIfExists(obsoleteFile);
+            }
+            LogFiles.fsyncDirectory(directory);
+            for (Path snapshotFile : written) {
+                bytesReclaimed -= LogFiles.sizeOf(snapshotFile);
             }
 
-            moveAtomically(temp, file);
-            fsyncDirectory();
-            appendsSinceCompaction = 0;
-            openWriter();
+            long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            long reclaimed = Math.max(0, bytesReclaimed);
+            compactionMetrics.updateAndGet(m -> m.withCompaction(durationMillis, reclaimed));
+            log.debug("Compacted {} in {} ms, reclaimed {} bytes", file, durationMillis, reclaimed);
         } catch (IOException e) {
-            reopenWriterQuietly();
+            compactionMetrics.updateAndGet(CompactionMetrics::withFailure);
+            if (!swapped) {
+                written.forEach(LogFiles::deleteQuietly);
+            }
+            log.error("Failed to compact {}", file, e);
             throw new UncheckedIOException("Failed to compact " + file, e);
         }
     }
 
     /**
-     * Opens the append writer on {@link #file}, creating the file if necessary.
+     * Writes the live entries to snapshot files of at most {@link #maxSegmentBytes} each.
      *
-     * @throws IOException if the file cannot be opened
+     * @param snapshotSequence the sequence number used to name the files
+     * @param written          receives every file created, also on failure
+     * @return the names of the snapshot files
+     * @throws IOException if writing fails
+     */
+    private List<String> writeSnapshot(long snapshotSequence, List<Path> written) throws IOException {
+        List<String> names = new ArrayList<>();
+        LogWriter<V> out = null;
+        try {
+            for (Map.Entry<String, V> entry : map.entrySet()) {
+                if (out == null || out.size() >= maxSegmentBytes) {
+                    if (out != null) {
+                        out.sync();
+                        out.close();
+                    }
+                    Path snapshotFile = directory.resolve(file.getFileName() + ".snapshot-" + snapshotSequence + "-" + names.size());
+                    written.add(snapshotFile);
+                    names.add(snapshotFile.getFileName().toString());
+                    out = new LogWriter<>(snapshotFile, codec);
+                }
+                out.append(entry.getKey(), entry.getValue());
+            }
+            if (out != null) {
+                out.sync();
+            }
+        } finally {
+            if (out != null) {
+                out.close();
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Replaces the manifest file. Must be called while holding {@link #manifestLock}.
+     *
+     * @param updated the manifest to write
+     * @throws IOException if writing fails
+     */
+    private void writeManifest(LogManifest updated) throws IOException {
+        LogFiles.writeManifest(manifestFile, updated, objectMapper);
+    }
+
+    /**
+     * Waits for running and queued compactions to finish and stops the compaction thread.
      */
-    private void openWriter() throws IOException {
-        writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
-                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    private void awaitCompactions() {
+        compactionExecutor.shutdown();
+        try {
+            compactionExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted while waiting for the compaction of {} to finish", file);
+        }
     }
 
     /**
@@ -316,68 +1142,144 @@ public class FilePersistentMap<V> implements PersistentMap<V> {
      */
     private void closeWriter() throws IOException {
         if (writer != null) {
-            writer.flush();
             writer.close();
             writer = null;
         }
     }
 
     /**
-     * Best-effort attempt to restore a usable writer after a failed compaction.
+     * Closes the current writer after a failed load, logging any error.
      */
-    private void reopenWriterQuietly() {
-        if (writer == null) {
-            try {
-                openWriter();
-            } catch (IOException reopenError) {
-                log.error("Failed to reopen writer for {} after a failed compaction", file, reopenError);
-            }
+    private void closeWriterQuietly() {
+        try {
+            closeWriter();
+        } catch (IOException e) {
+            log.warn("Failed to close the writer of {}", file, e);
         }
     }
 
     /**
-     * Moves the source onto the target, falling back to a non-atomic replace when the platform
-     * does not support atomic moves.
+     * Describes a log written before the manifest existed: the base file, if not empty,
+     * followed by the numbered segments.
      *
-     * @param source the source file
-     * @param target the target file
-     * @throws IOException if the move fails
+     * @param base the absolute path of the base log file
+     * @return the equivalent manifest
+     * @throws IOException if the directory cannot be listed
      */
-    private void moveAtomically(Path source, Path target) throws IOException {
-        try {
-            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
-        } catch (AtomicMoveNotSupportedException e) {
-            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+    private static LogManifest legacyManifest(Path base) throws IOException {
+        List<String> segments = new ArrayList<>();
+        if (Files.exists(base) && Files.size(base) > 0) {
+            segments.add(base.getFileName().toString());
         }
+        try (Stream<Path> files = Files.list(base.getParent())) {
+            files.filter(f -> segmentSequence(base, f) > 0)
+                    .sorted(Comparator.comparingLong(f -> segmentSequence(base, f)))
+                    .forEach(f -> segments.add(f.getFileName().toString()));
+        }
+        return LogManifest.of(List.of(), segments);
+    }
+
+    private static Path manifestPath(Path base) {
+        return base.resolveSibling(base.getFileName() + ".manifest");
+    }
+
+    /**
+     * Returns the path of a segment.
+     *
+     * @param sequence the segment sequence number
+     * @return the segment path
+     */
+    private Path segmentPath(long sequence) {
+        return directory.resolve(file.getFileName() + "." + sequence);
+    }
+
+    /**
+     * Parses the sequence number from a segment file name ({@code <base>.<sequence>}).
+     *
+     * @param base      the base log file
+     * @param candidate the path to check
+     * @return the sequence number, or {@code -1} if the path is not a segment of the log
+     */
+    private static long segmentSequence(Path base, Path candidate) {
+        String name = candidate.getFileName().toString();
+        String prefix = base.getFileName() + ".";
+        return name.startsWith(prefix) ? LogFiles.parseSequence(name, prefix.length(), name.length()) : -1;
     }
 
     /**
-     * Flushes file contents to disk.
+     * Parses the sequence number from a snapshot file name
+     * ({@code <base>.snapshot-<sequence>-<index>}).
      *
-     * @param path the file to sync
-     * @throws IOException if the sync fails
+     * @param base      the base log file
+     * @param candidate the path to check
+     * @return the sequence number, or {@code -1} if the path is not a snapshot file of the log
      */
-    private void fsync(Path path) throws IOException {
-        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
-            channel.force(true);
+    private static long snapshotSequence(Path base, Path candidate) {
+        String name = candidate.getFileName().toString();
+        String prefix = base.getFileName() + ".snapshot-";
+        int separator = name.lastIndexOf('-');
+        if (!name.startsWith(prefix) || separator < prefix.length()
+                || LogFiles.parseSequence(name, separator + 1, name.length()) < 0) {
+            return -1;
         }
+        return LogFiles.parseSequence(name, prefix.length(), separator);
     }
 
     /**
-     * Flushes the directory entry so the rename is durable. Not supported on all platforms
-     * (e.g. Windows), where it is silently ignored.
+     * What a replay found.
+     *
+     * @param segmentRecords the number of records replayed from segments, i.e. appended since
+     *                       the last compaction
+     * @param unreadable     whether corrupt or torn records were skipped
+     * @param migrated       whether a legacy JSON file was read
      */
-    private void fsyncDirectory() {
-        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
-            channel.force(true);
-        } catch (IOException e) {
-            // Directory fsync is not supported on all platforms; ignore.
+    private record ReplayOutcome(long segmentRecords, boolean unreadable, boolean migrated) {
+    }
+
+    /**
+     * Net effect of one segment: the last value written per key ({@code null} for a tombstone)
+     * and whether the segment cleared the map. Applying the deltas of all segments in sequence
+     * order is equivalent to replaying the segments record by record.
+     *
+     * @param <T> the value type
+     */
+    private static final class SegmentDelta<T> implements LogReader.RecordSink<T> {
+
+        private final Map<String, T> entries = new HashMap<>();
+        private boolean cleared;
+        private long records;
+        private boolean unreadable;
+        private boolean legacy;
+
+        @Override
+        public void accept(String key, T value) {
+            entries.put(key, value);
+        }
+
+        @Override
+        public void clear() {
+            entries.clear();
+            cleared = true;
+        }
+
+        private void applyTo(Map<String, T> target) {
+            if (cleared) {
+                target.clear();
+            }
+            entries.forEach((key, value) -> {
+                if (value == null) {
+                    target.remove(key);
+                } else {
+                    target.put(key, value);
+                }
+            });
         }
     }
 
     /**
-     * On-disk record: {@code k} is the key, {@code v} is the value or {@code null} for a
-     * tombstone (delete).
+     * A log record: {@code k} is the key, {@code v} is the value or {@code null} for a tombstone
+     * (delete). A record without a key clears the map. Also the on-disk shape of the legacy
+     * JSON-lines format.
      *
      * @param <T> the value type
      */
@@ -403,5 +1305,15 @@ public class FilePersistentMap<V> implements PersistentMap<V> {
             this.k = k;
             this.v = v;
         }
+
+        /**
+         * Creates a record that clears the map.
+         *
+         * @param <T> the value type
+         * @return the record
+         */
+        static <T> LogRecord<T> clearAll() {
+            return new LogRecord<>(null, null);
+        }
     }
 }
@@ -0,0 +1,159 @@
+package org.owasp.oag.persistentmap;
+
+import java.util.Objects;
+
+/**
+ * Tuning settings for a {@link FilePersistentMap}. The defaults reproduce the classic
+ * per-record behaviour, so a map created without settings behaves exactly as before.
+ */
+public class FilePersistentMapSettings {
+
+    /** Default upper bound of records written in a single group-commit batch. */
+    public static final int DEFAULT_MAX_BATCH_SIZE = 1024;
+
+    /** Default fsync interval used by {@link DurabilityPolicy#FSYNC_INTERVAL}. */
+    public static final long DEFAULT_SYNC_INTERVAL_MILLIS = 50;
+
+    /** Default size after which the log rolls over to a new segment. */
+    public static final long DEFAULT_MAX_SEGMENT_BYTES = 64L * 1024 * 1024;
+
+    /** Smallest accepted segment size. */
+    static final long MIN_SEGMENT_BYTES = 4096;
+
+    private DurabilityPolicy durability = DurabilityPolicy.PER_RECORD;
+    private long syncIntervalMillis = DEFAULT_SYNC_INTERVAL_MILLIS;
+    private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+    private long maxSegmentBytes = DEFAULT_MAX_SEGMENT_BYTES;
+    private int replayParallelism = Runtime.getRuntime().availableProcessors();
+    private PersistentMapObserver observer = PersistentMapObserver.NONE;
+
+    /**
+     * Creates settings with the default values.
+     */
+    public FilePersistentMapSettings() {
+    }
+
+    /**
+     * Gets the durability policy.
+     *
+     * @return the durability policy
+     */
+    public DurabilityPolicy getDurability() {
+        return durability;
+    }
+
+    /**
+     * Sets the durability policy.
+     *
+     * @param durability the durability policy, must not be {@code null}
+     */
+    public void setDurability(DurabilityPolicy durability) {
+        this.durability = Objects.requireNonNull(durability, "durability must not be null");
+    }
+
+    /**
+     * Gets the fsync interval used by {@link DurabilityPolicy#FSYNC_INTERVAL}.
+     *
+     * @return the interval in milliseconds
+     */
+    public long getSyncIntervalMillis() {
+        return syncIntervalMillis;
+    }
+
+    /**
+     * Sets the fsync interval used by {@link DurabilityPolicy#FSYNC_INTERVAL}.
+     *
+     * @param syncIntervalMillis the interval in milliseconds, must be positive
+     */
+    public void setSyncIntervalMillis(long syncIntervalMillis) {
+        if (syncIntervalMillis <= 0) {
+            throw new IllegalArgumentException("syncIntervalMillis must be positive");
+        }
+        this.syncIntervalMillis = syncIntervalMillis;
+    }
+
+    /**
+     * Gets the maximum number of records written in one group-commit batch.
+     *
+     * @return the maximum batch size
+     */
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Sets the maximum number of records written in one group-commit batch.
+     *
+     * @param maxBatchSize the maximum batch size, must be positive
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("maxBatchSize must be positive");
+        }
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Gets the size after which the log rolls over to a new segment. Compacted snapshots are
+     * split into files of the same size.
+     *
+     * @return the maximum segment size in bytes
+     */
+    public long getMaxSegmentBytes() {
+        return maxSegmentBytes;
+    }
+
+    /**
+     * Sets the size after which the log rolls over to a new segment. Compacted snapshots are
+     * split into files of the same size.
+     *
+     * @param maxSegmentBytes the maximum segment size in bytes, at least 4096
+     */
+    public void setMaxSegmentBytes(long maxSegmentBytes) {
+        if (maxSegmentBytes < MIN_SEGMENT_BYTES) {
+            throw new IllegalArgumentException("maxSegmentBytes must be at least " + MIN_SEGMENT_BYTES);
+        }
+        this.maxSegmentBytes = maxSegmentBytes;
+    }
+
+    /**
+     * Gets the number of threads used to replay the log files on startup.
+     *
+     * @return the replay parallelism
+     */
+    public int getReplayParallelism() {
+        return replayParallelism;
+    }
+
+    /**
+     * Sets the number of threads used to replay the log files on startup. Defaults to the
+     * number of available processors; {@code 1} replays sequentially.
+     *
+     * @param replayParallelism the replay parallelism, must be positive
+     */
+    public void setReplayParallelism(int replayParallelism) {
+        if (replayParallelism <= 0) {
+            throw new IllegalArgumentException("replayParallelism must be positive");
+        }
+        this.replayParallelism = replayParallelism;
+    }
+
+    /**
+     * Gets the observer receiving the timings of the map.
+     *
+     * @return the observer
+     */
+    public PersistentMapObserver getObserver() {
+        return observer;
+    }
+
+    /**
+     * Sets the observer receiving the timings of the map, e.g. to record them as metrics.
+     * Defaults to {@link PersistentMapObserver#NONE}.
+     *
+     * @param observer the observer, must not be {@code null}
+     */
+    public void setObserver(PersistentMapObserver observer) {
+        this.observer = Objects.requireNonNull(observer, "observer must not be null");
+    }
+}
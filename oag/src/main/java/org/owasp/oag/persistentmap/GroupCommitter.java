@@ -0,0 +1,227 @@
+package org.owasp.oag.persistentmap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Committer thread used by {@link FilePersistentMap} in the group-commit durability modes.
+ * Writers only enqueue their record; this thread drains the queue, writes all pending records
+ * in one go and completes the writers' futures once the batch is durable according to the
+ * configured {@link DurabilityPolicy}. All appends and segment rollovers happen on this thread;
+ * only the rewrite of the base file runs on the map's compaction thread.
+ *
+ * @param <V> the value type of the owning map
+ */
+final class GroupCommitter<V> implements Runnable {
+
+    private static final Logger log = LoggerFactory.getLogger(GroupCommitter.class);
+
+    /** The map whose log is written. */
+    private final FilePersistentMap<V> owner;
+
+    /** The durability policy, never {@link DurabilityPolicy#PER_RECORD}. */
+    private final DurabilityPolicy policy;
+
+    /** Minimum time between two fsyncs in {@link DurabilityPolicy#FSYNC_INTERVAL} mode. */
+    private final long syncIntervalNanos;
+
+    /** Upper bound of commands processed per batch. */
+    private final int maxBatchSize;
+
+    /** Pending commands in submission order. */
+    private final LinkedBlockingQueue<Command<V>> queue = new LinkedBlockingQueue<>();
+
+    /** The committer thread. */
+    private final Thread thread;
+
+    /**
+     * Creates and starts a committer.
+     *
+     * @param owner    the map whose log is written
+     * @param settings the map settings
+     * @param name     the name of the committer thread
+     */
+    GroupCommitter(FilePersistentMap<V> owner, FilePersistentMapSettings settings, String name) {
+        this.owner = owner;
+        this.policy = settings.getDurability();
+        this.syncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(settings.getSyncIntervalMillis());
+        this.maxBatchSize = settings.getMaxBatchSize();
+        this.thread = new Thread(this, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Queues a record for appending. Must be called while holding the owner's write lock so the
+     * queue order matches the order in which the in-memory map was modified.
+     *
+     * @param record the record to append
+     * @return a future completed once the record is durable
+     */
+    CompletableFuture<Void> submitRecord(FilePersistentMap.LogRecord<V> record) {
+        return submit(new Command<>(CommandType.APPEND, List.of(record)));
+    }
+
+    /**
+     * Queues several records that are appended in the same batch and become durable together.
+     * Must be called while holding the owner's write lock, see {@link #submitRecord}.
+     *
+     * @param records the records to append
+     * @return a future completed once all records are durable
+     */
+    CompletableFuture<Void> submitRecords(List<FilePersistentMap.LogRecord<V>> records) {
+        return submit(new Command<>(CommandType.APPEND, records));
+    }
+
+    /**
+     * Queues a compaction of the log. The records queued before it end up in the sealed segment.
+     *
+     * @return a future completed once the compaction finished
+     */
+    CompletableFuture<Void> submitCompaction() {
+        return submit(new Command<>(CommandType.COMPACT, null));
+    }
+
+    /**
+     * Writes all queued records, makes them durable and stops the committer thread. Commands
+     * submitted afterwards are never processed, so the owner must reject them.
+     */
+    void shutdown() {
+        submit(new Command<>(CommandType.STOP, null));
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted while waiting for the committer thread {} to stop", thread.getName());
+        }
+    }
+
+    private CompletableFuture<Void> submit(Command<V> command) {
+        queue.add(command);
+        return command.done;
+    }
+
+    @Override
+    public void run() {
+        List<Command<V>> batch = new ArrayList<>(maxBatchSize);
+        List<CompletableFuture<Void>> waiting = new ArrayList<>();
+        long lastSync = System.nanoTime();
+        boolean stop = false;
+
+        while (!stop) {
+            long timeout = waiting.isEmpty() ? -1 : Math.max(0, syncIntervalNanos - (System.nanoTime() - lastSync));
+            Command<V> first = nextCommand(timeout);
+            if (first != null) {
+                batch.add(first);
+                queue.drainTo(batch, maxBatchSize - 1);
+            }
+
+            try {
+                for (Command<V> command : batch) {
+                    switch (command.type) {
+                        case APPEND -> {
+                            waiting.add(command.done);
+                            for (FilePersistentMap.LogRecord<V> record : command.records) {
+                                owner.appendFromCommitter(record);
+                            }
+                        }
+                        case COMPACT -> startCompaction(command.done);
+                        case STOP -> {
+                            waiting.add(command.done);
+                            stop = true;
+                        }
+                    }
+                }
+                owner.flushFromCommitter();
+                owner.maybeRollOverFromCommitter();
+
+                // A rollover fsyncs the sealed segment, so syncing the active one covers all records.
+                boolean durable = policy == DurabilityPolicy.FLUSH_PER_BATCH;
+                if (!durable && !waiting.isEmpty() && (policy == DurabilityPolicy.FSYNC_PER_BATCH || stop
+                        || System.nanoTime() - lastSync >= syncIntervalNanos)) {
+                    owner.syncFromCommitter();
+                    lastSync = System.nanoTime();
+                    durable = true;
+                }
+
+                if (durable) {
+                    waiting.forEach(f -> f.complete(null));
+                    waiting.clear();
+                }
+            } catch (IOException | RuntimeException e) {
+                log.error("Group commit of {} records failed", waiting.size(), e);
+                waiting.forEach(f -> f.completeExceptionally(e));
+                waiting.clear();
+                stop = stop || batch.stream().anyMatch(c -> c.type == CommandType.STOP);
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Starts a compaction and completes the command's future once it finished.
+     *
+     * @param done the future of the compaction command
+     */
+    private void startCompaction(CompletableFuture<Void> done) {
+        try {
+            owner.compactFromCommitter().whenComplete((ignored, error) -> {
+                if (error == null) {
+                    done.complete(null);
+                } else {
+                    done.completeExceptionally(error);
+                }
+            });
+        } catch (RuntimeException e) {
+            done.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Waits for the next command.
+     *
+     * @param timeoutNanos the maximum time to wait, or a negative value to wait indefinitely
+     * @return the next command, or {@code null} if the timeout elapsed
+     */
+    private Command<V> nextCommand(long timeoutNanos) {
+        try {
+            if (timeoutNanos < 0) {
+                return queue.take();
+            }
+            return timeoutNanos == 0 ? queue.poll() : queue.poll(timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            // The committer is only ever stopped through a STOP command; keep draining.
+            return null;
+        }
+    }
+
+    /** The kind of work queued for the committer. */
+    private enum CommandType {
+        APPEND, COMPACT, STOP
+    }
+
+    /**
+     * A unit of work queued for the committer.
+     *
+     * @param <T> the value type
+     */
+    private static final class Command<T> {
+
+        private final CommandType type;
+        private final List<FilePersistentMap.LogRecord<T>> records;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        private Command(CommandType type, List<FilePersistentMap.LogRecord<T>> records) {
+            this.type = type;
+            this.records = records;
+        }
+    }
+}
@@ -0,0 +1,436 @@
+package org.owasp.oag.persistentmap;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * An immutable, memory-mapped hash table file used by {@link MappedPersistentMap}. Lookups probe
+ * the mapped slot table and compare the key bytes in place, so {@link #containsKey} never
+ * materializes a key or value and {@link #get} only decodes the value it returns. The operating
+ * system pages the file in and out as needed, which keeps the table off the Java heap.
+ * <p>
+ * File layout, all integers big-endian:
+ * <pre>
+ * header:  int magic "OAGH" | short version | short reserved | int entries | int slots
+ *          | long slot table offset | long data end                               (32 bytes)
+ * data:    per entry: int key length | key (UTF-8) | int value length | value
+ * slots:   per slot:  int key hash (0 = empty) | int entry offset
+ * </pre>
+ * The slot table uses linear probing at a load factor of at most {@value #MAX_LOAD_PERCENT}%.
+ * Entry offsets are 32-bit, so a file holds at most 2 GiB of entries. Files are written by a
+ * {@link Builder} to their final name only after they were fsynced; the manifest of the owning
+ * map decides which file is live.
+ *
+ * @param <V> the value type
+ */
+final class HashedSnapshot<V> implements Closeable {
+
+    /** File magic, {@code "OAGH"}. */
+    static final int MAGIC = 0x4F414748;
+
+    /** Current file format version. */
+    static final short VERSION = 1;
+
+    /** Size of the file header in bytes. */
+    static final int HEADER_SIZE = 32;
+
+    /** Size of a slot in bytes. */
+    private static final int SLOT_SIZE = 8;
+
+    /** Maximum share of occupied slots. */
+    private static final int MAX_LOAD_PERCENT = 70;
+
+    /** The mapped file, or an empty buffer for {@link #empty}. */
+    private final ByteBuffer buffer;
+
+    /** Encoding of the values. */
+    private final RecordCodec<V> codec;
+
+    /** Number of entries. */
+    private final int entries;
+
+    /** Number of slots minus one; the slot count is a power of two. */
+    private final int mask;
+
+    /** File offset of the slot table. */
+    private final int slotsOffset;
+
+    /** File offset following the last entry. */
+    private final int dataEnd;
+
+    private HashedSnapshot(ByteBuffer buffer, RecordCodec<V> codec, int entries, int slots, int slotsOffset, int dataEnd) {
+        this.buffer = buffer;
+        this.codec = codec;
+        this.entries = entries;
+        this.mask = slots - 1;
+        this.slotsOffset = slotsOffset;
+        this.dataEnd = dataEnd;
+    }
+
+    /**
+     * Returns a snapshot without entries and without a backing file.
+     *
+     * @param codec the value encoding
+     * @param <V>   the value type
+     * @return the empty snapshot
+     */
+    static <V> HashedSnapshot<V> empty(RecordCodec<V> codec) {
+        return new HashedSnapshot<>(ByteBuffer.allocate(0), codec, 0, 1, 0, HEADER_SIZE);
+    }
+
+    /**
+     * Maps a snapshot file read-only.
+     *
+     * @param file  the snapshot file
+     * @param codec the value encoding
+     * @param <V>   the value type
+     * @return the snapshot
+     * @throws IOException if the file cannot be mapped, is not a snapshot or is inconsistent
+     */
+    static <V> HashedSnapshot<V> open(Path file, RecordCodec<V> codec) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException("Invalid persistent map snapshot size " + size + " of " + file);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a persistent map snapshot: " + file);
+        }
+        short version = buffer.getShort(4);
+        if (version != VERSION) {
+            throw new IOException("Unsupported persistent map snapshot version " + version + " of " + file);
+        }
+        int entries = buffer.getInt(8);
+        int slots = buffer.getInt(12);
+        long slotsOffset = buffer.getLong(16);
+        long dataEnd = buffer.getLong(24);
+        if (entries < 0 || slots <= 0 || Integer.bitCount(slots) != 1 || entries >= slots
+                || dataEnd < HEADER_SIZE || slotsOffset < dataEnd
+                || slotsOffset + (long) slots * SLOT_SIZE != buffer.capacity()) {
+            throw new IOException("Corrupt persistent map snapshot header of " + file);
+        }
+        return new HashedSnapshot<>(buffer, codec, entries, slots, (int) slotsOffset, (int) dataEnd);
+    }
+
+    /**
+     * Returns the number of entries.
+     *
+     * @return the entry count
+     */
+    int size() {
+        return entries;
+    }
+
+    /**
+     * Checks whether a key is present, without decoding anything.
+     *
+     * @param key the UTF-8 key bytes
+     * @param hash the key hash, see {@link #hash}
+     * @return {@code true} if the key is present
+     */
+    boolean containsKey(byte[] key, int hash) {
+        return find(key, hash) >= 0;
+    }
+
+    /**
+     * Looks up a key and decodes its value.
+     *
+     * @param key  the UTF-8 key bytes
+     * @param hash the key hash, see {@link #hash}
+     * @return the value, or {@code null} if the key is absent
+     * @throws IOException if the value cannot be decoded
+     */
+    V get(byte[] key, int hash) throws IOException {
+        int offset = find(key, hash);
+        if (offset < 0) {
+            return null;
+        }
+        int valueOffset = offset + Integer.BYTES + key.length;
+        int valueLength = buffer.getInt(valueOffset);
+        return codec.decodeValue(buffer.slice(valueOffset + Integer.BYTES, valueLength), valueLength, new byte[valueLength]);
+    }
+
+    /**
+     * Probes the slot table for a key.
+     *
+     * @param key  the UTF-8 key bytes
+     * @param hash the key hash
+     * @return the offset of the entry, or {@code -1} if the key is absent
+     */
+    private int find(byte[] key, int hash) {
+        if (entries == 0) {
+            return -1;
+        }
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int position = slotsOffset + slot * SLOT_SIZE;
+            int slotHash = buffer.getInt(position);
+            if (slotHash == 0) {
+                return -1;
+            }
+            if (slotHash == hash) {
+                int offset = buffer.getInt(position + Integer.BYTES);
+                if (keyEquals(offset, key)) {
+                    return offset;
+                }
+            }
+        }
+    }
+
+    private boolean keyEquals(int offset, byte[] key) {
+        if (buffer.getInt(offset) != key.length) {
+            return false;
+        }
+        int start = offset + Integer.BYTES;
+        for (int i = 0; i < key.length; i++) {
+            if (buffer.get(start + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Visits every entry in file order, handing out the encoded value without decoding it.
+     *
+     * @param visitor receives the entries
+     * @throws IOException if the visitor fails
+     */
+    void forEach(EntryVisitor visitor) throws IOException {
+        byte[] keyBytes = new byte[64];
+        int offset = HEADER_SIZE;
+        while (offset < dataEnd) {
+            int keyLength = buffer.getInt(offset);
+            if (keyBytes.length < keyLength) {
+                keyBytes = new byte[Math.max(keyLength, keyBytes.length * 2)];
+            }
+            buffer.get(offset + Integer.BYTES, keyBytes, 0, keyLength);
+            int valueOffset = offset + Integer.BYTES + keyLength;
+            int valueLength = buffer.getInt(valueOffset);
+            visitor.visit(new String(keyBytes, 0, keyLength, StandardCharsets.UTF_8),
+                    Arrays.copyOf(keyBytes, keyLength), buffer.slice(valueOffset + Integer.BYTES, valueLength));
+            offset = valueOffset + Integer.BYTES + valueLength;
+        }
+    }
+
+    /**
+     * Decodes an encoded value handed out by {@link #forEach}.
+     *
+     * @param value the encoded value
+     * @return the value
+     * @throws IOException if the value cannot be decoded
+     */
+    V decode(ByteBuffer value) throws IOException {
+        int length = value.remaining();
+        return codec.decodeValue(value.duplicate(), length, new byte[length]);
+    }
+
+    /**
+     * Does nothing: a mapping is released by the garbage collector once no reader uses it, which
+     * is what allows lookups to run without locking while the owning map swaps snapshots.
+     */
+    @Override
+    public void close() {
+        // The mapping is unmapped once the buffer becomes unreachable.
+    }
+
+    /**
+     * Computes the key hash stored in the slot table: FNV-1a over the UTF-8 bytes followed by a
+     * finalizer that spreads the bits over the low end used for the slot index. Never {@code 0},
+     * which marks empty slots.
+     *
+     * @param key the UTF-8 key bytes
+     * @return the hash
+     */
+    static int hash(byte[] key) {
+        int h = 0x811C9DC5;
+        for (byte b : key) {
+            h ^= b & 0xFF;
+            h *= 0x01000193;
+        }
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return h == 0 ? 1 : h;
+    }
+
+    /**
+     * Receives the entries of a snapshot.
+     */
+    @FunctionalInterface
+    interface EntryVisitor {
+
+        /**
+         * Visits an entry.
+         *
+         * @param key      the key
+         * @param keyBytes the UTF-8 key bytes; owned by the visitor
+         * @param value    the encoded value, only valid during the call
+         * @throws IOException if processing the entry fails
+         */
+        void visit(String key, byte[] keyBytes, ByteBuffer value) throws IOException;
+    }
+
+    /**
+     * Writes a snapshot file. Entries are streamed to the data section through a pooled buffer
+     * while their hashes and offsets are collected in two {@code int} arrays; {@link #finish()}
+     * then builds the slot table in a writable mapping of the file tail. Keys must be unique.
+     *
+     * @param <V> the value type
+     */
+    static final class Builder<V> implements Closeable {
+
+        private final Path file;
+        private final FileChannel channel;
+        private final RecordCodec<V> codec;
+        private ByteBuffer buffer = BufferPool.SHARED.acquire();
+
+        /** File offset of the next entry. */
+        private long offset = HEADER_SIZE;
+
+        /** Number of entries added. */
+        private int entries;
+
+        private int[] hashes = new int[1024];
+        private int[] offsets = new int[1024];
+
+        /**
+         * Creates the snapshot file, replacing any existing file.
+         *
+         * @param file  the file to write
+         * @param codec the value encoding
+         * @throws IOException if the file cannot be created
+         */
+        Builder(Path file, RecordCodec<V> codec) throws IOException {
+            this.file = file;
+            this.codec = codec;
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.READ, StandardOpenOption.TRUNCATE_EXISTING);
+            buffer.position(HEADER_SIZE);
+        }
+
+        /**
+         * Adds an entry.
+         *
+         * @param key   the key
+         * @param value the value
+         * @throws IOException if writing fails
+         */
+        void add(String key, V value) throws IOException {
+            add(key.getBytes(StandardCharsets.UTF_8), ByteBuffer.wrap(codec.encodeValue(value)));
+        }
+
+        /**
+         * Adds an entry whose value is already encoded, e.g. one copied from another snapshot.
+         *
+         * @param key   the UTF-8 key bytes
+         * @param value the encoded value; consumed
+         * @throws IOException if writing fails or the data section exceeds 2 GiB
+         */
+        void add(byte[] key, ByteBuffer value) throws IOException {
+            int length = 2 * Integer.BYTES + key.length + value.remaining();
+            if (offset + length > Integer.MAX_VALUE) {
+                throw new IOException("Persistent map snapshot " + file + " exceeds 2 GiB");
+            }
+            if (entries == hashes.length) {
+                hashes = Arrays.copyOf(hashes, entries * 2);
+                offsets = Arrays.copyOf(offsets, entries * 2);
+            }
+            hashes[entries] = hash(key);
+            offsets[entries] = (int) offset;
+            entries++;
+            offset += length;
+
+            if (buffer.remaining() < length) {
+                flush();
+                if (buffer.capacity() < length) {
+                    ByteBuffer large = ByteBuffer.allocate(length);
+                    large.putInt(key.length).put(key).putInt(value.remaining()).put(value);
+                    writeFully(large.flip());
+                    return;
+                }
+            }
+            buffer.putInt(key.length).put(key).putInt(value.remaining()).put(value);
+        }
+
+        /**
+         * Writes the slot table and the header and fsyncs the file.
+         *
+         * @throws IOException if writing fails
+         */
+        void finish() throws IOException {
+            flush();
+            long dataEnd = offset;
+            long slotsOffset = (dataEnd + SLOT_SIZE - 1) & -SLOT_SIZE;
+            int slots = slotCount(entries);
+            if (slotsOffset + (long) slots * SLOT_SIZE > Integer.MAX_VALUE) {
+                throw new IOException("Persistent map snapshot " + file + " exceeds 2 GiB");
+            }
+
+            MappedByteBuffer table = channel.map(FileChannel.MapMode.READ_WRITE, slotsOffset, (long) slots * SLOT_SIZE);
+            int mask = slots - 1;
+            for (int i = 0; i < entries; i++) {
+                int slot = hashes[i] & mask;
+                while (table.getInt(slot * SLOT_SIZE) != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                table.putInt(slot * SLOT_SIZE, hashes[i]);
+                table.putInt(slot * SLOT_SIZE + Integer.BYTES, offsets[i]);
+            }
+            table.force();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putShort(VERSION).putShort((short) 0).putInt(entries).putInt(slots)
+                    .putLong(slotsOffset).putLong(dataEnd).flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(true);
+        }
+
+        /**
+         * Releases the buffer and closes the file, which stays incomplete unless
+         * {@link #finish()} succeeded.
+         *
+         * @throws IOException if closing fails
+         */
+        @Override
+        public void close() throws IOException {
+            BufferPool.SHARED.release(buffer);
+            buffer = null;
+            channel.close();
+        }
+
+        private void flush() throws IOException {
+            writeFully(buffer.flip());
+            buffer.clear();
+        }
+
+        private void writeFully(ByteBuffer data) throws IOException {
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        }
+
+        /**
+         * Returns the smallest power of two keeping the load factor at or below
+         * {@link #MAX_LOAD_PERCENT}, with at least one empty slot.
+         *
+         * @param entries the number of entries
+         * @return the slot count
+         */
+        private static int slotCount(int entries) {
+            long needed = Math.max(16, (long) entries * 100 / MAX_LOAD_PERCENT + 1);
+            return (int) Long.highestOneBit(needed * 2 - 1);
+        }
+    }
+}
@@ -4,6 +4,8 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
 import java.util.stream.Collectors;
 
 /**
@@ -37,6 +39,11 @@ public class InMemoryPersistentMap<V> implements PersistentMap<V> {
         return map.containsKey(key);
     }
 
+    @Override
+    public boolean hasNonBlockingReads() {
+        return true;
+    }
+
     @Override
     public int size() {
         return map.size();
@@ -54,6 +61,28 @@ public class InMemoryPersistentMap<V> implements PersistentMap<V> {
                 .collect(Collectors.toUnmodifiableSet());
     }
 
+    @Override
+    public void forEach(BiConsumer<? super String, ? super V> action) {
+        map.forEach(action);
+    }
+
+    @Override
+    public ScanCursor<V> scan() {
+        return new MapScanCursor<>(map);
+    }
+
+    @Override
+    public int removeIf(BiPredicate<? super String, ? super V> filter) {
+        int[] removed = new int[1];
+        map.forEach((key, value) -> {
+            // Only removes the entry if the tested value is still current.
+            if (filter.test(key, value) && map.remove(key, value)) {
+                removed[0]++;
+            }
+        });
+        return removed[0];
+    }
+
     @Override
     public void close() {
         // Nothing to release for an in-memory map.
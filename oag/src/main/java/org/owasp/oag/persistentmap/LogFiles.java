@@ -0,0 +1,124 @@
+package org.owasp.oag.persistentmap;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * File system helpers shared by the file-backed maps: atomic manifest replacement, directory
+ * fsync and file name parsing.
+ */
+final class LogFiles {
+
+    private static final Logger log = LoggerFactory.getLogger(LogFiles.class);
+
+    private LogFiles() {
+    }
+
+    /**
+     * Writes a manifest to a temp file, fsyncs it, atomically moves it onto the manifest file and
+     * fsyncs the directory. The caller must serialize manifest updates.
+     *
+     * @param manifestFile the manifest file
+     * @param manifest     the manifest to write
+     * @param objectMapper the Jackson mapper
+     * @throws IOException if writing fails
+     */
+    static void writeManifest(Path manifestFile, LogManifest manifest, ObjectMapper objectMapper) throws IOException {
+        Path temp = manifestFile.resolveSibling(manifestFile.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer bytes = ByteBuffer.wrap(objectMapper.writeValueAsBytes(manifest));
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            channel.force(false);
+        }
+        moveAtomically(temp, manifestFile);
+        fsyncDirectory(manifestFile.getParent());
+    }
+
+    /**
+     * Moves the source onto the target, falling back to a non-atomic replace when the platform
+     * does not support atomic moves.
+     *
+     * @param source the source file
+     * @param target the target file
+     * @throws IOException if the move fails
+     */
+    static void moveAtomically(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Flushes a directory so renames and deletions in it are durable. Not supported on all
+     * platforms (e.g. Windows), where it is silently ignored.
+     *
+     * @param directory the directory
+     */
+    static void fsyncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Directory fsync is not supported on all platforms; ignore.
+        }
+    }
+
+    /**
+     * Parses a non-negative decimal number.
+     *
+     * @param text  the text containing the number
+     * @param start the index of the first digit
+     * @param end   the index after the last digit
+     * @return the number, or {@code -1} if the range is empty, too long or not all digits
+     */
+    static long parseSequence(String text, int start, int end) {
+        if (start >= end || end - start > 18) {
+            return -1;
+        }
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+        }
+        return Long.parseLong(text, start, end, 10);
+    }
+
+    /**
+     * Returns the size of a file, or {@code 0} if it does not exist.
+     *
+     * @param path the file
+     * @return the size in bytes
+     * @throws IOException if the size cannot be read
+     */
+    static long sizeOf(Path path) throws IOException {
+        return Files.exists(path) ? Files.size(path) : 0;
+    }
+
+    /**
+     * Deletes a file if it exists, logging instead of throwing on failure.
+     *
+     * @param path the file
+     */
+    static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Failed to delete {}", path, e);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package org.owasp.oag.persistentmap;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Lists the files that make up the log of a {@link FilePersistentMap}, in replay order: the
+ * snapshot files written by the last compaction, followed by the segments appended since. The
+ * last segment is the one being appended to. Snapshot files hold every key at most once and can
+ * be replayed in any order; segments must be applied in the listed order.
+ * <p>
+ * The manifest is stored as JSON next to the log and replaced atomically on every rollover and
+ * compaction (see {@link FilePersistentMap}), so it is the single source of truth for which
+ * files are live. File names are relative to the directory of the manifest.
+ *
+ * @param version  the manifest format version
+ * @param snapshot the snapshot files
+ * @param segments the segment files in append order
+ */
+record LogManifest(int version, List<String> snapshot, List<String> segments) {
+
+    /** Current manifest format version. */
+    static final int VERSION = 1;
+
+    /**
+     * Creates a manifest with immutable copies of the file lists.
+     *
+     * @param version  the manifest format version
+     * @param snapshot the snapshot files
+     * @param segments the segment files in append order
+     */
+    LogManifest {
+        snapshot = List.copyOf(snapshot);
+        segments = List.copyOf(segments);
+    }
+
+    /**
+     * Creates a manifest in the current format version.
+     *
+     * @param snapshot the snapshot files
+     * @param segments the segment files in append order
+     * @return the manifest
+     */
+    static LogManifest of(List<String> snapshot, List<String> segments) {
+        return new LogManifest(VERSION, snapshot, segments);
+    }
+
+    /**
+     * Returns this manifest with a segment appended.
+     *
+     * @param segment the new segment
+     * @return the updated manifest
+     */
+    LogManifest withSegment(String segment) {
+        List<String> updated = new ArrayList<>(segments);
+        updated.add(segment);
+        return new LogManifest(version, snapshot, updated);
+    }
+
+    /**
+     * Returns this manifest after a compaction: the snapshot is replaced and the segments it
+     * covers are dropped.
+     *
+     * @param newSnapshot the snapshot files written by the compaction
+     * @param compacted   the segments covered by the new snapshot
+     * @return the updated manifest
+     */
+    LogManifest withSnapshot(List<String> newSnapshot, Collection<String> compacted) {
+        List<String> remaining = new ArrayList<>(segments);
+        remaining.removeAll(compacted);
+        return new LogManifest(version, newSnapshot, remaining);
+    }
+
+    /**
+     * Reads a manifest.
+     *
+     * @param file         the manifest file
+     * @param objectMapper the Jackson mapper
+     * @return the manifest
+     * @throws IOException if the file cannot be read or has an unsupported format version
+     */
+    static LogManifest read(Path file, ObjectMapper objectMapper) throws IOException {
+        LogManifest manifest = objectMapper.readValue(file.toFile(), LogManifest.class);
+        if (manifest.version() != VERSION) {
+            throw new IOException("Unsupported persistent map manifest version " + manifest.version());
+        }
+        return manifest;
+    }
+}
@@ -0,0 +1,244 @@
+package org.owasp.oag.persistentmap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * Replays binary log files written by {@link LogWriter}. Records are decoded straight from a
+ * pooled direct buffer; only the key {@code String} and the value are materialized per record.
+ * <p>
+ * A record with a valid length but a wrong checksum is skipped. A record whose length runs past
+ * the end of the file is treated as a torn trailing write and ends the replay. Both cases are
+ * reported as unreadable so the caller can rewrite the file.
+ */
+final class LogReader {
+
+    private LogReader() {
+    }
+
+    /**
+     * Receives the records of a replayed log in file order.
+     *
+     * @param <V> the value type
+     */
+    interface RecordSink<V> {
+
+        /**
+         * Applies a record.
+         *
+         * @param key   the key
+         * @param value the value, or {@code null} for a tombstone
+         */
+        void accept(String key, V value);
+
+        /**
+         * Applies a clear record: removes everything accepted so far.
+         */
+        void clear();
+    }
+
+    /**
+     * Outcome of a replay.
+     *
+     * @param records    the number of records applied
+     * @param unreadable the number of corrupt or torn records encountered
+     */
+    record ReplayResult(long records, long unreadable) {
+    }
+
+    /**
+     * Checks whether the file starts with the binary log header.
+     *
+     * @param file the file to check
+     * @return {@code true} if the file is a binary log, {@code false} if it is empty, too short
+     * or in another format (e.g. the legacy JSON lines)
+     * @throws IOException if the file cannot be read
+     */
+    static boolean hasBinaryHeader(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(RecordCodec.FILE_HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // keep reading until the header is complete or the file ends
+            }
+            return header.position() >= Integer.BYTES && header.getInt(0) == RecordCodec.MAGIC;
+        }
+    }
+
+    /**
+     * Replays a binary log file.
+     *
+     * @param file  the log file, must start with the binary header
+     * @param codec the record encoding
+     * @param sink  receives every valid record
+     * @param <V>   the value type
+     * @return the replay statistics
+     * @throws IOException if the file cannot be read or has an unsupported format version
+     */
+    static <V> ReplayResult replay(Path file, RecordCodec<V> codec, RecordSink<V> sink) throws IOException {
+        if (!Files.exists(file)) {
+            return new ReplayResult(0, 0);
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new Replay<>(channel, codec, sink).run();
+        }
+    }
+
+    /**
+     * State of a single replay.
+     *
+     * @param <V> the value type
+     */
+    private static final class Replay<V> {
+
+        private final FileChannel channel;
+        private final RecordCodec<V> codec;
+        private final RecordSink<V> sink;
+        private final long fileSize;
+        private final ByteBuffer pooled = BufferPool.SHARED.acquire();
+        private final CRC32C crc = new CRC32C();
+
+        /** Current read buffer; the pooled one unless a record did not fit into it. */
+        private ByteBuffer buffer = pooled.flip();
+
+        /** File offset of the byte following the buffered data. */
+        private long readOffset;
+
+        /** Reusable array for key and value bytes. */
+        private byte[] scratch = new byte[256];
+
+        private Replay(FileChannel channel, RecordCodec<V> codec, RecordSink<V> sink) throws IOException {
+            this.channel = channel;
+            this.codec = codec;
+            this.sink = sink;
+            this.fileSize = channel.size();
+        }
+
+        private ReplayResult run() throws IOException {
+            try {
+                readHeader();
+                long records = 0;
+                long unreadable = 0;
+                while (ensure(RecordCodec.RECORD_HEADER_SIZE)) {
+                    int length = buffer.getInt();
+                    int checksum = buffer.getInt();
+                    long recordEnd = readOffset - buffer.remaining() + length;
+                    if (length < RecordCodec.PAYLOAD_HEADER_SIZE || recordEnd > fileSize || !ensure(length)) {
+                        return new ReplayResult(records, unreadable + 1);   // torn trailing record
+                    }
+                    if (applyRecord(length, checksum)) {
+                        records++;
+                    } else {
+                        unreadable++;
+                    }
+                }
+                if (buffer.hasRemaining()) {
+                    unreadable++;          // trailing bytes too short for a record header
+                }
+                return new ReplayResult(records, unreadable);
+            } finally {
+                BufferPool.SHARED.release(pooled);
+            }
+        }
+
+        private void readHeader() throws IOException {
+            if (!ensure(RecordCodec.FILE_HEADER_SIZE) || buffer.getInt() != RecordCodec.MAGIC) {
+                throw new IOException("Not a binary persistent map log");
+            }
+            short version = buffer.getShort();
+            buffer.getShort();     // reserved
+            if (version != RecordCodec.VERSION) {
+                throw new IOException("Unsupported persistent map log version " + version);
+            }
+        }
+
+        /**
+         * Verifies and applies the record payload at the buffer position, always advancing the
+         * buffer past it.
+         *
+         * @param length   the payload length
+         * @param checksum the stored checksum
+         * @return {@code true} if the record was valid and applied
+         */
+        private boolean applyRecord(int length, int checksum) {
+            int start = buffer.position();
+            int end = start + length;
+            try {
+                crc.reset();
+                crc.update(buffer.duplicate().limit(end));
+                if ((int) crc.getValue() != checksum) {
+                    return false;
+                }
+
+                byte type = buffer.get();
+                int keyLength = buffer.getInt();
+                int valueLength = length - RecordCodec.PAYLOAD_HEADER_SIZE - keyLength;
+                if (keyLength < 0 || valueLength < 0) {
+                    return false;
+                }
+                if (type == RecordCodec.TYPE_CLEAR) {
+                    if (keyLength != 0 || valueLength != 0) {
+                        return false;
+                    }
+                    sink.clear();
+                    return true;
+                }
+                if ((type == RecordCodec.TYPE_TOMBSTONE && valueLength != 0)
+                        || (type != RecordCodec.TYPE_TOMBSTONE && type != RecordCodec.TYPE_PUT)) {
+                    return false;
+                }
+
+                ensureScratch(Math.max(keyLength, valueLength));
+                buffer.get(scratch, 0, keyLength);
+                String key = new String(scratch, 0, keyLength, StandardCharsets.UTF_8);
+                V value = type == RecordCodec.TYPE_PUT ? codec.decodeValue(buffer, valueLength, scratch) : null;
+                sink.accept(key, value);
+                return true;
+            } catch (IOException | RuntimeException e) {
+                return false;
+            } finally {
+                buffer.position(end);
+            }
+        }
+
+        /**
+         * Makes sure at least {@code n} bytes are buffered, reading more from the file and
+         * switching to a larger heap buffer if a record exceeds the pooled buffer.
+         *
+         * @param n the number of bytes needed
+         * @return {@code false} if the file ends before {@code n} bytes are available
+         */
+        private boolean ensure(int n) throws IOException {
+            if (buffer.remaining() >= n) {
+                return true;
+            }
+            if (buffer.capacity() < n) {
+                ByteBuffer larger = ByteBuffer.allocate(n);
+                larger.put(buffer);
+                buffer = larger;
+            } else {
+                buffer.compact();
+            }
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, readOffset);
+                if (read < 0) {
+                    break;
+                }
+                readOffset += read;
+            }
+            buffer.flip();
+            return buffer.remaining() >= n;
+        }
+
+        private void ensureScratch(int n) {
+            if (scratch.length < n) {
+                scratch = new byte[Math.max(n, scratch.length * 2)];
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package org.owasp.oag.persistentmap;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Appends binary records (see {@link RecordCodec}) to a log file through a {@link FileChannel}.
+ * Records are encoded into a pooled direct buffer which is written to the channel on
+ * {@link #flush()}, so a batch of records costs a single write call. Not thread-safe; the owning
+ * map guarantees a single writer.
+ *
+ * @param <V> the value type
+ */
+final class LogWriter<V> implements Closeable {
+
+    /** The file written to. */
+    private final Path file;
+
+    /** Append channel on {@link #file}. */
+    private final FileChannel channel;
+
+    /** Encoding of the records. */
+    private final RecordCodec<V> codec;
+
+    /** Pooled buffer holding the records not yet written; {@code null} once closed. */
+    private ByteBuffer buffer;
+
+    /** Number of bytes written to the file so far, including what was there when opened. */
+    private long written;
+
+    /**
+     * Opens a writer, creating the file and writing the file header if the file is empty.
+     *
+     * @param file  the log file
+     * @param codec the record encoding
+     * @throws IOException if the file cannot be opened
+     */
+    LogWriter(Path file, RecordCodec<V> codec) throws IOException {
+        this.file = file;
+        this.codec = codec;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.buffer = BufferPool.SHARED.acquire();
+        this.written = channel.size();
+        if (written == 0) {
+            RecordCodec.writeFileHeader(buffer);
+        }
+    }
+
+    /**
+     * Buffers a record. The record is written to the file on the next {@link #flush()}, or
+     * earlier if the buffer runs full.
+     *
+     * @param key   the key
+     * @param value the value, or {@code null} for a tombstone
+     * @throws IOException if writing fails
+     */
+    void append(String key, V value) throws IOException {
+        if (codec.encode(key, value, buffer)) {
+            return;
+        }
+        flush();
+        if (codec.encode(key, value, buffer)) {
+            return;
+        }
+        // Larger than a pooled buffer: encode it on its own.
+        ByteBuffer large = ByteBuffer.allocate(codec.encodedSize(key, value));
+        codec.encode(key, value, large);
+        writeFully(large.flip());
+    }
+
+    /**
+     * Buffers a clear record, which removes all entries written before it on replay.
+     *
+     * @throws IOException if writing fails
+     */
+    void appendClear() throws IOException {
+        if (!RecordCodec.encodeClear(buffer)) {
+            flush();
+            RecordCodec.encodeClear(buffer);
+        }
+    }
+
+    /**
+     * Writes all buffered records to the operating system.
+     *
+     * @throws IOException if writing fails
+     */
+    void flush() throws IOException {
+        if (buffer.position() > 0) {
+            writeFully(buffer.flip());
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Writes all buffered records and forces them to the storage device.
+     *
+     * @throws IOException if writing or syncing fails
+     */
+    void sync() throws IOException {
+        flush();
+        channel.force(false);
+    }
+
+    /**
+     * Returns the current size of the file including buffered records.
+     *
+     * @return the size in bytes
+     */
+    long size() {
+        return written + (buffer == null ? 0 : buffer.position());
+    }
+
+    /**
+     * Returns the file written to.
+     *
+     * @return the log file
+     */
+    Path getFile() {
+        return file;
+    }
+
+    /**
+     * Flushes the buffered records, closes the channel and returns the buffer to the pool.
+     * Calling it again has no effect.
+     *
+     * @throws IOException if flushing or closing fails
+     */
+    @Override
+    public void close() throws IOException {
+        if (buffer == null) {
+            return;
+        }
+        try {
+            flush();
+        } finally {
+            channel.close();
+            BufferPool.SHARED.release(buffer);
+            buffer = null;
+        }
+    }
+
+    private void writeFully(ByteBuffer source) throws IOException {
+        while (source.hasRemaining()) {
+            written += channel.write(source);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package org.owasp.oag.persistentmap;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * A {@link ScanCursor} over a {@link Map}. The keys are iterated and the value of each key is
+ * looked up when the cursor reaches it, so on a {@link java.util.concurrent.ConcurrentHashMap}
+ * the scan is weakly consistent and allocates nothing per entry: keys removed in the meantime are
+ * skipped and the value is the one current at the time {@link #next()} was called.
+ *
+ * @param <V> the value type
+ */
+final class MapScanCursor<V> implements ScanCursor<V> {
+
+    /** The scanned map. */
+    private final Map<String, V> map;
+
+    /** The keys not visited yet. */
+    private final Iterator<String> keys;
+
+    /** The key of the current entry, or {@code null} if there is none. */
+    private String key;
+
+    /** The value of the current entry. */
+    private V value;
+
+    /**
+     * Creates a cursor positioned before the first entry of the map.
+     *
+     * @param map the map to scan
+     */
+    MapScanCursor(Map<String, V> map) {
+        this.map = map;
+        this.keys = map.keySet().iterator();
+    }
+
+    @Override
+    public boolean next() {
+        while (keys.hasNext()) {
+            String candidate = keys.next();
+            V current = map.get(candidate);
+            if (current != null) {
+                key = candidate;
+                value = current;
+                return true;
+            }
+        }
+        key = null;
+        value = null;
+        return false;
+    }
+
+    @Override
+    public String key() {
+        ensureEntry();
+        return key;
+    }
+
+    @Override
+    public V value() {
+        ensureEntry();
+        return value;
+    }
+
+    private void ensureEntry() {
+        if (key == null) {
+            throw new IllegalStateException("The cursor is not positioned on an entry");
+        }
+    }
+}
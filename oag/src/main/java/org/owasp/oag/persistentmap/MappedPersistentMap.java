@@ -0,0 +1,896 @@
+package org.owasp.oag.persistentmap;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A disk-resident {@link PersistentMap} for data sets larger than the heap. The bulk of the
+ * entries lives in a memory-mapped {@link HashedSnapshot}; only the changes since the last merge
+ * are kept in memory, in a small delta map. Reads check the delta first and then probe the
+ * mapped hash table in place, so {@code containsKey} never deserializes a value and the heap
+ * footprint is bounded by the delta size instead of the number of entries.
+ * <p>
+ * Every {@code put}/{@code remove} appends a record to a delta log (the same binary segment
+ * format as {@link FilePersistentMap}) and flushes it before returning. Once the delta reaches
+ * the configured number of entries, appends roll over to a fresh segment, the delta is frozen and
+ * a background thread merges it with the current snapshot into a new snapshot file, which is
+ * swapped in through the manifest; the frozen delta stays readable until then. Clearing the map
+ * replaces all files synchronously.
+ * <p>
+ * All files are named after the configured path with a {@code .mapped} suffix
+ * ({@code <file>.mapped.manifest}, {@code <file>.mapped.index-<n>}, {@code <file>.mapped.<n>}),
+ * so they do not collide with a {@link FilePersistentMap} using the same path. If no such
+ * manifest exists yet, the entries of a {@link FilePersistentMap} log at that path are imported
+ * once; the original log is left untouched.
+ * <p>
+ * Reads of snapshot entries may page in the mapped file, so {@link #hasNonBlockingReads()} is
+ * {@code false}.
+ *
+ * @param <V> the value type
+ */
+public class MappedPersistentMap<V> implements PersistentMap<V> {
+
+    /** Default number of changed keys kept in memory before they are merged into the snapshot. */
+    public static final int DEFAULT_MAX_DELTA_ENTRIES = 65_536;
+
+    /** Delta value marking a key removed since the last merge. */
+    private static final Object TOMBSTONE = new Object();
+
+    private static final Logger log = LoggerFactory.getLogger(MappedPersistentMap.class);
+
+    /** Absolute configured path; all files are named after it. */
+    private final Path file;
+
+    /** Directory containing the files, used for temp files and fsync. */
+    private final Path directory;
+
+    /** Common file name prefix of all files of this map. */
+    private final String prefix;
+
+    /** The manifest listing the live snapshot and delta segments. */
+    private final Path manifestFile;
+
+    /** Jackson mapper used for the manifest. */
+    private final ObjectMapper objectMapper;
+
+    /** Binary encoding of the values and log records. */
+    private final RecordCodec<V> codec;
+
+    /** Number of delta entries that triggers a merge. */
+    private final int maxDeltaEntries;
+
+    /** Guards all writes and the writer and delta swaps. */
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    /** Guards {@link #manifest} and the manifest file, which rollovers and merges update. */
+    private final ReentrantLock manifestLock = new ReentrantLock();
+
+    /** Runs the background merges one at a time. */
+    private final ExecutorService mergeExecutor;
+
+    /** Statistics of the background merges. */
+    private final AtomicReference<CompactionMetrics> mergeMetrics = new AtomicReference<>(CompactionMetrics.NONE);
+
+    /** The mapped snapshot; replaced by merges and {@link #clear()}. */
+    private volatile HashedSnapshot<V> snapshot;
+
+    /** Changes since the last rollover: values or {@link #TOMBSTONE}. */
+    private volatile ConcurrentHashMap<String, Object> delta = new ConcurrentHashMap<>();
+
+    /** The frozen delta being merged, or {@code null}; read between {@link #delta} and {@link #snapshot}. */
+    private volatile Map<String, Object> merging;
+
+    /** Number of live entries; only written while holding {@link #writeLock}. */
+    private volatile int size;
+
+    /** The live files; guarded by {@link #manifestLock}. */
+    private LogManifest manifest;
+
+    /** Append writer on the active delta segment; guarded by {@link #writeLock}. */
+    private LogWriter<V> writer;
+
+    /** Sequence number of the next segment or snapshot file. */
+    private long nextSequence = 1;
+
+    /** The most recently started merge. */
+    private CompletableFuture<Void> pendingMerge = CompletableFuture.completedFuture(null);
+
+    /** Set once the map is closed; guarded by {@link #writeLock}. */
+    private boolean closed;
+
+    /**
+     * Creates a disk-resident map, opening any existing files.
+     *
+     * @param filename  the base path of the files
+     * @param valueType the runtime class of the value type, used for deserialization
+     */
+    public MappedPersistentMap(String filename, Class<V> valueType) {
+        this(filename, valueType, DEFAULT_MAX_DELTA_ENTRIES);
+    }
+
+    /**
+     * Creates a disk-resident map with a custom delta size, opening any existing files.
+     *
+     * @param filename        the base path of the files
+     * @param valueType       the runtime class of the value type, used for deserialization
+     * @param maxDeltaEntries the number of changed keys kept in memory before a merge starts
+     */
+    public MappedPersistentMap(String filename, Class<V> valueType, int maxDeltaEntries) {
+        if (maxDeltaEntries < 1) {
+            throw new IllegalArgumentException("maxDeltaEntries must be at least 1");
+        }
+        this.file = Paths.get(filename).toAbsolutePath();
+        this.directory = this.file.getParent();
+        this.prefix = this.file.getFileName() + ".mapped";
+        this.manifestFile = directory.resolve(prefix + ".manifest");
+        this.objectMapper = new ObjectMapper();
+        this.codec = RecordCodec.create(valueType, objectMapper);
+        this.maxDeltaEntries = maxDeltaEntries;
+        this.mergeExecutor = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "persistent-map-merge-" + file.getFileName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            load(valueType);
+        } catch (RuntimeException e) {
+            mergeExecutor.shutdownNow();
+            closeWriterQuietly();
+            throw e;
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(String key) {
+        Object pending = pendingValue(key);
+        if (pending != null) {
+            return pending == TOMBSTONE ? null : (V) pending;
+        }
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        try {
+            return snapshot.get(bytes, HashedSnapshot.hash(bytes));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read " + key + " from " + file, e);
+        }
+    }
+
+    @Override
+    public void put(String key, V value) {
+        writeLock.lock();
+        try {
+            ensureOpen();
+            boolean existed = containsKey(key);
+            append(key, value);
+            delta.put(key, value);
+            if (!existed) {
+                size++;
+            }
+            maybeMerge();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void remove(String key) {
+        writeLock.lock();
+        try {
+            ensureOpen();
+            if (!containsKey(key)) {
+                return;
+            }
+            append(key, null);
+            if (mergedContains(key)) {
+                delta.put(key, TOMBSTONE);
+            } else {
+                delta.remove(key);
+            }
+            size--;
+            maybeMerge();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> putAllAsync(Map<String, V> entries) {
+        writeLock.lock();
+        try {
+            ensureOpen();
+            for (Map.Entry<String, V> entry : entries.entrySet()) {
+                V value = Objects.requireNonNull(entry.getValue(), "value must not be null");
+                boolean existed = containsKey(entry.getKey());
+                writer.append(entry.getKey(), value);
+                delta.put(entry.getKey(), value);
+                if (!existed) {
+                    size++;
+                }
+            }
+            if (!entries.isEmpty()) {
+                writer.flush();
+                maybeMerge();
+            }
+            return CompletableFuture.completedFuture(null);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to append to " + file, e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> removeAllAsync(Collection<String> keys) {
+        writeLock.lock();
+        try {
+            ensureOpen();
+            removeBatch(keys, (key, value) -> true);
+            return CompletableFuture.completedFuture(null);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<? super String, ? super V> action) {
+        Map<String, Object> current = delta;
+        Map<String, Object> frozen = merging;
+        HashedSnapshot<V> base = snapshot;
+        try {
+            base.forEach((key, keyBytes, value) -> {
+                if (!current.containsKey(key) && (frozen == null || !frozen.containsKey(key))) {
+                    action.accept(key, base.decode(value));
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read " + file, e);
+        }
+        if (frozen != null) {
+            frozen.forEach((key, value) -> {
+                if (value != TOMBSTONE && !current.containsKey(key)) {
+                    action.accept(key, (V) value);
+                }
+            });
+        }
+        current.forEach((key, value) -> {
+            if (value != TOMBSTONE) {
+                action.accept(key, (V) value);
+            }
+        });
+    }
+
+    @Override
+    public int removeIf(BiPredicate<? super String, ? super V> filter) {
+        // Test the entries without blocking writers, then remove the matches under the lock.
+        List<String> candidates = new ArrayList<>();
+        forEach((key, value) -> {
+            if (filter.test(key, value)) {
+                candidates.add(key);
+            }
+        });
+        if (candidates.isEmpty()) {
+            return 0;
+        }
+        writeLock.lock();
+        try {
+            ensureOpen();
+            return removeBatch(candidates, filter);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Removes the present keys whose current value matches the filter, appending all tombstones
+     * with a single flush. Must be called while holding {@link #writeLock}.
+     *
+     * @param keys   the keys to remove
+     * @param filter the filter the current value must match
+     * @return the number of removed entries
+     */
+    private int removeBatch(Collection<String> keys, BiPredicate<? super String, ? super V> filter) {
+        int removed = 0;
+        try {
+            for (String key : keys) {
+                V value = get(key);
+                if (value == null || !filter.test(key, value)) {
+                    continue;
+                }
+                writer.append(key, null);
+                if (mergedContains(key)) {
+                    delta.put(key, TOMBSTONE);
+                } else {
+                    delta.remove(key);
+                }
+                size--;
+                removed++;
+            }
+            if (removed > 0) {
+                writer.flush();
+                maybeMerge();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to append to " + file, e);
+        }
+        return removed;
+    }
+
+    @Override
+    public boolean containsKey(String key) {
+        Object pending = pendingValue(key);
+        if (pending != null) {
+            return pending != TOMBSTONE;
+        }
+        return snapshotContains(key);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        writeLock.lock();
+        try {
+            ensureOpen();
+            awaitQuietly(pendingMerge);
+
+            Path index = indexPath(nextSequence++);
+            try (var builder = new HashedSnapshot.Builder<>(index, codec)) {
+                builder.finish();
+            }
+            HashedSnapshot<V> empty = HashedSnapshot.open(index, codec);
+            Path segment = segmentPath(nextSequence++);
+            LogWriter<V> nextWriter = new LogWriter<>(segment, codec);
+
+            List<String> obsolete;
+            manifestLock.lock();
+            try {
+                obsolete = new ArrayList<>(manifest.snapshot());
+                obsolete.addAll(manifest.segments());
+                LogManifest updated = LogManifest.of(List.of(index.getFileName().toString()),
+                        List.of(segment.getFileName().toString()));
+                writeManifest(updated);
+                manifest = updated;
+            } catch (IOException e) {
+                nextWriter.close();
+                LogFiles.deleteQuietly(segment);
+                LogFiles.deleteQuietly(index);
+                throw e;
+            } finally {
+                manifestLock.unlock();
+            }
+
+            snapshot = empty;
+            merging = null;
+            delta = new ConcurrentHashMap<>();
+            size = 0;
+            LogWriter<V> previous = writer;
+            writer = nextWriter;
+            previous.close();
+            obsolete.forEach(name -> LogFiles.deleteQuietly(directory.resolve(name)));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to clear " + file, e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Set<Map.Entry<String, V>> entrySet() {
+        Map<String, Object> current = delta;
+        Map<String, Object> frozen = merging;
+        HashedSnapshot<V> base = snapshot;
+        Map<String, Object> entries = new HashMap<>();
+        try {
+            base.forEach((key, keyBytes, value) -> entries.put(key, base.decode(value)));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read " + file, e);
+        }
+        if (frozen != null) {
+            entries.putAll(frozen);
+        }
+        entries.putAll(current);
+        return entries.entrySet().stream()
+                .filter(e -> e.getValue() != TOMBSTONE)
+                .map(e -> Map.entry(e.getKey(), (V) e.getValue()))
+                .collect(Collectors.toUnmodifiableSet());
+    }
+
+    @Override
+    public void close() {
+        writeLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            closeWriter();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to close " + file, e);
+        } finally {
+            writeLock.unlock();
+            awaitMerges();
+        }
+    }
+
+    /**
+     * Returns the statistics of the background merges.
+     *
+     * @return the merge metrics
+     */
+    public CompactionMetrics getCompactionMetrics() {
+        return mergeMetrics.get();
+    }
+
+    /**
+     * Merges the delta into a new snapshot and waits for the merge to finish. Package-private so
+     * tests can force a merge.
+     */
+    void merge() {
+        CompletableFuture<Void> done;
+        writeLock.lock();
+        try {
+            ensureOpen();
+            awaitQuietly(pendingMerge);
+            done = startMerge();
+        } finally {
+            writeLock.unlock();
+        }
+        await(done);
+    }
+
+    /**
+     * Returns the pending change of a key: the active delta first, then the delta being merged.
+     *
+     * @param key the key
+     * @return the value, {@link #TOMBSTONE}, or {@code null} if the key did not change since the
+     * snapshot was written
+     */
+    private Object pendingValue(String key) {
+        Object value = delta.get(key);
+        if (value == null) {
+            Map<String, Object> frozen = merging;
+            if (frozen != null) {
+                value = frozen.get(key);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Checks whether a key is present below the active delta, i.e. whether removing it needs a
+     * tombstone.
+     *
+     * @param key the key
+     * @return {@code true} if the frozen delta or the snapshot holds the key
+     */
+    private boolean mergedContains(String key) {
+        Map<String, Object> frozen = merging;
+        if (frozen != null) {
+            Object value = frozen.get(key);
+            if (value != null) {
+                return value != TOMBSTONE;
+            }
+        }
+        return snapshotContains(key);
+    }
+
+    private boolean snapshotContains(String key) {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        return snapshot.containsKey(bytes, HashedSnapshot.hash(bytes));
+    }
+
+    /**
+     * Throws if the map was closed. Must be called while holding {@link #writeLock}.
+     */
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("Persistent map " + file + " is closed");
+        }
+    }
+
+    /**
+     * Appends a record to the delta log and flushes it. Must be called while holding
+     * {@link #writeLock}.
+     *
+     * @param key   the key
+     * @param value the value, or {@code null} for a tombstone
+     */
+    private void append(String key, V value) {
+        try {
+            writer.append(key, value);
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to append to " + file, e);
+        }
+    }
+
+    /**
+     * Opens the snapshot, replays the delta segments into memory and starts a new segment. If
+     * this map has no manifest yet, a {@link FilePersistentMap} log at the same path is imported
+     * into the first snapshot.
+     *
+     * @param valueType the runtime class of the value type
+     */
+    private void load(Class<V> valueType) {
+        long unreadable = 0;
+        try {
+            if (Files.exists(manifestFile)) {
+                manifest = LogManifest.read(manifestFile, objectMapper);
+                deleteOrphans(manifest);
+            } else {
+                manifest = LogManifest.of(importFileLog(valueType), List.of());
+            }
+            for (String name : manifest.snapshot()) {
+                nextSequence = Math.max(nextSequence, sequenceOf(name) + 1);
+            }
+            for (String name : manifest.segments()) {
+                nextSequence = Math.max(nextSequence, sequenceOf(name) + 1);
+            }
+
+            snapshot = manifest.snapshot().isEmpty()
+                    ? HashedSnapshot.empty(codec)
+                    : HashedSnapshot.open(directory.resolve(manifest.snapshot().get(0)), codec);
+            LogReader.RecordSink<V> sink = new LogReader.RecordSink<>() {
+                @Override
+                public void accept(String key, V value) {
+                    delta.put(key, value == null ? TOMBSTONE : value);
+                }
+
+                @Override
+                public void clear() {
+                    // Never written: clear() replaces the files. Rejecting it counts the record as unreadable.
+                    throw new IllegalStateException("Unexpected clear record");
+                }
+            };
+            for (String name : manifest.segments()) {
+                unreadable += LogReader.replay(directory.resolve(name), codec, sink).unreadable();
+            }
+            size = countEntries();
+
+            Path segment = segmentPath(nextSequence++);
+            writer = new LogWriter<>(segment, codec);
+            manifest = manifest.withSegment(segment.getFileName().toString());
+            writeManifest(manifest);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to load " + file, e);
+        }
+
+        if (unreadable > 0) {
+            log.warn("Persistent map file {} contained {} unreadable records; merging into a clean snapshot", file, unreadable);
+            await(startMerge());
+        } else if (delta.size() >= maxDeltaEntries) {
+            startMerge();
+        }
+    }
+
+    /**
+     * Writes the entries of a {@link FilePersistentMap} log at {@link #file} into the first
+     * snapshot of this map.
+     *
+     * @param valueType the runtime class of the value type
+     * @return the snapshot file names, empty if there was nothing to import
+     * @throws IOException if the snapshot cannot be written
+     */
+    private List<String> importFileLog(Class<V> valueType) throws IOException {
+        if (FilePersistentMap.logFiles(file.toString()).isEmpty()) {
+            return List.of();
+        }
+        Path index = indexPath(nextSequence++);
+        try (var source = new FilePersistentMap<>(file.toString(), valueType);
+             var builder = new HashedSnapshot.Builder<>(index, codec)) {
+            ScanCursor<V> cursor = source.scan();
+            while (cursor.next()) {
+                builder.add(cursor.key(), cursor.value());
+            }
+            builder.finish();
+            log.info("Imported {} entries from persistent map log {}", source.size(), file);
+        } catch (IOException | RuntimeException e) {
+            LogFiles.deleteQuietly(index);
+            throw e;
+        }
+        return List.of(index.getFileName().toString());
+    }
+
+    /**
+     * Counts the live entries after a replay: the snapshot entries adjusted by the delta.
+     *
+     * @return the entry count
+     */
+    private int countEntries() {
+        int count = snapshot.size();
+        for (Map.Entry<String, Object> entry : delta.entrySet()) {
+            boolean inSnapshot = snapshotContains(entry.getKey());
+            if (entry.getValue() == TOMBSTONE && inSnapshot) {
+                count--;
+            } else if (entry.getValue() != TOMBSTONE && !inSnapshot) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Starts a merge if the delta reached its maximum size and no merge is running. Must be
+     * called while holding {@link #writeLock}.
+     */
+    private void maybeMerge() {
+        if (delta.size() >= maxDeltaEntries && pendingMerge.isDone()) {
+            startMerge();
+        }
+    }
+
+    /**
+     * Rolls the appends over to a fresh segment, freezes the delta and schedules the merge. Must
+     * be called while holding {@link #writeLock} with no merge running. The delta of a failed
+     * merge is still frozen; it is folded into the new one so no change is lost.
+     *
+     * @return a future completed once the merge finished
+     */
+    private CompletableFuture<Void> startMerge() {
+        List<String> sealed;
+        try {
+            sealed = rollover();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to start a new segment of " + file, e);
+        }
+        long sequence = nextSequence - 1;
+        Map<String, Object> frozen = delta;
+        if (merging != null) {
+            Map<String, Object> combined = new HashMap<>(merging);
+            combined.putAll(frozen);
+            frozen = combined;
+        }
+        // Publish the frozen delta before replacing the active one so readers always see it.
+        merging = frozen;
+        delta = new ConcurrentHashMap<>();
+        Map<String, Object> toMerge = frozen;
+        pendingMerge = CompletableFuture.runAsync(() -> mergeSegments(toMerge, sealed, sequence), mergeExecutor);
+        return pendingMerge;
+    }
+
+    /**
+     * Switches {@link #writer} to a new segment and records it in the manifest.
+     *
+     * @return the segments preceding the new one
+     * @throws IOException if the new segment cannot be created or the current one not closed
+     */
+    private List<String> rollover() throws IOException {
+        Path next = segmentPath(nextSequence);
+        LogWriter<V> nextWriter = new LogWriter<>(next, codec);
+        List<String> sealed;
+        manifestLock.lock();
+        try {
+            LogManifest updated = manifest.withSegment(next.getFileName().toString());
+            writeManifest(updated);
+            sealed = manifest.segments();
+            manifest = updated;
+        } catch (IOException e) {
+            nextWriter.close();
+            LogFiles.deleteQuietly(next);
+            throw e;
+        } finally {
+            manifestLock.unlock();
+        }
+        nextSequence++;
+
+        LogWriter<V> sealedWriter = writer;
+        writer = nextWriter;
+        sealedWriter.close();
+        return sealed;
+    }
+
+    /**
+     * Background part of a merge: copies the snapshot entries not changed by the frozen delta
+     * into a new snapshot file without decoding them, adds the values of the delta, swaps the
+     * file in by replacing the manifest and deletes the previous snapshot and the sealed
+     * segments.
+     *
+     * @param frozen   the frozen delta
+     * @param sealed   the segments covered by the new snapshot
+     * @param sequence the sequence number used to name the snapshot file
+     */
+    @SuppressWarnings("unchecked")
+    private void mergeSegments(Map<String, Object> frozen, List<String> sealed, long sequence) {
+        long start = System.nanoTime();
+        Path index = indexPath(sequence);
+        boolean swapped = false;
+        try {
+            try (var builder = new HashedSnapshot.Builder<>(index, codec)) {
+                snapshot.forEach((key, keyBytes, value) -> {
+                    if (!frozen.containsKey(key)) {
+                        builder.add(keyBytes, value);
+                    }
+                });
+                for (Map.Entry<String, Object> entry : frozen.entrySet()) {
+                    if (entry.getValue() != TOMBSTONE) {
+                        builder.add(entry.getKey(), (V) entry.getValue());
+                    }
+                }
+                builder.finish();
+            }
+            HashedSnapshot<V> merged = HashedSnapshot.open(index, codec);
+
+            List<String> obsolete;
+            manifestLock.lock();
+            try {
+                obsolete = new ArrayList<>(manifest.snapshot());
+                obsolete.addAll(sealed);
+                LogManifest updated = manifest.withSnapshot(List.of(index.getFileName().toString()), sealed);
+                writeManifest(updated);
+                manifest = updated;
+                swapped = true;
+            } finally {
+                manifestLock.unlock();
+            }
+            // Swap the snapshot before dropping the frozen delta so readers always see the merged state.
+            snapshot = merged;
+            merging = null;
+
+            long bytesReclaimed = 0;
+            for (String name : obsolete) {
+                Path obsoleteFile = directory.resolve(name);
+                bytesReclaimed += LogFiles.sizeOf(obsoleteFile);
+                Files.deleteIfExists(obsoleteFile);
+            }
+            LogFiles.fsyncDirectory(directory);
+            bytesReclaimed -= LogFiles.sizeOf(index);
+
+            long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            long reclaimed = Math.max(0, bytesReclaimed);
+            mergeMetrics.updateAndGet(m -> m.withCompaction(durationMillis, reclaimed));
+            log.debug("Merged {} changes into {} in {} ms", frozen.size(), index, durationMillis);
+        } catch (IOException e) {
+            mergeMetrics.updateAndGet(CompactionMetrics::withFailure);
+            if (!swapped) {
+                LogFiles.deleteQuietly(index);
+            }
+            log.error("Failed to merge {}", file, e);
+            throw new UncheckedIOException("Failed to merge " + file, e);
+        }
+    }
+
+    /**
+     * Deletes files of this map that the manifest does not reference, e.g. the snapshot of an
+     * interrupted merge.
+     *
+     * @param live the manifest listing the live files
+     * @throws IOException if the directory cannot be listed
+     */
+    private void deleteOrphans(LogManifest live) throws IOException {
+        var names = new HashSet<String>(live.snapshot());
+        names.addAll(live.segments());
+        names.add(manifestFile.getFileName().toString());
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(f -> f.getFileName().toString().startsWith(prefix + "."))
+                    .filter(f -> !names.contains(f.getFileName().toString()))
+                    .forEach(orphan -> {
+                        log.info("Deleting unreferenced persistent map file {}", orphan);
+                        LogFiles.deleteQuietly(orphan);
+                    });
+        }
+    }
+
+    /**
+     * Replaces the manifest file. Must be called while holding {@link #manifestLock}.
+     *
+     * @param updated the manifest to write
+     * @throws IOException if writing fails
+     */
+    private void writeManifest(LogManifest updated) throws IOException {
+        LogFiles.writeManifest(manifestFile, updated, objectMapper);
+    }
+
+    /**
+     * Waits for a merge, rethrowing its failure unwrapped.
+     *
+     * @param done the completion of the merge
+     */
+    private static void await(CompletableFuture<Void> done) {
+        try {
+            done.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Waits for a merge, ignoring its failure, which was already logged and leaves the frozen
+     * delta in place.
+     *
+     * @param done the completion of the merge
+     */
+    private static void awaitQuietly(CompletableFuture<Void> done) {
+        try {
+            done.join();
+        } catch (CompletionException e) {
+            // logged by the merge
+        }
+    }
+
+    /**
+     * Waits for running and queued merges to finish and stops the merge thread.
+     */
+    private void awaitMerges() {
+        mergeExecutor.shutdown();
+        try {
+            mergeExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted while waiting for the merge of {} to finish", file);
+        }
+    }
+
+    private void closeWriter() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+
+    private void closeWriterQuietly() {
+        try {
+            closeWriter();
+        } catch (IOException e) {
+            log.warn("Failed to close the writer of {}", file, e);
+        }
+    }
+
+    private Path segmentPath(long sequence) {
+        return directory.resolve(prefix + "." + sequence);
+    }
+
+    private Path indexPath(long sequence) {
+        return directory.resolve(prefix + ".index-" + sequence);
+    }
+
+    /**
+     * Parses the sequence number from the name of a segment ({@code <prefix>.<n>}) or snapshot
+     * ({@code <prefix>.index-<n>}).
+     *
+     * @param name the file name
+     * @return the sequence number, or {@code -1} if the name is not one of this map's files
+     */
+    private long sequenceOf(String name) {
+        String indexPrefix = prefix + ".index-";
+        if (name.startsWith(indexPrefix)) {
+            return LogFiles.parseSequence(name, indexPrefix.length(), name.length());
+        }
+        return name.startsWith(prefix + ".") ? LogFiles.parseSequence(name, prefix.length() + 1, name.length()) : -1;
+    }
+}
@@ -0,0 +1,408 @@
+package org.owasp.oag.persistentmap;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * An open-addressing hash table from {@code long} to {@code int} stored in a direct
+ * {@link ByteBuffer}, i.e. outside the Java heap. An entry takes 12 bytes of native memory
+ * instead of the boxed key, boxed value and map node of a {@code Map<String, Integer>}, and
+ * neither lookups nor updates allocate.
+ * <p>
+ * Slots hold the key followed by the value; key {@code 0} marks an empty slot, so an entry with
+ * key {@code 0} is kept in a separate field. Collisions are resolved by linear probing and
+ * removals shift the following entries back instead of leaving tombstones. The table doubles
+ * once it is three quarters full.
+ * <p>
+ * Reads are optimistic: they run without locking and are only retried under the read lock of a
+ * {@link StampedLock} if a write interfered. Writes take the write lock. The native memory of a
+ * table is released by the garbage collector once the buffer becomes unreachable, and counts
+ * against {@code -XX:MaxDirectMemorySize}.
+ */
+final class OffHeapLongIntMap {
+
+    /** Size of a slot in bytes: the key followed by the value. */
+    static final int SLOT_SIZE = Long.BYTES + Integer.BYTES;
+
+    /** Largest slot count, keeping the table below 2 GiB. */
+    static final int MAX_CAPACITY = 1 << 27;
+
+    private static final int MIN_CAPACITY = 16;
+
+    private final StampedLock lock = new StampedLock();
+
+    /** The slots; replaced on resize. */
+    private ByteBuffer table;
+
+    /** Number of entries, including the zero key. */
+    private int size;
+
+    /** Whether an entry with key {@code 0} exists. */
+    private boolean hasZeroKey;
+
+    /** Value of the entry with key {@code 0}. */
+    private int zeroValue;
+
+    /**
+     * Creates an empty table.
+     *
+     * @param expectedSize the number of entries to allocate room for
+     */
+    OffHeapLongIntMap(int expectedSize) {
+        table = allocate(capacityFor(expectedSize));
+    }
+
+    /**
+     * Returns the value of a key.
+     *
+     * @param key          the key
+     * @param defaultValue the value returned if the key is absent
+     * @return the value, or {@code defaultValue}
+     */
+    int getOrDefault(long key, int defaultValue) {
+        long stamp = lock.tryOptimisticRead();
+        int value = lookup(key, defaultValue);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                value = lookup(key, defaultValue);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Checks whether a key is present.
+     *
+     * @param key the key
+     * @return {@code true} if the key is present
+     */
+    boolean containsKey(long key) {
+        long stamp = lock.tryOptimisticRead();
+        boolean found = find(key) >= 0;
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                found = find(key) >= 0;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Probes for a key. May observe a table being modified when called optimistically, so it
+     * derives the mask from the buffer it reads and bounds the probe sequence.
+     */
+    private int lookup(long key, int defaultValue) {
+        if (key == 0) {
+            return hasZeroKey ? zeroValue : defaultValue;
+        }
+        ByteBuffer slots = table;
+        int position = find(slots, key);
+        return position < 0 ? defaultValue : slots.getInt(position + Long.BYTES);
+    }
+
+    private int find(long key) {
+        return key == 0 ? (hasZeroKey ? 0 : -1) : find(table, key);
+    }
+
+    /**
+     * Returns the buffer position of a non-zero key in the given slots, or {@code -1}.
+     */
+    private static int find(ByteBuffer slots, long key) {
+        int mask = slots.capacity() / SLOT_SIZE - 1;
+        int slot = slotOf(key, mask);
+        for (int probes = 0; probes <= mask; probes++) {
+            int position = slot * SLOT_SIZE;
+            long candidate = slots.getLong(position);
+            if (candidate == key) {
+                return position;
+            }
+            if (candidate == 0) {
+                return -1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Inserts or replaces an entry.
+     *
+     * @param key   the key
+     * @param value the value
+     * @return {@code true} if the key was absent
+     * @throws IllegalStateException if the table cannot grow any further
+     */
+    boolean put(long key, int value) {
+        long stamp = lock.writeLock();
+        try {
+            if (key == 0) {
+                boolean added = !hasZeroKey;
+                hasZeroKey = true;
+                zeroValue = value;
+                size += added ? 1 : 0;
+                return added;
+            }
+            int mask = mask();
+            int slot = slotOf(key, mask);
+            while (true) {
+                int position = slot * SLOT_SIZE;
+                long candidate = table.getLong(position);
+                if (candidate == key) {
+                    table.putInt(position + Long.BYTES, value);
+                    return false;
+                }
+                if (candidate == 0) {
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if ((long) (size + 1) * 4 > (long) (mask + 1) * 3) {
+                resize((mask + 1) * 2);
+            }
+            insert(table, key, value);
+            size++;
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes an entry.
+     *
+     * @param key the key
+     * @return {@code true} if the key was present
+     */
+    boolean remove(long key) {
+        long stamp = lock.writeLock();
+        try {
+            if (key == 0) {
+                boolean removed = hasZeroKey;
+                hasZeroKey = false;
+                size -= removed ? 1 : 0;
+                return removed;
+            }
+            int mask = mask();
+            int slot = slotOf(key, mask);
+            while (true) {
+                long candidate = table.getLong(slot * SLOT_SIZE);
+                if (candidate == 0) {
+                    return false;
+                }
+                if (candidate == key) {
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+            shiftBack(slot, mask);
+            size--;
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Empties the slot at {@code hole} and moves later entries of the same probe run back into
+     * it, so lookups never hit an empty slot before their key.
+     */
+    private void shiftBack(int hole, int mask) {
+        int slot = hole;
+        while (true) {
+            slot = (slot + 1) & mask;
+            int position = slot * SLOT_SIZE;
+            long key = table.getLong(position);
+            if (key == 0) {
+                break;
+            }
+            int home = slotOf(key, mask);
+            // Move the entry if its home slot does not lie cyclically in (hole, slot].
+            boolean movable = hole <= slot ? home <= hole || home > slot : home <= hole && home > slot;
+            if (movable) {
+                table.putLong(hole * SLOT_SIZE, key);
+                table.putInt(hole * SLOT_SIZE + Long.BYTES, table.getInt(position + Long.BYTES));
+                hole = slot;
+            }
+        }
+        table.putLong(hole * SLOT_SIZE, 0);
+        table.putInt(hole * SLOT_SIZE + Long.BYTES, 0);
+    }
+
+    /**
+     * Removes all entries whose value is below a bound, e.g. expired entries when values are
+     * expiry timestamps. Rebuilds the table, shrinking it if it became sparse.
+     *
+     * @param bound the exclusive upper bound of the values to remove
+     * @return the number of removed entries
+     */
+    int removeIfValueBelow(int bound) {
+        long stamp = lock.writeLock();
+        try {
+            int before = size;
+            int remaining = hasZeroKey && zeroValue >= bound ? 1 : 0;
+            hasZeroKey = remaining == 1;
+            ByteBuffer old = table;
+            int capacity = old.capacity() / SLOT_SIZE;
+            for (int slot = 0; slot < capacity; slot++) {
+                long key = old.getLong(slot * SLOT_SIZE);
+                if (key != 0 && old.getInt(slot * SLOT_SIZE + Long.BYTES) >= bound) {
+                    remaining++;
+                }
+            }
+            ByteBuffer rebuilt = allocate(Math.min(capacity, capacityFor(remaining)));
+            for (int slot = 0; slot < capacity; slot++) {
+                long key = old.getLong(slot * SLOT_SIZE);
+                int value = old.getInt(slot * SLOT_SIZE + Long.BYTES);
+                if (key != 0 && value >= bound) {
+                    insert(rebuilt, key, value);
+                }
+            }
+            table = rebuilt;
+            size = remaining;
+            return before - remaining;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes all entries and shrinks the table to its minimum size.
+     */
+    void clear() {
+        long stamp = lock.writeLock();
+        try {
+            table = allocate(MIN_CAPACITY);
+            size = 0;
+            hasZeroKey = false;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Returns the number of entries.
+     *
+     * @return the entry count
+     */
+    int size() {
+        long stamp = lock.readLock();
+        try {
+            return size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Returns the native memory held by the table.
+     *
+     * @return the table size in bytes
+     */
+    long allocatedBytes() {
+        long stamp = lock.readLock();
+        try {
+            return table.capacity();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Visits every entry under the read lock, so writers wait until the visit completes.
+     *
+     * @param consumer receives the entries
+     */
+    void forEach(EntryConsumer consumer) {
+        long stamp = lock.readLock();
+        try {
+            if (hasZeroKey) {
+                consumer.accept(0, zeroValue);
+            }
+            int capacity = table.capacity() / SLOT_SIZE;
+            for (int slot = 0; slot < capacity; slot++) {
+                long key = table.getLong(slot * SLOT_SIZE);
+                if (key != 0) {
+                    consumer.accept(key, table.getInt(slot * SLOT_SIZE + Long.BYTES));
+                }
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private int mask() {
+        return table.capacity() / SLOT_SIZE - 1;
+    }
+
+    private void resize(int capacity) {
+        if (capacity > MAX_CAPACITY) {
+            throw new IllegalStateException("Off-heap map is full at " + size + " entries");
+        }
+        ByteBuffer old = table;
+        ByteBuffer resized = allocate(capacity);
+        int oldCapacity = old.capacity() / SLOT_SIZE;
+        for (int slot = 0; slot < oldCapacity; slot++) {
+            long key = old.getLong(slot * SLOT_SIZE);
+            if (key != 0) {
+                insert(resized, key, old.getInt(slot * SLOT_SIZE + Long.BYTES));
+            }
+        }
+        table = resized;
+    }
+
+    /**
+     * Stores a key known to be absent into the first free slot of its probe run.
+     */
+    private static void insert(ByteBuffer slots, long key, int value) {
+        int mask = slots.capacity() / SLOT_SIZE - 1;
+        int slot = slotOf(key, mask);
+        while (slots.getLong(slot * SLOT_SIZE) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots.putLong(slot * SLOT_SIZE, key);
+        slots.putInt(slot * SLOT_SIZE + Long.BYTES, value);
+    }
+
+    private static int slotOf(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private static ByteBuffer allocate(int capacity) {
+        return ByteBuffer.allocateDirect(capacity * SLOT_SIZE).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Returns the smallest power of two keeping the load factor below three quarters.
+     */
+    private static int capacityFor(int entries) {
+        long needed = Math.max(MIN_CAPACITY, (long) entries * 4 / 3 + 1);
+        long capacity = Long.highestOneBit(needed * 2 - 1);
+        if (capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("Off-heap map cannot hold " + entries + " entries");
+        }
+        return (int) capacity;
+    }
+
+    /**
+     * Receives the entries of the table.
+     */
+    @FunctionalInterface
+    interface EntryConsumer {
+
+        /**
+         * Accepts an entry.
+         *
+         * @param key   the key
+         * @param value the value
+         */
+        void accept(long key, int value);
+    }
+}
@@ -0,0 +1,443 @@
+package org.owasp.oag.persistentmap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * A persistent map from {@code long} keys to {@code int} values, specialized for stores such as
+ * the session blacklist whose keys are 64-bit ids and whose values are expiry timestamps. The
+ * entries live in an {@link OffHeapLongIntMap}, so they cost 12 bytes of native memory each
+ * instead of well over 100 bytes of heap, and lookups neither lock nor allocate.
+ * <p>
+ * Every {@code put}/{@code remove} appends a fixed-size record to an append-only log and writes
+ * it to the file before returning:
+ * <pre>
+ * header: int magic "OAGL" | short version | short reserved
+ * record: byte type | long key | int value | int CRC32C of the preceding 13 bytes
+ * </pre>
+ * On startup the log is replayed into the table; a record with a wrong checksum is skipped and
+ * a torn trailing record ends the replay. Once the log holds more than twice as many records as
+ * there are entries, it is rewritten with one record per entry. The rewrite runs on the writing
+ * thread; at 17 bytes per entry it costs a sequential write of a few megabytes per million
+ * entries.
+ */
+public class PersistentLongIntMap implements Closeable {
+
+    /** File magic, {@code "OAGL"}. */
+    static final int MAGIC = 0x4F41474C;
+
+    /** Current log format version. */
+    static final short VERSION = 1;
+
+    /** Size of the file header in bytes. */
+    static final int FILE_HEADER_SIZE = 8;
+
+    /** Size of a record in bytes. */
+    static final int RECORD_SIZE = 1 + Long.BYTES + Integer.BYTES + Integer.BYTES;
+
+    /** Record type of an insert or update. */
+    static final byte TYPE_PUT = 0;
+
+    /** Record type of a removal. */
+    static final byte TYPE_REMOVE = 1;
+
+    /** Multiplier applied to the entry count when deciding whether to compact. */
+    private static final int COMPACTION_FACTOR = 2;
+
+    /** Minimum number of records tolerated before compaction is considered. */
+    private static final int MIN_RECORDS_BEFORE_COMPACTION = 10_000;
+
+    private static final Logger log = LoggerFactory.getLogger(PersistentLongIntMap.class);
+
+    /** The entries. */
+    private final OffHeapLongIntMap map;
+
+    /** The log file. */
+    private final Path file;
+
+    /** Guards all writes. */
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    /** Buffer holding the record being appended; guarded by {@link #writeLock}. */
+    private final ByteBuffer record = ByteBuffer.allocateDirect(RECORD_SIZE);
+
+    /** Checksum of the record being appended; guarded by {@link #writeLock}. */
+    private final CRC32C crc = new CRC32C();
+
+    /** Append channel on {@link #file}; {@code null} once closed. */
+    private FileChannel channel;
+
+    /** Number of records in the log. */
+    private long records;
+
+    /**
+     * Opens a map, replaying an existing log.
+     *
+     * @param filename the log file path
+     */
+    public PersistentLongIntMap(String filename) {
+        this(filename, 0);
+    }
+
+    /**
+     * Opens a map, replaying an existing log.
+     *
+     * @param filename     the log file path
+     * @param expectedSize the number of entries to allocate room for up front
+     */
+    public PersistentLongIntMap(String filename, int expectedSize) {
+        this.file = Paths.get(filename).toAbsolutePath();
+        this.map = new OffHeapLongIntMap(expectedSize);
+        load();
+    }
+
+    /**
+     * Returns the value of a key. Never blocks on writers and never allocates.
+     *
+     * @param key          the key
+     * @param defaultValue the value returned if the key is absent
+     * @return the value, or {@code defaultValue}
+     */
+    public int getOrDefault(long key, int defaultValue) {
+        return map.getOrDefault(key, defaultValue);
+    }
+
+    /**
+     * Checks whether a key is present. Never blocks on writers and never allocates.
+     *
+     * @param key the key
+     * @return {@code true} if the key is present
+     */
+    public boolean containsKey(long key) {
+        return map.containsKey(key);
+    }
+
+    /**
+     * Inserts or replaces an entry and appends it to the log.
+     *
+     * @param key   the key
+     * @param value the value
+     */
+    public void put(long key, int value) {
+        writeLock.lock();
+        try {
+            ensureOpen();
+            append(TYPE_PUT, key, value);
+            map.put(key, value);
+            maybeCompact();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Removes an entry and appends the removal to the log if the key was present.
+     *
+     * @param key the key
+     */
+    public void remove(long key) {
+        writeLock.lock();
+        try {
+            ensureOpen();
+            if (map.containsKey(key)) {
+                append(TYPE_REMOVE, key, 0);
+                map.remove(key);
+                maybeCompact();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Removes all entries whose value is below a bound, e.g. expired entries, and rewrites the
+     * log if anything was removed.
+     *
+     * @param bound the exclusive upper bound of the values to remove
+     * @return the number of removed entries
+     */
+    public int removeIfValueBelow(int bound) {
+        writeLock.lock();
+        try {
+            ensureOpen();
+            int removed = map.removeIfValueBelow(bound);
+            if (removed > 0) {
+                compact();
+            }
+            return removed;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Removes all entries and truncates the log.
+     */
+    public void clear() {
+        writeLock.lock();
+        try {
+            ensureOpen();
+            map.clear();
+            compact();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of entries.
+     *
+     * @return the entry count
+     */
+    public int size() {
+        return map.size();
+    }
+
+    /**
+     * Returns the native memory held by the entries.
+     *
+     * @return the table size in bytes
+     */
+    public long offHeapBytes() {
+        return map.allocatedBytes();
+    }
+
+    @Override
+    public void close() {
+        writeLock.lock();
+        try {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to close " + file, e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void ensureOpen() {
+        if (channel == null) {
+            throw new IllegalStateException("Persistent map " + file + " is closed");
+        }
+    }
+
+    /**
+     * Writes a record to the log. Must be called while holding {@link #writeLock}.
+     */
+    private void append(byte type, long key, int value) {
+        record.clear();
+        record.put(type).putLong(key).putInt(value);
+        crc.reset();
+        crc.update(record.flip());
+        record.limit(RECORD_SIZE).putInt((int) crc.getValue()).flip();
+        try {
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to append to " + file, e);
+        }
+        records++;
+    }
+
+    private void maybeCompact() {
+        if (records > (long) map.size() * COMPACTION_FACTOR + MIN_RECORDS_BEFORE_COMPACTION) {
+            compact();
+        }
+    }
+
+    /**
+     * Rewrites the log with one record per entry: writes a temp file, fsyncs it and moves it
+     * over the log. Must be called while holding {@link #writeLock}.
+     */
+    private void compact() {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        long start = System.nanoTime();
+        try {
+            long written = writeEntries(temp);
+            channel.close();
+            LogFiles.moveAtomically(temp, file);
+            LogFiles.fsyncDirectory(file.getParent());
+            channel = openForAppend();
+            log.debug("Compacted {} from {} to {} records in {} ms", file, records, written,
+                    (System.nanoTime() - start) / 1_000_000);
+            records = written;
+        } catch (IOException e) {
+            LogFiles.deleteQuietly(temp);
+            throw new UncheckedIOException("Failed to compact " + file, e);
+        } finally {
+            if (channel != null && !channel.isOpen()) {
+                reopenQuietly();
+            }
+        }
+    }
+
+    /**
+     * Writes the header and a put record per entry to a new file and fsyncs it.
+     *
+     * @param target the file to write
+     * @return the number of records written
+     * @throws IOException if writing fails
+     */
+    private long writeEntries(Path target) throws IOException {
+        ByteBuffer buffer = BufferPool.SHARED.acquire();
+        CRC32C checksum = new CRC32C();
+        long[] count = {0};
+        try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            buffer.putInt(MAGIC).putShort(VERSION).putShort((short) 0);
+            map.forEach((key, value) -> {
+                if (buffer.remaining() < RECORD_SIZE) {
+                    writeFully(out, buffer.flip());
+                    buffer.clear();
+                }
+                int start = buffer.position();
+                buffer.put(TYPE_PUT).putLong(key).putInt(value);
+                checksum.reset();
+                checksum.update(buffer.slice(start, RECORD_SIZE - Integer.BYTES));
+                buffer.putInt((int) checksum.getValue());
+                count[0]++;
+            });
+            writeFully(out, buffer.flip());
+            out.force(true);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            BufferPool.SHARED.release(buffer);
+        }
+        return count[0];
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer data) {
+        try {
+            while (data.hasRemaining()) {
+                out.write(data);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private FileChannel openForAppend() throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Reopens the append channel after a failed compaction closed it, leaving the map closed if
+     * that fails as well.
+     */
+    private void reopenQuietly() {
+        try {
+            channel = openForAppend();
+        } catch (IOException e) {
+            channel = null;
+            log.error("Failed to reopen {}; the map is closed", file, e);
+        }
+    }
+
+    /**
+     * Replays the log into the table and opens the append channel. The log is rewritten if it
+     * contained unreadable records.
+     */
+    private void load() {
+        long unreadable;
+        try {
+            unreadable = Files.exists(file) && Files.size(file) > 0 ? replay() : 0;
+            channel = openForAppend();
+            if (channel.size() == 0) {
+                ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE).putInt(MAGIC).putShort(VERSION).putShort((short) 0).flip();
+                while (header.hasRemaining()) {
+                    channel.write(header);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to load " + file, e);
+        }
+        if (unreadable > 0) {
+            log.warn("Persistent map file {} contained {} unreadable records; rewriting in clean format", file, unreadable);
+            writeLock.lock();
+            try {
+                compact();
+            } finally {
+                writeLock.unlock();
+            }
+        } else {
+            maybeCompact();
+        }
+    }
+
+    /**
+     * Applies the records of the log to the table.
+     *
+     * @return the number of corrupt or torn records
+     * @throws IOException if the file cannot be read or is not a log of this format
+     */
+    private long replay() throws IOException {
+        ByteBuffer buffer = BufferPool.SHARED.acquire();
+        CRC32C checksum = new CRC32C();
+        long unreadable = 0;
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            fill(in, buffer);
+            if (buffer.remaining() < FILE_HEADER_SIZE || buffer.getInt() != MAGIC) {
+                throw new IOException("Not a persistent long-int map log: " + file);
+            }
+            short version = buffer.getShort();
+            buffer.getShort();     // reserved
+            if (version != VERSION) {
+                throw new IOException("Unsupported persistent long-int map log version " + version);
+            }
+            while (true) {
+                if (buffer.remaining() < RECORD_SIZE) {
+                    buffer.compact();
+                    fill(in, buffer);
+                    if (buffer.remaining() < RECORD_SIZE) {
+                        unreadable += buffer.hasRemaining() ? 1 : 0;   // torn trailing record
+                        break;
+                    }
+                }
+                int start = buffer.position();
+                checksum.reset();
+                checksum.update(buffer.slice(start, RECORD_SIZE - Integer.BYTES));
+                byte type = buffer.get();
+                long key = buffer.getLong();
+                int value = buffer.getInt();
+                int stored = buffer.getInt();
+                if (stored != (int) checksum.getValue() || (type != TYPE_PUT && type != TYPE_REMOVE)) {
+                    unreadable++;
+                } else if (type == TYPE_PUT) {
+                    map.put(key, value);
+                } else {
+                    map.remove(key);
+                }
+                records++;
+            }
+        } finally {
+            BufferPool.SHARED.release(buffer);
+        }
+        return unreadable;
+    }
+
+    /**
+     * Reads from the channel until the buffer is full or the file ends, then flips it.
+     */
+    private static void fill(FileChannel in, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining() && in.read(buffer) >= 0) {
+            // keep reading
+        }
+        buffer.flip();
+    }
+}
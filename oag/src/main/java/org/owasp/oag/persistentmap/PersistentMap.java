@@ -1,8 +1,15 @@
 package org.owasp.oag.persistentmap;
 
 import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
 
 /**
  * A small key-value map with {@code String} keys. Depending on the implementation the entries
@@ -29,6 +36,21 @@ public interface PersistentMap<V> extends Closeable {
      */
     void put(String key, V value);
 
+    /**
+     * Stores a value for the given key without waiting for it to become durable. The new value
+     * is visible to {@link #get} as soon as this method returns; the returned future completes
+     * once the entry is durably stored. Implementations without asynchronous writes store the
+     * entry synchronously and return a completed future.
+     *
+     * @param key   the key
+     * @param value the value, must not be {@code null}
+     * @return a future completed once the entry is durable
+     */
+    default CompletableFuture<Void> putAsync(String key, V value) {
+        put(key, value);
+        return CompletableFuture.completedFuture(null);
+    }
+
     /**
      * Removes the entry for the given key if present.
      *
@@ -36,6 +58,45 @@ public interface PersistentMap<V> extends Closeable {
      */
     void remove(String key);
 
+    /**
+     * Removes the entry for the given key without waiting for the removal to become durable.
+     * See {@link #putAsync} for the visibility guarantees.
+     *
+     * @param key the key to remove
+     * @return a future completed once the removal is durable
+     */
+    default CompletableFuture<Void> removeAsync(String key) {
+        remove(key);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Stores all given entries. Persistent implementations write them as one batch, so storing
+     * them costs a single flush instead of one per entry. The entries are visible as soon as this
+     * method returns; the returned future completes once they are durable.
+     *
+     * @param entries the entries, no value may be {@code null}
+     * @return a future completed once the entries are durable
+     */
+    default CompletableFuture<Void> putAllAsync(Map<String, V> entries) {
+        entries.forEach(this::put);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Removes the entries for all given keys. Persistent implementations write the tombstones as
+     * one batch, so the removal costs a single flush instead of one per key. The removals are
+     * visible as soon as this method returns; the returned future completes once they are
+     * durable. Keys that are absent are ignored.
+     *
+     * @param keys the keys to remove
+     * @return a future completed once the removals are durable
+     */
+    default CompletableFuture<Void> removeAllAsync(Collection<String> keys) {
+        keys.forEach(this::remove);
+        return CompletableFuture.completedFuture(null);
+    }
+
     /**
      * Checks whether the map contains an entry for the given key.
      *
@@ -44,6 +105,17 @@ public interface PersistentMap<V> extends Closeable {
      */
     boolean containsKey(String key);
 
+    /**
+     * Tells whether {@link #get} and {@link #containsKey} answer from memory without ever blocking
+     * on I/O or locks. Callers running on an event loop may then read directly instead of
+     * switching to a thread that is allowed to block.
+     *
+     * @return {@code true} if reads never block, {@code false} by default
+     */
+    default boolean hasNonBlockingReads() {
+        return false;
+    }
+
     /**
      * Returns the number of entries in the map.
      *
@@ -58,9 +130,61 @@ public interface PersistentMap<V> extends Closeable {
 
     /**
      * Returns an immutable snapshot of the current entries that is safe to iterate while the
-     * map is modified concurrently.
+     * map is modified concurrently. The snapshot copies every entry; prefer {@link #forEach},
+     * {@link #scan} or {@link #removeIf} to visit large maps.
      *
      * @return a snapshot of the entries
      */
     Set<Map.Entry<String, V>> entrySet();
+
+    /**
+     * Calls the action for every entry without copying the map. The iteration is weakly
+     * consistent: it runs concurrently with modifications and may or may not reflect changes
+     * made after it started.
+     *
+     * @param action the action called with each key and value
+     */
+    default void forEach(BiConsumer<? super String, ? super V> action) {
+        entrySet().forEach(e -> action.accept(e.getKey(), e.getValue()));
+    }
+
+    /**
+     * Returns a cursor over the entries. Like {@link #forEach} the scan is weakly consistent,
+     * but the caller pulls the entries and may stop at any time. Implementations backed by a
+     * concurrent map do not copy the entries; the default copies them once.
+     *
+     * @return a cursor positioned before the first entry
+     */
+    default ScanCursor<V> scan() {
+        Map<String, V> copy = new HashMap<>();
+        forEach(copy::put);
+        return new MapScanCursor<>(copy);
+    }
+
+    /**
+     * Removes all entries matching the filter. The tombstones are written as one batch like
+     * {@link #removeAllAsync}, and are durable when this method returns. Matching entries are
+     * checked again right before they are removed, so an entry changed while the filter runs is
+     * kept unless the filter also matches its new value.
+     *
+     * @param filter the filter called with each key and value
+     * @return the number of removed entries
+     */
+    default int removeIf(BiPredicate<? super String, ? super V> filter) {
+        List<String> keys = new ArrayList<>();
+        forEach((key, value) -> {
+            if (filter.test(key, value)) {
+                keys.add(key);
+            }
+        });
+        List<String> removed = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            V value = get(key);
+            if (value != null && filter.test(key, value)) {
+                removed.add(key);
+            }
+        }
+        removeAllAsync(removed).join();
+        return removed.size();
+    }
 }
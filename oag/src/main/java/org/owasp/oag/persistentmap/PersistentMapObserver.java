@@ -0,0 +1,38 @@
+package org.owasp.oag.persistentmap;
+
+/**
+ * Receives timings from a {@link FilePersistentMap}, e.g. to record them as metrics. The methods
+ * are called on the writing threads, so they must be cheap and must not throw.
+ */
+public interface PersistentMapObserver {
+
+    /** An observer that ignores everything. The map skips the timing if it is configured. */
+    PersistentMapObserver NONE = new PersistentMapObserver() {
+    };
+
+    /**
+     * Called once a write acquired the write lock.
+     *
+     * @param nanos how long the write waited for the lock
+     */
+    default void lockAcquired(long nanos) {
+    }
+
+    /**
+     * Called once the records of a write are durable according to the durability policy.
+     *
+     * @param nanos   the time from the start of the write until it was durable, including the lock wait
+     * @param records the number of records written
+     */
+    default void appended(long nanos, int records) {
+    }
+
+    /**
+     * Called once the log was replayed when the map was opened.
+     *
+     * @param nanos   the duration of the replay, including a repairing compaction
+     * @param entries the number of live entries
+     */
+    default void replayed(long nanos, int entries) {
+    }
+}
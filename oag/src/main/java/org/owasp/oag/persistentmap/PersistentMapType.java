@@ -0,0 +1,22 @@
+package org.owasp.oag.persistentmap;
+
+/**
+ * The file-backed map implementations that can be selected in the configuration.
+ */
+public enum PersistentMapType {
+
+    /** {@link FilePersistentMap}: all entries on the heap, an append-only log on disk. */
+    FILE,
+
+    /**
+     * {@link MappedPersistentMap}: entries in a memory-mapped snapshot, only recent changes on the
+     * heap. Suited for data sets that do not fit into the heap.
+     */
+    MAPPED,
+
+    /**
+     * {@link PersistentLongIntMap}: {@code long} keys with {@code int} values in native memory.
+     * Only usable for stores keyed by numeric ids, such as the session blacklist.
+     */
+    OFF_HEAP
+}
@@ -0,0 +1,243 @@
+package org.owasp.oag.persistentmap;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32C;
+
+/**
+ * Binary encoding of the {@link FilePersistentMap} log.
+ * <p>
+ * A log file starts with an 8 byte header: the magic number {@code "OAGM"} followed by the
+ * format version (short) and a reserved short. Every record is stored as
+ * <pre>
+ * int length | int crc32c | byte type | int keyLength | key (UTF-8) | value
+ * </pre>
+ * where {@code length} covers everything after the checksum and the CRC32C is computed over the
+ * same bytes. Tombstones carry no value; a clear record carries neither key nor value and
+ * removes all entries written before it. A record whose length runs past the end of the file or
+ * whose checksum does not match is rejected, which is how torn trailing writes are detected.
+ *
+ * @param <V> the value type
+ */
+final class RecordCodec<V> {
+
+    /** Magic number at the start of every binary log file ({@code "OAGM"}). */
+    static final int MAGIC = 0x4F41474D;
+
+    /** Current binary format version. */
+    static final short VERSION = 1;
+
+    /** Size of the file header in bytes. */
+    static final int FILE_HEADER_SIZE = 8;
+
+    /** Size of the length and checksum prefix of every record. */
+    static final int RECORD_HEADER_SIZE = 8;
+
+    /** Size of the fixed part of a record payload (type and key length). */
+    static final int PAYLOAD_HEADER_SIZE = 5;
+
+    /** Record type of an entry carrying a value. */
+    static final byte TYPE_PUT = 0;
+
+    /** Record type of a tombstone (delete). */
+    static final byte TYPE_TOMBSTONE = 1;
+
+    /** Record type that removes all entries written before it. */
+    static final byte TYPE_CLEAR = 2;
+
+    /** Encoding of the values. */
+    private final ValueCodec<V> valueCodec;
+
+    private RecordCodec(ValueCodec<V> valueCodec) {
+        this.valueCodec = valueCodec;
+    }
+
+    /**
+     * Creates a codec for the given value type. {@link Integer} values are stored as four raw
+     * bytes; all other types are stored as Jackson-serialized JSON.
+     *
+     * @param valueType    the runtime class of the value type
+     * @param objectMapper the Jackson mapper used for non-integer values
+     * @param <V>          the value type
+     * @return the codec
+     */
+    @SuppressWarnings("unchecked")
+    static <V> RecordCodec<V> create(Class<V> valueType, ObjectMapper objectMapper) {
+        if (valueType == Integer.class) {
+            return (RecordCodec<V>) new RecordCodec<>(new IntegerCodec());
+        }
+        return new RecordCodec<>(new JacksonCodec<>(valueType, objectMapper));
+    }
+
+    /**
+     * Writes the file header.
+     *
+     * @param out the target buffer
+     */
+    static void writeFileHeader(ByteBuffer out) {
+        out.putInt(MAGIC);
+        out.putShort(VERSION);
+        out.putShort((short) 0);
+    }
+
+    /**
+     * Returns the encoded size of a record including its length and checksum prefix.
+     *
+     * @param key   the key
+     * @param value the value, or {@code null} for a tombstone
+     * @return the size in bytes
+     * @throws IOException if the value cannot be serialized
+     */
+    int encodedSize(String key, V value) throws IOException {
+        int valueLength = value == null ? 0 : valueCodec.toBytes(value).length;
+        return RECORD_HEADER_SIZE + PAYLOAD_HEADER_SIZE + key.getBytes(StandardCharsets.UTF_8).length + valueLength;
+    }
+
+    /**
+     * Encodes a record into the buffer if it fits.
+     *
+     * @param key   the key
+     * @param value the value, or {@code null} for a tombstone
+     * @param out   the target buffer
+     * @return {@code true} if the record was written, {@code false} if the buffer is too small;
+     * the buffer is left untouched in that case
+     * @throws IOException if the value cannot be serialized
+     */
+    boolean encode(String key, V value, ByteBuffer out) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] valueBytes = value == null ? null : valueCodec.toBytes(value);
+        return encode(valueBytes == null ? TYPE_TOMBSTONE : TYPE_PUT, keyBytes, valueBytes, out);
+    }
+
+    /**
+     * Encodes a clear record into the buffer if it fits.
+     *
+     * @param out the target buffer
+     * @return {@code true} if the record was written, {@code false} if the buffer is too small
+     */
+    static boolean encodeClear(ByteBuffer out) {
+        return encode(TYPE_CLEAR, new byte[0], null, out);
+    }
+
+    private static boolean encode(byte type, byte[] keyBytes, byte[] valueBytes, ByteBuffer out) {
+        int payloadLength = PAYLOAD_HEADER_SIZE + keyBytes.length + (valueBytes == null ? 0 : valueBytes.length);
+        if (out.remaining() < RECORD_HEADER_SIZE + payloadLength) {
+            return false;
+        }
+
+        int start = out.position();
+        out.position(start + RECORD_HEADER_SIZE);
+        out.put(type);
+        out.putInt(keyBytes.length);
+        out.put(keyBytes);
+        if (valueBytes != null) {
+            out.put(valueBytes);
+        }
+
+        CRC32C crc = new CRC32C();
+        crc.update(out.duplicate().position(start + RECORD_HEADER_SIZE).limit(out.position()));
+        out.putInt(start, payloadLength);
+        out.putInt(start + 4, (int) crc.getValue());
+        return true;
+    }
+
+    /**
+     * Serializes a value on its own, without record framing.
+     *
+     * @param value the value
+     * @return the encoded value bytes
+     * @throws IOException if the value cannot be serialized
+     */
+    byte[] encodeValue(V value) throws IOException {
+        return valueCodec.toBytes(value);
+    }
+
+    /**
+     * Decodes the value of a record payload.
+     *
+     * @param in      the buffer positioned at the first value byte
+     * @param length  the number of value bytes
+     * @param scratch a reusable scratch array of at least {@code length} bytes
+     * @return the value
+     * @throws IOException if the value cannot be decoded
+     */
+    V decodeValue(ByteBuffer in, int length, byte[] scratch) throws IOException {
+        return valueCodec.read(in, length, scratch);
+    }
+
+    /**
+     * Binary encoding of a value type.
+     *
+     * @param <T> the value type
+     */
+    private interface ValueCodec<T> {
+
+        /**
+         * Serializes a value.
+         *
+         * @param value the value
+         * @return the encoded bytes
+         * @throws IOException if the value cannot be serialized
+         */
+        byte[] toBytes(T value) throws IOException;
+
+        /**
+         * Reads a value, advancing the buffer by {@code length} bytes.
+         *
+         * @param in      the source buffer
+         * @param length  the number of value bytes
+         * @param scratch a reusable scratch array of at least {@code length} bytes
+         * @return the value
+         * @throws IOException if the value cannot be decoded
+         */
+        T read(ByteBuffer in, int length, byte[] scratch) throws IOException;
+    }
+
+    /** Stores integers as four big-endian bytes. */
+    private static final class IntegerCodec implements ValueCodec<Integer> {
+
+        @Override
+        public byte[] toBytes(Integer value) {
+            int v = value;
+            return new byte[]{(byte) (v >>> 24), (byte) (v >>> 16), (byte) (v >>> 8), (byte) v};
+        }
+
+        @Override
+        public Integer read(ByteBuffer in, int length, byte[] scratch) throws IOException {
+            if (length != Integer.BYTES) {
+                throw new IOException("Invalid integer value length " + length);
+            }
+            return in.getInt();
+        }
+    }
+
+    /**
+     * Stores arbitrary values as Jackson-serialized JSON.
+     *
+     * @param <T> the value type
+     */
+    private static final class JacksonCodec<T> implements ValueCodec<T> {
+
+        private final Class<T> valueType;
+        private final ObjectMapper objectMapper;
+
+        private JacksonCodec(Class<T> valueType, ObjectMapper objectMapper) {
+            this.valueType = valueType;
+            this.objectMapper = objectMapper;
+        }
+
+        @Override
+        public byte[] toBytes(T value) throws IOException {
+            return objectMapper.writeValueAsBytes(value);
+        }
+
+        @Override
+        public T read(ByteBuffer in, int length, byte[] scratch) throws IOException {
+            in.get(scratch, 0, length);
+            return objectMapper.readValue(scratch, 0, length, valueType);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package org.owasp.oag.persistentmap;
+
+/**
+ * A pull-style cursor over the entries of a {@link PersistentMap}, see {@link PersistentMap#scan()}.
+ * Unlike an iterator of {@code Map.Entry} objects it does not allocate per entry: {@link #next()}
+ * moves to the next entry, which is then read through {@link #key()} and {@link #value()}.
+ * <pre>{@code
+ * ScanCursor<Integer> cursor = map.scan();
+ * while (cursor.next()) {
+ *     process(cursor.key(), cursor.value());
+ * }
+ * }</pre>
+ *
+ * @param <V> the value type
+ */
+public interface ScanCursor<V> {
+
+    /**
+     * Moves to the next entry.
+     *
+     * @return {@code true} if there is a current entry, {@code false} once the scan is complete
+     */
+    boolean next();
+
+    /**
+     * Returns the key of the current entry.
+     *
+     * @return the key
+     * @throws IllegalStateException if {@link #next()} was not called or returned {@code false}
+     */
+    String key();
+
+    /**
+     * Returns the value of the current entry.
+     *
+     * @return the value, never {@code null}
+     * @throws IllegalStateException if {@link #next()} was not called or returned {@code false}
+     */
+    V value();
+}
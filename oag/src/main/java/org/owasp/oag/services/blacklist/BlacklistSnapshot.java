@@ -0,0 +1,213 @@
+package org.owasp.oag.services.blacklist;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The snapshot format of a session blacklist, written and read as a stream so a snapshot of any
+ * size needs a constant amount of memory.
+ * <p>
+ * A snapshot is gzip compressed. It starts with a magic number and a version, followed by the
+ * entries as expiry in epoch seconds, identifier length and UTF-8 identifier. An expiry of 0
+ * ends the entries and is followed by the number of entries, so a truncated snapshot is
+ * detected.
+ */
+public final class BlacklistSnapshot {
+
+    /** Media type of a snapshot. */
+    public static final String MEDIA_TYPE = "application/vnd.oag.blacklist-snapshot";
+
+    /** Entries passed to the consumer of {@link Reader#read} at once. */
+    static final int CHUNK_SIZE = 4096;
+
+    private static final int MAGIC = 0x4F414753;
+    private static final byte VERSION = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private BlacklistSnapshot() {
+    }
+
+    /**
+     * Opens a snapshot to import: a file, or an http(s) URL such as the snapshot endpoint on the management port of a
+     * running instance. Plain http is only accepted for loopback hosts, a snapshot from another host must not be
+     * tampered with on the way. The response is streamed, not buffered.
+     *
+     * @param source  the file path or URL
+     * @param timeout the connect timeout and the time to wait for the response headers of a URL request
+     * @return the snapshot stream
+     * @throws IOException if the file cannot be opened, the URL is plain http to another host or the request fails
+     */
+    public static InputStream openSource(String source, Duration timeout) throws IOException {
+
+        if (!source.startsWith("http://") && !source.startsWith("https://")) {
+            return Files.newInputStream(Path.of(source));
+        }
+
+        var uri = URI.create(source);
+        if (source.startsWith("http://") && !isLoopback(uri.getHost())) {
+            throw new IOException("Refusing to import a snapshot over plain http from " + uri.getHost() + ", use https");
+        }
+        var request = HttpRequest.newBuilder(uri).timeout(timeout).GET();
+        var client = HttpClient.newBuilder().connectTimeout(timeout).build();
+        try {
+            HttpResponse<InputStream> response = client.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+            if (response.statusCode() != 200) {
+                response.body().close();
+                throw new IOException("Snapshot request to " + source + " failed with status " + response.statusCode());
+            }
+            return response.body();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while requesting a snapshot from " + source, e);
+        }
+    }
+
+    private static boolean isLoopback(String host) throws IOException {
+
+        if (host == null) {
+            return false;
+        }
+        for (var address : InetAddress.getAllByName(host)) {
+            if (!address.isLoopbackAddress()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the entries of a snapshot.
+     */
+    public static final class Writer implements AutoCloseable {
+
+        private final DataOutputStream out;
+        private long count;
+
+        /**
+         * Starts a snapshot.
+         *
+         * @param out the stream to write to, closed with the writer
+         * @throws IOException if the stream cannot be written
+         */
+        public Writer(OutputStream out) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(out, BUFFER_SIZE), BUFFER_SIZE));
+            this.out.writeInt(MAGIC);
+            this.out.writeByte(VERSION);
+        }
+
+        /**
+         * Writes an entry.
+         *
+         * @param identifier the blacklisted identifier
+         * @param expiry     its expiry in epoch seconds, must be positive
+         * @throws IOException if the stream cannot be written
+         */
+        public void write(String identifier, int expiry) throws IOException {
+            if (expiry <= 0) {
+                throw new IllegalArgumentException("expiry must be positive");
+            }
+            byte[] bytes = identifier.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > 0xFFFF) {
+                throw new IllegalArgumentException("Identifier too long for a snapshot");
+            }
+            out.writeInt(expiry);
+            out.writeShort(bytes.length);
+            out.write(bytes);
+            count++;
+        }
+
+        /**
+         * Returns the number of entries written.
+         *
+         * @return the entry count
+         */
+        public long count() {
+            return count;
+        }
+
+        /**
+         * Ends the snapshot and closes the stream.
+         *
+         * @throws IOException if the stream cannot be written
+         */
+        @Override
+        public void close() throws IOException {
+            out.writeInt(0);
+            out.writeLong(count);
+            out.close();
+        }
+    }
+
+    /**
+     * Reads a snapshot.
+     */
+    public static final class Reader {
+
+        private final DataInputStream in;
+
+        /**
+         * Opens a snapshot and checks its header.
+         *
+         * @param in the stream to read from, not closed by the reader
+         * @throws IOException if the stream cannot be read or is not a snapshot
+         */
+        public Reader(InputStream in) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(in, BUFFER_SIZE), BUFFER_SIZE));
+            if (this.in.readInt() != MAGIC) {
+                throw new IOException("Not a session blacklist snapshot");
+            }
+            byte version = this.in.readByte();
+            if (version != VERSION) {
+                throw new IOException("Unsupported session blacklist snapshot version " + version);
+            }
+        }
+
+        /**
+         * Reads all entries and passes them on in chunks of up to {@value #CHUNK_SIZE}.
+         *
+         * @param chunks the consumer of the chunks, each a new map
+         * @return the number of entries read
+         * @throws IOException if the stream cannot be read or the snapshot is incomplete
+         */
+        public long read(Consumer<Map<String, Integer>> chunks) throws IOException {
+            long count = 0;
+            Map<String, Integer> chunk = new HashMap<>();
+            for (int expiry = in.readInt(); expiry != 0; expiry = in.readInt()) {
+                byte[] bytes = new byte[in.readUnsignedShort()];
+                in.readFully(bytes);
+                chunk.put(new String(bytes, StandardCharsets.UTF_8), expiry);
+                count++;
+                if (chunk.size() == CHUNK_SIZE) {
+                    chunks.accept(chunk);
+                    chunk = new HashMap<>();
+                }
+            }
+            if (in.readLong() != count) {
+                throw new IOException("Session blacklist snapshot is incomplete");
+            }
+            if (!chunk.isEmpty()) {
+                chunks.accept(chunk);
+            }
+            return count;
+        }
+    }
+}
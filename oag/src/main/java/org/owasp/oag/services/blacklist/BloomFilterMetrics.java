@@ -0,0 +1,16 @@
+package org.owasp.oag.services.blacklist;
+
+/**
+ * Point-in-time statistics of the bloom filter in front of a {@link LocalPersistentBlacklist}.
+ *
+ * @param estimatedFpp   the estimated false positive rate of the filter
+ * @param entries        the approximate number of identifiers in the filter
+ * @param slices         the number of live time slices
+ * @param sizeBytes      the size of the bit arrays in bytes
+ * @param hits           the number of lookups the filter could not answer, i.e. that went to the map
+ * @param misses         the number of lookups answered by the filter alone
+ * @param falsePositives the number of hits that were not found in the map
+ */
+public record BloomFilterMetrics(double estimatedFpp, long entries, int slices, long sizeBytes, long hits, long misses,
+                                 long falsePositives) {
+}
@@ -0,0 +1,293 @@
+package org.owasp.oag.services.blacklist;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A cuckoo filter for identifiers: unlike a bloom filter it removes identifiers, so the
+ * {@link LocalPersistentBlacklist} sweeper can drop expired identifiers one by one and the filter
+ * only ever holds the live ones.
+ * <p>
+ * Each identifier is stored as a 16 bit fingerprint in one of two buckets of four slots, a bucket
+ * packed into one {@code long}. The second bucket is derived from the first and the fingerprint,
+ * so fingerprints can be moved between their buckets without knowing the identifier. Every slot
+ * takes 2 bytes and a lookup compares 8 fingerprints, so the false positive rate is about
+ * {@code 8 * load / 2^16}: 1.2e-4 at the maximum load of 95%, where an identifier takes 2.1 bytes.
+ * <p>
+ * A filter is rarely that full. The capacity is rounded up to a power of two number of buckets,
+ * and {@link LocalPersistentBlacklist} sizes a rebuilt filter for twice the live identifiers to
+ * leave room for new ones, so after a rebuild the load is between 24% and 48%. That is 4.2 to 8.4
+ * bytes per identifier at a false positive rate of 3e-5 to 6e-5. Small blacklists take more, as
+ * every filter has room for at least {@value #MIN_CAPACITY} identifiers.
+ * <p>
+ * A full filter does not grow. A fingerprint that finds no slot after {@value #MAX_KICKS}
+ * relocations goes to a stash that every lookup checks, and {@link #needsRebuild()} asks for a
+ * larger filter; the owner rebuilds it from the blacklist.
+ * <p>
+ * The filter is thread safe. Lookups read optimistically and only lock if a concurrent change
+ * moved fingerprints; changes are exclusive.
+ */
+public final class CuckooFilter implements IdentifierFilter {
+
+    /** Smallest capacity of a filter. */
+    static final int MIN_CAPACITY = 16_384;
+
+    /** Share of the slots that can be filled before insertions start to fail. */
+    static final double MAX_LOAD = 0.95;
+
+    private static final int SLOTS = 4;
+    private static final int FINGERPRINT_BITS = 16;
+    private static final long FINGERPRINT_MASK = (1L << FINGERPRINT_BITS) - 1;
+    private static final int MAX_KICKS = 500;
+    private static final long LOW_BITS = 0x0001_0001_0001_0001L;
+    private static final long HIGH_BITS = 0x8000_8000_8000_8000L;
+
+    private final long[] buckets;
+    private final int bucketMask;
+    private final StampedLock lock = new StampedLock();
+
+    /** Fingerprints that found no slot, each with its first bucket: {@code bucket << 16 | fingerprint}. */
+    private long[] stash = new long[0];
+    private int stashSize;
+
+    private volatile int count;
+    private long kickState = 0x9E3779B97F4A7C15L;
+
+    /**
+     * Creates an empty filter.
+     *
+     * @param capacity the number of identifiers the filter should hold, rounded up so the number
+     *                 of buckets is a power of two
+     */
+    public CuckooFilter(int capacity) {
+        long slots = (long) Math.ceil(Math.max(capacity, MIN_CAPACITY) / MAX_LOAD);
+        long bucketCount = Long.highestOneBit((slots + SLOTS - 1) / SLOTS - 1) << 1;
+        if (bucketCount > 1 << 30) {
+            throw new IllegalArgumentException("Cuckoo filter capacity too large");
+        }
+        this.buckets = new long[(int) bucketCount];
+        this.bucketMask = (int) bucketCount - 1;
+    }
+
+    @Override
+    public void put(String identifier, int expiry) {
+        long hash = TimeSlicedBloomFilter.hash(identifier);
+        long fingerprint = fingerprint(hash);
+        int first = (int) hash & bucketMask;
+
+        long stamp = lock.writeLock();
+        try {
+            if (!insert(first, fingerprint) && !insert(alternate(first, fingerprint), fingerprint)) {
+                relocate(first, fingerprint);
+            }
+            count++;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Kicks fingerprints to their other bucket until one finds a free slot. The last one is
+     * stashed if none does.
+     */
+    private void relocate(int bucket, long fingerprint) {
+        for (int kick = 0; kick < MAX_KICKS; kick++) {
+            kickState ^= kickState << 13;
+            kickState ^= kickState >>> 7;
+            kickState ^= kickState << 17;
+            if ((kickState & SLOTS) != 0) {
+                bucket = alternate(bucket, fingerprint);
+            }
+            int shift = (int) (kickState & (SLOTS - 1)) * FINGERPRINT_BITS;
+            long victim = buckets[bucket] >>> shift & FINGERPRINT_MASK;
+            buckets[bucket] = buckets[bucket] & ~(FINGERPRINT_MASK << shift) | fingerprint << shift;
+            fingerprint = victim;
+            bucket = alternate(bucket, fingerprint);
+            if (insert(bucket, fingerprint)) {
+                return;
+            }
+        }
+        if (stashSize == stash.length) {
+            stash = Arrays.copyOf(stash, Math.max(8, stashSize * 2));
+        }
+        stash[stashSize++] = (long) Math.min(bucket, alternate(bucket, fingerprint)) << FINGERPRINT_BITS | fingerprint;
+    }
+
+    private boolean insert(int bucket, long fingerprint) {
+        long slots = buckets[bucket];
+        for (int shift = 0; shift < SLOTS * FINGERPRINT_BITS; shift += FINGERPRINT_BITS) {
+            if ((slots >>> shift & FINGERPRINT_MASK) == 0) {
+                buckets[bucket] = slots | fingerprint << shift;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean mightContain(String identifier) {
+        long hash = TimeSlicedBloomFilter.hash(identifier);
+        long fingerprint = fingerprint(hash);
+        int first = (int) hash & bucketMask;
+
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            boolean found = contains(first, fingerprint);
+            if (lock.validate(stamp)) {
+                return found;
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return contains(first, fingerprint);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private boolean contains(int first, long fingerprint) {
+        int second = alternate(first, fingerprint);
+        if (hasFingerprint(buckets[first], fingerprint) || hasFingerprint(buckets[second], fingerprint)) {
+            return true;
+        }
+        long[] stashed = stash;
+        int size = Math.min(stashSize, stashed.length);
+        long key = (long) Math.min(first, second) << FINGERPRINT_BITS | fingerprint;
+        for (int i = 0; i < size; i++) {
+            if (stashed[i] == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compares all four slots of a bucket at once: a slot equal to the fingerprint becomes zero
+     * after the xor, which the subtraction detects by a borrow into the top bit of the slot.
+     */
+    private static boolean hasFingerprint(long slots, long fingerprint) {
+        long diff = slots ^ fingerprint * LOW_BITS;
+        return ((diff - LOW_BITS) & ~diff & HIGH_BITS) != 0;
+    }
+
+    @Override
+    public boolean supportsRemoval() {
+        return true;
+    }
+
+    @Override
+    public boolean remove(String identifier) {
+        long hash = TimeSlicedBloomFilter.hash(identifier);
+        long fingerprint = fingerprint(hash);
+        int first = (int) hash & bucketMask;
+        int second = alternate(first, fingerprint);
+
+        long stamp = lock.writeLock();
+        try {
+            if (delete(first, fingerprint) || delete(second, fingerprint) || unstash(first, second, fingerprint)) {
+                count--;
+                return true;
+            }
+            return false;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private boolean delete(int bucket, long fingerprint) {
+        long slots = buckets[bucket];
+        for (int shift = 0; shift < SLOTS * FINGERPRINT_BITS; shift += FINGERPRINT_BITS) {
+            if ((slots >>> shift & FINGERPRINT_MASK) == fingerprint) {
+                buckets[bucket] = slots & ~(FINGERPRINT_MASK << shift);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean unstash(int first, int second, long fingerprint) {
+        long key = (long) Math.min(first, second) << FINGERPRINT_BITS | fingerprint;
+        for (int i = 0; i < stashSize; i++) {
+            if (stash[i] == key) {
+                stash[i] = stash[--stashSize];
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Does nothing, expired identifiers are {@link #remove removed} one by one.
+     *
+     * @param now the current time in epoch seconds
+     * @return 0
+     */
+    @Override
+    public int expire(int now) {
+        return 0;
+    }
+
+    /**
+     * Returns whether fingerprints had to be stashed because the filter is full.
+     *
+     * @return whether a rebuild with a larger capacity is due
+     */
+    @Override
+    public boolean needsRebuild() {
+        long stamp = lock.readLock();
+        try {
+            return stashSize > 0;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Estimates the false positive rate from the load: a lookup compares its fingerprint with
+     * the occupied slots of two buckets.
+     *
+     * @return the estimated false positive rate
+     */
+    @Override
+    public double estimatedFpp() {
+        double load = (double) count / ((long) buckets.length * SLOTS);
+        return 1 - Math.pow(1 - 1.0 / FINGERPRINT_MASK, 2 * SLOTS * load);
+    }
+
+    @Override
+    public long approximateCount() {
+        return count;
+    }
+
+    @Override
+    public int sliceCount() {
+        return 1;
+    }
+
+    @Override
+    public long sizeBytes() {
+        return (long) buckets.length * Long.BYTES;
+    }
+
+    /**
+     * Returns the number of identifiers in the filter.
+     *
+     * @return the identifier count
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Takes the fingerprint from the high bits, which do not select the bucket; 0 marks an empty
+     * slot and is never used.
+     */
+    private static long fingerprint(long hash) {
+        long fingerprint = hash >>> (Long.SIZE - FINGERPRINT_BITS);
+        return fingerprint == 0 ? 1 : fingerprint;
+    }
+
+    private int alternate(int bucket, long fingerprint) {
+        return (bucket ^ (int) TimeSlicedBloomFilter.mix(fingerprint)) & bucketMask;
+    }
+}
@@ -0,0 +1,74 @@
+package org.owasp.oag.services.blacklist;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Index of blacklist keys by the minute in which they expire. It lets the sweeper of
+ * {@link LocalPersistentBlacklist} find the expired keys without scanning the whole blacklist:
+ * a sweep only visits the buckets that are due.
+ * <p>
+ * A key invalidated again with a later expiry is indexed in both buckets. The index is only a
+ * hint; the sweeper checks the expiry stored in the blacklist before removing a key.
+ */
+final class ExpiryIndex {
+
+    /** Width of a bucket in seconds. */
+    static final int BUCKET_SECONDS = 60;
+
+    /** Keys by bucket number, i.e. expiry divided by {@link #BUCKET_SECONDS}. */
+    private final TreeMap<Integer, List<String>> buckets = new TreeMap<>();
+
+    /** Number of indexed keys. */
+    private int size;
+
+    /**
+     * Indexes a key.
+     *
+     * @param key    the key
+     * @param expiry the expiry of the key in epoch seconds
+     */
+    synchronized void add(String key, int expiry) {
+        buckets.computeIfAbsent(Math.floorDiv(expiry, BUCKET_SECONDS), b -> new ArrayList<>()).add(key);
+        size++;
+    }
+
+    /**
+     * Removes and returns the keys of all buckets up to and including the one containing
+     * {@code now}. The keys of the last bucket may not have expired yet; the caller has to
+     * {@link #add} them again.
+     *
+     * @param now the current time in epoch seconds
+     * @return the keys that may have expired
+     */
+    synchronized List<String> pollDue(int now) {
+        var due = buckets.headMap(Math.floorDiv(now, BUCKET_SECONDS), true);
+        List<String> keys = new ArrayList<>();
+        for (Map.Entry<Integer, List<String>> bucket : due.entrySet()) {
+            keys.addAll(bucket.getValue());
+        }
+        due.clear();
+        size -= keys.size();
+        return keys;
+    }
+
+    /**
+     * Removes all keys from the index.
+     */
+    synchronized void clear() {
+        buckets.clear();
+        size = 0;
+    }
+
+    /**
+     * Returns the number of indexed keys, counting a key indexed in several buckets once per
+     * bucket.
+     *
+     * @return the number of indexed keys
+     */
+    synchronized int size() {
+        return size;
+    }
+}
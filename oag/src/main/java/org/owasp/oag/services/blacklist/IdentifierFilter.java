@@ -0,0 +1,93 @@
+package org.owasp.oag.services.blacklist;
+
+/**
+ * A probabilistic set of expiring identifiers in front of a blacklist: it answers most lookups of
+ * identifiers that were never added without touching the blacklist itself. It never answers
+ * {@code false} for a live identifier that was added.
+ * <p>
+ * Implementations are thread safe.
+ */
+public interface IdentifierFilter {
+
+    /**
+     * Adds an identifier.
+     *
+     * @param identifier the identifier
+     * @param expiry     the expiry of the identifier in epoch seconds
+     */
+    void put(String identifier, int expiry);
+
+    /**
+     * Checks whether an identifier might have been added.
+     *
+     * @param identifier the identifier
+     * @return {@code false} if the identifier was definitely not added or is known to have
+     *         expired, {@code true} if it might have been added
+     */
+    boolean mightContain(String identifier);
+
+    /**
+     * Returns whether {@link #remove} removes identifiers. Otherwise expired identifiers stay
+     * until {@link #expire} drops them or the filter is rebuilt.
+     *
+     * @return whether identifiers can be removed one by one
+     */
+    boolean supportsRemoval();
+
+    /**
+     * Removes an identifier that expired. It must have been added exactly once, otherwise another
+     * identifier might be removed with it.
+     *
+     * @param identifier the identifier
+     * @return whether the identifier was found and removed, always {@code false} if the filter
+     *         does not {@link #supportsRemoval() support removal}
+     */
+    boolean remove(String identifier);
+
+    /**
+     * Drops what the filter tracks of identifiers that expired before the given time, if it
+     * tracks expiry times.
+     *
+     * @param now the current time in epoch seconds
+     * @return the number of dropped parts of the filter
+     */
+    int expire(int now);
+
+    /**
+     * Returns whether the filter is overloaded and should be rebuilt with a larger capacity. It
+     * still answers correctly, only slower or with more false positives.
+     *
+     * @return whether a rebuild is due
+     */
+    boolean needsRebuild();
+
+    /**
+     * Estimates the current false positive rate of {@link #mightContain}.
+     *
+     * @return the estimated false positive rate
+     */
+    double estimatedFpp();
+
+    /**
+     * Returns the approximate number of identifiers in the filter, counting an identifier added
+     * twice twice and including expired identifiers the filter still holds.
+     *
+     * @return the approximate identifier count
+     */
+    long approximateCount();
+
+    /**
+     * Returns the number of parts of the filter that expire independently, 1 if it does not
+     * track expiry times.
+     *
+     * @return the part count
+     */
+    int sliceCount();
+
+    /**
+     * Returns the number of bytes used by the filter tables.
+     *
+     * @return the size of the filter in bytes
+     */
+    long sizeBytes();
+}
@@ -0,0 +1,19 @@
+package org.owasp.oag.services.blacklist;
+
+/**
+ * The {@link IdentifierFilter} implementations a {@link LocalPersistentBlacklist} can use.
+ */
+public enum IdentifierFilterType {
+
+    /**
+     * {@link TimeSlicedBloomFilter}: lock-free, expired identifiers are dropped a whole slice at
+     * a time.
+     */
+    BLOOM,
+
+    /**
+     * {@link CuckooFilter}: expired identifiers are removed one by one as the sweeper finds them,
+     * so the filter only ever holds the live identifiers.
+     */
+    CUCKOO
+}
@@ -0,0 +1,177 @@
+package org.owasp.oag.services.blacklist;
+
+import org.owasp.oag.exception.SystemException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+/**
+ * Coalesces invalidations into batches. Callers publish into a bounded, lock-free queue and a
+ * single drainer thread writes whatever has queued up since its last batch with one call of the
+ * writer, so concurrent logouts share one lock acquisition and one flush of the blacklist.
+ * <p>
+ * Each caller gets a future that completes when the batch of its invalidation is durable. The
+ * queue does not block: once {@code capacity} invalidations wait, further ones fail at once with
+ * a {@link SystemException} until the drainer catches up.
+ */
+final class InvalidationPipeline implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(InvalidationPipeline.class);
+
+    private final Function<Map<String, Integer>, CompletableFuture<Void>> writer;
+    private final int capacity;
+    private final int maxBatchSize;
+    private final ConcurrentLinkedQueue<Invalidation> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final Thread drainer;
+    private volatile boolean closed;
+
+    /** Number of batches written. */
+    private final LongAdder batches = new LongAdder();
+
+    /** Number of invalidations rejected because the queue was full. */
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * Starts the drainer thread.
+     *
+     * @param writer       writes a batch of identifiers with their expiry and returns a future that completes when
+     *                     it is durable
+     * @param capacity     the number of invalidations that can wait
+     * @param maxBatchSize the maximum number of invalidations written at once
+     */
+    InvalidationPipeline(Function<Map<String, Integer>, CompletableFuture<Void>> writer, int capacity, int maxBatchSize) {
+        if (capacity <= 0 || maxBatchSize <= 0) {
+            throw new IllegalArgumentException("capacity and maxBatchSize must be positive");
+        }
+        this.writer = writer;
+        this.capacity = capacity;
+        this.maxBatchSize = maxBatchSize;
+        this.drainer = new Thread(this::drain, "session-blacklist-invalidations");
+        this.drainer.setDaemon(true);
+        this.drainer.start();
+    }
+
+    /**
+     * Queues an invalidation.
+     *
+     * @param identifier the identifier to invalidate
+     * @param expireTime the expiry of the invalidation in epoch seconds
+     * @return a future that completes when the invalidation is durable, or that has already failed with a
+     *         {@link SystemException} if the queue is full
+     */
+    CompletableFuture<Void> submit(String identifier, int expireTime) {
+        if (closed) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Invalidation pipeline is closed"));
+        }
+        for (int current = queued.get(); ; current = queued.get()) {
+            if (current >= capacity) {
+                rejected.increment();
+                return CompletableFuture.failedFuture(new SystemException("Session blacklist invalidation queue is full"));
+            }
+            if (queued.compareAndSet(current, current + 1)) {
+                break;
+            }
+        }
+        var invalidation = new Invalidation(identifier, expireTime, new CompletableFuture<>());
+        queue.add(invalidation);
+        // close() may have drained the queue between the check above and the add. If the invalidation is still
+        // queued, nobody else will take it; otherwise the drainer or close() already has and completes it.
+        if (closed && queue.remove(invalidation)) {
+            queued.decrementAndGet();
+            invalidation.done().completeExceptionally(new IllegalStateException("Invalidation pipeline is closed"));
+            return invalidation.done();
+        }
+        LockSupport.unpark(drainer);
+        return invalidation.done();
+    }
+
+    private void drain() {
+        while (!closed || !queue.isEmpty()) {
+            List<Invalidation> batch = new ArrayList<>(Math.min(maxBatchSize, queued.get()));
+            Invalidation next;
+            while (batch.size() < maxBatchSize && (next = queue.poll()) != null) {
+                batch.add(next);
+            }
+            if (batch.isEmpty()) {
+                LockSupport.park(this);
+                continue;
+            }
+            queued.addAndGet(-batch.size());
+            write(batch);
+        }
+    }
+
+    private void write(List<Invalidation> batch) {
+        Map<String, Integer> entries = new HashMap<>();
+        for (Invalidation invalidation : batch) {
+            entries.merge(invalidation.identifier(), invalidation.expireTime(), Math::max);
+        }
+        CompletableFuture<Void> durable;
+        try {
+            durable = writer.apply(entries);
+        } catch (RuntimeException e) {
+            log.error("Could not write {} session blacklist invalidations", entries.size(), e);
+            durable = CompletableFuture.failedFuture(e);
+        }
+        batches.increment();
+        durable.whenComplete((unused, error) -> {
+            for (Invalidation invalidation : batch) {
+                if (error == null) {
+                    invalidation.done().complete(null);
+                } else {
+                    invalidation.done().completeExceptionally(error);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the number of batches written so far.
+     *
+     * @return the batch count
+     */
+    long batchCount() {
+        return batches.sum();
+    }
+
+    /**
+     * Returns the number of invalidations rejected so far because the queue was full.
+     *
+     * @return the rejection count
+     */
+    long rejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * Writes the queued invalidations and stops the drainer. Invalidations submitted concurrently with closing fail.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(drainer);
+        try {
+            drainer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Invalidation late;
+        while ((late = queue.poll()) != null) {
+            late.done().completeExceptionally(new IllegalStateException("Invalidation pipeline is closed"));
+        }
+    }
+
+    private record Invalidation(String identifier, int expireTime, CompletableFuture<Void> done) {
+    }
+}
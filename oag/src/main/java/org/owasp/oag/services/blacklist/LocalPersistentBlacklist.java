@@ -1,37 +1,67 @@
 package org.owasp.oag.services.blacklist;
 
-import com.google.common.hash.BloomFilter;
-import com.google.common.hash.Funnels;
 import org.owasp.oag.infrastructure.GlobalClockSource;
 import org.owasp.oag.persistentmap.PersistentMap;
+import org.owasp.oag.persistentmap.ScanCursor;
 import org.owasp.oag.utils.LoggingUtils;
 import org.owasp.oag.utils.ReactiveUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.TaskScheduler;
 import reactor.core.publisher.Mono;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Uses a local persisted map to store invalidated identifiers locally.
  * Additionally a bloom filter is used to check for identifiers that are definitely not in the blacklist within o(1).
  * This implementation provides persistent storage of blacklisted session identifiers across application restarts.
+ * <p>
+ * By default the bloom filter is a {@link TimeSlicedBloomFilter} whose slices are an eighth of the maximum time to
+ * live wide. A sweep drops the slices that have expired completely, so the false positive rate stays bounded by the
+ * live identifiers without rebuilding the filter. With {@link IdentifierFilterType#CUCKOO} a {@link CuckooFilter} is
+ * used instead, from which the sweep removes each expired identifier; it is rebuilt with twice the capacity when it
+ * runs full.
+ * <p>
+ * Expired identifiers are found through an {@link ExpiryIndex} of per-minute buckets, so {@link #cleanup()} only
+ * visits the identifiers that are due instead of scanning the whole blacklist. Use {@link #startSweeper} to run it
+ * periodically.
  */
-public class LocalPersistentBlacklist implements SessionBlacklist {
+public class LocalPersistentBlacklist implements SessionBlacklist, SnapshotCapableBlacklist {
 
-    /**
-     * Expected number of insertions for the bloom filter.
-     */
-    protected static final int EXPECTED_INSERTIONS = 100000;
-    
     /**
      * Expected false positive rate for the bloom filter.
      */
     protected static final double EXPECTED_BLOOM_FILTER_FALSE_POSITIVES = 0.001;
+
+    /**
+     * Number of bloom filter slices covering the maximum time to live.
+     */
+    protected static final int BLOOM_FILTER_SLICES = 8;
+
+    /**
+     * Maximum time to live of an invalidation in seconds if none is given.
+     */
+    public static final int DEFAULT_MAX_TTL_SECONDS = 3600;
     
     private static final Logger log = LoggerFactory.getLogger(LocalPersistentBlacklist.class);
 
+    private static final Mono<Boolean> INVALIDATED = Mono.just(true);
+    private static final Mono<Boolean> NOT_INVALIDATED = Mono.just(false);
+
     /**
      * Map storing blacklisted session identifiers and their expiration times.
      */
@@ -40,7 +70,37 @@ public class LocalPersistentBlacklist implements SessionBlacklist {
     /**
      * Bloom filter for efficient negative lookups.
      */
-    protected BloomFilter<CharSequence> bloomFilter;
+    protected volatile IdentifierFilter bloomFilter;
+
+    /**
+     * The kind of {@link #bloomFilter}.
+     */
+    private final IdentifierFilterType filterType;
+
+    /**
+     * Whether {@link #isInvalidated} reads the map on the calling thread.
+     */
+    private final boolean inlineLookups;
+
+    /**
+     * Width of a bloom filter slice in seconds.
+     */
+    private final int bloomSliceSeconds;
+
+    /**
+     * Lookups the bloom filter could not answer.
+     */
+    private final LongAdder bloomHits = new LongAdder();
+
+    /**
+     * Lookups answered by the bloom filter alone.
+     */
+    private final LongAdder bloomMisses = new LongAdder();
+
+    /**
+     * Bloom filter hits that were not in the map.
+     */
+    private final LongAdder bloomFalsePositives = new LongAdder();
 
     /**
      * Clock source for time-based operations.
@@ -48,41 +108,204 @@ public class LocalPersistentBlacklist implements SessionBlacklist {
     private final GlobalClockSource clockSource;
 
     /**
-     * Creates a new LocalPersistentBlacklist backed by the given map.
+     * Identifiers by the minute in which they expire.
+     */
+    private final ExpiryIndex expiryIndex = new ExpiryIndex();
+
+    /**
+     * The periodic sweep started by {@link #startSweeper}, or {@code null}.
+     */
+    private volatile ScheduledFuture<?> sweeper;
+
+    /**
+     * The pipeline started by {@link #startInvalidationPipeline}, or {@code null} to write each invalidation on its
+     * own.
+     */
+    private volatile InvalidationPipeline pipeline;
+
+    /**
+     * Held shared by invalidations and exclusively while the bloom filter and the expiry index are rebuilt, so no
+     * invalidation misses the new filter.
+     */
+    private final ReentrantReadWriteLock rebuildLock = new ReentrantReadWriteLock();
+
+    /**
+     * Creates a new LocalPersistentBlacklist backed by the given map, for invalidations of at most
+     * {@link #DEFAULT_MAX_TTL_SECONDS}.
      *
      * @param clockSource The clock source for time-based operations
      * @param blacklist   The map storing blacklisted identifiers and their expiration times
      */
     public LocalPersistentBlacklist(GlobalClockSource clockSource, PersistentMap<Integer> blacklist) {
 
+        this(clockSource, blacklist, DEFAULT_MAX_TTL_SECONDS);
+    }
+
+    /**
+     * Creates a new LocalPersistentBlacklist backed by the given map.
+     *
+     * @param clockSource   The clock source for time-based operations
+     * @param blacklist     The map storing blacklisted identifiers and their expiration times
+     * @param maxTtlSeconds The usual maximum time to live of an invalidation, i.e. the session duration. Longer
+     *                      invalidations work but make the bloom filter larger.
+     */
+    public LocalPersistentBlacklist(GlobalClockSource clockSource, PersistentMap<Integer> blacklist, int maxTtlSeconds) {
+
+        this(clockSource, blacklist, maxTtlSeconds, IdentifierFilterType.BLOOM);
+    }
+
+    /**
+     * Creates a new LocalPersistentBlacklist backed by the given map.
+     *
+     * @param clockSource   The clock source for time-based operations
+     * @param blacklist     The map storing blacklisted identifiers and their expiration times
+     * @param maxTtlSeconds The usual maximum time to live of an invalidation, i.e. the session duration. Longer
+     *                      invalidations work but make the bloom filter larger.
+     * @param filterType    The kind of filter answering lookups of identifiers that are not blacklisted
+     */
+    public LocalPersistentBlacklist(GlobalClockSource clockSource, PersistentMap<Integer> blacklist, int maxTtlSeconds,
+                                    IdentifierFilterType filterType) {
+
         this.clockSource = clockSource;
         this.blacklist = blacklist;
+        this.filterType = filterType;
+        this.inlineLookups = blacklist.hasNonBlockingReads();
+        this.bloomSliceSeconds = Math.max(60, (maxTtlSeconds + BLOOM_FILTER_SLICES - 1) / BLOOM_FILTER_SLICES);
 
-        // Populate bloom filter with all entries from blacklist
-        cleanup().block();
+        // Populate bloom filter and expiry index with all entries from blacklist
+        cleanupBlocking();
     }
 
     /**
-     * Performs a cleanup operation in a blocking manner.
-     * Removes expired entries from the blacklist and rebuilds the bloom filter.
+     * Performs a full cleanup in a blocking manner.
+     * Scans all entries, removes the expired ones and rebuilds the bloom filter and the expiry index.
      */
     public void cleanupBlocking() {
 
+        rebuildLock.writeLock().lock();
+        try {
+            rebuildBlocking();
+        } finally {
+            rebuildLock.writeLock().unlock();
+        }
+    }
+
+    private void rebuildBlocking() {
+
         int currentTimeSeconds = clockSource.getEpochSeconds();
 
-        // Clean up expired entries
-        blacklist.entrySet().stream()
-                .filter(e -> e.getValue() < currentTimeSeconds)
-                .forEach(e -> blacklist.remove(e.getKey()));
+        // Clean up expired entries with one batch of tombstones
+        int expired = blacklist.removeIf((identifier, expireTime) -> expireTime < currentTimeSeconds);
 
-        // Populate bloom filter
-        var size = blacklist.size();
-        var newFilter = BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), size + EXPECTED_INSERTIONS, EXPECTED_BLOOM_FILTER_FALSE_POSITIVES);
-        blacklist.entrySet()
-                .forEach(e -> newFilter.put(e.getKey()));
+        // Populate bloom filter and expiry index
+        IdentifierFilter newFilter = filterType == IdentifierFilterType.CUCKOO
+                ? new CuckooFilter(2 * blacklist.size())
+                : new TimeSlicedBloomFilter(bloomSliceSeconds, BLOOM_FILTER_SLICES + 1, EXPECTED_BLOOM_FILTER_FALSE_POSITIVES);
+        expiryIndex.clear();
+        blacklist.forEach((identifier, expireTime) -> {
+            newFilter.put(identifier, expireTime);
+            expiryIndex.add(identifier, expireTime);
+        });
 
         // set new filter
         bloomFilter = newFilter;
+        log.debug("Removed {} expired entries from the session blacklist, {} remaining", expired, blacklist.size());
+    }
+
+    /**
+     * Rebuilds the filter with a larger capacity once it runs full.
+     */
+    private void rebuildIfOverloaded() {
+
+        if (!bloomFilter.needsRebuild()) {
+            return;
+        }
+        rebuildLock.writeLock().lock();
+        try {
+            if (bloomFilter.needsRebuild()) {
+                log.debug("Rebuilding the full session blacklist filter with a larger capacity");
+                rebuildBlocking();
+            }
+        } finally {
+            rebuildLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the entries that expired since the last sweep in a blocking manner.
+     * Only the due buckets of the expiry index are visited and the expired entries are removed with one batch of
+     * tombstones. They are removed from the filter as well if it supports that, otherwise the bloom filter slices in
+     * which every identifier has expired are dropped.
+     */
+    public void sweepExpiredBlocking() {
+
+        // Exclusive, so an identifier invalidated again while the sweep runs is not removed with its old entry. The
+        // removals are visible once queued, so only queueing them needs the lock, not waiting until they are durable.
+        CompletableFuture<Void> durable = CompletableFuture.completedFuture(null);
+        rebuildLock.writeLock().lock();
+        try {
+            int currentTimeSeconds = clockSource.getEpochSeconds();
+
+            // A set, an identifier invalidated twice is indexed twice but must leave the filter once
+            Set<String> expired = new HashSet<>();
+            for (String identifier : expiryIndex.pollDue(currentTimeSeconds)) {
+                Integer expireTime = blacklist.get(identifier);
+                if (expireTime == null) {
+                    continue;
+                }
+                if (expireTime < currentTimeSeconds) {
+                    expired.add(identifier);
+                } else {
+                    // Not expired yet or invalidated again later, look at it when its bucket is due
+                    expiryIndex.add(identifier, expireTime);
+                }
+            }
+            if (!expired.isEmpty()) {
+                durable = blacklist.removeAllAsync(expired);
+                if (bloomFilter.supportsRemoval()) {
+                    expired.forEach(bloomFilter::remove);
+                }
+                log.debug("Removed {} expired entries from the session blacklist", expired.size());
+            }
+
+            bloomFilter.expire(currentTimeSeconds);
+        } finally {
+            rebuildLock.writeLock().unlock();
+        }
+        durable.join();
+    }
+
+    /**
+     * Periodically runs {@link #sweepExpiredBlocking()} on the given scheduler until the blacklist is closed.
+     *
+     * @param scheduler The scheduler running the sweeps, usually the cleanup scheduler
+     * @param interval  The delay between the end of a sweep and the start of the next one
+     */
+    public void startSweeper(TaskScheduler scheduler, Duration interval) {
+
+        sweeper = scheduler.scheduleWithFixedDelay(this::sweep, Instant.now().plus(interval), interval);
+    }
+
+    /**
+     * Coalesces the invalidations from now on: {@link #invalidateSession} queues them and a single thread writes all
+     * that queued up in one batch, with one lock acquisition and one flush of the map. Invalidations fail with a
+     * {@link org.owasp.oag.exception.SystemException} while the queue is full.
+     *
+     * @param capacity     The number of invalidations that can wait to be written
+     * @param maxBatchSize The maximum number of invalidations written at once
+     */
+    public void startInvalidationPipeline(int capacity, int maxBatchSize) {
+
+        pipeline = new InvalidationPipeline(entries -> invalidateAllUntilBlocking(entries, false), capacity, maxBatchSize);
+    }
+
+    private void sweep() {
+
+        try {
+            sweepExpiredBlocking();
+        } catch (RuntimeException e) {
+            log.error("Could not remove expired entries from the session blacklist", e);
+        }
     }
 
     /**
@@ -92,7 +315,7 @@ public class LocalPersistentBlacklist implements SessionBlacklist {
     public void deleteAllEntries() {
 
         blacklist.clear();
-        cleanup().block();
+        cleanupBlocking();
     }
 
     /**
@@ -105,34 +328,137 @@ public class LocalPersistentBlacklist implements SessionBlacklist {
     @Override
     public Mono<Void> invalidateSession(String identifier, int ttl) {
 
+        var queue = pipeline;
+        if (queue != null) {
+            return LoggingUtils.contextual(() -> log.trace("Queue invalidation of identifier {}", identifier))
+                    .then(Mono.defer(() -> Mono.fromFuture(queue.submit(identifier, clockSource.getEpochSeconds() + ttl), true)));
+        }
         return LoggingUtils.contextual(() -> log.trace("Invalidate identifier {}", identifier))
-                .then(ReactiveUtils.runBlockingProcedure(() -> invalidateSessionBlocking(identifier, ttl)));
+                .then(ReactiveUtils.runBlockingProcedure(() -> invalidateSessionBlocking(identifier, ttl)))
+                .flatMap(durable -> Mono.fromFuture(durable));
     }
 
     /**
      * Invalidates a session identifier in a blocking manner.
      * Adds the identifier to both the persistent database and the bloom filter.
+     * With a group-commit map only the enqueueing blocks; the returned future completes once the entry is durable.
      *
      * @param identifier The session identifier to invalidate
      * @param ttl The time to live in seconds for the invalidation
+     * @return A future that completes when the entry is durably stored
      */
-    private void invalidateSessionBlocking(String identifier, int ttl) {
+    private CompletableFuture<Void> invalidateSessionBlocking(String identifier, int ttl) {
 
         // Put entry in db
         int currentTimeSeconds = clockSource.getEpochSeconds();
         int expireTime = currentTimeSeconds + ttl;
+        return invalidateUntilBlocking(identifier, expireTime, false);
+    }
 
-        blacklist.put(identifier, expireTime);
+    /**
+     * Invalidates a session identifier until an absolute expiry, through the pipeline if one is started and otherwise
+     * in a blocking manner.
+     *
+     * @param identifier The session identifier to invalidate
+     * @param expireTime The expiry of the invalidation in epoch seconds
+     * @return A future that completes when the entry is durably stored
+     */
+    CompletableFuture<Void> invalidateUntil(String identifier, int expireTime) {
 
-        //Add to bloom filter
-        bloomFilter.put(identifier);
+        var queue = pipeline;
+        return queue != null ? queue.submit(identifier, expireTime) : invalidateUntilBlocking(identifier, expireTime, false);
+    }
+
+    /**
+     * Invalidates a session identifier until an absolute expiry in a blocking manner.
+     * Replicated invalidations may arrive more than once and out of order, so with {@code keepLater} an entry that
+     * already expires at the same time or later is left as it is, which makes applying them idempotent.
+     *
+     * @param identifier The session identifier to invalidate
+     * @param expireTime The expiry of the invalidation in epoch seconds
+     * @param keepLater  Whether an existing entry with a later expiry wins
+     * @return A future that completes when the entry is durably stored
+     */
+    CompletableFuture<Void> invalidateUntilBlocking(String identifier, int expireTime, boolean keepLater) {
+
+        CompletableFuture<Void> durable;
+        rebuildLock.readLock().lock();
+        try {
+            var filter = bloomFilter;
+            Integer existing = keepLater || filter.supportsRemoval() ? blacklist.get(identifier) : null;
+            if (keepLater && existing != null && existing >= expireTime) {
+                return CompletableFuture.completedFuture(null);
+            }
+            durable = blacklist.putAsync(identifier, expireTime);
+
+            //Add to bloom filter and expiry index
+            addToFilter(filter, identifier, expireTime, existing != null);
+            expiryIndex.add(identifier, expireTime);
+        } finally {
+            rebuildLock.readLock().unlock();
+        }
+        rebuildIfOverloaded();
 
         log.trace("Stored identifier {} in blacklist db", identifier);
+        return durable;
+    }
+
+    /**
+     * Invalidates several session identifiers until their expiry in a blocking manner, with a single write to the
+     * map. See {@link #invalidateUntilBlocking} for {@code keepLater}.
+     *
+     * @param entries    The session identifiers with their expiry in epoch seconds, entries that are skipped because
+     *                   of {@code keepLater} are removed
+     * @param keepLater  Whether existing entries with a later expiry win
+     * @return A future that completes when the entries are durably stored
+     */
+    CompletableFuture<Void> invalidateAllUntilBlocking(Map<String, Integer> entries, boolean keepLater) {
+
+        CompletableFuture<Void> durable;
+        rebuildLock.readLock().lock();
+        try {
+            var filter = bloomFilter;
+            Set<String> known = new HashSet<>();
+            if (keepLater || filter.supportsRemoval()) {
+                entries.entrySet().removeIf(entry -> {
+                    Integer existing = blacklist.get(entry.getKey());
+                    if (existing == null) {
+                        return false;
+                    }
+                    known.add(entry.getKey());
+                    return keepLater && existing >= entry.getValue();
+                });
+            }
+            durable = blacklist.putAllAsync(entries);
+            entries.forEach((identifier, expireTime) -> {
+                addToFilter(filter, identifier, expireTime, known.contains(identifier));
+                expiryIndex.add(identifier, expireTime);
+            });
+        } finally {
+            rebuildLock.readLock().unlock();
+        }
+        rebuildIfOverloaded();
+
+        log.trace("Stored {} identifiers in blacklist db", entries.size());
+        return durable;
+    }
+
+    /**
+     * Adds an identifier to the filter. A filter that removes identifiers must hold each identifier once, so an
+     * identifier that is in the blacklist already is not added again.
+     */
+    private static void addToFilter(IdentifierFilter filter, String identifier, int expireTime, boolean known) {
+
+        if (!known || !filter.supportsRemoval()) {
+            filter.put(identifier, expireTime);
+        }
     }
 
     /**
      * Checks if a session identifier is invalidated (blacklisted).
-     * Uses a bloom filter for efficient negative lookups.
+     * Uses a bloom filter for efficient negative lookups. If the map reads without blocking (see
+     * {@link PersistentMap#hasNonBlockingReads()}) the map lookup runs on the calling thread as well, otherwise it is
+     * moved to the bounded elastic scheduler.
      *
      * @param identifier The session identifier to check
      * @return A Mono containing true if the identifier is invalidated, false otherwise
@@ -143,10 +469,22 @@ public class LocalPersistentBlacklist implements SessionBlacklist {
         // Very fast false if the identifier is not in the bloom filter
         if (!bloomFilter.mightContain(identifier)) {
 
+            bloomMisses.increment();
+            if (!log.isTraceEnabled()) {
+                return NOT_INVALIDATED;
+            }
             return Mono.just(false)
                     .doOnEach(LoggingUtils.logOnNext((u) -> log.trace("Identifier {} is not in bloom filter", identifier)));
         }
 
+        bloomHits.increment();
+        if (inlineLookups) {
+            // A lookup in memory is cheaper than the switch to another thread
+            if (!log.isTraceEnabled()) {
+                return checkIfInDbBlocking(identifier) ? INVALIDATED : NOT_INVALIDATED;
+            }
+            return LoggingUtils.wrapMdc(() -> checkIfInDbBlocking(identifier));
+        }
         return LoggingUtils.contextual(() -> log.trace("Identifier {} is in bloom filter, start db lookup asynchronously", identifier))
                 .then(ReactiveUtils.runBlockingProcedure(() -> checkIfInDbBlocking(identifier)));
     }
@@ -161,6 +499,9 @@ public class LocalPersistentBlacklist implements SessionBlacklist {
 
         Integer o = blacklist.get(identifier);
         var isInDb = o != null;
+        if (!isInDb) {
+            bloomFalsePositives.increment();
+        }
 
         log.trace("Lookup for identifier {} returned {}", identifier, isInDb);
         return isInDb;
@@ -168,12 +509,72 @@ public class LocalPersistentBlacklist implements SessionBlacklist {
 
     /**
      * Performs a cleanup operation to remove expired entries from the blacklist.
+     * See {@link #sweepExpiredBlocking()}.
      *
      * @return A Mono that completes when the operation is done
      */
     @Override
     public Mono<Void> cleanup() {
-        return ReactiveUtils.runBlockingProcedure(() -> cleanupBlocking());
+        return ReactiveUtils.runBlockingProcedure(() -> sweepExpiredBlocking());
+    }
+
+    /**
+     * Streams the live entries as a snapshot. Entries invalidated while the export runs may or may not be included.
+     *
+     * @param out the stream to write the snapshot to, closed when done
+     * @return the number of exported entries
+     * @throws IOException if the stream cannot be written
+     */
+    @Override
+    public long exportSnapshot(OutputStream out) throws IOException {
+
+        int currentTimeSeconds = clockSource.getEpochSeconds();
+        long exported;
+        try (var writer = new BlacklistSnapshot.Writer(out)) {
+            ScanCursor<Integer> cursor = blacklist.scan();
+            while (cursor.next()) {
+                if (cursor.value() >= currentTimeSeconds) {
+                    writer.write(cursor.key(), cursor.value());
+                }
+            }
+            exported = writer.count();
+        }
+        log.info("Exported {} session blacklist entries to a snapshot", exported);
+        return exported;
+    }
+
+    /**
+     * Adds the live entries of a snapshot to the blacklist, the bloom filter and the expiry index. The entries are
+     * written in batches of {@value BlacklistSnapshot#CHUNK_SIZE}, each with a single flush.
+     *
+     * @param in the stream to read the snapshot from
+     * @return the number of entries in the snapshot
+     * @throws IOException if the stream cannot be read or is not a complete snapshot
+     */
+    @Override
+    public long importSnapshot(InputStream in) throws IOException {
+
+        int currentTimeSeconds = clockSource.getEpochSeconds();
+        List<CompletableFuture<Void>> durable = new ArrayList<>();
+        long read = new BlacklistSnapshot.Reader(in).read(chunk -> {
+            chunk.values().removeIf(expireTime -> expireTime < currentTimeSeconds);
+            durable.add(invalidateAllUntilBlocking(chunk, true));
+        });
+        CompletableFuture.allOf(durable.toArray(CompletableFuture[]::new)).join();
+        log.info("Imported {} session blacklist entries from a snapshot", read);
+        return read;
+    }
+
+    /**
+     * Returns the statistics of the bloom filter: its estimated false positive rate and how many lookups it answered.
+     *
+     * @return the bloom filter metrics
+     */
+    public BloomFilterMetrics getBloomFilterMetrics() {
+
+        var filter = bloomFilter;
+        return new BloomFilterMetrics(filter.estimatedFpp(), filter.approximateCount(), filter.sliceCount(), filter.sizeBytes(),
+                bloomHits.sum(), bloomMisses.sum(), bloomFalsePositives.sum());
     }
 
     /**
@@ -183,6 +584,14 @@ public class LocalPersistentBlacklist implements SessionBlacklist {
      */
     @Override
     public void close() throws IOException {
+        var running = sweeper;
+        if (running != null) {
+            running.cancel(false);
+        }
+        var queue = pipeline;
+        if (queue != null) {
+            queue.close();
+        }
         blacklist.close();
     }
 }
@@ -0,0 +1,212 @@
+package org.owasp.oag.services.blacklist;
+
+import org.owasp.oag.infrastructure.GlobalClockSource;
+import org.owasp.oag.persistentmap.FilePersistentMap;
+import org.owasp.oag.persistentmap.PersistentLongIntMap;
+import org.owasp.oag.utils.LoggingUtils;
+import org.owasp.oag.utils.ReactiveUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.TaskScheduler;
+import reactor.core.publisher.Mono;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * A session blacklist keyed by the numeric value of the session id. Session ids are created as
+ * the hex representation of a random {@code long} (see
+ * {@link org.owasp.oag.hooks.session.SessionCookieCreationHook}), so they are parsed back into a
+ * {@code long} once and stored with their expiry in a {@link PersistentLongIntMap}: 12 bytes of
+ * native memory per entry instead of a {@code String}, a boxed {@code Integer} and a map node on
+ * the heap.
+ * <p>
+ * {@link #isInvalidated} probes the off-heap table directly on the calling thread. The probe
+ * never blocks and allocates nothing, so unlike {@link LocalPersistentBlacklist} no bloom filter
+ * and no switch to a blocking-capable scheduler are needed. Writes still append to the log and
+ * therefore run on the bounded elastic scheduler.
+ * <p>
+ * Identifiers that are not 1 to 16 hex digits are mapped to a 64-bit hash instead. A collision
+ * can only make a valid session look invalidated, never the other way round.
+ * <p>
+ * Expired entries are removed on startup and by {@link #cleanup()}; use {@link #startSweeper} to
+ * run it periodically.
+ */
+public class OffHeapSessionBlacklist implements SessionBlacklist {
+
+    private static final Logger log = LoggerFactory.getLogger(OffHeapSessionBlacklist.class);
+
+    private static final Mono<Boolean> INVALIDATED = Mono.just(true);
+    private static final Mono<Boolean> NOT_INVALIDATED = Mono.just(false);
+
+    /**
+     * Map storing blacklisted session ids and their expiration times in epoch seconds.
+     */
+    private final PersistentLongIntMap blacklist;
+
+    /**
+     * Clock source for time-based operations.
+     */
+    private final GlobalClockSource clockSource;
+
+    /**
+     * The periodic sweep started by {@link #startSweeper}, or {@code null}.
+     */
+    private volatile ScheduledFuture<?> sweeper;
+
+    /**
+     * Creates a new blacklist backed by the given map.
+     *
+     * @param clockSource The clock source for time-based operations
+     * @param blacklist   The map storing blacklisted session ids and their expiration times
+     */
+    public OffHeapSessionBlacklist(GlobalClockSource clockSource, PersistentLongIntMap blacklist) {
+
+        this.clockSource = clockSource;
+        this.blacklist = blacklist;
+    }
+
+    /**
+     * Opens the blacklist stored in {@code <filename>.ids}. When that file does not exist yet but
+     * a {@link FilePersistentMap} blacklist was written to {@code filename}, its entries are
+     * imported so switching the store does not revalidate logged out sessions.
+     *
+     * @param clockSource The clock source for time-based operations
+     * @param filename    The configured blacklist file
+     * @return The blacklist
+     */
+    public static OffHeapSessionBlacklist open(GlobalClockSource clockSource, String filename) {
+
+        Path idsFile = Path.of(filename + ".ids");
+        boolean importLegacy = !Files.exists(idsFile)
+                && (Files.exists(Path.of(filename)) || Files.exists(Path.of(filename + ".manifest")));
+        var blacklist = new OffHeapSessionBlacklist(clockSource, new PersistentLongIntMap(idsFile.toString()));
+        if (importLegacy) {
+            try (var legacy = new FilePersistentMap<>(filename, Integer.class)) {
+                legacy.forEach((identifier, expireTime) -> blacklist.blacklist.put(parseSessionId(identifier), expireTime));
+                log.info("Imported {} session blacklist entries from {}", legacy.size(), filename);
+            }
+        }
+        blacklist.cleanupBlocking();
+        return blacklist;
+    }
+
+    /**
+     * Invalidates a session identifier by adding it to the blacklist.
+     *
+     * @param identifier The session identifier to invalidate
+     * @param ttl The time to live in seconds for the invalidation
+     * @return A Mono that completes when the entry is stored
+     */
+    @Override
+    public Mono<Void> invalidateSession(String identifier, int ttl) {
+
+        long sessionId = parseSessionId(identifier);
+        return LoggingUtils.contextual(() -> log.trace("Invalidate identifier {}", identifier))
+                .then(ReactiveUtils.runBlockingProcedure(() -> blacklist.put(sessionId, clockSource.getEpochSeconds() + ttl)));
+    }
+
+    /**
+     * Checks if a session identifier is invalidated (blacklisted). The lookup runs on the calling
+     * thread and does not allocate.
+     *
+     * @param identifier The session identifier to check
+     * @return A Mono containing true if the identifier is invalidated, false otherwise
+     */
+    @Override
+    public Mono<Boolean> isInvalidated(String identifier) {
+
+        boolean invalidated = blacklist.containsKey(parseSessionId(identifier));
+        log.trace("Lookup for identifier {} returned {}", identifier, invalidated);
+        return invalidated ? INVALIDATED : NOT_INVALIDATED;
+    }
+
+    /**
+     * Removes expired entries from the blacklist in a blocking manner.
+     */
+    public void cleanupBlocking() {
+
+        int removed = blacklist.removeIfValueBelow(clockSource.getEpochSeconds());
+        log.debug("Removed {} expired entries from the session blacklist", removed);
+    }
+
+    /**
+     * Periodically runs {@link #cleanupBlocking()} on the given scheduler until the blacklist is
+     * closed.
+     *
+     * @param scheduler The scheduler running the sweeps, usually the cleanup scheduler
+     * @param interval  The delay between the end of a sweep and the start of the next one
+     */
+    public void startSweeper(TaskScheduler scheduler, Duration interval) {
+
+        sweeper = scheduler.scheduleWithFixedDelay(this::sweep, Instant.now().plus(interval), interval);
+    }
+
+    private void sweep() {
+
+        try {
+            cleanupBlocking();
+        } catch (RuntimeException e) {
+            log.error("Could not remove expired entries from the session blacklist", e);
+        }
+    }
+
+    /**
+     * Performs a cleanup operation to remove expired entries from the blacklist.
+     *
+     * @return A Mono that completes when the operation is done
+     */
+    @Override
+    public Mono<Void> cleanup() {
+        return ReactiveUtils.runBlockingProcedure(this::cleanupBlocking);
+    }
+
+    /**
+     * Closes the underlying map when the blacklist is no longer needed.
+     */
+    @Override
+    public void close() {
+        var running = sweeper;
+        if (running != null) {
+            running.cancel(false);
+        }
+        blacklist.close();
+    }
+
+    /**
+     * Converts a session identifier to the key of the blacklist: the value of the hex digits
+     * written by {@link Long#toHexString(long)}, or an FNV-1a hash for any other identifier.
+     * Allocation-free.
+     *
+     * @param identifier The session identifier
+     * @return The 64-bit key
+     */
+    static long parseSessionId(String identifier) {
+
+        int length = identifier.length();
+        if (length > 0 && length <= 16) {
+            long value = 0;
+            int i = 0;
+            for (; i < length; i++) {
+                int digit = Character.digit(identifier.charAt(i), 16);
+                if (digit < 0) {
+                    break;
+                }
+                value = value << 4 | digit;
+            }
+            if (i == length) {
+                return value;
+            }
+        }
+
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < length; i++) {
+            hash ^= identifier.charAt(i);
+            hash *= 0x100000001B3L;
+        }
+        return hash;
+    }
+}
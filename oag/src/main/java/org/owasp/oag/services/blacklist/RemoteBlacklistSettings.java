@@ -0,0 +1,232 @@
+package org.owasp.oag.services.blacklist;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Settings for a {@link RemoteSessionBlacklist}: the store to connect to and the tuning of the
+ * near cache, the batched lookups and the bloom filter synchronization.
+ */
+public class RemoteBlacklistSettings {
+
+    /** Default prefix of the keys in the store. */
+    public static final String DEFAULT_KEY_PREFIX = "oag:blacklist:";
+
+    /** Default time a negative lookup is cached. */
+    public static final Duration DEFAULT_NEGATIVE_CACHE_TTL = Duration.ofSeconds(1);
+
+    /** Default delay between two synchronizations of the bloom filter with the store. */
+    public static final Duration DEFAULT_SYNC_INTERVAL = Duration.ofSeconds(1);
+
+    /** Default connect and command timeout. */
+    public static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(2);
+
+    /** Default upper bound of identifiers looked up with one multi-get. */
+    public static final int DEFAULT_MAX_BATCH_SIZE = 128;
+
+    /** Default upper bound of multi-gets in flight. */
+    public static final int DEFAULT_MAX_IN_FLIGHT_BATCHES = 4;
+
+    /** Default upper bound of entries in the near cache. */
+    public static final long DEFAULT_MAX_CACHE_ENTRIES = 100_000;
+
+    private InetSocketAddress address;
+    private String password;
+    private String keyPrefix = DEFAULT_KEY_PREFIX;
+    private Duration negativeCacheTtl = DEFAULT_NEGATIVE_CACHE_TTL;
+    private Duration syncInterval = DEFAULT_SYNC_INTERVAL;
+    private Duration timeout = DEFAULT_TIMEOUT;
+    private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+    private int maxInFlightBatches = DEFAULT_MAX_IN_FLIGHT_BATCHES;
+    private long maxCacheEntries = DEFAULT_MAX_CACHE_ENTRIES;
+
+    /**
+     * Creates settings with the default values and without an address.
+     */
+    public RemoteBlacklistSettings() {
+    }
+
+    /**
+     * Gets the address of the store.
+     *
+     * @return the address
+     */
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * Sets the address of the store.
+     *
+     * @param address the address, must not be {@code null}
+     */
+    public void setAddress(InetSocketAddress address) {
+        this.address = Objects.requireNonNull(address, "address must not be null");
+    }
+
+    /**
+     * Gets the password of the store.
+     *
+     * @return the password or {@code null}
+     */
+    public String getPassword() {
+        return password;
+    }
+
+    /**
+     * Sets the password sent with {@code AUTH} after connecting.
+     *
+     * @param password the password, {@code null} or blank if the store needs none
+     */
+    public void setPassword(String password) {
+        this.password = password == null || password.isBlank() ? null : password;
+    }
+
+    /**
+     * Gets the prefix of the keys in the store.
+     *
+     * @return the key prefix
+     */
+    public String getKeyPrefix() {
+        return keyPrefix;
+    }
+
+    /**
+     * Sets the prefix of the keys in the store, which lets several gateways share a store.
+     *
+     * @param keyPrefix the key prefix, must not be {@code null}
+     */
+    public void setKeyPrefix(String keyPrefix) {
+        this.keyPrefix = Objects.requireNonNull(keyPrefix, "keyPrefix must not be null");
+    }
+
+    /**
+     * Gets the time a negative lookup is cached.
+     *
+     * @return the negative cache time to live
+     */
+    public Duration getNegativeCacheTtl() {
+        return negativeCacheTtl;
+    }
+
+    /**
+     * Sets the time a negative lookup is cached. A session invalidated on another instance may be
+     * accepted for that long.
+     *
+     * @param negativeCacheTtl the negative cache time to live, must not be negative
+     */
+    public void setNegativeCacheTtl(Duration negativeCacheTtl) {
+        if (negativeCacheTtl.isNegative()) {
+            throw new IllegalArgumentException("negativeCacheTtl must not be negative");
+        }
+        this.negativeCacheTtl = negativeCacheTtl;
+    }
+
+    /**
+     * Gets the delay between two synchronizations of the bloom filter with the store.
+     *
+     * @return the sync interval
+     */
+    public Duration getSyncInterval() {
+        return syncInterval;
+    }
+
+    /**
+     * Sets the delay between two synchronizations of the bloom filter with the store. A session
+     * invalidated on another instance may be accepted for that long.
+     *
+     * @param syncInterval the sync interval, must be positive
+     */
+    public void setSyncInterval(Duration syncInterval) {
+        if (syncInterval.isNegative() || syncInterval.isZero()) {
+            throw new IllegalArgumentException("syncInterval must be positive");
+        }
+        this.syncInterval = syncInterval;
+    }
+
+    /**
+     * Gets the connect and command timeout.
+     *
+     * @return the timeout
+     */
+    public Duration getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Sets the connect and command timeout.
+     *
+     * @param timeout the timeout, must be positive
+     */
+    public void setTimeout(Duration timeout) {
+        if (timeout.isNegative() || timeout.isZero()) {
+            throw new IllegalArgumentException("timeout must be positive");
+        }
+        this.timeout = timeout;
+    }
+
+    /**
+     * Gets the maximum number of identifiers looked up with one multi-get.
+     *
+     * @return the maximum batch size
+     */
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Sets the maximum number of identifiers looked up with one multi-get.
+     *
+     * @param maxBatchSize the maximum batch size, must be positive
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("maxBatchSize must be positive");
+        }
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Gets the maximum number of multi-gets in flight.
+     *
+     * @return the maximum number of batches in flight
+     */
+    public int getMaxInFlightBatches() {
+        return maxInFlightBatches;
+    }
+
+    /**
+     * Sets the maximum number of multi-gets in flight. Lookups arriving while all are in flight
+     * are coalesced into the next batch.
+     *
+     * @param maxInFlightBatches the maximum number of batches in flight, must be positive
+     */
+    public void setMaxInFlightBatches(int maxInFlightBatches) {
+        if (maxInFlightBatches <= 0) {
+            throw new IllegalArgumentException("maxInFlightBatches must be positive");
+        }
+        this.maxInFlightBatches = maxInFlightBatches;
+    }
+
+    /**
+     * Gets the maximum number of entries in the near cache.
+     *
+     * @return the maximum number of cache entries
+     */
+    public long getMaxCacheEntries() {
+        return maxCacheEntries;
+    }
+
+    /**
+     * Sets the maximum number of entries in the near cache.
+     *
+     * @param maxCacheEntries the maximum number of cache entries, must not be negative
+     */
+    public void setMaxCacheEntries(long maxCacheEntries) {
+        if (maxCacheEntries < 0) {
+            throw new IllegalArgumentException("maxCacheEntries must not be negative");
+        }
+        this.maxCacheEntries = maxCacheEntries;
+    }
+}
@@ -0,0 +1,521 @@
+package org.owasp.oag.services.blacklist;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import org.owasp.oag.infrastructure.GlobalClockSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A session blacklist kept in a remote key-value store speaking RESP, e.g. Redis or Valkey, and shared by all gateway
+ * instances using it.
+ * <p>
+ * An invalidation is stored twice: as a key {@code <prefix>id:<identifier>} with its expiry, which the store removes
+ * when it expires, and as a member of the sorted set {@code <prefix>meta:log}. Each instance polls the log for new
+ * invalidations to keep a {@link TimeSlicedBloomFilter} of all of them, so most lookups are answered by the bloom
+ * filter without a round trip, just like in {@link LocalPersistentBlacklist}. The keys the blacklist keeps for itself
+ * are all under {@code <prefix>meta:}, so they cannot collide with the key of an identifier.
+ * <p>
+ * The log is scored by a sequence number the store assigns with {@code INCR <prefix>meta:seq}, not by the clocks of the
+ * instances, so each instance reads exactly the entries it has not seen yet. A gap in the sequence is an invalidation
+ * whose log entry has not arrived yet. While there is one, the bloom filter may lack that invalidation and every
+ * lookup goes to the store. A gap that is not filled within {@link #MAX_LOG_DELAY_MILLIS} belongs to an invalidation
+ * whose log write failed, which its instance reported as an error, and is dropped with a warning.
+ * <p>
+ * Lookups the bloom filter cannot answer go through a near cache. A positive result is cached until the invalidation
+ * expires, a negative one for a short, configurable time. Lookups missing the cache are coalesced into batched
+ * {@code MGET}s: while the configured number of batches is in flight, new lookups queue up and go out together.
+ * <p>
+ * An invalidation on this instance is visible here at once. One on another instance is visible here after at most
+ * the sync interval plus the negative cache time to live.
+ */
+public class RemoteSessionBlacklist implements SessionBlacklist {
+
+    private static final Logger log = LoggerFactory.getLogger(RemoteSessionBlacklist.class);
+
+    private static final Mono<Boolean> INVALIDATED = Mono.just(true);
+    private static final Mono<Boolean> NOT_INVALIDATED = Mono.just(false);
+
+    /**
+     * Cached expiry of an identifier that is not blacklisted.
+     */
+    private static final int ABSENT = 0;
+
+    /**
+     * Key of an invalidated identifier, after the key prefix.
+     */
+    static final String IDENTIFIER_KEY = "id:";
+
+    /**
+     * Key of the log of invalidations, after the key prefix.
+     */
+    static final String LOG_KEY = "meta:log";
+
+    /**
+     * Key of the sequence numbering the log entries, after the key prefix.
+     */
+    static final String SEQUENCE_KEY = "meta:seq";
+
+    /**
+     * Key of the highest sequence number removed from the log, after the key prefix.
+     */
+    static final String TRIMMED_KEY = "meta:trimmed";
+
+    /**
+     * How long a gap in the log sequence is waited for before it is dropped.
+     */
+    static final long MAX_LOG_DELAY_MILLIS = 60_000;
+
+    /**
+     * Gaps in the log sequence larger than this are not tracked one by one, see {@link #untrackedGapUntilMillis}.
+     */
+    private static final long MAX_TRACKED_GAP = 100_000;
+
+    /**
+     * How much longer than the maximum time to live entries are kept in the log, covering clock differences between
+     * the instances.
+     */
+    private static final long CLOCK_SKEW_MARGIN_MILLIS = 10_000;
+
+    /**
+     * Delay between two removals of expired invalidations from the log.
+     */
+    private static final long TRIM_INTERVAL_MILLIS = 60_000;
+
+    private final GlobalClockSource clockSource;
+    private final RespConnection connection;
+    private final String identifierKeyPrefix;
+    private final String logKey;
+    private final String sequenceKey;
+    private final String trimmedKey;
+    private final int maxTtlSeconds;
+    private final int maxBatchSize;
+
+    /**
+     * Bloom filter of all invalidations in the store, as of the last sync.
+     */
+    private final TimeSlicedBloomFilter bloomFilter;
+
+    /**
+     * Whether the bloom filter holds all invalidations of the log: it was synchronized at least once and no log entry
+     * is missing. Otherwise it cannot answer lookups.
+     */
+    private volatile boolean bloomFilterComplete;
+
+    /**
+     * Sequence number of the latest log entry seen, -1 before the first sync.
+     */
+    private long lastSequence = -1;
+
+    /**
+     * Sequence numbers below {@link #lastSequence} whose log entry has not been seen, with the time they were missed.
+     */
+    private final TreeMap<Long, Long> gaps = new TreeMap<>();
+
+    /**
+     * Until when the bloom filter is not trusted after a gap too large to track, e.g. after the sequence was reset.
+     */
+    private long untrackedGapUntilMillis;
+
+    /**
+     * Sequence numbers of the invalidations of this instance that are already in the bloom filter.
+     */
+    private final Set<Long> ownSequences = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The latest sequence number seen at a time, one per trim interval, to find the log entries that have expired.
+     */
+    private final ArrayDeque<SequenceCheckpoint> checkpoints = new ArrayDeque<>();
+
+    private long lastTrimMillis;
+
+    /**
+     * Expiry of looked up identifiers, {@link #ABSENT} if not blacklisted.
+     */
+    private final AsyncCache<String, Integer> nearCache;
+
+    private final LinkedBlockingQueue<Lookup> lookups = new LinkedBlockingQueue<>();
+    private final Semaphore inFlightBatches;
+    private final Thread batcher;
+    private final ScheduledExecutorService syncExecutor;
+    private volatile boolean closed;
+
+    private final LongAdder bloomHits = new LongAdder();
+    private final LongAdder bloomMisses = new LongAdder();
+    private final LongAdder bloomFalsePositives = new LongAdder();
+
+    /**
+     * Creates a blacklist using the given store and starts to synchronize the bloom filter with it.
+     *
+     * @param clockSource   The clock source for time-based operations
+     * @param settings      The address of the store and the tuning settings
+     * @param maxTtlSeconds The maximum time to live of an invalidation, i.e. the session duration
+     */
+    public RemoteSessionBlacklist(GlobalClockSource clockSource, RemoteBlacklistSettings settings, int maxTtlSeconds) {
+
+        if (settings.getAddress() == null) {
+            throw new IllegalArgumentException("The remote blacklist needs the address of the store");
+        }
+        this.clockSource = clockSource;
+        this.connection = new RespConnection(settings.getAddress(), settings.getPassword(), settings.getTimeout());
+        String keyPrefix = settings.getKeyPrefix();
+        this.identifierKeyPrefix = keyPrefix + IDENTIFIER_KEY;
+        this.logKey = keyPrefix + LOG_KEY;
+        this.sequenceKey = keyPrefix + SEQUENCE_KEY;
+        this.trimmedKey = keyPrefix + TRIMMED_KEY;
+        this.maxTtlSeconds = maxTtlSeconds;
+        this.maxBatchSize = settings.getMaxBatchSize();
+        this.bloomFilter = new TimeSlicedBloomFilter(
+                Math.max(60, (maxTtlSeconds + LocalPersistentBlacklist.BLOOM_FILTER_SLICES - 1) / LocalPersistentBlacklist.BLOOM_FILTER_SLICES),
+                LocalPersistentBlacklist.BLOOM_FILTER_SLICES + 1,
+                LocalPersistentBlacklist.EXPECTED_BLOOM_FILTER_FALSE_POSITIVES);
+
+        long negativeTtlNanos = settings.getNegativeCacheTtl().toNanos();
+        this.nearCache = Caffeine.newBuilder()
+                .maximumSize(settings.getMaxCacheEntries())
+                .expireAfter(new Expiry<String, Integer>() {
+                    @Override
+                    public long expireAfterCreate(String identifier, Integer expiry, long currentTime) {
+                        if (expiry == ABSENT) {
+                            return negativeTtlNanos;
+                        }
+                        return TimeUnit.SECONDS.toNanos(Math.max(0, expiry - clockSource.getEpochSeconds()));
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String identifier, Integer expiry, long currentTime, long currentDuration) {
+                        return expireAfterCreate(identifier, expiry, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String identifier, Integer expiry, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .buildAsync();
+
+        this.inFlightBatches = new Semaphore(settings.getMaxInFlightBatches());
+        this.batcher = new Thread(this::runBatches, "session-blacklist-batcher");
+        batcher.setDaemon(true);
+        batcher.start();
+
+        this.syncExecutor = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "session-blacklist-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long syncMillis = settings.getSyncInterval().toMillis();
+        syncExecutor.scheduleWithFixedDelay(this::sync, 0, syncMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Invalidates a session identifier in the store. It is visible on this instance at once.
+     *
+     * @param identifier The session identifier to invalidate
+     * @param ttl The time to live in seconds for the invalidation
+     * @return A Mono that completes when the store has acknowledged the invalidation
+     */
+    @Override
+    public Mono<Void> invalidateSession(String identifier, int ttl) {
+
+        return Mono.defer(() -> {
+            int expireTime = clockSource.getEpochSeconds() + ttl;
+            String logEntry = expireTime + ":" + identifier;
+
+            bloomFilter.put(identifier, expireTime);
+            nearCache.synchronous().put(identifier, expireTime);
+
+            var stored = connection.send(List.of("SET", identifierKeyPrefix + identifier, Integer.toString(expireTime),
+                    "EX", Integer.toString(Math.max(1, ttl))));
+            var logged = connection.send(List.of("INCR", sequenceKey)).thenCompose(reply -> {
+                long sequence = Long.parseLong(reply.toString());
+                ownSequences.add(sequence);
+                return connection.send(List.of("ZADD", logKey, Long.toString(sequence), logEntry))
+                        .whenComplete((added, error) -> {
+                            if (error != null) {
+                                ownSequences.remove(sequence);
+                            }
+                        });
+            });
+            log.trace("Invalidate identifier {} in remote blacklist", identifier);
+            return Mono.fromFuture(CompletableFuture.allOf(stored, logged));
+        });
+    }
+
+    /**
+     * Checks if a session identifier is invalidated. Uses the bloom filter and the near cache, and looks up the store
+     * in a batch with other lookups if neither can answer.
+     *
+     * @param identifier The session identifier to check
+     * @return A Mono containing true if the identifier is invalidated, false otherwise
+     */
+    @Override
+    public Mono<Boolean> isInvalidated(String identifier) {
+
+        boolean bloomHit = bloomFilterComplete;
+        if (bloomHit) {
+            if (!bloomFilter.mightContain(identifier)) {
+                bloomMisses.increment();
+                return NOT_INVALIDATED;
+            }
+            bloomHits.increment();
+        }
+
+        CompletableFuture<Integer> expiry = nearCache.get(identifier, (key, executor) -> lookup(key, bloomHit));
+        if (expiry.isDone() && !expiry.isCompletedExceptionally()) {
+            return isLive(expiry.join()) ? INVALIDATED : NOT_INVALIDATED;
+        }
+        // The future is shared by all concurrent lookups of the identifier, one subscriber must not cancel it
+        return Mono.fromFuture(expiry, true).map(this::isLive);
+    }
+
+    private boolean isLive(int expiry) {
+        return expiry != ABSENT && expiry >= clockSource.getEpochSeconds();
+    }
+
+    private CompletableFuture<Integer> lookup(String identifier, boolean bloomHit) {
+
+        var lookup = new Lookup(identifier, bloomHit, new CompletableFuture<>());
+        lookups.add(lookup);
+        if (closed) {
+            lookup.expiry.completeExceptionally(new IllegalStateException("Blacklist is closed"));
+        }
+        return lookup.expiry;
+    }
+
+    /**
+     * Sends the queued lookups as multi-gets until the blacklist is closed. Lookups queued while all batches are in
+     * flight go out in the next batch.
+     */
+    private void runBatches() {
+
+        while (!closed) {
+            List<Lookup> batch = new ArrayList<>();
+            try {
+                inFlightBatches.acquire();
+                batch.add(lookups.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            lookups.drainTo(batch, maxBatchSize - 1);
+
+            List<String> command = new ArrayList<>(batch.size() + 1);
+            command.add("MGET");
+            for (Lookup lookup : batch) {
+                command.add(identifierKeyPrefix + lookup.identifier);
+            }
+            connection.send(command).whenComplete((reply, error) -> {
+                inFlightBatches.release();
+                complete(batch, reply, error);
+            });
+        }
+
+        var failure = new IllegalStateException("Blacklist is closed");
+        for (Lookup lookup = lookups.poll(); lookup != null; lookup = lookups.poll()) {
+            lookup.expiry.completeExceptionally(failure);
+        }
+    }
+
+    private void complete(List<Lookup> batch, Object reply, Throwable error) {
+
+        if (error == null && !(reply instanceof List<?> values && values.size() == batch.size())) {
+            error = new IllegalStateException("Unexpected reply to MGET");
+        }
+        if (error != null) {
+            log.warn("Could not look up {} identifiers in the remote blacklist: {}", batch.size(), error.getMessage());
+            for (Lookup lookup : batch) {
+                lookup.expiry.completeExceptionally(error);
+            }
+            return;
+        }
+
+        List<?> values = (List<?>) reply;
+        for (int i = 0; i < batch.size(); i++) {
+            Object value = values.get(i);
+            if (value == null) {
+                if (batch.get(i).bloomHit) {
+                    bloomFalsePositives.increment();
+                }
+                batch.get(i).expiry.complete(ABSENT);
+            } else {
+                try {
+                    batch.get(i).expiry.complete(Integer.parseInt(value.toString()));
+                } catch (NumberFormatException e) {
+                    batch.get(i).expiry.completeExceptionally(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the invalidations logged since the last sync to the bloom filter and drops the expired slices. Reads the
+     * log from the oldest gap on, so a log entry that arrives late is still added.
+     */
+    private void sync() {
+
+        try {
+            if (lastSequence < 0) {
+                // Entries up to the trimmed sequence number are gone from the log, they are not missing
+                Object trimmed = connection.send(List.of("GET", trimmedKey)).join();
+                lastSequence = trimmed == null ? 0 : Long.parseLong(trimmed.toString());
+            }
+            long from = gaps.isEmpty() ? lastSequence + 1 : gaps.firstKey();
+            var reply = connection.send(List.of("ZRANGEBYSCORE", logKey, Long.toString(from), "+inf", "WITHSCORES")).join();
+            if (!(reply instanceof List<?> entries)) {
+                throw new IllegalStateException("Unexpected reply to ZRANGEBYSCORE");
+            }
+
+            long now = clockSource.getGlobalClock().millis();
+            int added = 0;
+            for (int i = 0; i + 1 < entries.size(); i += 2) {
+                long sequence = (long) Double.parseDouble(entries.get(i + 1).toString());
+                if (sequence <= lastSequence) {
+                    if (gaps.remove(sequence) == null) {
+                        continue;
+                    }
+                } else {
+                    if (sequence - lastSequence - 1 > MAX_TRACKED_GAP) {
+                        log.warn("The remote blacklist log jumped from {} to {}, all lookups go to the store for {} ms",
+                                lastSequence, sequence, MAX_LOG_DELAY_MILLIS);
+                        untrackedGapUntilMillis = now + MAX_LOG_DELAY_MILLIS;
+                    } else {
+                        for (long missing = lastSequence + 1; missing < sequence; missing++) {
+                            gaps.put(missing, now);
+                        }
+                    }
+                    lastSequence = sequence;
+                }
+                if (ownSequences.remove(sequence)) {
+                    continue;
+                }
+                String logEntry = entries.get(i).toString();
+                int separator = logEntry.indexOf(':');
+                bloomFilter.put(logEntry.substring(separator + 1), Integer.parseInt(logEntry.substring(0, separator)));
+                added++;
+            }
+            int dropped = 0;
+            for (var gap = gaps.firstEntry(); gap != null && now - gap.getValue() > MAX_LOG_DELAY_MILLIS; gap = gaps.firstEntry()) {
+                gaps.remove(gap.getKey());
+                dropped++;
+            }
+            if (dropped > 0) {
+                log.warn("{} invalidations are missing from the remote blacklist log for more than {} ms, "
+                        + "lookups of them rely on the bloom filter again", dropped, MAX_LOG_DELAY_MILLIS);
+            }
+            bloomFilterComplete = gaps.isEmpty() && now >= untrackedGapUntilMillis;
+            if (added > 0) {
+                log.trace("Added {} invalidations of other instances to the bloom filter", added);
+            }
+
+            bloomFilter.expire(clockSource.getEpochSeconds());
+            synchronized (checkpoints) {
+                if (checkpoints.isEmpty() || now - checkpoints.peekLast().millis() >= TRIM_INTERVAL_MILLIS) {
+                    checkpoints.addLast(new SequenceCheckpoint(now, lastSequence));
+                }
+            }
+            if (now - lastTrimMillis >= TRIM_INTERVAL_MILLIS) {
+                lastTrimMillis = now;
+                trimLog().join();
+            }
+        } catch (RuntimeException e) {
+            bloomFilterComplete = false;
+            log.warn("Could not synchronize the session blacklist bloom filter: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Removes the invalidations from the log that have expired for sure: those that were already logged when this
+     * instance saw the log more than the maximum time to live ago. The trimmed sequence number is raised first, so
+     * an instance starting meanwhile never takes the trimmed entries for missing ones.
+     */
+    private CompletableFuture<Object> trimLog() {
+
+        long cutoffMillis = clockSource.getGlobalClock().millis() - maxTtlSeconds * 1000L - CLOCK_SKEW_MARGIN_MILLIS;
+        long cutoff = -1;
+        synchronized (checkpoints) {
+            while (!checkpoints.isEmpty() && checkpoints.peekFirst().millis() <= cutoffMillis) {
+                cutoff = checkpoints.pollFirst().sequence();
+            }
+        }
+        if (cutoff <= 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        String trimmed = Long.toString(cutoff);
+        return connection.send(List.of("GET", trimmedKey))
+                .thenCompose(previous -> previous != null && Long.parseLong(previous.toString()) >= Long.parseLong(trimmed)
+                        ? CompletableFuture.completedFuture(previous)
+                        : connection.send(List.of("SET", trimmedKey, trimmed)))
+                .thenCompose(ok -> connection.send(List.of("ZREMRANGEBYSCORE", logKey, "-inf", trimmed)));
+    }
+
+    /**
+     * Drops the expired bloom filter slices and removes the expired invalidations from the log. The store removes the
+     * expired keys itself.
+     *
+     * @return A Mono that completes when the operation is done
+     */
+    @Override
+    public Mono<Void> cleanup() {
+
+        return Mono.defer(() -> {
+            bloomFilter.expire(clockSource.getEpochSeconds());
+            return Mono.fromFuture(trimLog()).then();
+        });
+    }
+
+    /**
+     * Returns the statistics of the bloom filter: its estimated false positive rate and how many lookups it answered.
+     *
+     * @return the bloom filter metrics
+     */
+    public BloomFilterMetrics getBloomFilterMetrics() {
+
+        return new BloomFilterMetrics(bloomFilter.estimatedFpp(), bloomFilter.approximateCount(), bloomFilter.sliceCount(), bloomFilter.sizeBytes(),
+                bloomHits.sum(), bloomMisses.sum(), bloomFalsePositives.sum());
+    }
+
+    /**
+     * Stops the synchronization, fails the pending lookups and closes the connection.
+     */
+    @Override
+    public void close() {
+
+        closed = true;
+        syncExecutor.shutdownNow();
+        batcher.interrupt();
+        try {
+            batcher.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        connection.close();
+    }
+
+    /**
+     * The latest sequence number of the log seen at a time.
+     */
+    private record SequenceCheckpoint(long millis, long sequence) {
+    }
+
+    /**
+     * A lookup waiting for its batch, {@code bloomHit} if the bloom filter was asked and might contain the identifier.
+     */
+    private record Lookup(String identifier, boolean bloomHit, CompletableFuture<Integer> expiry) {
+    }
+}
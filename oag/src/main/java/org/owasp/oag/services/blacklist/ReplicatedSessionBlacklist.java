@@ -0,0 +1,431 @@
+package org.owasp.oag.services.blacklist;
+
+import org.owasp.oag.infrastructure.GlobalClockSource;
+import org.owasp.oag.services.blacklist.ReplicationCodec.Delta;
+import org.owasp.oag.services.blacklist.ReplicationCodec.Deltas;
+import org.owasp.oag.services.blacklist.ReplicationCodec.Digest;
+import org.owasp.oag.utils.LoggingUtils;
+import org.owasp.oag.utils.ReactiveUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A session blacklist shared by several gateway instances. Each instance keeps its own
+ * {@link LocalPersistentBlacklist}, which stays the source of truth for lookups, and replicates
+ * its invalidations to the configured peers over UDP:
+ * <ul>
+ *     <li>Invalidations are collected for a short flush interval and pushed to every peer in
+ *     batches. A batch carries the absolute expiry of each identifier and applying it keeps the
+ *     later expiry, so lost, repeated and reordered datagrams do no harm.</li>
+ *     <li>Datagrams can still be lost, and a restarted instance misses everything invalidated
+ *     while it was down. In every anti-entropy round an instance therefore sends each peer bloom
+ *     filter digests of its live identifiers, and the peer pushes back the identifiers the
+ *     digests do not contain. Every instance does so, so both directions get repaired.</li>
+ * </ul>
+ * Every datagram is authenticated with a secret shared by the instances, and datagrams from
+ * addresses that are not peers are ignored. The expiries are absolute, so the clocks of the
+ * instances should be synchronized.
+ */
+public class ReplicatedSessionBlacklist implements SessionBlacklist, SnapshotCapableBlacklist {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplicatedSessionBlacklist.class);
+
+    /**
+     * The local blacklist holding the invalidations of this and all other instances.
+     */
+    private final LocalPersistentBlacklist local;
+
+    /**
+     * Clock source for time-based operations.
+     */
+    private final GlobalClockSource clockSource;
+
+    /**
+     * The socket datagrams are received on and sent from.
+     */
+    private final DatagramChannel channel;
+
+    /**
+     * The peers, resolved.
+     */
+    private final List<InetSocketAddress> peers;
+
+    /**
+     * Invalidations of this instance not pushed to the peers yet.
+     */
+    private final ConcurrentLinkedQueue<Delta> pending = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Runs the flushes and the anti-entropy rounds.
+     */
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Codec used by {@link #executor}.
+     */
+    private final ReplicationCodec senderCodec;
+
+    /**
+     * Receives and applies the datagrams.
+     */
+    private final Thread receiver;
+
+    /**
+     * Identifiers of this instance by digest partition, for the current round of each peer. Only used by
+     * {@link #receiver}.
+     */
+    private final Map<SocketAddress, RoundIndex> rounds = new HashMap<>();
+
+    private volatile boolean closed;
+
+    /**
+     * Creates a replicated blacklist and starts to replicate.
+     *
+     * @param clockSource The clock source for time-based operations
+     * @param local       The local blacklist, closed with this one
+     * @param settings    Where to listen, the peers and the shared secret
+     * @throws UncheckedIOException if the socket cannot be bound
+     */
+    public ReplicatedSessionBlacklist(GlobalClockSource clockSource, LocalPersistentBlacklist local, ReplicationSettings settings) {
+
+        if (settings.getBindAddress() == null || settings.getSecret() == null) {
+            throw new IllegalArgumentException("Replication needs a bind address and a secret");
+        }
+        this.clockSource = clockSource;
+        this.local = local;
+        this.peers = settings.getPeers().stream()
+                .map(peer -> peer.isUnresolved() ? new InetSocketAddress(peer.getHostString(), peer.getPort()) : peer)
+                .toList();
+        this.senderCodec = new ReplicationCodec(settings.getSecret());
+        try {
+            this.channel = DatagramChannel.open().bind(settings.getBindAddress());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot bind session blacklist replication to " + settings.getBindAddress(), e);
+        }
+
+        var receiverCodec = new ReplicationCodec(settings.getSecret());
+        this.receiver = new Thread(() -> receive(receiverCodec), "session-blacklist-replication-receiver");
+        receiver.setDaemon(true);
+        receiver.start();
+
+        this.executor = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "session-blacklist-replication");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long flushMillis = settings.getFlushInterval().toMillis();
+        executor.scheduleWithFixedDelay(() -> guarded("push invalidations", this::flush), flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        // The first round right away, so a restarted instance catches up quickly
+        executor.scheduleWithFixedDelay(() -> guarded("send digests", this::sendDigests),
+                0, settings.getAntiEntropyInterval().toMillis(), TimeUnit.MILLISECONDS);
+
+        log.info("Replicating the session blacklist from {} to {}", getLocalAddress(), peers);
+    }
+
+    /**
+     * Returns the address the socket is bound to, useful when it was bound to port 0.
+     *
+     * @return the local address
+     */
+    public InetSocketAddress getLocalAddress() {
+        try {
+            return (InetSocketAddress) channel.getLocalAddress();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Invalidates a session identifier on this instance and queues it for the peers.
+     *
+     * @param identifier The session identifier to invalidate
+     * @param ttl The time to live in seconds for the invalidation
+     * @return A Mono that completes when the invalidation is durably stored locally
+     */
+    @Override
+    public Mono<Void> invalidateSession(String identifier, int ttl) {
+
+        return LoggingUtils.contextual(() -> log.trace("Invalidate identifier {} on all instances", identifier))
+                .then(ReactiveUtils.runBlockingProcedure(() -> {
+                    int expireTime = clockSource.getEpochSeconds() + ttl;
+                    CompletableFuture<Void> durable = local.invalidateUntil(identifier, expireTime);
+                    if (identifier.getBytes(StandardCharsets.UTF_8).length <= ReplicationCodec.MAX_IDENTIFIER_BYTES) {
+                        pending.add(new Delta(identifier, expireTime));
+                    } else {
+                        log.warn("Identifier is too long to be replicated, invalidated on this instance only");
+                    }
+                    return durable;
+                }))
+                .flatMap(durable -> Mono.fromFuture(durable));
+    }
+
+    /**
+     * Checks if a session identifier is invalidated on this instance, including the invalidations replicated so far.
+     *
+     * @param identifier The session identifier to check
+     * @return A Mono containing true if the identifier is invalidated, false otherwise
+     */
+    @Override
+    public Mono<Boolean> isInvalidated(String identifier) {
+        return local.isInvalidated(identifier);
+    }
+
+    /**
+     * Removes the expired entries from the local blacklist.
+     *
+     * @return A Mono that completes when the operation is done
+     */
+    @Override
+    public Mono<Void> cleanup() {
+        return local.cleanup();
+    }
+
+    /**
+     * Streams the live entries of the local blacklist as a snapshot.
+     *
+     * @param out the stream to write the snapshot to, closed when done
+     * @return the number of exported entries
+     * @throws IOException if the stream cannot be written
+     */
+    @Override
+    public long exportSnapshot(OutputStream out) throws IOException {
+        return local.exportSnapshot(out);
+    }
+
+    /**
+     * Imports a snapshot into the local blacklist. The entries are not pushed to the peers, the anti-entropy rounds
+     * exchange whatever they are missing.
+     *
+     * @param in the stream to read the snapshot from
+     * @return the number of entries in the snapshot
+     * @throws IOException if the stream cannot be read or is not a complete snapshot
+     */
+    @Override
+    public long importSnapshot(InputStream in) throws IOException {
+        return local.importSnapshot(in);
+    }
+
+    /**
+     * Pushes the pending invalidations, stops replicating and closes the local blacklist.
+     *
+     * @throws IOException if an I/O error occurs when closing the local blacklist
+     */
+    @Override
+    public void close() throws IOException {
+
+        executor.shutdown();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        guarded("push invalidations", this::flush);
+
+        closed = true;
+        channel.close();
+        try {
+            receiver.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        local.close();
+    }
+
+    private void guarded(String task, Runnable runnable) {
+
+        try {
+            runnable.run();
+        } catch (RuntimeException e) {
+            log.error("Could not {} to the session blacklist peers", task, e);
+        }
+    }
+
+    /**
+     * Pushes the pending invalidations to all peers.
+     */
+    private void flush() {
+
+        List<Delta> deltas = new ArrayList<>();
+        for (Delta delta = pending.poll(); delta != null; delta = pending.poll()) {
+            deltas.add(delta);
+        }
+        if (deltas.isEmpty()) {
+            return;
+        }
+        List<ByteBuffer> datagrams = senderCodec.encodeDeltas(deltas);
+        for (InetSocketAddress peer : peers) {
+            sendAll(datagrams, peer);
+        }
+        log.trace("Pushed {} invalidations in {} datagrams", deltas.size(), datagrams.size());
+    }
+
+    /**
+     * Starts an anti-entropy round: sends every peer one digest per partition of the live identifiers.
+     */
+    private void sendDigests() {
+
+        int now = clockSource.getEpochSeconds();
+        List<String> live = new ArrayList<>();
+        local.blacklist.forEach((identifier, expireTime) -> {
+            if (expireTime >= now) {
+                live.add(identifier);
+            }
+        });
+
+        int seed = ThreadLocalRandom.current().nextInt();
+        int partitions = Digest.partitionsFor(live.size());
+        List<List<String>> byPartition = partition(live, seed, partitions);
+        List<ByteBuffer> datagrams = new ArrayList<>(partitions);
+        for (int p = 0; p < partitions; p++) {
+            List<String> identifiers = byPartition.get(p);
+            var digest = new Digest(seed, partitions, p, identifiers.size());
+            identifiers.forEach(digest::add);
+            datagrams.add(senderCodec.encodeDigest(digest));
+        }
+        for (InetSocketAddress peer : peers) {
+            sendAll(datagrams, peer);
+        }
+        log.debug("Sent digests of {} identifiers in {} partitions", live.size(), partitions);
+    }
+
+    private static List<List<String>> partition(List<String> identifiers, int seed, int partitions) {
+
+        List<List<String>> byPartition = new ArrayList<>(partitions);
+        for (int p = 0; p < partitions; p++) {
+            byPartition.add(new ArrayList<>());
+        }
+        for (String identifier : identifiers) {
+            byPartition.get(Digest.partitionOf(identifier, seed, partitions)).add(identifier);
+        }
+        return byPartition;
+    }
+
+    private void sendAll(List<ByteBuffer> datagrams, InetSocketAddress peer) {
+
+        for (ByteBuffer datagram : datagrams) {
+            try {
+                channel.send(datagram.duplicate(), peer);
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                // The peer may be down, it catches up with the anti-entropy rounds
+                log.debug("Could not send to session blacklist peer {}: {}", peer, e.getMessage());
+                return;
+            }
+        }
+    }
+
+    /**
+     * Receives datagrams until the blacklist is closed.
+     */
+    private void receive(ReplicationCodec codec) {
+
+        Set<SocketAddress> accepted = Set.copyOf(peers);
+        ByteBuffer buffer = ByteBuffer.allocate(ReplicationCodec.MAX_DATAGRAM_BYTES + 1);
+        while (!closed) {
+            SocketAddress sender;
+            try {
+                buffer.clear();
+                sender = channel.receive(buffer);
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                log.warn("Could not receive from session blacklist peers", e);
+                continue;
+            }
+            if (!accepted.contains(sender)) {
+                log.debug("Ignored datagram from {}, which is not a session blacklist peer", sender);
+                continue;
+            }
+            buffer.flip();
+            try {
+                var message = codec.decode(buffer);
+                if (message instanceof Deltas deltas) {
+                    apply(deltas.deltas());
+                } else if (message instanceof Digest digest) {
+                    repair(digest, sender, codec);
+                }
+            } catch (RuntimeException e) {
+                log.warn("Ignored invalid datagram from session blacklist peer {}: {}", sender, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Applies invalidations received from a peer, keeping the later expiry of each identifier.
+     */
+    private void apply(List<Delta> deltas) {
+
+        int now = clockSource.getEpochSeconds();
+        for (Delta delta : deltas) {
+            if (delta.expiry() >= now) {
+                local.invalidateUntilBlocking(delta.identifier(), delta.expiry(), true);
+            }
+        }
+        log.trace("Applied {} replicated invalidations", deltas.size());
+    }
+
+    /**
+     * Sends the peer the live identifiers of the digest's partition that the digest does not contain.
+     */
+    private void repair(Digest digest, SocketAddress sender, ReplicationCodec codec) {
+
+        int now = clockSource.getEpochSeconds();
+        RoundIndex round = rounds.get(sender);
+        if (round == null || round.seed != digest.seed() || round.partitions != digest.partitions()) {
+            // First digest of a new round of this peer, partition the live identifiers once for all its digests
+            List<String> live = new ArrayList<>();
+            local.blacklist.forEach((identifier, expireTime) -> {
+                if (expireTime >= now) {
+                    live.add(identifier);
+                }
+            });
+            round = new RoundIndex(digest.seed(), digest.partitions(), partition(live, digest.seed(), digest.partitions()));
+            rounds.put(sender, round);
+        }
+
+        List<Delta> missing = new ArrayList<>();
+        for (String identifier : round.byPartition.get(digest.partition())) {
+            if (!digest.mightContain(identifier)) {
+                Integer expireTime = local.blacklist.get(identifier);
+                if (expireTime != null && expireTime >= now
+                        && identifier.getBytes(StandardCharsets.UTF_8).length <= ReplicationCodec.MAX_IDENTIFIER_BYTES) {
+                    missing.add(new Delta(identifier, expireTime));
+                }
+            }
+        }
+        if (!missing.isEmpty()) {
+            sendAll(codec.encodeDeltas(missing), (InetSocketAddress) sender);
+            log.debug("Sent {} identifiers missing on session blacklist peer {}", missing.size(), sender);
+        }
+    }
+
+    /**
+     * The live identifiers of this instance partitioned like the digests of one round of a peer.
+     */
+    private record RoundIndex(int seed, int partitions, List<List<String>> byPartition) {
+    }
+}
@@ -0,0 +1,337 @@
+package org.owasp.oag.services.blacklist;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Wire format of the datagrams exchanged by {@link ReplicatedSessionBlacklist} instances.
+ * <p>
+ * Every datagram starts with a magic number, a version and a type, and ends with the first
+ * {@value #MAC_BYTES} bytes of an HMAC-SHA256 over everything before it. There are two types:
+ * <ul>
+ *     <li>{@link #DELTAS}: a batch of identifiers with the absolute expiry of their invalidation.
+ *     Applying a batch keeps the later expiry of an identifier, so batches may be lost, repeated
+ *     and reordered.</li>
+ *     <li>{@link #DIGEST}: a bloom filter over one partition of the live identifiers of the
+ *     sender. The receiver sends back the identifiers of that partition the filter does not
+ *     contain.</li>
+ * </ul>
+ * A datagram stays below {@value #MAX_DATAGRAM_BYTES} bytes so it is not fragmented on the usual
+ * networks. Instances are not thread safe because of the {@link Mac}; use one per thread.
+ */
+final class ReplicationCodec {
+
+    /** Upper bound of the size of a datagram. */
+    static final int MAX_DATAGRAM_BYTES = 1400;
+
+    /** Longest replicated identifier in bytes; longer ones are not replicated. */
+    static final int MAX_IDENTIFIER_BYTES = 512;
+
+    /** Size of the bloom filter of a digest in longs. */
+    static final int DIGEST_WORDS = 128;
+
+    /** Identifiers per digest partition, which gives a false positive rate of about 1%. */
+    static final int ENTRIES_PER_DIGEST = 850;
+
+    /** Type of a batch of invalidations. */
+    static final byte DELTAS = 1;
+
+    /** Type of a digest. */
+    static final byte DIGEST = 2;
+
+    private static final int MAGIC = 0x4F414752;
+    private static final byte VERSION = 1;
+    private static final int HEADER_BYTES = Integer.BYTES + 2;
+    private static final int MAC_BYTES = 16;
+    private static final int MAX_HASH_FUNCTIONS = 16;
+
+    private final Mac mac;
+
+    /**
+     * Creates a codec authenticating with the given secret.
+     *
+     * @param secret the secret shared by all instances
+     */
+    ReplicationCodec(byte[] secret) {
+        try {
+            mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+    }
+
+    /**
+     * Encodes invalidations into as few datagrams as possible.
+     *
+     * @param deltas the invalidations
+     * @return the datagrams, ready to be sent
+     */
+    List<ByteBuffer> encodeDeltas(List<Delta> deltas) {
+        List<ByteBuffer> datagrams = new ArrayList<>();
+        ByteBuffer datagram = null;
+        int countPosition = 0;
+        short count = 0;
+        for (Delta delta : deltas) {
+            byte[] identifier = delta.identifier().getBytes(StandardCharsets.UTF_8);
+            int entryBytes = Integer.BYTES + Short.BYTES + identifier.length;
+            if (datagram != null && datagram.remaining() - MAC_BYTES < entryBytes) {
+                datagram.putShort(countPosition, count);
+                datagrams.add(seal(datagram));
+                datagram = null;
+            }
+            if (datagram == null) {
+                datagram = header(DELTAS);
+                countPosition = datagram.position();
+                datagram.putShort((short) 0);
+                count = 0;
+            }
+            datagram.putInt(delta.expiry()).putShort((short) identifier.length).put(identifier);
+            count++;
+        }
+        if (datagram != null) {
+            datagram.putShort(countPosition, count);
+            datagrams.add(seal(datagram));
+        }
+        return datagrams;
+    }
+
+    /**
+     * Encodes a digest into a datagram.
+     *
+     * @param digest the digest
+     * @return the datagram, ready to be sent
+     */
+    ByteBuffer encodeDigest(Digest digest) {
+        ByteBuffer datagram = header(DIGEST)
+                .putInt(digest.seed)
+                .putInt(digest.partitions)
+                .putInt(digest.partition)
+                .put((byte) digest.hashFunctions)
+                .putShort((short) digest.bits.length);
+        for (long word : digest.bits) {
+            datagram.putLong(word);
+        }
+        return seal(datagram);
+    }
+
+    /**
+     * Verifies and decodes a datagram.
+     *
+     * @param datagram the received datagram, positioned at its start
+     * @return the message
+     * @throws IllegalArgumentException if the datagram is malformed or not authentic
+     */
+    Message decode(ByteBuffer datagram) {
+        int length = datagram.remaining();
+        if (length < HEADER_BYTES + MAC_BYTES || length > MAX_DATAGRAM_BYTES) {
+            throw new IllegalArgumentException("Invalid datagram length " + length);
+        }
+        byte[] bytes = new byte[length];
+        datagram.get(bytes);
+        mac.update(bytes, 0, length - MAC_BYTES);
+        byte[] expected = mac.doFinal();
+        if (!MessageDigest.isEqual(Arrays.copyOf(expected, MAC_BYTES), Arrays.copyOfRange(bytes, length - MAC_BYTES, length))) {
+            throw new IllegalArgumentException("Invalid datagram MAC");
+        }
+
+        ByteBuffer body = ByteBuffer.wrap(bytes, 0, length - MAC_BYTES);
+        if (body.getInt() != MAGIC || body.get() != VERSION) {
+            throw new IllegalArgumentException("Unknown datagram format");
+        }
+        byte type = body.get();
+        if (type == DELTAS) {
+            int count = Short.toUnsignedInt(body.getShort());
+            List<Delta> deltas = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int expiry = body.getInt();
+                byte[] identifier = new byte[Short.toUnsignedInt(body.getShort())];
+                body.get(identifier);
+                deltas.add(new Delta(new String(identifier, StandardCharsets.UTF_8), expiry));
+            }
+            return new Deltas(deltas);
+        }
+        if (type == DIGEST) {
+            int seed = body.getInt();
+            int partitions = body.getInt();
+            int partition = body.getInt();
+            int hashFunctions = body.get();
+            int words = Short.toUnsignedInt(body.getShort());
+            if (partitions <= 0 || partition < 0 || partition >= partitions
+                    || hashFunctions < 1 || hashFunctions > MAX_HASH_FUNCTIONS
+                    || words < 1 || words > DIGEST_WORDS) {
+                throw new IllegalArgumentException("Invalid digest parameters");
+            }
+            long[] bits = new long[words];
+            for (int i = 0; i < words; i++) {
+                bits[i] = body.getLong();
+            }
+            return new Digest(seed, partitions, partition, hashFunctions, bits);
+        }
+        throw new IllegalArgumentException("Unknown datagram type " + type);
+    }
+
+    private static ByteBuffer header(byte type) {
+        return ByteBuffer.allocate(MAX_DATAGRAM_BYTES).putInt(MAGIC).put(VERSION).put(type);
+    }
+
+    private ByteBuffer seal(ByteBuffer datagram) {
+        mac.update(datagram.array(), 0, datagram.position());
+        datagram.put(mac.doFinal(), 0, MAC_BYTES);
+        return datagram.flip();
+    }
+
+    /**
+     * A decoded datagram.
+     */
+    sealed interface Message permits Deltas, Digest {
+    }
+
+    /**
+     * An invalidation: the identifier and its absolute expiry.
+     *
+     * @param identifier the invalidated identifier
+     * @param expiry     the expiry in epoch seconds
+     */
+    record Delta(String identifier, int expiry) {
+    }
+
+    /**
+     * A decoded batch of invalidations.
+     *
+     * @param deltas the invalidations
+     */
+    record Deltas(List<Delta> deltas) implements Message {
+    }
+
+    /**
+     * A bloom filter over the identifiers of one partition. The identifiers are partitioned and
+     * hashed with a seed chosen per round, so an identifier hidden by a false positive in one
+     * round is very likely found in the next.
+     */
+    static final class Digest implements Message {
+
+        private final int seed;
+        private final int partitions;
+        private final int partition;
+        private final int hashFunctions;
+        private final long[] bits;
+
+        /**
+         * Creates an empty digest for the given number of identifiers.
+         *
+         * @param seed        the seed of the round
+         * @param partitions  the number of partitions of the round
+         * @param partition   the partition covered by this digest
+         * @param identifiers the expected number of identifiers in the partition
+         */
+        Digest(int seed, int partitions, int partition, int identifiers) {
+            this(seed, partitions, partition,
+                    (int) Math.min(MAX_HASH_FUNCTIONS, Math.max(1, Math.round((double) DIGEST_WORDS * 64 / Math.max(1, identifiers) * Math.log(2)))),
+                    new long[DIGEST_WORDS]);
+        }
+
+        private Digest(int seed, int partitions, int partition, int hashFunctions, long[] bits) {
+            this.seed = seed;
+            this.partitions = partitions;
+            this.partition = partition;
+            this.hashFunctions = hashFunctions;
+            this.bits = bits;
+        }
+
+        /**
+         * Returns the number of partitions needed for the given number of identifiers.
+         *
+         * @param identifiers the number of live identifiers
+         * @return the number of partitions, at least 1
+         */
+        static int partitionsFor(int identifiers) {
+            return Math.max(1, (identifiers + ENTRIES_PER_DIGEST - 1) / ENTRIES_PER_DIGEST);
+        }
+
+        /**
+         * Returns the partition of an identifier in a round.
+         *
+         * @param identifier the identifier
+         * @param seed       the seed of the round
+         * @param partitions the number of partitions of the round
+         * @return the partition
+         */
+        static int partitionOf(String identifier, int seed, int partitions) {
+            return (int) ((hash(identifier, seed) >>> 32) % partitions);
+        }
+
+        int seed() {
+            return seed;
+        }
+
+        int partitions() {
+            return partitions;
+        }
+
+        int partition() {
+            return partition;
+        }
+
+        /**
+         * Adds an identifier.
+         *
+         * @param identifier the identifier
+         */
+        void add(String identifier) {
+            long h1 = hash(identifier, seed);
+            long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L) | 1;
+            long bitCount = (long) bits.length * 64;
+            for (int i = 0; i < hashFunctions; i++) {
+                long index = (h1 & Long.MAX_VALUE) % bitCount;
+                bits[(int) (index >>> 6)] |= 1L << index;
+                h1 += h2;
+            }
+        }
+
+        /**
+         * Checks whether an identifier might have been added.
+         *
+         * @param identifier the identifier
+         * @return {@code false} if the identifier was definitely not added
+         */
+        boolean mightContain(String identifier) {
+            long h1 = hash(identifier, seed);
+            long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L) | 1;
+            long bitCount = (long) bits.length * 64;
+            for (int i = 0; i < hashFunctions; i++) {
+                long index = (h1 & Long.MAX_VALUE) % bitCount;
+                if ((bits[(int) (index >>> 6)] & 1L << index) == 0) {
+                    return false;
+                }
+                h1 += h2;
+            }
+            return true;
+        }
+
+        private static long hash(String identifier, int seed) {
+            long hash = 0xCBF29CE484222325L ^ mix(seed);
+            for (int i = 0; i < identifier.length(); i++) {
+                hash ^= identifier.charAt(i);
+                hash *= 0x100000001B3L;
+            }
+            return mix(hash);
+        }
+
+        private static long mix(long h) {
+            h ^= h >>> 33;
+            h *= 0xFF51AFD7ED558CCDL;
+            h ^= h >>> 33;
+            h *= 0xC4CEB9FE1A85EC53L;
+            h ^= h >>> 33;
+            return h;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package org.owasp.oag.services.blacklist;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Settings for a {@link ReplicatedSessionBlacklist}: where it listens, which peers it replicates
+ * to and the shared secret authenticating the datagrams.
+ */
+public class ReplicationSettings {
+
+    /** Default delay between two pushes of pending invalidations. */
+    public static final Duration DEFAULT_FLUSH_INTERVAL = Duration.ofMillis(20);
+
+    /** Default delay between two anti-entropy rounds. */
+    public static final Duration DEFAULT_ANTI_ENTROPY_INTERVAL = Duration.ofSeconds(30);
+
+    /** Smallest accepted secret length in bytes. */
+    static final int MIN_SECRET_BYTES = 16;
+
+    private InetSocketAddress bindAddress;
+    private List<InetSocketAddress> peers = List.of();
+    private byte[] secret;
+    private Duration flushInterval = DEFAULT_FLUSH_INTERVAL;
+    private Duration antiEntropyInterval = DEFAULT_ANTI_ENTROPY_INTERVAL;
+
+    /**
+     * Creates settings with the default intervals and without an address, peers or secret.
+     */
+    public ReplicationSettings() {
+    }
+
+    /**
+     * Parses an address of the form {@code host:port}.
+     *
+     * @param address the address
+     * @return the unresolved socket address
+     */
+    public static InetSocketAddress parseAddress(String address) {
+        int colon = address.lastIndexOf(':');
+        if (colon <= 0 || colon == address.length() - 1) {
+            throw new IllegalArgumentException("Expected host:port but got " + address);
+        }
+        String host = address.substring(0, colon).trim();
+        if (host.startsWith("[") && host.endsWith("]")) {
+            host = host.substring(1, host.length() - 1);
+        }
+        return new InetSocketAddress(host, Integer.parseInt(address.substring(colon + 1).trim()));
+    }
+
+    /**
+     * Parses a comma separated list of {@code host:port} addresses, ignoring blank entries.
+     *
+     * @param addresses the addresses
+     * @return the socket addresses
+     */
+    public static List<InetSocketAddress> parseAddresses(String addresses) {
+        List<InetSocketAddress> parsed = new ArrayList<>();
+        for (String address : addresses.split(",")) {
+            if (!address.isBlank()) {
+                parsed.add(parseAddress(address.trim()));
+            }
+        }
+        return parsed;
+    }
+
+    /**
+     * Gets the address the blacklist receives replication datagrams on.
+     *
+     * @return the bind address
+     */
+    public InetSocketAddress getBindAddress() {
+        return bindAddress;
+    }
+
+    /**
+     * Sets the address the blacklist receives replication datagrams on. Datagrams to the peers are
+     * sent from it as well.
+     *
+     * @param bindAddress the bind address, must not be {@code null}
+     */
+    public void setBindAddress(InetSocketAddress bindAddress) {
+        this.bindAddress = Objects.requireNonNull(bindAddress, "bindAddress must not be null");
+    }
+
+    /**
+     * Gets the addresses of the other instances.
+     *
+     * @return the peers
+     */
+    public List<InetSocketAddress> getPeers() {
+        return peers;
+    }
+
+    /**
+     * Sets the addresses of the other instances. Every instance has to list every other one, with
+     * the address its datagrams come from, i.e. the bind address of the other instance.
+     *
+     * @param peers the peers, must not be {@code null}
+     */
+    public void setPeers(List<InetSocketAddress> peers) {
+        this.peers = List.copyOf(peers);
+    }
+
+    /**
+     * Gets the shared secret.
+     *
+     * @return the secret
+     */
+    public byte[] getSecret() {
+        return secret;
+    }
+
+    /**
+     * Sets the secret shared by all instances. Every datagram carries a MAC computed with it, so
+     * nobody else can inject invalidations.
+     *
+     * @param secret the secret, at least {@value #MIN_SECRET_BYTES} bytes
+     */
+    public void setSecret(byte[] secret) {
+        if (secret == null || secret.length < MIN_SECRET_BYTES) {
+            throw new IllegalArgumentException("The replication secret must have at least " + MIN_SECRET_BYTES + " bytes");
+        }
+        this.secret = secret.clone();
+    }
+
+    /**
+     * Sets the shared secret from its UTF-8 encoding.
+     *
+     * @param secret the secret, at least {@value #MIN_SECRET_BYTES} bytes
+     */
+    public void setSecret(String secret) {
+        setSecret(secret == null ? null : secret.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Gets the delay between two pushes of pending invalidations.
+     *
+     * @return the flush interval
+     */
+    public Duration getFlushInterval() {
+        return flushInterval;
+    }
+
+    /**
+     * Sets the delay between two pushes of pending invalidations. Invalidations arriving within
+     * the interval are sent in the same datagrams.
+     *
+     * @param flushInterval the flush interval, must be positive
+     */
+    public void setFlushInterval(Duration flushInterval) {
+        if (flushInterval.isNegative() || flushInterval.isZero()) {
+            throw new IllegalArgumentException("flushInterval must be positive");
+        }
+        this.flushInterval = flushInterval;
+    }
+
+    /**
+     * Gets the delay between two anti-entropy rounds.
+     *
+     * @return the anti-entropy interval
+     */
+    public Duration getAntiEntropyInterval() {
+        return antiEntropyInterval;
+    }
+
+    /**
+     * Sets the delay between two anti-entropy rounds, in which the instances exchange digests of
+     * their blacklists to repair lost datagrams and catch up restarted peers.
+     *
+     * @param antiEntropyInterval the anti-entropy interval, must be positive
+     */
+    public void setAntiEntropyInterval(Duration antiEntropyInterval) {
+        if (antiEntropyInterval.isNegative() || antiEntropyInterval.isZero()) {
+            throw new IllegalArgumentException("antiEntropyInterval must be positive");
+        }
+        this.antiEntropyInterval = antiEntropyInterval;
+    }
+}
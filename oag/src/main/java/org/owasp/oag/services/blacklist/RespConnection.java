@@ -0,0 +1,251 @@
+package org.owasp.oag.services.blacklist;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A pipelined connection to a key-value store speaking RESP, the protocol of Redis and its
+ * forks. Commands are written as soon as they are sent and their replies are matched in order by
+ * a reader thread, so any number of commands can be in flight on the single socket.
+ * <p>
+ * Replies are decoded to {@code String} (simple and bulk strings, {@code null} for a nil bulk
+ * string), {@code Long} (integers) and {@code List<Object>} (arrays). An error reply completes
+ * the command exceptionally with an {@link IllegalStateException}.
+ * <p>
+ * If the connection breaks, all commands in flight fail with an {@link UncheckedIOException} and
+ * the next command reconnects.
+ */
+final class RespConnection implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(RespConnection.class);
+
+    private final InetSocketAddress address;
+    private final String password;
+    private final Duration timeout;
+
+    /** Guards the socket, the output stream and the order of {@link #inFlight}. */
+    private final Object lock = new Object();
+
+    /** Replies not received yet, in the order of their commands. */
+    private final ArrayDeque<CompletableFuture<Object>> inFlight = new ArrayDeque<>();
+
+    private Socket socket;
+    private OutputStream out;
+    private boolean closed;
+
+    /**
+     * Creates a connection, which connects with the first command.
+     *
+     * @param address  the address of the store
+     * @param password the password sent with {@code AUTH} after connecting, or {@code null}
+     * @param timeout  the connect timeout and the time after which a command fails without reply
+     */
+    RespConnection(InetSocketAddress address, String password, Duration timeout) {
+        this.address = address;
+        this.password = password;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Sends a command.
+     *
+     * @param command the command and its arguments
+     * @return the reply
+     */
+    CompletableFuture<Object> send(List<String> command) {
+        var reply = new CompletableFuture<Object>();
+        synchronized (lock) {
+            try {
+                if (socket == null) {
+                    connect();
+                }
+                write(out, command);
+                out.flush();
+                inFlight.add(reply);
+            } catch (IOException e) {
+                reply.completeExceptionally(new UncheckedIOException("Cannot send command to " + address, e));
+                disconnect(socket, e);
+            }
+        }
+        return reply.orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void connect() throws IOException {
+        if (closed) {
+            throw new IOException("Connection is closed");
+        }
+        var connecting = new Socket();
+        try {
+            connecting.setTcpNoDelay(true);
+            connecting.connect(address, (int) timeout.toMillis());
+            var output = new BufferedOutputStream(connecting.getOutputStream());
+            if (password != null) {
+                write(output, List.of("AUTH", password));
+                output.flush();
+                var input = new BufferedInputStream(connecting.getInputStream());
+                connecting.setSoTimeout((int) timeout.toMillis());
+                if (read(input) instanceof IllegalStateException error) {
+                    throw new IOException("Authentication failed: " + error.getMessage());
+                }
+                connecting.setSoTimeout(0);
+                startReader(connecting, input);
+            } else {
+                startReader(connecting, new BufferedInputStream(connecting.getInputStream()));
+            }
+            socket = connecting;
+            out = output;
+            log.debug("Connected to key-value store {}", address);
+        } catch (IOException e) {
+            connecting.close();
+            throw e;
+        }
+    }
+
+    private void startReader(Socket connected, InputStream input) {
+        var reader = new Thread(() -> readReplies(connected, input), "resp-reader-" + address);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    private void readReplies(Socket connected, InputStream input) {
+        try {
+            while (true) {
+                Object reply = read(input);
+                CompletableFuture<Object> command;
+                synchronized (lock) {
+                    command = inFlight.poll();
+                }
+                if (command == null) {
+                    throw new IOException("Unexpected reply");
+                }
+                if (reply instanceof IllegalStateException error) {
+                    command.completeExceptionally(error);
+                } else {
+                    command.complete(reply);
+                }
+            }
+        } catch (IOException e) {
+            synchronized (lock) {
+                disconnect(connected, e);
+            }
+        }
+    }
+
+    /**
+     * Closes the socket if it is still the current one and fails the commands in flight. Must hold {@link #lock}.
+     */
+    private void disconnect(Socket broken, IOException cause) {
+        if (broken == null || broken != socket) {
+            return;
+        }
+        if (!closed) {
+            log.warn("Lost connection to key-value store {}: {}", address, cause.getMessage());
+        }
+        try {
+            broken.close();
+        } catch (IOException e) {
+            log.debug("Could not close connection to {}", address, e);
+        }
+        socket = null;
+        out = null;
+        var failure = new UncheckedIOException("Lost connection to " + address, cause);
+        for (var command = inFlight.poll(); command != null; command = inFlight.poll()) {
+            command.completeExceptionally(failure);
+        }
+    }
+
+    /**
+     * Closes the connection, failing the commands in flight.
+     */
+    @Override
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            disconnect(socket, new IOException("Connection closed"));
+        }
+    }
+
+    /**
+     * Writes a command as an array of bulk strings.
+     */
+    static void write(OutputStream out, List<String> command) throws IOException {
+        out.write(('*' + Integer.toString(command.size()) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        for (String argument : command) {
+            byte[] bytes = argument.getBytes(StandardCharsets.UTF_8);
+            out.write(('$' + Integer.toString(bytes.length) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.write(bytes);
+            out.write('\r');
+            out.write('\n');
+        }
+    }
+
+    /**
+     * Reads a value. An error reply is returned, not thrown, as an {@link IllegalStateException}.
+     */
+    static Object read(InputStream in) throws IOException {
+        int type = in.read();
+        String line = readLine(in);
+        return switch (type) {
+            case '+' -> line;
+            case '-' -> new IllegalStateException(line);
+            case ':' -> Long.parseLong(line);
+            case '$' -> {
+                int length = Integer.parseInt(line);
+                if (length < 0) {
+                    yield null;
+                }
+                byte[] bytes = in.readNBytes(length);
+                if (bytes.length < length || in.read() != '\r' || in.read() != '\n') {
+                    throw new EOFException();
+                }
+                yield new String(bytes, StandardCharsets.UTF_8);
+            }
+            case '*' -> {
+                int count = Integer.parseInt(line);
+                if (count < 0) {
+                    yield null;
+                }
+                List<Object> elements = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    elements.add(read(in));
+                }
+                yield elements;
+            }
+            case -1 -> throw new EOFException();
+            default -> throw new IOException("Unknown reply type " + type);
+        };
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        var line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\r') {
+            if (b == -1) {
+                throw new EOFException();
+            }
+            line.write(b);
+        }
+        if (in.read() != '\n') {
+            throw new IOException("Malformed reply");
+        }
+        return line.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,30 @@
+package org.owasp.oag.services.blacklist;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A session blacklist that can export its entries as a {@link BlacklistSnapshot} and import one,
+ * so a new gateway instance starts with the blacklist of a running one.
+ */
+public interface SnapshotCapableBlacklist {
+
+    /**
+     * Streams the live entries as a snapshot.
+     *
+     * @param out the stream to write the snapshot to, closed when done
+     * @return the number of exported entries
+     * @throws IOException if the stream cannot be written
+     */
+    long exportSnapshot(OutputStream out) throws IOException;
+
+    /**
+     * Adds the live entries of a snapshot to the blacklist. An entry that is already blacklisted for longer is kept.
+     *
+     * @param in the stream to read the snapshot from
+     * @return the number of entries in the snapshot
+     * @throws IOException if the stream cannot be read or is not a complete snapshot
+     */
+    long importSnapshot(InputStream in) throws IOException;
+}
@@ -0,0 +1,304 @@
+package org.owasp.oag.services.blacklist;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bloom filter for identifiers that expire, partitioned into slices by expiry time. An
+ * identifier is added to the slice covering its expiry; a lookup checks all slices. Once every
+ * identifier of a slice has expired the whole slice is dropped, so the false positive rate is
+ * determined by the identifiers that are still live and no rebuild is ever needed to get rid of
+ * the expired ones.
+ * <p>
+ * Each slice starts small and chains a filter of twice the capacity whenever the current one is
+ * full, with a tighter false positive rate so the sum over the chain stays below twice the rate
+ * of the first filter. The false positive budget is split evenly among the expected number of
+ * live slices.
+ * <p>
+ * The filter is thread safe. Additions and lookups do not lock, and the identifier is hashed
+ * once per call however many slices and filters are probed.
+ */
+public final class TimeSlicedBloomFilter implements IdentifierFilter {
+
+    /** Capacity of the first filter of a slice. */
+    static final int MIN_SLICE_CAPACITY = 16_384;
+
+    /** Factor applied to the false positive rate of each further filter in a slice. */
+    private static final double TIGHTENING_RATIO = 0.5;
+
+    private static final VarHandle BITS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    /** Width of a slice in seconds. */
+    private final int sliceSeconds;
+
+    /** False positive rate of the first filter of a slice. */
+    private final double sliceFpp;
+
+    /** Slices by number, i.e. expiry divided by {@link #sliceSeconds}. */
+    private final ConcurrentSkipListMap<Integer, Slice> slices = new ConcurrentSkipListMap<>();
+
+    /**
+     * Creates an empty filter.
+     *
+     * @param sliceSeconds   the width of a slice in seconds
+     * @param expectedSlices the expected number of live slices, usually the maximum time to live
+     *                       divided by the slice width, plus one
+     * @param fpp            the targeted false positive rate of the whole filter
+     */
+    public TimeSlicedBloomFilter(int sliceSeconds, int expectedSlices, double fpp) {
+        if (sliceSeconds <= 0 || expectedSlices <= 0 || fpp <= 0 || fpp >= 1) {
+            throw new IllegalArgumentException("Invalid bloom filter parameters");
+        }
+        this.sliceSeconds = sliceSeconds;
+        this.sliceFpp = fpp * (1 - TIGHTENING_RATIO) / expectedSlices;
+    }
+
+    /**
+     * Adds an identifier.
+     *
+     * @param identifier the identifier
+     * @param expiry     the expiry of the identifier in epoch seconds
+     */
+    @Override
+    public void put(String identifier, int expiry) {
+        long h1 = hash(identifier);
+        long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L) | 1;
+        slices.computeIfAbsent(Math.floorDiv(expiry, sliceSeconds), s -> new Slice()).put(h1, h2);
+    }
+
+    /**
+     * Checks whether an identifier might have been added.
+     *
+     * @param identifier the identifier
+     * @return {@code false} if the identifier was definitely not added or has expired with its
+     *         slice, {@code true} if it might have been added
+     */
+    @Override
+    public boolean mightContain(String identifier) {
+        long h1 = hash(identifier);
+        long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L) | 1;
+        for (Slice slice : slices.values()) {
+            if (slice.mightContain(h1, h2)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A bloom filter cannot remove identifiers, they are dropped with their slice.
+     *
+     * @return {@code false}
+     */
+    @Override
+    public boolean supportsRemoval() {
+        return false;
+    }
+
+    /**
+     * Does nothing, see {@link #supportsRemoval()}.
+     *
+     * @param identifier the identifier
+     * @return {@code false}
+     */
+    @Override
+    public boolean remove(String identifier) {
+        return false;
+    }
+
+    /**
+     * The filter grows by chaining larger filters and never needs a rebuild.
+     *
+     * @return {@code false}
+     */
+    @Override
+    public boolean needsRebuild() {
+        return false;
+    }
+
+    /**
+     * Drops the slices in which every identifier has expired.
+     *
+     * @param now the current time in epoch seconds
+     * @return the number of dropped slices
+     */
+    @Override
+    public int expire(int now) {
+        var expired = slices.headMap(Math.floorDiv(now, sliceSeconds));
+        int dropped = expired.size();
+        expired.clear();
+        return dropped;
+    }
+
+    /**
+     * Estimates the current false positive rate of {@link #mightContain} from the number of
+     * identifiers in each filter.
+     *
+     * @return the estimated false positive rate
+     */
+    @Override
+    public double estimatedFpp() {
+        double none = 1;
+        for (Slice slice : slices.values()) {
+            for (Filter filter : slice.chain) {
+                none *= 1 - filter.expectedFpp();
+            }
+        }
+        return 1 - none;
+    }
+
+    @Override
+    public long approximateCount() {
+        long count = 0;
+        for (Slice slice : slices.values()) {
+            for (Filter filter : slice.chain) {
+                count += filter.insertions.get();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of live slices.
+     *
+     * @return the slice count
+     */
+    @Override
+    public int sliceCount() {
+        return slices.size();
+    }
+
+    /**
+     * Returns the number of bytes used by the bit arrays.
+     *
+     * @return the size of all filters in bytes
+     */
+    @Override
+    public long sizeBytes() {
+        long bytes = 0;
+        for (Slice slice : slices.values()) {
+            for (Filter filter : slice.chain) {
+                bytes += (long) filter.bits.length * Long.BYTES;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Hashes an identifier with FNV-1a and spreads the result with {@link #mix}.
+     */
+    static long hash(String identifier) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < identifier.length(); i++) {
+            hash ^= identifier.charAt(i);
+            hash *= 0x100000001B3L;
+        }
+        return mix(hash);
+    }
+
+    /**
+     * The finalizer of MurmurHash3, spreads every input bit over the whole result.
+     */
+    static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * The identifiers expiring within one slice: a chain of filters, each twice as large as the
+     * previous one.
+     */
+    private final class Slice {
+
+        private volatile Filter[] chain = {new Filter(MIN_SLICE_CAPACITY, sliceFpp)};
+
+        void put(long h1, long h2) {
+            Filter[] current = chain;
+            Filter last = current[current.length - 1];
+            if (last.isFull()) {
+                last = grow(current);
+            }
+            last.put(h1, h2);
+        }
+
+        private synchronized Filter grow(Filter[] seen) {
+            Filter[] current = chain;
+            if (current == seen) {
+                Filter last = current[current.length - 1];
+                Filter[] next = new Filter[current.length + 1];
+                System.arraycopy(current, 0, next, 0, current.length);
+                next[current.length] = new Filter(last.capacity * 2, last.fpp * TIGHTENING_RATIO);
+                chain = next;
+                current = next;
+            }
+            return current[current.length - 1];
+        }
+
+        boolean mightContain(long h1, long h2) {
+            for (Filter filter : chain) {
+                if (filter.mightContain(h1, h2)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * A plain bloom filter on a bit array, using double hashing to derive its hash functions.
+     */
+    private static final class Filter {
+
+        private final long[] bits;
+        private final long bitCount;
+        private final int hashFunctions;
+        private final int capacity;
+        private final double fpp;
+        private final AtomicInteger insertions = new AtomicInteger();
+
+        Filter(int capacity, double fpp) {
+            this.capacity = capacity;
+            this.fpp = fpp;
+            long optimalBits = (long) Math.ceil(-capacity * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+            this.bits = new long[(int) Math.max(1, (optimalBits + 63) / 64)];
+            this.bitCount = (long) bits.length * 64;
+            this.hashFunctions = Math.max(1, (int) Math.round((double) bitCount / capacity * Math.log(2)));
+        }
+
+        boolean isFull() {
+            return insertions.get() >= capacity;
+        }
+
+        void put(long h1, long h2) {
+            long combined = h1;
+            for (int i = 0; i < hashFunctions; i++) {
+                long index = (combined & Long.MAX_VALUE) % bitCount;
+                BITS.getAndBitwiseOrRelease(bits, (int) (index >>> 6), 1L << index);
+                combined += h2;
+            }
+            insertions.incrementAndGet();
+        }
+
+        boolean mightContain(long h1, long h2) {
+            long combined = h1;
+            for (int i = 0; i < hashFunctions; i++) {
+                long index = (combined & Long.MAX_VALUE) % bitCount;
+                if (((long) BITS.getAcquire(bits, (int) (index >>> 6)) & 1L << index) == 0) {
+                    return false;
+                }
+                combined += h2;
+            }
+            return true;
+        }
+
+        double expectedFpp() {
+            return Math.pow(1 - Math.exp(-hashFunctions * (double) insertions.get() / bitCount), hashFunctions);
+        }
+    }
+}
@@ -2,6 +2,8 @@ package org.owasp.oag.services.crypto;
 
 import org.owasp.oag.exception.CookieDecryptionException;
 
+import java.util.Base64;
+
 /**
  * Interface for encrypting and decrypting cookies.
  */
@@ -24,4 +26,33 @@ public interface CookieEncryptor {
      * @throws CookieDecryptionException if the cookie cannot be decrypted.
      */
     <T> T decryptObject(String jwe, Class<T> clazz) throws CookieDecryptionException;
+
+    /**
+     * Encrypts binary data, e.g. an object serialized in another format than JSON. By default the bytes are
+     * encrypted as a Base64 string with {@link #encryptObject(Object)}, implementations should override this
+     * to encrypt them directly.
+     *
+     * @param plaintext The bytes to encrypt.
+     * @return The encrypted bytes as a string.
+     */
+    default String encryptBytes(byte[] plaintext) {
+        return encryptObject(Base64.getEncoder().encodeToString(plaintext));
+    }
+
+    /**
+     * Decrypts a JWE string to the bytes it was created from. The default reverses the default of
+     * {@link #encryptBytes(byte[])}, so both have to be overridden together.
+     *
+     * @param jwe The JWE string to decrypt.
+     * @return The decrypted bytes.
+     * @throws CookieDecryptionException if the cookie cannot be decrypted.
+     */
+    default byte[] decryptBytes(String jwe) throws CookieDecryptionException {
+        String encoded = decryptObject(jwe, String.class);
+        try {
+            return Base64.getDecoder().decode(encoded);
+        } catch (IllegalArgumentException e) {
+            throw new CookieDecryptionException("JWE does not contain binary data", e);
+        }
+    }
 }
@@ -0,0 +1,304 @@
+package org.owasp.oag.services.crypto;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.owasp.oag.exception.ConfigurationException;
+import org.owasp.oag.exception.ConsistencyException;
+import org.owasp.oag.exception.CookieDecryptionException;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * A {@link CookieEncryptor} for compact JWEs with direct encryption ({@code dir}) and
+ * AES-256-GCM ({@code A256GCM}), the only kind of JWE the gateway writes.
+ * <p>
+ * It produces and accepts the same tokens as {@link JweEncrypter}, without its overhead on every
+ * request: the JSON readers and writers are created once per cookie class, each thread reuses its
+ * {@link Cipher}, and the Base64URL parts are encoded into and decoded from one byte array each
+ * instead of going through intermediate strings. A token with another protected header than the
+ * one written here, e.g. with additional parameters, is handed to {@link JweEncrypter}, so every
+ * token it accepts is still accepted.
+ */
+public class DirectJweCookieEncryptor implements CookieEncryptor {
+
+    /** The Base64URL encoded protected header {@code {"alg":"dir","enc":"A256GCM"}}, as written by nimbus. */
+    static final String HEADER = "eyJhbGciOiJkaXIiLCJlbmMiOiJBMjU2R0NNIn0";
+
+    private static final byte[] HEADER_BYTES = HEADER.getBytes(StandardCharsets.US_ASCII);
+    private static final int KEY_LENGTH = 32;
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_LENGTH = 16;
+
+    private static final byte[] BASE64URL = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_"
+            .getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BASE64URL_VALUES = new byte[128];
+
+    static {
+        Arrays.fill(BASE64URL_VALUES, (byte) -1);
+        for (int i = 0; i < BASE64URL.length; i++) {
+            BASE64URL_VALUES[BASE64URL[i]] = (byte) i;
+        }
+    }
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private static final ClassValue<ObjectReader> READERS = new ClassValue<>() {
+        @Override
+        protected ObjectReader computeValue(Class<?> type) {
+            return OBJECT_MAPPER.readerFor(type);
+        }
+    };
+
+    private static final ClassValue<ObjectWriter> WRITERS = new ClassValue<>() {
+        @Override
+        protected ObjectWriter computeValue(Class<?> type) {
+            return OBJECT_MAPPER.writerFor(type);
+        }
+    };
+
+    /** A cipher per thread; a cipher is re-initialised for every token and cannot be shared. */
+    private static final ThreadLocal<Cipher> CIPHERS = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance("AES/GCM/NoPadding");
+        } catch (GeneralSecurityException e) {
+            throw new ConsistencyException("AES-GCM is not available", e);
+        }
+    });
+
+    private final SecretKey secretKey;
+    private final SecureRandom random = new SecureRandom();
+
+    /** Decrypts the tokens with a protected header other than {@link #HEADER}. */
+    private final JweEncrypter fallback;
+
+    /**
+     * Creates an encryptor with the given key.
+     *
+     * @param keyBytes the bytes of the AES key, 256 bits
+     * @throws ConfigurationException if the key is not 256 bits long
+     */
+    public DirectJweCookieEncryptor(byte[] keyBytes) {
+        if (keyBytes.length != KEY_LENGTH) {
+            throw new ConfigurationException("JWE encryption key must be 256 bits long", null);
+        }
+        this.secretKey = new SecretKeySpec(keyBytes, "AES");
+        this.fallback = new JweEncrypter(keyBytes);
+    }
+
+    /**
+     * Creates an encryptor with the in-memory key of {@link JweEncrypter#loadInMemoryInstance()}.
+     * This should only be used for development or testing purposes.
+     *
+     * @return A new DirectJweCookieEncryptor instance
+     */
+    public static DirectJweCookieEncryptor loadInMemoryInstance() {
+        return new DirectJweCookieEncryptor(JweEncrypter.inMemoryKeyBytes());
+    }
+
+    /**
+     * Creates an encryptor using a key stored in an environment variable.
+     *
+     * @param variableName The name of the environment variable containing the Base64-encoded key
+     * @return A new DirectJweCookieEncryptor instance
+     * @throws ConfigurationException If the environment variable is not defined or the key is not 256 bits long
+     */
+    public static DirectJweCookieEncryptor loadFromEnvironmentVariable(String variableName) {
+        return new DirectJweCookieEncryptor(JweEncrypter.keyBytesFromEnvironmentVariable(variableName));
+    }
+
+    /**
+     * Serializes an object to JSON and encrypts it.
+     *
+     * @param payload The object to encrypt
+     * @return The encrypted object as a compact JWE
+     * @throws ConsistencyException If the object cannot be serialized to JSON
+     * @throws ConfigurationException If the encryption fails
+     */
+    @Override
+    public String encryptObject(Object payload) {
+        byte[] plaintext;
+        try {
+            plaintext = WRITERS.get(payload.getClass()).writeValueAsBytes(payload);
+        } catch (IOException e) {
+            throw new ConsistencyException("Could not encode Json", e);
+        }
+        return encryptBytes(plaintext);
+    }
+
+    /**
+     * Encrypts binary data.
+     *
+     * @param plaintext The bytes to encrypt
+     * @return The encrypted bytes as a compact JWE
+     * @throws ConfigurationException If the encryption fails
+     */
+    @Override
+    public String encryptBytes(byte[] plaintext) {
+        byte[] iv = new byte[IV_LENGTH];
+        random.nextBytes(iv);
+        byte[] sealed;
+        try {
+            Cipher cipher = CIPHERS.get();
+            cipher.init(Cipher.ENCRYPT_MODE, secretKey, new GCMParameterSpec(TAG_LENGTH * 8, iv));
+            cipher.updateAAD(HEADER_BYTES);
+            sealed = cipher.doFinal(plaintext);
+        } catch (GeneralSecurityException e) {
+            throw new ConfigurationException("JWE could not be encrypted", e);
+        }
+
+        // header..iv.ciphertext.tag, the encrypted key is empty with direct encryption
+        int ciphertextLength = sealed.length - TAG_LENGTH;
+        byte[] token = new byte[HEADER_BYTES.length + 2 + encodedLength(IV_LENGTH) + 1
+                + encodedLength(ciphertextLength) + 1 + encodedLength(TAG_LENGTH)];
+        System.arraycopy(HEADER_BYTES, 0, token, 0, HEADER_BYTES.length);
+        int position = HEADER_BYTES.length;
+        token[position++] = '.';
+        token[position++] = '.';
+        position = encode(iv, 0, IV_LENGTH, token, position);
+        token[position++] = '.';
+        position = encode(sealed, 0, ciphertextLength, token, position);
+        token[position++] = '.';
+        encode(sealed, ciphertextLength, TAG_LENGTH, token, position);
+        return new String(token, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Decrypts a compact JWE and deserializes its content.
+     *
+     * @param <T> The type of object to deserialize to
+     * @param jwe The JWE string to decrypt
+     * @param clazz The class of the object to deserialize to
+     * @return The decrypted and deserialized object
+     * @throws CookieDecryptionException If decryption or deserialization fails
+     */
+    @Override
+    public <T> T decryptObject(String jwe, Class<T> clazz) throws CookieDecryptionException {
+        byte[] plaintext = decryptBytes(jwe);
+        try {
+            return READERS.get(clazz).readValue(plaintext);
+        } catch (IOException e) {
+            throw new CookieDecryptionException("JWE could not be deserialized", e);
+        }
+    }
+
+    /**
+     * Decrypts a compact JWE to the bytes it was created from.
+     *
+     * @param jwe The JWE string to decrypt
+     * @return The decrypted bytes
+     * @throws CookieDecryptionException If decryption fails
+     */
+    @Override
+    public byte[] decryptBytes(String jwe) throws CookieDecryptionException {
+        int keyStart = jwe.indexOf('.') + 1;
+        if (keyStart != HEADER.length() + 1 || !jwe.startsWith(HEADER)) {
+            return fallback.decryptBytes(jwe);
+        }
+        int ivStart = jwe.indexOf('.', keyStart) + 1;
+        int ciphertextStart = ivStart == 0 ? 0 : jwe.indexOf('.', ivStart) + 1;
+        int tagStart = ciphertextStart == 0 ? 0 : jwe.indexOf('.', ciphertextStart) + 1;
+        if (tagStart == 0 || jwe.indexOf('.', tagStart) >= 0) {
+            throw new CookieDecryptionException("JWE could not be decrypted: not a compact JWE");
+        }
+        if (ivStart != keyStart + 1) {
+            throw new CookieDecryptionException("JWE could not be decrypted: unexpected encrypted key");
+        }
+
+        int ciphertextLength = decodedLength(jwe, ciphertextStart, tagStart - 1);
+        if (decodedLength(jwe, ivStart, ciphertextStart - 1) != IV_LENGTH
+                || decodedLength(jwe, tagStart, jwe.length()) != TAG_LENGTH) {
+            throw new CookieDecryptionException("JWE could not be decrypted: unexpected IV or tag length");
+        }
+        byte[] iv = new byte[IV_LENGTH];
+        decode(jwe, ivStart, ciphertextStart - 1, iv, 0);
+        byte[] sealed = new byte[ciphertextLength + TAG_LENGTH];
+        decode(jwe, ciphertextStart, tagStart - 1, sealed, 0);
+        decode(jwe, tagStart, jwe.length(), sealed, ciphertextLength);
+
+        try {
+            Cipher cipher = CIPHERS.get();
+            cipher.init(Cipher.DECRYPT_MODE, secretKey, new GCMParameterSpec(TAG_LENGTH * 8, iv));
+            cipher.updateAAD(HEADER_BYTES);
+            return cipher.doFinal(sealed);
+        } catch (GeneralSecurityException e) {
+            throw new CookieDecryptionException("JWE could not be decrypted", e);
+        }
+    }
+
+    private static int encodedLength(int length) {
+        return length / 3 * 4 + (length % 3 == 0 ? 0 : length % 3 + 1);
+    }
+
+    /**
+     * Encodes bytes as unpadded Base64URL into {@code target}.
+     *
+     * @return the position after the encoded bytes
+     */
+    private static int encode(byte[] source, int offset, int length, byte[] target, int position) {
+        int end = offset + length;
+        int i = offset;
+        for (; i + 2 < end; i += 3) {
+            int bits = (source[i] & 0xff) << 16 | (source[i + 1] & 0xff) << 8 | source[i + 2] & 0xff;
+            target[position++] = BASE64URL[bits >>> 18];
+            target[position++] = BASE64URL[bits >>> 12 & 0x3f];
+            target[position++] = BASE64URL[bits >>> 6 & 0x3f];
+            target[position++] = BASE64URL[bits & 0x3f];
+        }
+        if (i < end) {
+            int bits = (source[i] & 0xff) << 16 | (i + 1 < end ? (source[i + 1] & 0xff) << 8 : 0);
+            target[position++] = BASE64URL[bits >>> 18];
+            target[position++] = BASE64URL[bits >>> 12 & 0x3f];
+            if (i + 1 < end) {
+                target[position++] = BASE64URL[bits >>> 6 & 0x3f];
+            }
+        }
+        return position;
+    }
+
+    private static int decodedLength(String source, int start, int end) throws CookieDecryptionException {
+        int length = end - start;
+        if (length % 4 == 1) {
+            throw new CookieDecryptionException("JWE could not be decrypted: invalid Base64URL");
+        }
+        return length / 4 * 3 + (length % 4 == 0 ? 0 : length % 4 - 1);
+    }
+
+    /**
+     * Decodes the unpadded Base64URL characters {@code source[start, end)} into {@code target}.
+     */
+    private static void decode(String source, int start, int end, byte[] target, int position)
+            throws CookieDecryptionException {
+        int bits = 0;
+        int count = 0;
+        for (int i = start; i < end; i++) {
+            char c = source.charAt(i);
+            int value = c < 128 ? BASE64URL_VALUES[c] : -1;
+            if (value < 0) {
+                throw new CookieDecryptionException("JWE could not be decrypted: invalid Base64URL");
+            }
+            bits = bits << 6 | value;
+            if (++count == 4) {
+                target[position++] = (byte) (bits >>> 16);
+                target[position++] = (byte) (bits >>> 8);
+                target[position++] = (byte) bits;
+                bits = 0;
+                count = 0;
+            }
+        }
+        if (count == 3) {
+            target[position++] = (byte) (bits >>> 10);
+            target[position] = (byte) (bits >>> 2);
+        } else if (count == 2) {
+            target[position] = (byte) (bits >>> 4);
+        }
+    }
+}
@@ -52,7 +52,7 @@ public class JweEncrypter implements CookieEncryptor {
      * 
      * @param keyBytes The bytes for the AES secret key
      */
-    private JweEncrypter(byte[] keyBytes) {
+    JweEncrypter(byte[] keyBytes) {
         this.secretKey = new SecretKeySpec(keyBytes, 0, keyBytes.length, "AES");
     }
 
@@ -65,13 +65,22 @@ public class JweEncrypter implements CookieEncryptor {
      */
     public synchronized static JweEncrypter loadInMemoryInstance() throws IOException {
             try {
-                byte[] keyBytes = currentSecretKey.getEncoded();
+                byte[] keyBytes = inMemoryKeyBytes();
                 return new JweEncrypter(keyBytes);
             } catch (Exception e) {
                 throw new ConsistencyException("Failed to create JweEncryptor due to bad AESKey.", e);
             }
     }
 
+    /**
+     * Returns the in-memory key shared by all in-memory instances.
+     *
+     * @return The bytes of the AES key
+     */
+    static byte[] inMemoryKeyBytes() {
+        return currentSecretKey.getEncoded();
+    }
+
     /**
      * Creates a JweEncrypter instance using a key stored in an environment variable.
      * 
@@ -81,14 +90,25 @@ public class JweEncrypter implements CookieEncryptor {
      */
     public static JweEncrypter loadFromEnvironmentVariable(String variableName) {
 
+        return new JweEncrypter(keyBytesFromEnvironmentVariable(variableName));
+    }
+
+    /**
+     * Reads a Base64-encoded key from an environment variable.
+     *
+     * @param variableName The name of the environment variable containing the Base64-encoded key
+     * @return The bytes of the AES key
+     * @throws ConfigurationException If the environment variable is not defined
+     */
+    static byte[] keyBytesFromEnvironmentVariable(String variableName) {
+
         String key = System.getenv(variableName);
 
         if (key == null)
             throw new ConfigurationException("JWE encryption key is not defined", null);
 
         // decode the base64 encoded string
-        byte[] decodedKey = Base64.getDecoder().decode(key);
-        return new JweEncrypter(decodedKey);
+        return Base64.getDecoder().decode(key);
     }
 
     /**
@@ -121,7 +141,7 @@ public class JweEncrypter implements CookieEncryptor {
         try {
             ObjectMapper objectMapper = new ObjectMapper();
             String payloadString = objectMapper.writeValueAsString(payload);
-            return encrypt(payloadString);
+            return encrypt(new Payload(payloadString));
 
         } catch (JsonProcessingException e) {
             throw new ConsistencyException("Could not encode Json", e);
@@ -129,19 +149,30 @@ public class JweEncrypter implements CookieEncryptor {
     }
 
     /**
-     * Encrypts a string payload using JWE with AES-256-GCM.
+     * Encrypts binary data using JWE with AES-256-GCM.
+     *
+     * @param plaintext The bytes to encrypt
+     * @return The encrypted bytes as a JWE string
+     * @throws ConfigurationException If the encryption fails
+     */
+    @Override
+    public String encryptBytes(byte[] plaintext) {
+        return encrypt(new Payload(plaintext));
+    }
+
+    /**
+     * Encrypts a payload using JWE with AES-256-GCM.
      * 
-     * @param payload The string to encrypt
+     * @param payload The payload to encrypt
      * @return The encrypted string as a JWE
      * @throws ConfigurationException If the encryption fails
      */
-    private String encrypt(String payload) {
+    private String encrypt(Payload payload) {
 
         try {
             // Create JWT
             JWEHeader header = new JWEHeader(JWEAlgorithm.DIR, EncryptionMethod.A256GCM);
-            Payload jwePayload = new Payload(payload);
-            JWEObject jweObject = new JWEObject(header, jwePayload);
+            JWEObject jweObject = new JWEObject(header, payload);
             jweObject.encrypt(new DirectEncrypter(secretKey));
 
             // Serialise to compact JOSE form
@@ -163,7 +194,7 @@ public class JweEncrypter implements CookieEncryptor {
      */
     @Override
     public <T> T decryptObject(String jwe, Class<T> clazz) throws CookieDecryptionException {
-        String payload = decrypt(jwe);
+        String payload = decrypt(jwe).toString();
 
         try {
             ObjectMapper objectMapper = new ObjectMapper();
@@ -173,14 +204,26 @@ public class JweEncrypter implements CookieEncryptor {
         }
     }
 
+    /**
+     * Decrypts a JWE string to its original binary plaintext.
+     *
+     * @param jwe The JWE string to decrypt
+     * @return The decrypted bytes
+     * @throws CookieDecryptionException If decryption fails
+     */
+    @Override
+    public byte[] decryptBytes(String jwe) throws CookieDecryptionException {
+        return decrypt(jwe).toBytes();
+    }
+
     /**
      * Decrypts a JWE string to its original plaintext.
      * 
      * @param jwe The JWE string to decrypt
-     * @return The decrypted plaintext
+     * @return The decrypted payload
      * @throws CookieDecryptionException If decryption fails
      */
-    private String decrypt(String jwe) throws CookieDecryptionException {
+    private Payload decrypt(String jwe) throws CookieDecryptionException {
         try {
             // Parse into JWE object again...
             JWEObject jweObject = JWEObject.parse(jwe);
@@ -189,8 +232,7 @@ public class JweEncrypter implements CookieEncryptor {
             jweObject.decrypt(new DirectDecrypter(secretKey));
 
             // Get the plain text
-            Payload payload = jweObject.getPayload();
-            return payload.toString();
+            return jweObject.getPayload();
         } catch (JOSEException | ParseException e) {
             throw new CookieDecryptionException("JWE could not be decrypted", e);
         }
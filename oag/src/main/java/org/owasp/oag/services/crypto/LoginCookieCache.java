@@ -0,0 +1,106 @@
+package org.owasp.oag.services.crypto;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import org.owasp.oag.cookies.LoginCookie;
+import org.owasp.oag.cookies.LoginCookieCodec;
+import org.owasp.oag.exception.CookieDecryptionException;
+import org.owasp.oag.infrastructure.GlobalClockSource;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches decrypted login cookies, so the JWE of a session cookie sent with every request of a
+ * browser is decrypted and deserialized once instead of on every request.
+ * <p>
+ * The cache is keyed by the raw cookie value: its string hash finds the entry and the full value
+ * is compared on a match, so a cookie with a colliding hash never yields another session. An
+ * entry expires with its session, and after {@code maxTtl} at the latest. Cookies that cannot be
+ * decrypted are not cached. The cache does not check the session blacklist, callers still have
+ * to on every request.
+ * <p>
+ * The returned {@link LoginCookie} instances are shared between requests and must not be
+ * modified.
+ */
+public class LoginCookieCache {
+
+    private final LoginCookieCodec loginCookieCodec;
+
+    /** The decrypted cookies by their raw value, or {@code null} if caching is off. */
+    private final Cache<String, LoginCookie> cache;
+
+    /**
+     * Creates a cache.
+     *
+     * @param loginCookieCodec decrypts the cookies missing in the cache
+     * @param clockSource      the clock the session expiry is compared with
+     * @param maxEntries       the maximum number of cached cookies; 0 turns caching off
+     * @param maxTtl           how long a cookie is cached at most
+     */
+    public LoginCookieCache(LoginCookieCodec loginCookieCodec, GlobalClockSource clockSource, long maxEntries,
+                            Duration maxTtl) {
+        if (maxEntries < 0) {
+            throw new IllegalArgumentException("maxEntries must not be negative");
+        }
+        this.loginCookieCodec = loginCookieCodec;
+        if (maxEntries == 0) {
+            this.cache = null;
+            return;
+        }
+
+        long maxTtlNanos = maxTtl.toNanos();
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfter(new Expiry<String, LoginCookie>() {
+                    @Override
+                    public long expireAfterCreate(String value, LoginCookie cookie, long currentTime) {
+                        long remaining = cookie.getSessionExpSeconds() - clockSource.getEpochSeconds();
+                        return Math.min(maxTtlNanos, TimeUnit.SECONDS.toNanos(Math.max(0, remaining)));
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String value, LoginCookie cookie, long currentTime, long currentDuration) {
+                        return expireAfterCreate(value, cookie, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String value, LoginCookie cookie, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Returns the decrypted login cookie, from the cache if it was decrypted before.
+     *
+     * @param value the raw cookie value
+     * @return the login cookie
+     * @throws CookieDecryptionException if the cookie cannot be decrypted
+     */
+    public LoginCookie decrypt(String value) throws CookieDecryptionException {
+        if (cache == null) {
+            return loginCookieCodec.decrypt(value);
+        }
+        LoginCookie cookie = cache.getIfPresent(value);
+        if (cookie == null) {
+            // Decrypted outside of the cache, so a slow decryption does not block other keys;
+            // concurrent first requests with the same cookie decrypt it more than once
+            cookie = loginCookieCodec.decrypt(value);
+            cache.put(value, cookie);
+        }
+        return cookie;
+    }
+
+    /**
+     * Returns the underlying cache, e.g. to register its statistics as meters.
+     *
+     * @return the cache, or {@code null} if caching is off
+     */
+    public Cache<String, LoginCookie> getCache() {
+        return cache;
+    }
+}
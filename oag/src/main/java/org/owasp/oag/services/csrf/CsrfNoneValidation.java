@@ -23,4 +23,14 @@ public class CsrfNoneValidation implements CsrfProtectionValidation {
 
         return false;
     }
+
+    @Override
+    public boolean needsSession() {
+        return false;
+    }
+
+    @Override
+    public boolean isNoop() {
+        return true;
+    }
 }
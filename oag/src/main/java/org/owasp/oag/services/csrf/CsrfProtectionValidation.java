@@ -24,4 +24,24 @@ public interface CsrfProtectionValidation {
      * @return true if the request should be blocked due to CSRF validation failure, false otherwise
      */
     boolean shouldBlockRequest(ServerWebExchange exchange, String requestBody);
+
+    /**
+     * Indicates whether this validation strategy compares the request with the user session. The session of a request
+     * is only resolved if a filter of its route needs it, so a strategy that never reads it should return false.
+     *
+     * @return true if the user session is needed for validation, false otherwise
+     */
+    default boolean needsSession() {
+        return true;
+    }
+
+    /**
+     * Indicates whether this validation strategy never blocks a request. The CSRF validation filters are left out of
+     * the routes of such a strategy, and their sessions are not resolved for it.
+     *
+     * @return true if no request is ever blocked, false otherwise
+     */
+    default boolean isNoop() {
+        return false;
+    }
 }
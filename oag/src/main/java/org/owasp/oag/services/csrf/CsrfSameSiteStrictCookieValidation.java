@@ -49,6 +49,9 @@ public class CsrfSameSiteStrictCookieValidation implements CsrfProtectionValidat
     @Autowired
     MainConfig mainConfig;
 
+    /** The last parsed target origin. */
+    private volatile ParsedUrl parsedTargetOrigin;
+
     @Override
     public boolean needsRequestBody() {
         return false;
@@ -107,6 +110,30 @@ public class CsrfSameSiteStrictCookieValidation implements CsrfProtectionValidat
         return csrfCookie.getCsrfToken();
     }
 
+    /**
+     * Parses the target origin. The result is kept for the next requests, as the target origin is the configured
+     * host URI.
+     *
+     * @param targetOriginUrlString Target origin (HostUri from settings)
+     * @return the parsed target origin
+     */
+    private URL parseTargetOrigin(String targetOriginUrlString) {
+
+        var parsed = parsedTargetOrigin;
+        if (parsed == null || !parsed.value().equals(targetOriginUrlString)) {
+            try {
+                parsed = new ParsedUrl(targetOriginUrlString, new URL(targetOriginUrlString));
+            } catch (MalformedURLException e) {
+                throw new IllegalArgumentException("targetOriginUrlString is not a valid url");
+            }
+            parsedTargetOrigin = parsed;
+        }
+        return parsed.url();
+    }
+
+    private record ParsedUrl(String value, URL url) {
+    }
+
     /**
      * Returns true if the request should be blocked because the origin header is different from the target origin.
      * Because the samesite-strict cookies are not supported by all browser we use this defense is depth measure.
@@ -125,12 +152,8 @@ public class CsrfSameSiteStrictCookieValidation implements CsrfProtectionValidat
         if (targetOriginUrlString.equals(originHeader))
             return false;
 
-        URL targetOriginUrl, originalOriginUrl;
-        try {
-            targetOriginUrl = new URL(targetOriginUrlString);
-        } catch (MalformedURLException e) {
-            throw new IllegalArgumentException("targetOriginUrlString is not a valid url");
-        }
+        URL targetOriginUrl = parseTargetOrigin(targetOriginUrlString);
+        URL originalOriginUrl;
 
         String origin = originHeader;
 
@@ -0,0 +1,235 @@
+package org.owasp.oag.services.session;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import org.owasp.oag.cookies.LoginCookie;
+import org.owasp.oag.cookies.LoginCookieCodec;
+import org.owasp.oag.exception.CookieDecryptionException;
+import org.owasp.oag.infrastructure.GlobalClockSource;
+import org.owasp.oag.persistentmap.PersistentMap;
+import org.owasp.oag.utils.ReactiveUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.TaskScheduler;
+import reactor.core.publisher.Mono;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the login cookies of the sessions on the server, with {@code oag.session-mode: SERVER}. The session cookie then
+ * carries an encrypted reference to its session instead of the whole user model.
+ * <p>
+ * The sessions are stored in a {@link PersistentMap} keyed by the session id. The map only holds them encrypted with
+ * the cookie key (see {@link LoginCookieCodec#encryptStored}) next to their expiry, so the tokens of a session are
+ * never kept in plain text at rest, just as in a session cookie. In front of the map a near-cache holds the
+ * recently used and created sessions, so most lookups are answered from memory without a lock. A session is stored in
+ * the near-cache before it is written to the map, so the requests following a login find it even if the write has not
+ * finished. A lookup that misses the near-cache reads the map on the calling thread if the map reads without blocking
+ * (see {@link PersistentMap#hasNonBlockingReads()}), otherwise on the bounded elastic scheduler.
+ * <p>
+ * Expired sessions are never returned. They drop out of the near-cache when they expire and are removed from the map
+ * by the sweep started with {@link #startSweeper}. Like the login cookie cache, the store does not check the session
+ * blacklist, callers still have to.
+ * <p>
+ * The map is local to the instance unless its implementation is shared, so with more than one gateway instance the
+ * requests of a session have to be routed to the instance that created it.
+ */
+public class SessionStore implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(SessionStore.class);
+
+    private final PersistentMap<StoredSession> sessions;
+
+    private final LoginCookieCodec codec;
+
+    private final GlobalClockSource clockSource;
+
+    /** The recently used sessions by their id. */
+    private final Cache<String, LoginCookie> nearCache;
+
+    /** Whether a near-cache miss reads the map on the calling thread. */
+    private final boolean inlineReads;
+
+    /** The periodic sweep started by {@link #startSweeper}, or {@code null}. */
+    private volatile ScheduledFuture<?> sweeper;
+
+    /**
+     * Creates a store.
+     *
+     * @param sessions      the map keeping the encrypted sessions
+     * @param codec         encrypts and decrypts the sessions kept in the map
+     * @param clockSource   the clock the session expiry is compared with
+     * @param nearCacheSize the maximum number of sessions kept in the near-cache
+     */
+    public SessionStore(PersistentMap<StoredSession> sessions, LoginCookieCodec codec, GlobalClockSource clockSource,
+                        long nearCacheSize) {
+
+        this.sessions = sessions;
+        this.codec = codec;
+        this.clockSource = clockSource;
+        this.inlineReads = sessions.hasNonBlockingReads();
+        this.nearCache = Caffeine.newBuilder()
+                .maximumSize(nearCacheSize)
+                .expireAfter(new Expiry<String, LoginCookie>() {
+                    @Override
+                    public long expireAfterCreate(String id, LoginCookie cookie, long currentTime) {
+                        return TimeUnit.SECONDS.toNanos(Math.max(0, remainingSeconds(cookie)));
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String id, LoginCookie cookie, long currentTime, long currentDuration) {
+                        return expireAfterCreate(id, cookie, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String id, LoginCookie cookie, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Stores a session. It can be found as soon as this method returns, the returned Mono writes it to the map.
+     *
+     * @param cookie the login cookie of the session
+     * @return A Mono that completes when the session is written to the map
+     */
+    public Mono<Void> save(LoginCookie cookie) {
+
+        nearCache.put(cookie.getId(), cookie);
+        var stored = new StoredSession(cookie.getSessionExpSeconds(), codec.encryptStored(cookie));
+        return ReactiveUtils.runBlockingProcedure(() -> sessions.put(cookie.getId(), stored));
+    }
+
+    /**
+     * Looks up a session.
+     *
+     * @param id the session id
+     * @return A Mono containing the login cookie of the session, empty if the session is unknown or expired
+     */
+    public Mono<LoginCookie> find(String id) {
+
+        LoginCookie cookie = nearCache.getIfPresent(id);
+        if (cookie != null) {
+            return remainingSeconds(cookie) > 0 ? Mono.just(cookie) : Mono.empty();
+        }
+        if (inlineReads) {
+            return Mono.justOrEmpty(load(id));
+        }
+        return ReactiveUtils.runBlockingProcedure(() -> load(id));
+    }
+
+    private LoginCookie load(String id) {
+
+        StoredSession stored = sessions.get(id);
+        if (stored == null || stored.sessionExpSeconds() <= clockSource.getEpochSeconds()) {
+            return null;
+        }
+
+        LoginCookie cookie;
+        try {
+            cookie = codec.decrypt(stored.value());
+        } catch (CookieDecryptionException e) {
+            // e.g. written with another cookie key, the session is lost like its cookie would be
+            log.debug("Could not decrypt session {} from the session store", id);
+            return null;
+        }
+        if (LoginCookieCodec.isReference(cookie) || !id.equals(cookie.getId())) {
+            return null;
+        }
+        nearCache.put(id, cookie);
+        return cookie;
+    }
+
+    /**
+     * Removes a session, e.g. on logout.
+     *
+     * @param id the session id
+     * @return A Mono that completes when the session is removed from the map
+     */
+    public Mono<Void> remove(String id) {
+
+        nearCache.invalidate(id);
+        return ReactiveUtils.runBlockingProcedure(() -> sessions.remove(id));
+    }
+
+    /**
+     * Removes all expired sessions from the map.
+     *
+     * @return the number of removed sessions
+     */
+    public int removeExpiredBlocking() {
+
+        long now = clockSource.getEpochSeconds();
+        return sessions.removeIf((id, stored) -> stored.sessionExpSeconds() <= now);
+    }
+
+    /**
+     * Runs {@link #removeExpiredBlocking()} periodically until the store is closed.
+     *
+     * @param scheduler The scheduler running the sweeps
+     * @param interval  The delay between two sweeps
+     */
+    public void startSweeper(TaskScheduler scheduler, Duration interval) {
+
+        sweeper = scheduler.scheduleWithFixedDelay(this::sweep, Instant.now().plus(interval), interval);
+    }
+
+    private void sweep() {
+
+        try {
+            int removed = removeExpiredBlocking();
+            log.debug("Removed {} expired sessions from the session store", removed);
+        } catch (RuntimeException e) {
+            log.error("Could not remove expired sessions from the session store", e);
+        }
+    }
+
+    private long remainingSeconds(LoginCookie cookie) {
+        return cookie.getSessionExpSeconds() - clockSource.getEpochSeconds();
+    }
+
+    /**
+     * Returns the near-cache, e.g. to register its statistics as meters.
+     *
+     * @return the near-cache
+     */
+    public Cache<String, LoginCookie> getNearCache() {
+        return nearCache;
+    }
+
+    /**
+     * Returns the map keeping the sessions, e.g. to register its size as a meter.
+     *
+     * @return the map
+     */
+    public PersistentMap<StoredSession> getSessions() {
+        return sessions;
+    }
+
+    /**
+     * A session as it is kept in the map.
+     *
+     * @param sessionExpSeconds the expiry of the session, in plain text so the sweep does not decrypt the sessions
+     * @param value             the login cookie of the session, encrypted with {@link LoginCookieCodec#encryptStored}
+     */
+    public record StoredSession(long sessionExpSeconds, String value) {
+    }
+
+    @Override
+    public void close() throws IOException {
+        var running = sweeper;
+        if (running != null) {
+            running.cancel(false);
+        }
+        sessions.close();
+    }
+}
@@ -24,4 +24,24 @@ public interface UserMapper {
      * @return Mutated server web exhange
      */
     Mono<ServerWebExchange> mapUserToRequest(ServerWebExchange exchange, GatewayRouteContext context);
+
+    /**
+     * Whether the mapper reads the user session from the context. The session of a request is only resolved if a
+     * filter of its route needs it, so a mapper that never reads it should return false.
+     *
+     * @return true if the mapper needs the user session
+     */
+    default boolean needsSession() {
+        return true;
+    }
+
+    /**
+     * Whether the mapper leaves every request unchanged. The user mapping filter is left out of the routes of such a
+     * mapper, and their sessions are not resolved for it.
+     *
+     * @return true if the mapper never changes a request
+     */
+    default boolean isNoop() {
+        return false;
+    }
 }
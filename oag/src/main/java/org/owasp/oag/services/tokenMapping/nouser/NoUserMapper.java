@@ -23,4 +23,14 @@ public class NoUserMapper implements UserMapper {
     public Mono<ServerWebExchange> mapUserToRequest(ServerWebExchange exchange, GatewayRouteContext context) {
         return Mono.just(exchange);
     }
+
+    @Override
+    public boolean needsSession() {
+        return false;
+    }
+
+    @Override
+    public boolean isNoop() {
+        return true;
+    }
 }
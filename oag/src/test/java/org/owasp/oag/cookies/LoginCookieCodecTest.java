@@ -0,0 +1,140 @@
+package org.owasp.oag.cookies;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.owasp.oag.exception.CookieDecryptionException;
+import org.owasp.oag.session.UserModel;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LoginCookieCodecTest {
+
+    private static final String ID_TOKEN = "eyJhbGciOiJSUzI1NiIsImtpZCI6IjEifQ"
+            + ".eyJpc3MiOiJodHRwczovL2lhbS5leGFtcGxlLmNvbSIsInN1YiI6ImFsaWNlIiwiYXVkIjoib2FnIiwiZXhwIjoxNzAwMDAwMDAwfQ"
+            + ".c2lnbmF0dXJlLW9mLXRoZS1pZC10b2tlbi13aXRoLWEtZmV3LW1vcmUtYnl0ZXMtdG8tbWFrZS1pdC1sb25n";
+
+    private static final String ACCESS_TOKEN = "eyJhbGciOiJQUzI1NiIsImtpZCI6IjIifQ"
+            + ".eyJpc3MiOiJodHRwczovL2lhbS5leGFtcGxlLmNvbSIsInN1YiI6ImFsaWNlIiwic2NvcGUiOiJvcGVuaWQgZW1haWwifQ"
+            + ".YWNjZXNzLXRva2VuLXNpZ25hdHVyZQ";
+
+    @Test
+    void compactCookiesRoundTrip() throws CookieDecryptionException {
+
+        var cookie = loginCookie();
+        for (boolean deflate : new boolean[]{false, true}) {
+            byte[] plaintext = LoginCookieCodec.encode(cookie, deflate);
+            assertCookie(LoginCookieCodec.decode(plaintext));
+        }
+    }
+
+    @Test
+    void deflateIsUsedWhenItMakesTheCookieSmaller() throws Exception {
+
+        var cookie = loginCookie();
+        byte[] compact = LoginCookieCodec.encode(cookie, false);
+        byte[] deflated = LoginCookieCodec.encode(cookie, true);
+        byte[] json = new ObjectMapper().writeValueAsBytes(cookie);
+
+        assertEquals(0x01, compact[0]);
+        assertEquals(0x02, deflated[0]);
+        assertTrue(compact.length < json.length * 0.8, compact.length + " vs. " + json.length);
+        assertTrue(deflated.length < compact.length, deflated.length + " vs. " + compact.length);
+
+        var small = new LoginCookie(1_700_000_000, "iam", new UserModel("bob"), "id");
+        assertEquals(0x01, LoginCookieCodec.encode(small, true)[0]);
+    }
+
+    @Test
+    void keepsNullsAndValuesThatLookLikeTokens() throws CookieDecryptionException {
+
+        var user = new UserModel("bob");
+        user.getMappings().put("nothing", null);
+        user.getMappings().put("dotted", "a.b.c");
+        user.getMappings().put("padded", "YQ==.YQ==.YQ==");
+        user.getMappings().put("non-canonical", "YR.YR.YR");
+        user.getMappings().put("empty-segments", "..");
+        user.getMappings().put("two-segments", "YQ.YQ");
+        user.getMappings().put("unicode", "Zoë");
+        var cookie = new LoginCookie(1_700_000_000, null, user, "id");
+
+        var decoded = LoginCookieCodec.decode(LoginCookieCodec.encode(cookie, true));
+
+        assertNull(decoded.getProviderKey());
+        assertNull(decoded.getCsrfToken());
+        assertEquals(user.getMappings(), decoded.getUserModel().getMappings());
+        assertTrue(decoded.getUserModel().getMappings().containsKey("nothing"));
+    }
+
+    @Test
+    void referencesCarryOnlyTheSessionIdAndExpiry() throws CookieDecryptionException {
+
+        byte[] plaintext = LoginCookieCodec.encodeReference(loginCookie());
+        var reference = LoginCookieCodec.decode(plaintext);
+
+        assertTrue(plaintext.length < 32);
+        assertTrue(LoginCookieCodec.isReference(reference));
+        assertEquals("session-id", reference.getId());
+        assertEquals(1_700_000_000, reference.getSessionExpSeconds());
+        assertFalse(LoginCookieCodec.isReference(LoginCookieCodec.decode(LoginCookieCodec.encode(loginCookie(), true))));
+        assertThrows(CookieDecryptionException.class,
+                () -> LoginCookieCodec.decode(Arrays.copyOf(plaintext, plaintext.length + 1)));
+    }
+
+    @Test
+    void readsJsonCookies() throws Exception {
+
+        byte[] json = new ObjectMapper().writeValueAsBytes(loginCookie());
+        assertCookie(LoginCookieCodec.decode(json));
+    }
+
+    @Test
+    void rejectsUnknownAndMalformedCookies() {
+
+        byte[] compact = LoginCookieCodec.encode(loginCookie(), false);
+        byte[] deflated = LoginCookieCodec.encode(loginCookie(), true);
+        byte[] unknownFormat = compact.clone();
+        unknownFormat[0] = 0x7f;
+        byte[] trailing = Arrays.copyOf(compact, compact.length + 1);
+
+        assertThrows(CookieDecryptionException.class, () -> LoginCookieCodec.decode(new byte[0]));
+        assertThrows(CookieDecryptionException.class, () -> LoginCookieCodec.decode(unknownFormat));
+        assertThrows(CookieDecryptionException.class, () -> LoginCookieCodec.decode(trailing));
+        assertThrows(CookieDecryptionException.class,
+                () -> LoginCookieCodec.decode(Arrays.copyOf(compact, compact.length - 1)));
+        assertThrows(CookieDecryptionException.class,
+                () -> LoginCookieCodec.decode(Arrays.copyOf(deflated, deflated.length / 2)));
+        assertThrows(CookieDecryptionException.class,
+                () -> LoginCookieCodec.decode("{\"id\":".getBytes(StandardCharsets.UTF_8)));
+        assertThrows(CookieDecryptionException.class,
+                () -> LoginCookieCodec.decode("null".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static LoginCookie loginCookie() {
+        var user = new UserModel("alice");
+        user.getMappings().put("original-id-token", ID_TOKEN);
+        user.getMappings().put("original-access-token", ACCESS_TOKEN);
+        user.getMappings().put("email", "alice@example.com");
+        user.getMappings().put("department", "engineering");
+        var cookie = new LoginCookie(1_700_000_000, "iam", user, "session-id");
+        cookie.setCsrfToken("csrf");
+        return cookie;
+    }
+
+    private static void assertCookie(LoginCookie cookie) {
+        assertEquals("session-id", cookie.getId());
+        assertEquals(1_700_000_000, cookie.getSessionExpSeconds());
+        assertEquals("iam", cookie.getProviderKey());
+        assertEquals("csrf", cookie.getCsrfToken());
+        assertEquals("alice", cookie.getUserModel().getId());
+        assertEquals(ID_TOKEN, cookie.getUserModel().getMappings().get("original-id-token"));
+        assertEquals("alice@example.com", cookie.getUserModel().getMappings().get("email"));
+        assertEquals("engineering", cookie.getUserModel().getMappings().get("department"));
+    }
+}
@@ -0,0 +1,83 @@
+package org.owasp.oag.filters;
+
+import org.junit.jupiter.api.Test;
+import org.owasp.oag.config.configuration.GatewayRoute;
+import org.owasp.oag.config.configuration.SecurityProfile;
+import org.owasp.oag.services.csrf.CsrfDoubleSubmitCookieValidation;
+import org.owasp.oag.services.csrf.CsrfNoneValidation;
+import org.owasp.oag.services.tokenMapping.UserMapper;
+import org.owasp.oag.services.tokenMapping.nouser.NoUserMapper;
+import org.springframework.http.HttpHeaders;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RouteRuntimeTest {
+
+    private final UserMapper sessionMapper = (exchange, context) -> Mono.just(exchange);
+
+    @Test
+    void checksTheMethodsOfTheSecurityProfile() {
+
+        var runtime = new RouteRuntime("route", route(true), profile(), new CsrfNoneValidation(), new NoUserMapper());
+
+        assertTrue(runtime.isMethodAllowed("GET"));
+        assertFalse(runtime.isMethodAllowed("DELETE"));
+        assertTrue(runtime.isCsrfSafeMethod("GET"));
+        assertFalse(runtime.isCsrfSafeMethod("POST"));
+    }
+
+    @Test
+    void needsTheSessionOnlyIfAFilterReadsIt() {
+
+        var anonymous = new RouteRuntime("static", route(true), profile(), new CsrfNoneValidation(), new NoUserMapper());
+        assertFalse(anonymous.needsSession("GET"));
+        assertFalse(anonymous.needsSession("POST"));
+
+        var authenticated = new RouteRuntime("secure", route(false), profile(), new CsrfNoneValidation(), new NoUserMapper());
+        assertTrue(authenticated.needsSession("GET"));
+
+        var mapped = new RouteRuntime("mapped", route(true), profile(), new CsrfNoneValidation(), sessionMapper);
+        assertTrue(mapped.needsSession("GET"));
+
+        var csrfProtected = new RouteRuntime("api", route(true), profile(), new CsrfDoubleSubmitCookieValidation(), new NoUserMapper());
+        assertFalse(csrfProtected.needsSession("GET"));
+        assertTrue(csrfProtected.needsSession("POST"));
+    }
+
+    @Test
+    void appliesTheResponseHeaders() {
+
+        var runtime = new RouteRuntime("route", route(true), profile(), new CsrfNoneValidation(), new NoUserMapper());
+        var headers = new HttpHeaders();
+        headers.add("Server", "upstream");
+        headers.add("X-Frame-Options", "DENY");
+
+        runtime.applyResponseHeaders(headers);
+
+        assertNull(headers.get("Server"));
+        assertEquals(List.of("SAMEORIGIN"), headers.get("X-Frame-Options"));
+        assertEquals(List.of("nosniff"), headers.get("X-Content-Type-Options"));
+    }
+
+    private static GatewayRoute route(boolean allowAnonymous) {
+        return new GatewayRoute("/**", "http://localhost:7777/", "profile", allowAnonymous, null);
+    }
+
+    private static SecurityProfile profile() {
+
+        var profile = new SecurityProfile();
+        profile.setAllowedMethods(List.of("GET", "POST"));
+        profile.setCsrfProtection("none");
+        profile.setCsrfSafeMethods(List.of("GET", "HEAD", "OPTIONS"));
+        profile.getResponseHeaders().put("Server", RouteRuntime.REMOVE_HEADER);
+        profile.getResponseHeaders().put("X-Frame-Options", "SAMEORIGIN");
+        profile.getResponseHeaders().put("X-Content-Type-Options", "nosniff");
+        return profile;
+    }
+}
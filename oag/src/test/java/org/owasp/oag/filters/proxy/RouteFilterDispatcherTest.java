@@ -0,0 +1,104 @@
+package org.owasp.oag.filters.proxy;
+
+import org.junit.jupiter.api.Test;
+import org.owasp.oag.config.configuration.GatewayRoute;
+import org.owasp.oag.config.configuration.SecurityProfile;
+import org.owasp.oag.filters.GatewayRouteContext;
+import org.owasp.oag.filters.RouteRuntime;
+import org.owasp.oag.services.csrf.CsrfDoubleSubmitCookieValidation;
+import org.owasp.oag.services.csrf.CsrfDoubleSubmitCookieWithBodyValidation;
+import org.owasp.oag.services.csrf.CsrfNoneValidation;
+import org.owasp.oag.services.csrf.CsrfProtectionValidation;
+import org.owasp.oag.services.tokenMapping.UserMapper;
+import org.owasp.oag.services.tokenMapping.nouser.NoUserMapper;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class RouteFilterDispatcherTest {
+
+    private final List<RouteAwareFilter> filters = List.of(
+            new GatewayLoggingFilter(),
+            new UserMappingFilter(),
+            new DownstreamHeaderFilter(),
+            new ResponseHeaderFilter(),
+            new CsrfValidationFilterWithBody(),
+            new CsrfValidationFilter(),
+            new AccessControlFilter(),
+            new MethodWhitelistFilter());
+
+    @Test
+    void leavesOutTheNoOpStagesOfAPassthroughRoute() {
+
+        var runtime = runtime(true, new CsrfNoneValidation(), new NoUserMapper(), false);
+
+        assertEquals(List.of(MethodWhitelistFilter.class, DownstreamHeaderFilter.class, GatewayLoggingFilter.class),
+                filterClasses(RouteFilterDispatcher.compile(filters, runtime)));
+    }
+
+    @Test
+    void keepsTheStagesOfAProtectedRouteInOrder() {
+
+        UserMapper userMapper = (exchange, context) -> Mono.just(exchange);
+        var runtime = runtime(false, new CsrfDoubleSubmitCookieValidation(), userMapper, true);
+
+        assertEquals(List.of(MethodWhitelistFilter.class, AccessControlFilter.class, CsrfValidationFilter.class,
+                        ResponseHeaderFilter.class, DownstreamHeaderFilter.class, UserMappingFilter.class,
+                        GatewayLoggingFilter.class),
+                filterClasses(RouteFilterDispatcher.compile(filters, runtime)));
+    }
+
+    @Test
+    void validatesTheCsrfProtectionWithTheBodyInItsOwnStage() {
+
+        var runtime = runtime(true, new CsrfDoubleSubmitCookieWithBodyValidation(), new NoUserMapper(), false);
+
+        assertEquals(List.of(MethodWhitelistFilter.class, CsrfValidationFilterWithBody.class,
+                        DownstreamHeaderFilter.class, GatewayLoggingFilter.class),
+                filterClasses(RouteFilterDispatcher.compile(filters, runtime)));
+    }
+
+    @Test
+    void leavesOutNoOpMappersWithoutResolvingTheSessionForThem() {
+
+        UserMapper noopMapper = new UserMapper() {
+            @Override
+            public Mono<ServerWebExchange> mapUserToRequest(ServerWebExchange exchange, GatewayRouteContext context) {
+                return Mono.just(exchange);
+            }
+
+            @Override
+            public boolean isNoop() {
+                return true;
+            }
+        };
+        var runtime = runtime(true, new CsrfNoneValidation(), noopMapper, false);
+
+        assertEquals(List.of(MethodWhitelistFilter.class, DownstreamHeaderFilter.class, GatewayLoggingFilter.class),
+                filterClasses(RouteFilterDispatcher.compile(filters, runtime)));
+        assertFalse(runtime.needsSession("POST"));
+    }
+
+    private static List<Class<?>> filterClasses(RouteAwareFilter[] chain) {
+        return Arrays.stream(chain).<Class<?>>map(Object::getClass).toList();
+    }
+
+    private static RouteRuntime runtime(boolean allowAnonymous, CsrfProtectionValidation csrfValidation,
+                                        UserMapper userMapper, boolean withResponseHeaders) {
+
+        var profile = new SecurityProfile();
+        profile.setAllowedMethods(List.of("GET", "POST"));
+        profile.setCsrfProtection("none");
+        profile.setCsrfSafeMethods(List.of("GET", "HEAD", "OPTIONS"));
+        if (withResponseHeaders)
+            profile.getResponseHeaders().put("Server", RouteRuntime.REMOVE_HEADER);
+
+        var route = new GatewayRoute("/**", "http://localhost:7777/", "profile", allowAnonymous, null);
+        return new RouteRuntime("route", route, profile, csrfValidation, userMapper);
+    }
+}
@@ -0,0 +1,93 @@
+package org.owasp.oag.gateway;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class RouteIndexTest {
+
+    private final ProxyPathMatcher matcher = new ProxyPathMatcher();
+
+    @Test
+    void findsTheMostSpecificRoute() {
+
+        var routes = new LinkedHashMap<String, String>();
+        routes.put("all", "/**");
+        routes.put("foo", "/foo/**");
+        routes.put("foo-bar", "/foo/bar");
+        routes.put("foo-any", "/foo/*");
+        routes.put("scripts", "/foo/*.js");
+        routes.put("root", "/*");
+        var index = new RouteIndex(routes, matcher);
+
+        assertEquals("foo-bar", index.findRoute("/foo/bar"));
+        assertEquals("foo-any", index.findRoute("/foo/baz"));
+        assertEquals("scripts", index.findRoute("/foo/app.js"));
+        assertEquals("foo", index.findRoute("/foo/bar/baz"));
+        assertEquals("root", index.findRoute("/foo")); // prefix patterns like /foo/** are the least specific
+        assertEquals("root", index.findRoute("/bar"));
+        assertEquals("all", index.findRoute("/bar/baz"));
+        assertEquals("root", index.findRoute("/"));
+    }
+
+    @Test
+    void returnsNullIfNoRouteMatches() {
+
+        var index = new RouteIndex(Map.of("foo", "/foo/**", "bar", "/bar"), matcher);
+
+        assertNull(index.findRoute("/baz"));
+        assertNull(index.findRoute("/bar/"));
+        assertNull(index.findRoute("/bar/baz"));
+    }
+
+    @Test
+    void findsTheSameRoutesAsTheMatcher() {
+
+        var segments = List.of("a", "b", "c", "*", "**", "a*", "?");
+        var random = new Random(42);
+
+        for (int run = 0; run < 200; run++) {
+
+            var routes = new LinkedHashMap<String, String>();
+            for (int i = 0; i < 8; i++) {
+                routes.put("route" + i, randomPath(random, segments));
+            }
+            var index = new RouteIndex(routes, matcher);
+
+            for (int i = 0; i < 50; i++) {
+                var path = randomPath(random, List.of("a", "b", "c", "ab", ""));
+                assertEquals(findRouteBySpecificity(routes, path), index.findRoute(path), () -> routes + " " + path);
+            }
+        }
+    }
+
+    private String findRouteBySpecificity(Map<String, String> routes, String path) {
+
+        var comparator = matcher.getPatternComparator();
+        return routes.entrySet().stream()
+                .sorted((r1, r2) -> comparator.compare(r1.getValue(), r2.getValue()))
+                .filter(r -> matcher.matchesPath(path, r.getValue()))
+                .map(Map.Entry::getKey)
+                .findFirst()
+                .orElse(null);
+    }
+
+    private static String randomPath(Random random, List<String> segments) {
+
+        var path = new StringBuilder();
+        int length = random.nextInt(4);
+        for (int i = 0; i < length; i++) {
+            path.append('/').append(segments.get(random.nextInt(segments.size())));
+        }
+        if (length == 0 || random.nextInt(4) == 0) {
+            path.append('/');
+        }
+        return path.toString();
+    }
+}
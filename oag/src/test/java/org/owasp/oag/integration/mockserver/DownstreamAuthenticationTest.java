@@ -56,6 +56,39 @@ public class DownstreamAuthenticationTest extends WiremockTest {
                 .withHeader(DownstreamHeaderFilter.X_OAG_STATUS, equalTo(SessionInformation.SESSION_STATE_AUTHENTICATED)));
     }
 
+    @Test
+    void testDownstreamHeaderOnRouteWithoutSession() {
+
+        // Arrange
+        var loginResult = makeLogin();
+
+        stubFor(get("/static/testHeaders").willReturn(aResponse().withStatus(200)));
+
+        // The static profile neither maps the user nor checks csrf tokens, so the session is not resolved
+        webClient.get().uri("/static/testHeaders")
+                .cookie(loginResult.sessionCookie.getName(), loginResult.sessionCookie.getValue())
+                .exchange()
+                .expectStatus().isOk();
+
+        verify(getRequestedFor(urlEqualTo("/static/testHeaders"))
+                .withHeader(DownstreamHeaderFilter.X_OAG_STATUS, equalTo(SessionInformation.SESSION_STATE_UNKNOWN))
+                .withCookie(LoginCookie.NAME, absent()));
+    }
+
+    @Test
+    void testDownstreamHeaderAnonymousOnRouteWithoutSession() {
+
+        stubFor(get("/static/testHeaders").willReturn(aResponse().withStatus(200)));
+
+        // Without a login cookie the request is anonymous even if its session is not resolved
+        webClient.get().uri("/static/testHeaders")
+                .exchange()
+                .expectStatus().isOk();
+
+        verify(getRequestedFor(urlEqualTo("/static/testHeaders"))
+                .withHeader(DownstreamHeaderFilter.X_OAG_STATUS, equalTo(SessionInformation.SESSION_STATE_ANONYMOUS)));
+    }
+
     @Test
     void testDownstreamAuthenticationContainsNoOAGCookies() {
 
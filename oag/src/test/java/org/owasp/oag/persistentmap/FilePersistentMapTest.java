@@ -1,17 +1,27 @@
 package org.owasp.oag.persistentmap;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -34,12 +44,54 @@ class FilePersistentMapTest {
         return new FilePersistentMap<>(dbFile().toString(), Integer.class);
     }
 
-    private long lineCount() throws IOException {
-        if (!Files.exists(dbFile())) {
-            return 0;
+    private FilePersistentMap<Integer> open(DurabilityPolicy durability) {
+        var settings = new FilePersistentMapSettings();
+        settings.setDurability(durability);
+        settings.setSyncIntervalMillis(5);
+        return new FilePersistentMap<>(dbFile().toString(), Integer.class, settings);
+    }
+
+    private FilePersistentMap<Integer> openWithSmallSegments(int replayParallelism) {
+        var settings = new FilePersistentMapSettings();
+        settings.setMaxSegmentBytes(4096);
+        settings.setReplayParallelism(replayParallelism);
+        return new FilePersistentMap<>(dbFile().toString(), Integer.class, settings);
+    }
+
+    private List<Path> logFiles() throws IOException {
+        return FilePersistentMap.logFiles(dbFile().toString());
+    }
+
+    private Path lastLogFile() throws IOException {
+        List<Path> files = logFiles();
+        return files.get(files.size() - 1);
+    }
+
+    private long recordCount() throws IOException {
+        var count = new AtomicLong();
+        var sink = new LogReader.RecordSink<Integer>() {
+            @Override
+            public void accept(String key, Integer value) {
+                count.incrementAndGet();
+            }
+
+            @Override
+            public void clear() {
+            }
+        };
+        var codec = RecordCodec.create(Integer.class, new ObjectMapper());
+        for (Path log : logFiles()) {
+            assertEquals(0, LogReader.replay(log, codec, sink).unreadable());
+        }
+        return count.get();
+    }
+
+    private void writeLog(Path log, Object... keysAndValues) throws IOException {
+        try (var writer = new LogWriter<>(log, RecordCodec.create(Integer.class, new ObjectMapper()))) {
+            for (int i = 0; i < keysAndValues.length; i += 2) {
+                writer.append((String) keysAndValues[i], (Integer) keysAndValues[i + 1]);
+            }
         }
-        return Files.readAllLines(dbFile(), StandardCharsets.UTF_8).stream()
-                .filter(l -> !l.isEmpty()).count();
     }
 
     @Test
@@ -85,7 +137,7 @@ class FilePersistentMapTest {
             map.compact();      // force the writer close -> move -> reopen path
             map.put("b", 2);
         }
-        assertEquals(2, lineCount());
+        assertEquals(2, recordCount());
         try (var reopened = open()) {
             assertEquals(1, reopened.get("a"));
             assertEquals(2, reopened.get("b"));
@@ -102,7 +154,7 @@ class FilePersistentMapTest {
             assertEquals(3, map.size());
         }
         // The append-only log must not have grown to one line per write.
-        assertTrue(lineCount() < writes / 2, "log should be compacted, was " + lineCount() + " lines");
+        assertTrue(recordCount() < writes / 2, "log should be compacted, was " + recordCount() + " records");
         try (var reopened = open()) {
             assertEquals(3, reopened.size());
         }
@@ -114,26 +166,77 @@ class FilePersistentMapTest {
             map.put("a", 1);
             map.put("b", 2);
         }
-        long afterFirst = lineCount();
+        long afterFirst = recordCount();
         try (var reopened = open()) {
             // just open and close, no writes
             assertEquals(2, reopened.size());
         }
-        assertEquals(afterFirst, lineCount(), "reopening must not re-append existing entries");
+        assertEquals(afterFirst, recordCount(), "reopening must not re-append existing entries");
+    }
+
+    @Test
+    void tornTrailingRecordIsSkipped() throws IOException {
+        try (var map = open()) {
+            map.put("a", 1);
+            map.put("b", 2);
+        }
+        // Simulate a torn write: cut the last record in half.
+        try (var channel = FileChannel.open(lastLogFile(), StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+        try (var reopened = open()) {
+            assertEquals(1, reopened.get("a"));
+            assertNull(reopened.get("b"));
+        }
+        assertEquals(1, recordCount());
+        try (var reopened = open()) {
+            reopened.put("c", 3);
+        }
+        try (var reopened = open()) {
+            assertEquals(1, reopened.get("a"));
+            assertEquals(3, reopened.get("c"));
+        }
     }
 
     @Test
-    void malformedTrailingLineIsSkipped() throws IOException {
+    void corruptRecordIsDetectedByChecksum() throws IOException {
         try (var map = open()) {
             map.put("a", 1);
+            map.put("b", 2);
+        }
+        // Flip the last byte of the last value; the record length is still intact.
+        try (var channel = FileChannel.open(lastLogFile(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            var last = ByteBuffer.allocate(1);
+            channel.read(last, channel.size() - 1);
+            last.put(0, (byte) (last.get(0) ^ 0x01)).rewind();
+            channel.write(last, channel.size() - 1);
         }
-        // Simulate a torn write: append a partial/garbage line.
-        Files.writeString(dbFile(), "{\"k\":\"b\",\"v\":",
-                StandardCharsets.UTF_8, java.nio.file.StandardOpenOption.APPEND);
         try (var reopened = open()) {
             assertEquals(1, reopened.get("a"));
             assertNull(reopened.get("b"));
         }
+        assertEquals(1, recordCount());
+    }
+
+    @Test
+    void legacyJsonLogIsMigrated() throws IOException {
+        Files.writeString(dbFile(), """
+                {"k":"a","v":1}
+                {"k":"b","v":2}
+                {"k":"a","v":null}
+                {"k":"c","v":
+                """, StandardCharsets.UTF_8);
+
+        try (var map = open()) {
+            assertNull(map.get("a"));
+            assertEquals(2, map.get("b"));
+            assertEquals(1, map.size());
+        }
+        assertFalse(Files.exists(dbFile()), "the legacy file should be replaced by the binary log");
+        assertEquals(1, recordCount());
+        try (var reopened = open()) {
+            assertEquals(2, reopened.get("b"));
+        }
     }
 
     @Test
@@ -147,7 +250,8 @@ class FilePersistentMapTest {
             map.put("x", 42);
         }
         // File was rewritten in the clean format; only the new entry remains.
-        assertEquals(1, lineCount());
+        assertFalse(Files.exists(dbFile()), "the legacy file should be replaced by the binary log");
+        assertEquals(1, recordCount());
         try (var reopened = open()) {
             assertEquals(42, reopened.get("x"));
         }
@@ -223,7 +327,7 @@ class FilePersistentMapTest {
             map.clear();
             assertEquals(0, map.size());
         }
-        assertEquals(0, lineCount());
+        assertEquals(0, recordCount());
         try (var reopened = open()) {
             assertEquals(0, reopened.size());
         }
@@ -239,4 +343,347 @@ class FilePersistentMapTest {
             assertEquals(List.of("a"), snapshot.stream().map(java.util.Map.Entry::getKey).toList());
         }
     }
+
+    @Test
+    void groupCommitPoliciesPersistAcrossReopen() throws IOException {
+        for (var durability : List.of(DurabilityPolicy.FLUSH_PER_BATCH, DurabilityPolicy.FSYNC_PER_BATCH, DurabilityPolicy.FSYNC_INTERVAL)) {
+            try (var map = open(durability)) {
+                map.clear();
+                map.put("a", 1);
+                map.put("b", 2);
+                map.remove("a");
+                assertNull(map.get("a"));
+            }
+            try (var reopened = open()) {
+                assertNull(reopened.get("a"), durability.name());
+                assertEquals(2, reopened.get("b"));
+                assertEquals(1, reopened.size());
+            }
+        }
+    }
+
+    @Test
+    void removeAllWritesOneBatchOfTombstones() throws IOException {
+        for (var durability : List.of(DurabilityPolicy.PER_RECORD, DurabilityPolicy.FSYNC_PER_BATCH)) {
+            try (var map = open(durability)) {
+                map.clear();
+                for (int i = 0; i < 10; i++) {
+                    map.put("k" + i, i);
+                }
+                var done = map.removeAllAsync(List.of("k1", "k3", "absent", "k5"));
+                assertNull(map.get("k3"));
+                done.join();
+                assertEquals(7, map.size());
+            }
+            try (var reopened = open()) {
+                assertNull(reopened.get("k1"), durability.name());
+                assertNull(reopened.get("k5"), durability.name());
+                assertEquals(2, reopened.get("k2"));
+                assertEquals(7, reopened.size());
+            }
+        }
+    }
+
+    @Test
+    void putAllWritesOneBatch() throws IOException {
+        for (var durability : List.of(DurabilityPolicy.PER_RECORD, DurabilityPolicy.FSYNC_PER_BATCH)) {
+            try (var map = open(durability)) {
+                map.clear();
+                map.put("k0", 0);
+                var done = map.putAllAsync(Map.of("k0", 10, "k1", 11, "k2", 12));
+                assertEquals(11, map.get("k1"));
+                done.join();
+                assertEquals(3, map.size());
+            }
+            try (var reopened = open()) {
+                assertEquals(Integer.valueOf(10), reopened.get("k0"), durability.name());
+                assertEquals(Integer.valueOf(12), reopened.get("k2"), durability.name());
+                assertEquals(3, reopened.size());
+            }
+        }
+    }
+
+    @Test
+    void observerReceivesWriteAndReplayTimings() throws IOException {
+        var lockWaits = new AtomicLong();
+        var appended = new AtomicLong();
+        var replayedEntries = new AtomicLong(-1);
+        var settings = new FilePersistentMapSettings();
+        settings.setDurability(DurabilityPolicy.FLUSH_PER_BATCH);
+        settings.setObserver(new PersistentMapObserver() {
+            @Override
+            public void lockAcquired(long nanos) {
+                lockWaits.incrementAndGet();
+            }
+
+            @Override
+            public void appended(long nanos, int records) {
+                appended.addAndGet(records);
+            }
+
+            @Override
+            public void replayed(long nanos, int entries) {
+                replayedEntries.set(entries);
+            }
+        });
+        try (var map = new FilePersistentMap<>(dbFile().toString(), Integer.class, settings)) {
+            assertEquals(0, replayedEntries.get());
+            map.put("k0", 0);
+            map.putAllAsync(Map.of("k1", 1, "k2", 2)).join();
+            map.remove("k0");
+            assertEquals(3, lockWaits.get());
+            assertEquals(4, appended.get());
+            assertEquals(4, map.getAppendsSinceCompaction());
+            assertTrue(map.getLogSizeBytes() > 0);
+        }
+        try (var reopened = new FilePersistentMap<>(dbFile().toString(), Integer.class, settings)) {
+            assertEquals(2, replayedEntries.get());
+            assertTrue(reopened.getReplayDurationMillis() >= 0);
+        }
+    }
+
+    @Test
+    void scanAndRemoveIfDoNotCopyTheMapAndPersist() throws IOException {
+        try (var map = open()) {
+            for (int i = 0; i < 100; i++) {
+                map.put("k" + i, i);
+            }
+            var cursor = map.scan();
+            int scanned = 0;
+            while (cursor.next()) {
+                assertEquals(cursor.key(), "k" + cursor.value());
+                // Weakly consistent: modifications during the scan are allowed.
+                map.remove("k99");
+                scanned++;
+            }
+            assertTrue(scanned == 99 || scanned == 100, "scanned " + scanned);
+
+            var sum = new AtomicLong();
+            map.forEach((key, value) -> sum.addAndGet(value));
+            assertEquals(4950 - 99, sum.get());
+
+            assertEquals(89, map.removeIf((key, value) -> value >= 10));
+            assertEquals(0, map.removeIf((key, value) -> value >= 10));
+        }
+        try (var reopened = open()) {
+            assertEquals(10, reopened.size());
+            assertEquals(9, reopened.get("k9"));
+            assertNull(reopened.get("k10"));
+        }
+    }
+
+    @Test
+    void putAsyncIsVisibleImmediatelyAndCompletesWhenDurable() throws IOException {
+        var futures = new ArrayList<CompletableFuture<Void>>();
+        try (var map = open(DurabilityPolicy.FSYNC_INTERVAL)) {
+            for (int i = 0; i < 100; i++) {
+                futures.add(map.putAsync("k" + i, i));
+                assertEquals(i, map.get("k" + i));
+            }
+            CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+            assertEquals(100, recordCount());
+        }
+    }
+
+    @Test
+    void groupCommitConcurrentPutsAndCompactionPersist() throws Exception {
+        int threads = 8;
+        int perThread = 1000;
+        var start = new CountDownLatch(1);
+        var done = new CountDownLatch(threads);
+
+        try (var map = open(DurabilityPolicy.FLUSH_PER_BATCH)) {
+            for (int t = 0; t < threads; t++) {
+                final int base = t;
+                Thread thread = new Thread(() -> {
+                    try {
+                        start.await();
+                        for (int i = 0; i < perThread; i++) {
+                            map.put("k" + base + "-" + (i % 10), i);   // few live keys, many appends
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                });
+                thread.start();
+            }
+            start.countDown();
+            assertTrue(done.await(30, TimeUnit.SECONDS));
+            assertEquals(threads * 10, map.size());
+        }
+
+        assertTrue(recordCount() < threads * perThread / 2, "log should be compacted, was " + recordCount() + " records");
+        try (var reopened = open()) {
+            assertEquals(threads * 10, reopened.size());
+            assertEquals(perThread - 1, reopened.get("k0-9"));
+        }
+    }
+
+    @Test
+    void unsupportedFormatVersionIsRejected() throws IOException {
+        try (var map = open()) {
+            map.put("a", 1);
+        }
+        try (var channel = FileChannel.open(lastLogFile(), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(2).putShort(0, (short) 99), Integer.BYTES);
+        }
+        var error = assertThrows(java.io.UncheckedIOException.class, this::open);
+        assertTrue(error.getCause().getMessage().contains("version"));
+    }
+
+    @Test
+    void compactionRollsOverToFreshSegmentAndReportsMetrics() throws IOException {
+        try (var map = open()) {
+            for (int i = 0; i < 500; i++) {
+                map.put("k" + (i % 10), i);
+            }
+            map.compact();
+            map.put("after", 1);
+
+            var metrics = map.getCompactionMetrics();
+            assertEquals(1, metrics.compactions());
+            assertEquals(0, metrics.failures());
+            assertTrue(metrics.lastBytesReclaimed() > 0, "compaction should reclaim the overwritten records");
+            assertEquals(metrics.lastBytesReclaimed(), metrics.totalBytesReclaimed());
+            assertEquals(List.of(tempDir.resolve("map.db.snapshot-2-0").toAbsolutePath(),
+                    tempDir.resolve("map.db.2").toAbsolutePath()), logFiles());
+        }
+        assertEquals(11, recordCount());
+        try (var reopened = open()) {
+            assertEquals(11, reopened.size());
+            assertEquals(499, reopened.get("k9"));
+        }
+    }
+
+    @Test
+    void segmentsReplayInSequenceOrderAfterBaseFile() throws IOException {
+        // The state left behind by a compaction interrupted after the base file was swapped in
+        // but before the sealed segments were deleted.
+        writeLog(dbFile(), "a", 2, "b", 1);
+        writeLog(tempDir.resolve("map.db.9"), "a", 2, "b", null);
+        writeLog(tempDir.resolve("map.db.10"), "a", 3);
+
+        try (var map = open()) {
+            assertEquals(3, map.get("a"));
+            assertNull(map.get("b"));
+            map.put("c", 1);
+        }
+        try (var reopened = open()) {
+            assertEquals(3, reopened.get("a"));
+            assertEquals(1, reopened.get("c"));
+            assertEquals(2, reopened.size());
+        }
+    }
+
+    @Test
+    void writesDuringBackgroundCompactionPersist() throws Exception {
+        int writes = 20_000;
+        try (var map = open()) {
+            var compactor = new Thread(() -> {
+                for (int i = 0; i < 5; i++) {
+                    map.compact();
+                }
+            });
+            compactor.start();
+            for (int i = 0; i < writes; i++) {
+                map.put("k" + (i % 1000), i);
+                if (i % 7 == 0) {
+                    map.remove("k" + ((i + 500) % 1000));
+                }
+            }
+            compactor.join();
+            assertEquals(0, map.getCompactionMetrics().failures());
+            assertTrue(map.getCompactionMetrics().compactions() >= 5);
+        }
+        var expected = new HashMap<String, Integer>();
+        for (int i = 0; i < writes; i++) {
+            expected.put("k" + (i % 1000), i);
+            if (i % 7 == 0) {
+                expected.remove("k" + ((i + 500) % 1000));
+            }
+        }
+        try (var reopened = open()) {
+            assertEquals(expected.size(), reopened.size());
+            expected.forEach((k, v) -> assertEquals(v, reopened.get(k), k));
+        }
+    }
+
+    @Test
+    void segmentsRollOverAtConfiguredSize() throws IOException {
+        try (var map = openWithSmallSegments(1)) {
+            for (int i = 0; i < 1000; i++) {
+                map.put("key-" + i, i);
+            }
+        }
+        List<Path> files = logFiles();
+        assertTrue(files.size() > 5, "expected several segments, got " + files);
+        for (Path file : files.subList(0, files.size() - 1)) {
+            assertTrue(Files.size(file) < 4096 + 64, file + " exceeds the segment size");
+        }
+        assertEquals(1000, recordCount());
+        try (var reopened = openWithSmallSegments(4)) {
+            assertEquals(1000, reopened.size());
+            assertEquals(999, reopened.get("key-999"));
+        }
+    }
+
+    @Test
+    void parallelReplayKeepsLastWriterAcrossSegments() throws IOException {
+        var expected = new HashMap<String, Integer>();
+        try (var map = openWithSmallSegments(1)) {
+            for (int i = 0; i < 3000; i++) {
+                String key = "key-" + (i % 300);
+                if (i % 11 == 0) {
+                    map.remove(key);
+                    expected.remove(key);
+                } else {
+                    map.put(key, i);
+                    expected.put(key, i);
+                }
+                if (i == 1500) {
+                    map.clear();
+                    expected.clear();
+                }
+            }
+        }
+        assertTrue(logFiles().size() > 2, "expected several log files");
+        for (int parallelism : List.of(1, 4)) {
+            try (var reopened = openWithSmallSegments(parallelism)) {
+                assertEquals(expected.size(), reopened.size());
+                expected.forEach((k, v) -> assertEquals(v, reopened.get(k), k));
+            }
+        }
+    }
+
+    @Test
+    void filesNotInTheManifestAreIgnoredAndDeleted() throws IOException {
+        try (var map = open()) {
+            map.put("a", 1);
+            map.compact();
+            map.put("b", 2);
+        }
+        // Leftovers of an interrupted compaction and of an interrupted rollover.
+        Path straySnapshot = tempDir.resolve("map.db.snapshot-7-0");
+        Path straySegment = tempDir.resolve("map.db.8");
+        writeLog(straySnapshot, "a", 100);
+        writeLog(straySegment, "b", null);
+
+        try (var reopened = open()) {
+            assertEquals(1, reopened.get("a"));
+            assertEquals(2, reopened.get("b"));
+        }
+        assertFalse(Files.exists(straySnapshot));
+        assertFalse(Files.exists(straySegment));
+        assertTrue(Files.exists(tempDir.resolve("map.db.manifest")));
+    }
+
+    @Test
+    void writesAfterCloseAreRejected() throws IOException {
+        var map = open(DurabilityPolicy.FSYNC_PER_BATCH);
+        map.put("a", 1);
+        map.close();
+        assertThrows(IllegalStateException.class, () -> map.put("b", 2));
+    }
 }
@@ -2,6 +2,7 @@ package org.owasp.oag.persistentmap;
 
 import org.junit.jupiter.api.Test;
 
+import java.util.HashMap;
 import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -33,6 +34,7 @@ class InMemoryPersistentMapTest {
 
         map.clear();
         assertEquals(0, map.size());
+        assertTrue(map.hasNonBlockingReads());
     }
 
     @Test
@@ -48,6 +50,31 @@ class InMemoryPersistentMapTest {
         assertThrows(UnsupportedOperationException.class, () -> snapshot.add(Map.entry("c", 3)));
     }
 
+    @Test
+    void forEachScanAndRemoveIfVisitEveryEntry() {
+        var map = new InMemoryPersistentMap<Integer>();
+        for (int i = 0; i < 10; i++) {
+            map.put("k" + i, i);
+        }
+
+        Map<String, Integer> visited = new HashMap<>();
+        map.forEach(visited::put);
+        assertEquals(10, visited.size());
+
+        Map<String, Integer> scanned = new HashMap<>();
+        ScanCursor<Integer> cursor = map.scan();
+        while (cursor.next()) {
+            scanned.put(cursor.key(), cursor.value());
+        }
+        assertEquals(visited, scanned);
+        assertThrows(IllegalStateException.class, cursor::key);
+
+        assertEquals(5, map.removeIf((key, value) -> value % 2 == 0));
+        assertEquals(5, map.size());
+        assertNull(map.get("k4"));
+        assertEquals(3, map.get("k3"));
+    }
+
     @Test
     void putRejectsNullValue() {
         var map = new InMemoryPersistentMap<Integer>();
@@ -0,0 +1,258 @@
+package org.owasp.oag.persistentmap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Integration tests for {@link MappedPersistentMap}; every case works on real files in an
+ * isolated {@link TempDir}.
+ */
+class MappedPersistentMapTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Path dbFile() {
+        return tempDir.resolve("map.db");
+    }
+
+    private MappedPersistentMap<Integer> open() {
+        return new MappedPersistentMap<>(dbFile().toString(), Integer.class);
+    }
+
+    private MappedPersistentMap<Integer> open(int maxDeltaEntries) {
+        return new MappedPersistentMap<>(dbFile().toString(), Integer.class, maxDeltaEntries);
+    }
+
+    private List<String> files() throws IOException {
+        try (Stream<Path> files = Files.list(tempDir)) {
+            return files.map(f -> f.getFileName().toString()).sorted().toList();
+        }
+    }
+
+    @Test
+    void putThenGetAndRemove() {
+        try (var map = open()) {
+            map.put("a", 1);
+            assertEquals(1, map.get("a"));
+            assertTrue(map.containsKey("a"));
+            map.remove("a");
+            assertNull(map.get("a"));
+            assertFalse(map.containsKey("a"));
+            assertEquals(0, map.size());
+        }
+    }
+
+    @Test
+    void removeAllRemovesMergedAndPendingKeys() {
+        try (var map = open()) {
+            map.put("merged", 1);
+            map.merge();
+            map.put("pending", 2);
+            map.put("kept", 3);
+            map.removeAllAsync(List.of("merged", "pending", "absent")).join();
+            assertEquals(1, map.size());
+        }
+        try (var reopened = open()) {
+            assertNull(reopened.get("merged"));
+            assertNull(reopened.get("pending"));
+            assertEquals(3, reopened.get("kept"));
+            assertEquals(1, reopened.size());
+        }
+    }
+
+    @Test
+    void putAllOverwritesMergedAndAddsNewKeys() {
+        try (var map = open()) {
+            map.put("merged", 1);
+            map.merge();
+            map.putAllAsync(Map.of("merged", 10, "new", 2)).join();
+            assertEquals(2, map.size());
+        }
+        try (var reopened = open()) {
+            assertEquals(10, reopened.get("merged"));
+            assertEquals(2, reopened.get("new"));
+            assertEquals(2, reopened.size());
+        }
+    }
+
+    @Test
+    void forEachAndRemoveIfSeeMergedAndPendingEntriesOnce() {
+        try (var map = open()) {
+            for (int i = 0; i < 10; i++) {
+                map.put("k" + i, i);
+            }
+            map.merge();
+            map.put("k0", 100);
+            map.remove("k1");
+            map.put("k10", 10);
+
+            Map<String, Integer> visited = new HashMap<>();
+            map.forEach((key, value) -> assertNull(visited.put(key, value), key));
+            assertEquals(10, visited.size());
+            assertEquals(100, visited.get("k0"));
+            assertFalse(visited.containsKey("k1"));
+
+            assertEquals(7, map.removeIf((key, value) -> value >= 5));
+            assertEquals(3, map.size());
+        }
+        try (var reopened = open()) {
+            assertEquals(3, reopened.size());
+            assertNull(reopened.get("k0"));
+            assertEquals(4, reopened.get("k4"));
+        }
+    }
+
+    @Test
+    void mergedAndPendingChangesSurviveReopen() {
+        try (var map = open()) {
+            map.put("a", 1);
+            map.put("b", 2);
+            map.put("c", 3);
+            map.merge();
+            map.put("b", 20);
+            map.remove("c");
+            map.put("d", 4);
+            assertEquals(3, map.size());
+        }
+        try (var reopened = open()) {
+            assertEquals(1, reopened.get("a"));
+            assertEquals(20, reopened.get("b"));
+            assertNull(reopened.get("c"));
+            assertEquals(4, reopened.get("d"));
+            assertEquals(3, reopened.size());
+            assertEquals(Map.of("a", 1, "b", 20, "d", 4), Map.ofEntries(reopened.entrySet().toArray(Map.Entry[]::new)));
+        }
+    }
+
+    @Test
+    void mergeRunsOnceTheDeltaIsFullAndKeepsEveryKeyReadable() throws IOException {
+        int entries = 5000;
+        try (var map = open(100)) {
+            for (int i = 0; i < entries; i++) {
+                map.put("k" + i, i);
+                // Merges swap the snapshot in the background; earlier keys must stay visible.
+                assertEquals(i / 2, map.get("k" + (i / 2)));
+            }
+            for (int i = 0; i < entries; i += 2) {
+                map.remove("k" + i);
+            }
+            assertEquals(entries / 2, map.size());
+        }
+        try (var reopened = open(100)) {
+            assertEquals(entries / 2, reopened.size());
+            for (int i = 0; i < entries; i++) {
+                assertEquals(i % 2 == 0 ? null : i, reopened.get("k" + i));
+            }
+        }
+        List<String> files = files();
+        assertEquals(1, files.stream().filter(f -> f.startsWith("map.db.mapped.index-")).count(), files.toString());
+    }
+
+    @Test
+    void mergeReplacesSnapshotAndSealedSegments() throws IOException {
+        try (var map = open()) {
+            map.put("a", 1);
+            map.merge();
+            map.put("b", 2);
+            map.merge();
+            assertEquals(2, map.getCompactionMetrics().compactions());
+            assertEquals(1, map.get("a"));
+            assertEquals(2, map.get("b"));
+        }
+        assertEquals(List.of("map.db.mapped.3", "map.db.mapped.index-3", "map.db.mapped.manifest"), files());
+    }
+
+    @Test
+    void clearRemovesEverythingPersistently() {
+        try (var map = open()) {
+            map.put("a", 1);
+            map.merge();
+            map.put("b", 2);
+            map.clear();
+            assertEquals(0, map.size());
+            assertNull(map.get("a"));
+            map.put("c", 3);
+        }
+        try (var reopened = open()) {
+            assertNull(reopened.get("a"));
+            assertNull(reopened.get("b"));
+            assertEquals(3, reopened.get("c"));
+            assertEquals(1, reopened.size());
+        }
+    }
+
+    @Test
+    void tornDeltaRecordIsSkipped() throws IOException {
+        try (var map = open()) {
+            map.put("a", 1);
+            map.put("b", 2);
+        }
+        try (var channel = FileChannel.open(tempDir.resolve("map.db.mapped.1"), StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+        try (var reopened = open()) {
+            assertEquals(1, reopened.get("a"));
+            assertNull(reopened.get("b"));
+            reopened.put("c", 3);
+        }
+        try (var reopened = open()) {
+            assertEquals(1, reopened.get("a"));
+            assertEquals(3, reopened.get("c"));
+            assertEquals(2, reopened.size());
+        }
+    }
+
+    @Test
+    void filePersistentMapLogIsImported() {
+        try (var fileMap = new FilePersistentMap<>(dbFile().toString(), Integer.class)) {
+            fileMap.put("a", 1);
+            fileMap.put("b", 2);
+        }
+        try (var map = open()) {
+            assertEquals(1, map.get("a"));
+            assertEquals(2, map.get("b"));
+            map.remove("a");
+        }
+        try (var reopened = open()) {
+            assertNull(reopened.get("a"));
+            assertEquals(2, reopened.get("b"));
+        }
+    }
+
+    @Test
+    void nonIntegerValuesRoundTrip() {
+        try (var map = new MappedPersistentMap<>(dbFile().toString(), String.class)) {
+            map.put("a", "x");
+            map.merge();
+            map.put("b", "y");
+        }
+        try (var reopened = new MappedPersistentMap<>(dbFile().toString(), String.class)) {
+            assertEquals("x", reopened.get("a"));
+            assertEquals("y", reopened.get("b"));
+        }
+    }
+
+    @Test
+    void closedMapRejectsWrites() {
+        var map = open();
+        map.close();
+        assertThrows(IllegalStateException.class, () -> map.put("a", 1));
+    }
+}
@@ -0,0 +1,159 @@
+package org.owasp.oag.persistentmap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Integration tests for {@link PersistentLongIntMap} and its {@link OffHeapLongIntMap}; every case
+ * works on a real log file in an isolated {@link TempDir}.
+ */
+class PersistentLongIntMapTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Path dbFile() {
+        return tempDir.resolve("ids.db");
+    }
+
+    private PersistentLongIntMap open() {
+        return new PersistentLongIntMap(dbFile().toString());
+    }
+
+    @Test
+    void putThenGetAndRemove() {
+        try (var map = open()) {
+            map.put(42L, 1);
+            map.put(0L, 2);
+            map.put(-1L, 3);
+            assertEquals(1, map.getOrDefault(42L, -1));
+            assertEquals(2, map.getOrDefault(0L, -1));
+            assertEquals(3, map.getOrDefault(-1L, -1));
+            assertEquals(3, map.size());
+            map.remove(0L);
+            map.remove(42L);
+            assertFalse(map.containsKey(0L));
+            assertFalse(map.containsKey(42L));
+            assertTrue(map.containsKey(-1L));
+            assertEquals(1, map.size());
+        }
+    }
+
+    @Test
+    void randomOperationsMatchAHashMapAcrossReopen() {
+        var random = new Random(7);
+        Map<Long, Integer> expected = new HashMap<>();
+        List<Long> keys = new ArrayList<>();
+        try (var map = open()) {
+            for (int i = 0; i < 50_000; i++) {
+                // Few distinct keys force long probe runs, resizes and back-shifting removals.
+                long key = i % 3 == 0 && !keys.isEmpty() ? keys.get(random.nextInt(keys.size())) : random.nextLong() >>> 44;
+                if (random.nextInt(4) == 0) {
+                    map.remove(key);
+                    expected.remove(key);
+                } else {
+                    map.put(key, i);
+                    expected.put(key, i);
+                    keys.add(key);
+                }
+            }
+            assertMatches(expected, map);
+        }
+        try (var reopened = open()) {
+            assertMatches(expected, reopened);
+        }
+    }
+
+    private void assertMatches(Map<Long, Integer> expected, PersistentLongIntMap map) {
+        assertEquals(expected.size(), map.size());
+        for (var entry : expected.entrySet()) {
+            assertEquals((int) entry.getValue(), map.getOrDefault(entry.getKey(), -1), "key " + entry.getKey());
+        }
+    }
+
+    @Test
+    void removeIfValueBelowRewritesTheLog() throws IOException {
+        try (var map = open()) {
+            for (int i = 0; i < 1000; i++) {
+                map.put(i, i);
+            }
+            assertEquals(500, map.removeIfValueBelow(500));
+            assertEquals(500, map.size());
+        }
+        long expectedBytes = PersistentLongIntMap.FILE_HEADER_SIZE + 500L * PersistentLongIntMap.RECORD_SIZE;
+        assertEquals(expectedBytes, Files.size(dbFile()));
+        try (var reopened = open()) {
+            assertFalse(reopened.containsKey(499));
+            assertEquals(500, reopened.getOrDefault(500, -1));
+            assertEquals(500, reopened.size());
+        }
+    }
+
+    @Test
+    void logIsCompactedWhenItOutgrowsTheEntries() throws IOException {
+        try (var map = open()) {
+            for (int i = 0; i < 30_000; i++) {
+                map.put(i % 10, i);
+            }
+        }
+        assertTrue(Files.size(dbFile()) < 15_000L * PersistentLongIntMap.RECORD_SIZE, "log should be compacted");
+        try (var reopened = open()) {
+            assertEquals(10, reopened.size());
+            assertEquals(29_999, reopened.getOrDefault(9, -1));
+        }
+    }
+
+    @Test
+    void tornTrailingRecordIsSkipped() throws IOException {
+        try (var map = open()) {
+            map.put(1, 1);
+            map.put(2, 2);
+        }
+        try (var channel = FileChannel.open(dbFile(), StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+        try (var reopened = open()) {
+            assertEquals(1, reopened.getOrDefault(1, -1));
+            assertFalse(reopened.containsKey(2));
+            reopened.put(3, 3);
+        }
+        try (var reopened = open()) {
+            assertEquals(2, reopened.size());
+            assertEquals(3, reopened.getOrDefault(3, -1));
+        }
+    }
+
+    @Test
+    void clearTruncatesTheLog() throws IOException {
+        try (var map = open()) {
+            map.put(1, 1);
+            map.clear();
+            assertEquals(0, map.size());
+        }
+        assertEquals(PersistentLongIntMap.FILE_HEADER_SIZE, Files.size(dbFile()));
+    }
+
+    @Test
+    void otherFilesAreRejected() throws IOException {
+        Files.writeString(dbFile(), "{\"k\":\"a\",\"v\":1}\n");
+        var e = assertThrows(UncheckedIOException.class, this::open);
+        assertTrue(e.getMessage().contains(dbFile().toString()), e.getMessage());
+    }
+}
@@ -0,0 +1,82 @@
+package org.owasp.oag.services.blacklist;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CuckooFilterTest {
+
+    @Test
+    public void testNoFalseNegativesUpToCapacity() {
+
+        int entries = 4 * CuckooFilter.MIN_CAPACITY;
+        var filter = new CuckooFilter(entries);
+        for (int i = 0; i < entries; i++) {
+            filter.put(Long.toHexString(i * 0x9E3779B97F4A7C15L), 1000);
+        }
+        for (int i = 0; i < entries; i++) {
+            assertTrue(filter.mightContain(Long.toHexString(i * 0x9E3779B97F4A7C15L)));
+        }
+        assertEquals(entries, filter.size());
+        assertFalse(filter.needsRebuild());
+
+        var random = new SplittableRandom(1);
+        int falsePositives = 0;
+        int lookups = 200_000;
+        for (int i = 0; i < lookups; i++) {
+            if (filter.mightContain("unknown" + random.nextLong())) {
+                falsePositives++;
+            }
+        }
+        double rate = (double) falsePositives / lookups;
+        assertTrue(rate < 0.0005, "false positive rate " + rate);
+        assertTrue(filter.estimatedFpp() < 0.001, "estimated false positive rate " + filter.estimatedFpp());
+    }
+
+    @Test
+    public void testRemovedIdentifiersAreGone() {
+
+        var filter = new CuckooFilter(CuckooFilter.MIN_CAPACITY);
+        for (int i = 0; i < 1000; i++) {
+            filter.put("session-" + i, 1000);
+        }
+        for (int i = 0; i < 1000; i += 2) {
+            assertTrue(filter.remove("session-" + i));
+        }
+        for (int i = 1; i < 1000; i += 2) {
+            assertTrue(filter.mightContain("session-" + i));
+        }
+        int stale = 0;
+        for (int i = 0; i < 1000; i += 2) {
+            if (filter.mightContain("session-" + i)) {
+                stale++;
+            }
+        }
+        assertTrue(stale < 3, stale + " removed identifiers still found");
+        assertEquals(500, filter.size());
+        assertFalse(filter.remove("unknown"));
+    }
+
+    @Test
+    public void testOverfullFilterStashesAndAsksForRebuild() {
+
+        var filter = new CuckooFilter(CuckooFilter.MIN_CAPACITY);
+        int entries = 2 * CuckooFilter.MIN_CAPACITY;
+        for (int i = 0; i < entries; i++) {
+            filter.put("session-" + i, 1000);
+        }
+        assertTrue(filter.needsRebuild());
+        for (int i = 0; i < entries; i++) {
+            assertTrue(filter.mightContain("session-" + i));
+        }
+        for (int i = 0; i < entries; i++) {
+            assertTrue(filter.remove("session-" + i));
+        }
+        assertEquals(0, filter.size());
+        assertFalse(filter.needsRebuild());
+    }
+}
@@ -2,16 +2,33 @@ package org.owasp.oag.services.blacklist;
 
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
+import org.owasp.oag.exception.SystemException;
 import org.owasp.oag.infrastructure.GlobalClockSource;
 import org.owasp.oag.persistentmap.FilePersistentMap;
+import org.owasp.oag.persistentmap.InMemoryPersistentMap;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.time.Clock;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.owasp.oag.services.blacklist.LocalPersistentBlacklist.EXPECTED_BLOOM_FILTER_FALSE_POSITIVES;
 
 class LocalPersistentBlacklistTest {
 
@@ -72,6 +89,324 @@ class LocalPersistentBlacklistTest {
         blacklist.close();
     }
 
+    @Test
+    public void testSweepRemovesOnlyExpiredEntries() throws IOException {
+
+        var clockSource = new GlobalClockSource();
+        var blacklist = openBlacklist(clockSource);
+
+        blacklist.invalidateSession("1", 100).block();
+        blacklist.invalidateSession("2", 100).block();
+        blacklist.invalidateSession("3", 1000).block();
+
+        timeTravelToFuture(clockSource, 90);
+        // Invalidated again, must survive the sweep of its first expiry
+        blacklist.invalidateSession("2", 200).block();
+
+        timeTravelToFuture(clockSource, 120);
+        blacklist.sweepExpiredBlocking();
+
+        assertFalse(blacklist.isInvalidated("1").block());
+        assertTrue(blacklist.isInvalidated("2").block());
+        assertTrue(blacklist.isInvalidated("3").block());
+        assertEquals(2, blacklist.blacklist.size());
+
+        timeTravelToFuture(clockSource, 120);
+        blacklist.cleanup().block();
+
+        assertFalse(blacklist.isInvalidated("2").block());
+        assertTrue(blacklist.isInvalidated("3").block());
+
+        blacklist.close();
+
+        // The removals are persisted
+        blacklist = openBlacklist(clockSource);
+        assertEquals(1, blacklist.blacklist.size());
+        blacklist.close();
+    }
+
+    @Test
+    public void testBloomFilterMetrics() throws IOException {
+
+        var clockSource = new GlobalClockSource();
+        var blacklist = openBlacklist(clockSource);
+
+        blacklist.invalidateSession("1", 100).block();
+        blacklist.invalidateSession("2", 4000).block();
+
+        assertTrue(blacklist.isInvalidated("1").block());
+        assertFalse(blacklist.isInvalidated("3").block());
+
+        var metrics = blacklist.getBloomFilterMetrics();
+        assertEquals(2, metrics.slices());
+        assertEquals(2, metrics.entries());
+        assertTrue(metrics.hits() >= 1);
+        assertEquals(2, metrics.hits() + metrics.misses());
+        assertTrue(metrics.estimatedFpp() < EXPECTED_BLOOM_FILTER_FALSE_POSITIVES);
+
+        // The slice of "1" is dropped once it expired, the one of "2" is kept
+        timeTravelToFuture(clockSource, 1000);
+        blacklist.cleanup().block();
+        assertEquals(1, blacklist.getBloomFilterMetrics().slices());
+        assertEquals(1, blacklist.getBloomFilterMetrics().entries());
+        assertTrue(blacklist.isInvalidated("2").block());
+
+        blacklist.close();
+    }
+
+    @Test
+    public void testLookupsWithBlockingAndNonBlockingReads() throws IOException {
+
+        var clockSource = new GlobalClockSource();
+        var blocking = new InMemoryPersistentMap<Integer>() {
+            @Override
+            public boolean hasNonBlockingReads() {
+                return false;
+            }
+        };
+        for (var map : List.of(new InMemoryPersistentMap<Integer>(), blocking)) {
+            var blacklist = new LocalPersistentBlacklist(clockSource, map);
+            blacklist.invalidateSession("1", 100).block();
+
+            assertTrue(blacklist.isInvalidated("1").block());
+            assertFalse(blacklist.isInvalidated("2").block());
+            blacklist.close();
+        }
+    }
+
+    @Test
+    public void testCuckooFilterDropsExpiredIdentifiers() throws IOException {
+
+        var clockSource = new GlobalClockSource();
+        var blacklist = new LocalPersistentBlacklist(clockSource, new InMemoryPersistentMap<>(),
+                LocalPersistentBlacklist.DEFAULT_MAX_TTL_SECONDS, IdentifierFilterType.CUCKOO);
+
+        // Twice the initial capacity, the filter is rebuilt on the way
+        int entries = 2 * CuckooFilter.MIN_CAPACITY;
+        for (int i = 0; i < entries; i++) {
+            blacklist.invalidateSession("short-" + i, i % 2 == 0 ? 100 : 4000).block();
+        }
+        blacklist.invalidateSession("short-0", 200).block();
+        for (int i = 0; i < entries; i++) {
+            assertTrue(blacklist.isInvalidated("short-" + i).block());
+        }
+        long sizeBytes = blacklist.getBloomFilterMetrics().sizeBytes();
+        assertTrue(sizeBytes > new CuckooFilter(CuckooFilter.MIN_CAPACITY).sizeBytes());
+
+        timeTravelToFuture(clockSource, 1000);
+        blacklist.cleanup().block();
+        var filter = (CuckooFilter) blacklist.bloomFilter;
+        assertEquals(entries / 2, filter.size());
+        for (int i = 1; i < entries; i += 2) {
+            assertTrue(blacklist.isInvalidated("short-" + i).block());
+        }
+        assertFalse(blacklist.isInvalidated("short-0").block());
+        blacklist.close();
+    }
+
+    @Test
+    public void testInvalidationsDoNotWaitForTheSweepToBeDurable() throws Exception {
+
+        var clockSource = new GlobalClockSource();
+        var removing = new CountDownLatch(1);
+        var durable = new CompletableFuture<Void>();
+        var map = new InMemoryPersistentMap<Integer>() {
+            @Override
+            public CompletableFuture<Void> removeAllAsync(Collection<String> keys) {
+                super.removeAllAsync(keys);
+                removing.countDown();
+                return durable;
+            }
+        };
+        var blacklist = new LocalPersistentBlacklist(clockSource, map);
+        blacklist.invalidateSession("1", 100).block();
+        timeTravelToFuture(clockSource, 120);
+
+        var sweep = CompletableFuture.runAsync(blacklist::sweepExpiredBlocking);
+        await(removing);
+        assertFalse(blacklist.isInvalidated("1").block());
+        // Would wait for the sweep if it held the lock until its removals are durable
+        CompletableFuture.runAsync(() -> blacklist.invalidateSession("2", 100).block()).get(5, TimeUnit.SECONDS);
+        assertTrue(blacklist.isInvalidated("2").block());
+        assertFalse(sweep.isDone());
+
+        durable.complete(null);
+        sweep.join();
+        blacklist.close();
+    }
+
+    @Test
+    public void testPipelineCoalescesInvalidations() throws Exception {
+
+        var clockSource = new GlobalClockSource();
+        var batches = new AtomicInteger();
+        var map = new InMemoryPersistentMap<Integer>() {
+            @Override
+            public CompletableFuture<Void> putAllAsync(Map<String, Integer> entries) {
+                batches.incrementAndGet();
+                sleep(5);
+                return super.putAllAsync(entries);
+            }
+        };
+        var blacklist = new LocalPersistentBlacklist(clockSource, map);
+        blacklist.startInvalidationPipeline(1000, 100);
+
+        List<CompletableFuture<Void>> results = new ArrayList<>();
+        var executor = Executors.newFixedThreadPool(16);
+        try {
+            for (int i = 0; i < 500; i++) {
+                String identifier = "session-" + i;
+                results.add(CompletableFuture.runAsync(() -> blacklist.invalidateSession(identifier, 100).block(), executor));
+            }
+            for (var result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        for (int i = 0; i < 500; i++) {
+            assertTrue(blacklist.isInvalidated("session-" + i).block());
+        }
+        assertTrue(batches.get() < 250, batches.get() + " batches for 500 invalidations");
+        blacklist.close();
+    }
+
+    @Test
+    public void testPipelineRejectsInvalidationsWhileFull() throws IOException {
+
+        var clockSource = new GlobalClockSource();
+        var writing = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var map = new InMemoryPersistentMap<Integer>() {
+            @Override
+            public CompletableFuture<Void> putAllAsync(Map<String, Integer> entries) {
+                writing.countDown();
+                await(release);
+                return super.putAllAsync(entries);
+            }
+        };
+        var blacklist = new LocalPersistentBlacklist(clockSource, map);
+        blacklist.startInvalidationPipeline(2, 1);
+        int expiry = clockSource.getEpochSeconds() + 100;
+
+        var first = blacklist.invalidateUntil("1", expiry);
+        await(writing);
+        var queued = List.of(blacklist.invalidateUntil("2", expiry), blacklist.invalidateUntil("3", expiry));
+        var rejected = blacklist.invalidateUntil("4", expiry);
+        assertTrue(rejected.isCompletedExceptionally());
+        assertTrue(rejected.handle((unused, error) -> error).join() instanceof SystemException);
+
+        release.countDown();
+        first.join();
+        queued.forEach(CompletableFuture::join);
+        assertTrue(blacklist.isInvalidated("3").block());
+        assertFalse(blacklist.isInvalidated("4").block());
+        blacklist.close();
+    }
+
+    @Test
+    public void testPipelineCompletesInvalidationsSubmittedWhileClosing() throws Exception {
+
+        for (int round = 0; round < 200; round++) {
+            var pipeline = new InvalidationPipeline(entries -> CompletableFuture.completedFuture(null), 1000, 10);
+            List<CompletableFuture<Void>> results = new ArrayList<>();
+            var submitters = new ArrayList<Thread>();
+            var started = new CountDownLatch(4);
+            for (int i = 0; i < 4; i++) {
+                var submitter = new Thread(() -> {
+                    List<CompletableFuture<Void>> submitted = new ArrayList<>();
+                    started.countDown();
+                    CompletableFuture<Void> result;
+                    do {
+                        result = pipeline.submit("session", 100);
+                        submitted.add(result);
+                    } while (!result.isCompletedExceptionally());
+                    synchronized (results) {
+                        results.addAll(submitted);
+                    }
+                });
+                submitter.start();
+                submitters.add(submitter);
+            }
+            await(started);
+            pipeline.close();
+            for (var submitter : submitters) {
+                submitter.join();
+            }
+            for (var result : results) {
+                assertTrue(result.isDone(), "An invalidation submitted while closing never completed");
+            }
+        }
+    }
+
+    @Test
+    public void testSnapshotExportAndImport() throws IOException {
+
+        var clockSource = new GlobalClockSource();
+        var source = openBlacklist(clockSource);
+        source.invalidateSession("1", 100).block();
+        for (int i = 0; i < 10_000; i++) {
+            source.invalidateSession("session-" + i, 200).block();
+        }
+        timeTravelToFuture(clockSource, 120);
+
+        var snapshot = new ByteArrayOutputStream();
+        assertEquals(10_000, source.exportSnapshot(snapshot));
+        source.close();
+
+        var target = new LocalPersistentBlacklist(clockSource, new InMemoryPersistentMap<>());
+        assertEquals(10_000, target.importSnapshot(new ByteArrayInputStream(snapshot.toByteArray())));
+        assertFalse(target.isInvalidated("1").block());
+        assertTrue(target.isInvalidated("session-0").block());
+        assertTrue(target.isInvalidated("session-9999").block());
+        assertFalse(target.isInvalidated("session-10000").block());
+        target.close();
+    }
+
+    @Test
+    public void testTruncatedSnapshotIsRejected() throws IOException {
+
+        var clockSource = new GlobalClockSource();
+        var source = new LocalPersistentBlacklist(clockSource, new InMemoryPersistentMap<>());
+        for (int i = 0; i < 1000; i++) {
+            source.invalidateSession("session-" + i, 200).block();
+        }
+        var snapshot = new ByteArrayOutputStream();
+        source.exportSnapshot(snapshot);
+        source.close();
+
+        byte[] truncated = Arrays.copyOf(snapshot.toByteArray(), snapshot.size() / 2);
+        var target = new LocalPersistentBlacklist(clockSource, new InMemoryPersistentMap<>());
+        assertThrows(IOException.class, () -> target.importSnapshot(new ByteArrayInputStream(truncated)));
+        target.close();
+    }
+
+    @Test
+    public void testSnapshotsAreNotImportedOverPlainHttpFromRemoteHosts() {
+
+        var e = assertThrows(IOException.class, () -> BlacklistSnapshot.openSource(
+                "http://192.0.2.1:8081/actuator/blacklistsnapshot", Duration.ofSeconds(1)));
+        assertTrue(e.getMessage().startsWith("Refusing"));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
     public static void timeTravelToFuture(GlobalClockSource clockSource, int seconds) {
         clockSource.setGlobalClock(Clock.offset(clockSource.getGlobalClock(), Duration.ofSeconds(seconds)));
     }
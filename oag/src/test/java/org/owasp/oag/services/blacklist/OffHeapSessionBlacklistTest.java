@@ -0,0 +1,117 @@
+package org.owasp.oag.services.blacklist;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.owasp.oag.infrastructure.GlobalClockSource;
+import org.owasp.oag.persistentmap.FilePersistentMap;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.owasp.oag.services.blacklist.LocalPersistentBlacklistTest.timeTravelToFuture;
+
+class OffHeapSessionBlacklistTest {
+
+    @TempDir
+    Path tempDir;
+
+    private String file() {
+        return tempDir.resolve("session-blacklist.db").toString();
+    }
+
+    @Test
+    public void testSessionBlacklist() {
+
+        var clockSource = new GlobalClockSource();
+        var blacklist = OffHeapSessionBlacklist.open(clockSource, file());
+
+        blacklist.invalidateSession(Long.toHexString(-42L), 100).block();
+        blacklist.invalidateSession("2", 200).block();
+
+        assertTrue(blacklist.isInvalidated(Long.toHexString(-42L)).block());
+        assertTrue(blacklist.isInvalidated("2").block());
+        assertFalse(blacklist.isInvalidated("3").block());
+
+        blacklist.close();
+
+        // Reopen
+        blacklist = OffHeapSessionBlacklist.open(clockSource, file());
+        assertTrue(blacklist.isInvalidated(Long.toHexString(-42L)).block());
+        assertTrue(blacklist.isInvalidated("2").block());
+        assertFalse(blacklist.isInvalidated("3").block());
+
+        blacklist.close();
+    }
+
+    @Test
+    public void testSessionBlacklistExpiry() {
+
+        var clockSource = new GlobalClockSource();
+        var blacklist = OffHeapSessionBlacklist.open(clockSource, file());
+
+        blacklist.invalidateSession("1", 100).block();
+        blacklist.invalidateSession("2", 200).block();
+
+        timeTravelToFuture(clockSource, 120);
+
+        blacklist.cleanup().block();
+
+        assertFalse(blacklist.isInvalidated("1").block());
+        assertTrue(blacklist.isInvalidated("2").block());
+
+        blacklist.close();
+    }
+
+    @Test
+    public void testSweeperRemovesExpiredEntries() throws InterruptedException {
+
+        var clockSource = new GlobalClockSource();
+        var blacklist = OffHeapSessionBlacklist.open(clockSource, file());
+        var scheduler = new ThreadPoolTaskScheduler();
+        scheduler.initialize();
+
+        blacklist.invalidateSession("1", 100).block();
+        blacklist.invalidateSession("2", 200).block();
+        timeTravelToFuture(clockSource, 120);
+        blacklist.startSweeper(scheduler, Duration.ofMillis(10));
+
+        long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (blacklist.isInvalidated("1").block()) {
+            assertTrue(System.nanoTime() < deadline, "Expired entry was not swept");
+            Thread.sleep(10);
+        }
+        assertTrue(blacklist.isInvalidated("2").block());
+
+        blacklist.close();
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void testEntriesOfFileBlacklistAreImported() {
+
+        var clockSource = new GlobalClockSource();
+        try (var legacy = new FilePersistentMap<>(file(), Integer.class)) {
+            legacy.put("abc", clockSource.getEpochSeconds() + 100);
+        }
+
+        var blacklist = OffHeapSessionBlacklist.open(clockSource, file());
+        assertTrue(blacklist.isInvalidated("abc").block());
+        assertFalse(blacklist.isInvalidated("abd").block());
+        blacklist.close();
+    }
+
+    @Test
+    public void testSessionIdParsing() {
+
+        long id = 0x8000_0000_0000_0001L;
+        assertEquals(id, OffHeapSessionBlacklist.parseSessionId(Long.toHexString(id)));
+        assertEquals(0, OffHeapSessionBlacklist.parseSessionId("0"));
+        assertNotEquals(OffHeapSessionBlacklist.parseSessionId("not-hex"), OffHeapSessionBlacklist.parseSessionId("not-hey"));
+        assertNotEquals(OffHeapSessionBlacklist.parseSessionId("12345678901234567"), OffHeapSessionBlacklist.parseSessionId("1234567890123456"));
+    }
+}
@@ -0,0 +1,230 @@
+package org.owasp.oag.services.blacklist;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.owasp.oag.infrastructure.GlobalClockSource;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RemoteSessionBlacklistTest {
+
+    private static final String PASSWORD = "stand-in-password";
+
+    private final GlobalClockSource clockSource = new GlobalClockSource();
+    private final List<RemoteSessionBlacklist> instances = new ArrayList<>();
+    private StandInKeyValueServer server;
+    private InetSocketAddress address;
+
+    @AfterEach
+    void close() throws IOException {
+        for (var instance : instances) {
+            instance.close();
+        }
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testInvalidationVisibleOnAllInstances() throws IOException {
+
+        server = new StandInKeyValueServer(PASSWORD);
+        var a = open(settings -> { });
+        var b = open(settings -> { });
+
+        a.invalidateSession("1", 100).block();
+        assertTrue(a.isInvalidated("1").block());
+        awaitTrue(() -> b.isInvalidated("1").block());
+        assertFalse(b.isInvalidated("2").block());
+
+        // Once synchronized, the bloom filter answers for identifiers that were never invalidated
+        awaitTrue(() -> !b.isInvalidated("probe").block() && b.getBloomFilterMetrics().misses() > 0);
+        int lookedUp = server.multiGetKeys.get();
+        for (int i = 0; i < 100; i++) {
+            assertFalse(b.isInvalidated("other-" + i).block());
+        }
+        assertTrue(server.multiGetKeys.get() - lookedUp < 5);
+    }
+
+    @Test
+    public void testNearCacheAnswersRepeatedLookups() throws IOException {
+
+        server = new StandInKeyValueServer(PASSWORD);
+        var a = open(settings -> { });
+        a.invalidateSession("1", 100).block();
+
+        var b = open(settings -> settings.setNegativeCacheTtl(Duration.ofMinutes(1)));
+        awaitTrue(() -> b.isInvalidated("1").block());
+        int lookedUp = server.multiGetKeys.get();
+        for (int i = 0; i < 10; i++) {
+            assertTrue(b.isInvalidated("1").block());
+        }
+        assertEquals(lookedUp, server.multiGetKeys.get());
+    }
+
+    @Test
+    public void testConcurrentLookupsAreBatched() throws Exception {
+
+        server = new StandInKeyValueServer(PASSWORD);
+        var a = open(settings -> { });
+        for (int i = 0; i < 200; i++) {
+            a.invalidateSession("session-" + i, 100).block();
+        }
+
+        var b = open(settings -> settings.setMaxInFlightBatches(1));
+        awaitTrue(() -> b.isInvalidated("session-0").block());
+        server.replyDelayMillis = 20;
+        int batches = server.multiGets.get();
+
+        List<CompletableFuture<Boolean>> results = new ArrayList<>();
+        var executor = Executors.newFixedThreadPool(32);
+        try {
+            for (int i = 1; i < 200; i++) {
+                String identifier = "session-" + i;
+                results.add(CompletableFuture.supplyAsync(() -> b.isInvalidated(identifier).block(), executor));
+            }
+            for (var result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertTrue(server.multiGets.get() - batches < 100, "Lookups were not batched");
+    }
+
+    @Test
+    public void testInvalidationsOfAnInstanceWithASkewedClock() throws IOException {
+
+        server = new StandInKeyValueServer(PASSWORD);
+        var b = open(settings -> { });
+        b.invalidateSession("x", 100).block();
+        awaitTrue(() -> !b.isInvalidated("probe").block() && b.getBloomFilterMetrics().misses() > 0);
+
+        var behind = new GlobalClockSource();
+        behind.setGlobalClock(Clock.offset(Clock.systemUTC(), Duration.ofMinutes(-5)));
+        var a = open(behind, settings -> { });
+        a.invalidateSession("1", 3600).block();
+
+        awaitTrue(() -> b.isInvalidated("1").block());
+    }
+
+    @Test
+    public void testLateLogEntriesAreNotMissed() throws Exception {
+
+        server = new StandInKeyValueServer(PASSWORD);
+        var a = open(settings -> { });
+        var b = open(settings -> { });
+        awaitTrue(() -> !b.isInvalidated("probe").block() && b.getBloomFilterMetrics().misses() > 0);
+
+        // An invalidation whose log entry is delayed until after the one of a later invalidation
+        int expiry = clockSource.getEpochSeconds() + 100;
+        try (var connection = new RespConnection(address, PASSWORD, Duration.ofSeconds(5))) {
+            long sequence = (Long) connection.send(List.of("INCR", RemoteBlacklistSettings.DEFAULT_KEY_PREFIX + RemoteSessionBlacklist.SEQUENCE_KEY)).get();
+            connection.send(List.of("SET", RemoteBlacklistSettings.DEFAULT_KEY_PREFIX + RemoteSessionBlacklist.IDENTIFIER_KEY + "late", Integer.toString(expiry),
+                    "EX", "100")).get();
+            a.invalidateSession("other", 100).block();
+            awaitTrue(() -> b.isInvalidated("other").block());
+
+            assertTrue(b.isInvalidated("late").block());
+
+            connection.send(List.of("ZADD", RemoteBlacklistSettings.DEFAULT_KEY_PREFIX + RemoteSessionBlacklist.LOG_KEY,
+                    Long.toString(sequence), expiry + ":late")).get();
+        }
+        // Once the gap is filled, the bloom filter answers again
+        awaitTrue(() -> {
+            int lookedUp = server.multiGetKeys.get();
+            for (int i = 0; i < 10; i++) {
+                b.isInvalidated("probe-" + i).block();
+            }
+            return server.multiGetKeys.get() == lookedUp;
+        });
+        assertTrue(b.isInvalidated("late").block());
+    }
+
+    @Test
+    public void testLookupsBypassingTheBloomFilterAreNoFalsePositives() throws Exception {
+
+        server = new StandInKeyValueServer(PASSWORD);
+        var b = open(settings -> { });
+        awaitTrue(() -> !b.isInvalidated("probe").block() && b.getBloomFilterMetrics().misses() > 0);
+
+        // A gap in the log makes every lookup go to the store
+        try (var connection = new RespConnection(address, PASSWORD, Duration.ofSeconds(5))) {
+            connection.send(List.of("INCR", RemoteBlacklistSettings.DEFAULT_KEY_PREFIX + RemoteSessionBlacklist.SEQUENCE_KEY)).get();
+        }
+        var a = open(settings -> { });
+        a.invalidateSession("other", 100).block();
+        awaitTrue(() -> b.isInvalidated("other").block());
+
+        int lookedUp = server.multiGetKeys.get();
+        for (int i = 0; i < 10; i++) {
+            assertFalse(b.isInvalidated("unknown-" + i).block());
+        }
+        assertEquals(lookedUp + 10, server.multiGetKeys.get());
+        assertEquals(0, b.getBloomFilterMetrics().falsePositives());
+    }
+
+    @Test
+    public void testLookupsFailWhileStoreIsDown() throws IOException {
+
+        server = new StandInKeyValueServer(PASSWORD);
+        var a = open(settings -> settings.setTimeout(Duration.ofMillis(500)));
+        a.invalidateSession("1", 100).block();
+
+        server.close();
+        server = null;
+        var b = open(settings -> settings.setTimeout(Duration.ofMillis(500)));
+        assertThrows(RuntimeException.class, () -> b.isInvalidated("1").block());
+
+        // Answered from the near cache
+        assertTrue(a.isInvalidated("1").block());
+    }
+
+    private RemoteSessionBlacklist open(Consumer<RemoteBlacklistSettings> customizer) {
+        return open(clockSource, customizer);
+    }
+
+    private RemoteSessionBlacklist open(GlobalClockSource clockSource, Consumer<RemoteBlacklistSettings> customizer) {
+
+        if (address == null) {
+            address = server.getAddress();
+        }
+        var settings = new RemoteBlacklistSettings();
+        settings.setAddress(address);
+        settings.setPassword(PASSWORD);
+        settings.setSyncInterval(Duration.ofMillis(50));
+        settings.setNegativeCacheTtl(Duration.ZERO);
+        customizer.accept(settings);
+        var instance = new RemoteSessionBlacklist(clockSource, settings, 3600);
+        instances.add(instance);
+        return instance;
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) {
+
+        long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Condition not met in time");
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
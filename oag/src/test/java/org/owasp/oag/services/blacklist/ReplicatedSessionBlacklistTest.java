@@ -0,0 +1,146 @@
+package org.owasp.oag.services.blacklist;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.owasp.oag.infrastructure.GlobalClockSource;
+import org.owasp.oag.persistentmap.InMemoryPersistentMap;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReplicatedSessionBlacklistTest {
+
+    private static final String SECRET = "0123456789abcdef0123456789abcdef";
+
+    private final GlobalClockSource clockSource = new GlobalClockSource();
+    private final List<ReplicatedSessionBlacklist> instances = new ArrayList<>();
+
+    @AfterEach
+    void closeInstances() throws IOException {
+        for (var instance : instances) {
+            instance.close();
+        }
+    }
+
+    @Test
+    public void testInvalidationReachesAllPeers() {
+
+        var addresses = freeAddresses(3);
+        var a = open(addresses, 0, SECRET);
+        var b = open(addresses, 1, SECRET);
+        var c = open(addresses, 2, SECRET);
+
+        a.invalidateSession("1", 100).block();
+        c.invalidateSession("2", 100).block();
+
+        awaitTrue(() -> b.isInvalidated("1").block() && c.isInvalidated("1").block());
+        awaitTrue(() -> a.isInvalidated("2").block() && b.isInvalidated("2").block());
+        assertFalse(b.isInvalidated("3").block());
+    }
+
+    @Test
+    public void testAntiEntropyCatchesUpRestartedPeer() {
+
+        var addresses = freeAddresses(2);
+        var a = open(addresses, 0, SECRET);
+
+        // Pushed while b is down, so the datagrams are lost
+        for (int i = 0; i < 2000; i++) {
+            a.invalidateSession("session-" + i, 100).block();
+        }
+
+        var b = open(addresses, 1, SECRET);
+        awaitTrue(() -> {
+            for (int i = 0; i < 2000; i++) {
+                if (!b.isInvalidated("session-" + i).block()) {
+                    return false;
+                }
+            }
+            return true;
+        });
+    }
+
+    @Test
+    public void testDatagramsWithAnotherSecretAreIgnored() throws IOException {
+
+        var addresses = freeAddresses(2);
+        var a = open(addresses, 0, SECRET);
+
+        try (var peer = DatagramChannel.open().bind(addresses.get(1))) {
+            int expiry = clockSource.getEpochSeconds() + 100;
+            var forged = new ReplicationCodec("another secret of sufficient length".getBytes(StandardCharsets.UTF_8));
+            var valid = new ReplicationCodec(SECRET.getBytes(StandardCharsets.UTF_8));
+
+            // Both from the same socket, so the receiver has dropped the forged one once it applied the sentinel
+            for (var datagram : forged.encodeDeltas(List.of(new ReplicationCodec.Delta("1", expiry)))) {
+                peer.send(datagram, addresses.get(0));
+            }
+            for (var datagram : valid.encodeDeltas(List.of(new ReplicationCodec.Delta("sentinel", expiry)))) {
+                peer.send(datagram, addresses.get(0));
+            }
+
+            awaitTrue(() -> a.isInvalidated("sentinel").block());
+            assertFalse(a.isInvalidated("1").block());
+        }
+    }
+
+    private ReplicatedSessionBlacklist open(List<InetSocketAddress> addresses, int index, String secret) {
+
+        var settings = new ReplicationSettings();
+        settings.setBindAddress(addresses.get(index));
+        var peers = new ArrayList<>(addresses);
+        peers.remove(index);
+        settings.setPeers(peers);
+        settings.setSecret(secret);
+        settings.setFlushInterval(Duration.ofMillis(5));
+        settings.setAntiEntropyInterval(Duration.ofMillis(200));
+
+        var local = new LocalPersistentBlacklist(clockSource, new InMemoryPersistentMap<>());
+        var instance = new ReplicatedSessionBlacklist(clockSource, local, settings);
+        instances.add(instance);
+        return instance;
+    }
+
+    private static List<InetSocketAddress> freeAddresses(int count) {
+
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        List<DatagramChannel> channels = new ArrayList<>();
+        try {
+            for (int i = 0; i < count; i++) {
+                var channel = DatagramChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+                channels.add(channel);
+                addresses.add((InetSocketAddress) channel.getLocalAddress());
+            }
+            for (var channel : channels) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return addresses;
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) {
+
+        long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Not replicated in time");
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package org.owasp.oag.services.blacklist;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A stand-in for Redis that implements the commands used by {@link RemoteSessionBlacklist} well
+ * enough for tests: {@code PING}, {@code AUTH}, {@code SET} with {@code EX}, {@code GET}, {@code MGET},
+ * {@code INCR}, {@code ZADD}, {@code ZRANGEBYSCORE} with {@code WITHSCORES} and
+ * {@code ZREMRANGEBYSCORE}.
+ */
+class StandInKeyValueServer implements AutoCloseable {
+
+    private final ServerSocket serverSocket;
+    private final String password;
+    private final Map<String, String> values = new HashMap<>();
+    private final Map<String, Long> valueExpiries = new HashMap<>();
+    private final Map<String, Map<String, Double>> sortedSets = new HashMap<>();
+    private final List<Socket> connections = new ArrayList<>();
+
+    /** Number of {@code MGET} commands received. */
+    final AtomicInteger multiGets = new AtomicInteger();
+
+    /** Number of keys looked up with {@code MGET}. */
+    final AtomicInteger multiGetKeys = new AtomicInteger();
+
+    /** Delay before each reply, to let lookups queue up. */
+    volatile long replyDelayMillis;
+
+    StandInKeyValueServer(String password) throws IOException {
+        this.password = password;
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        var acceptor = new Thread(this::accept, "stand-in-kv-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    InetSocketAddress getAddress() {
+        return (InetSocketAddress) serverSocket.getLocalSocketAddress();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                synchronized (connections) {
+                    connections.add(socket);
+                }
+                var handler = new Thread(() -> serve(socket), "stand-in-kv-connection");
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket) {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            boolean authenticated = password == null;
+            while (true) {
+                @SuppressWarnings("unchecked")
+                var command = (List<Object>) RespConnection.read(in);
+                if (replyDelayMillis > 0) {
+                    Thread.sleep(replyDelayMillis);
+                }
+                String name = command.get(0).toString().toUpperCase();
+                if (name.equals("AUTH")) {
+                    authenticated = password.equals(command.get(1));
+                    out.write((authenticated ? "+OK\r\n" : "-WRONGPASS invalid password\r\n").getBytes(StandardCharsets.UTF_8));
+                } else if (!authenticated) {
+                    out.write("-NOAUTH Authentication required\r\n".getBytes(StandardCharsets.UTF_8));
+                } else {
+                    synchronized (this) {
+                        writeReply(out, execute(name, command));
+                    }
+                }
+                out.flush();
+            }
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            // Connection closed
+        }
+    }
+
+    private Object execute(String name, List<Object> command) {
+        long now = System.currentTimeMillis();
+        switch (name) {
+            case "PING":
+                return "PONG";
+            case "SET": {
+                String key = command.get(1).toString();
+                values.put(key, command.get(2).toString());
+                valueExpiries.remove(key);
+                if (command.size() > 4 && command.get(3).toString().equalsIgnoreCase("EX")) {
+                    valueExpiries.put(key, now + Long.parseLong(command.get(4).toString()) * 1000);
+                }
+                return "OK";
+            }
+            case "GET": {
+                String key = command.get(1).toString();
+                Long expiry = valueExpiries.get(key);
+                return expiry != null && expiry <= now ? null : values.get(key);
+            }
+            case "INCR": {
+                String key = command.get(1).toString();
+                long value = Long.parseLong(values.getOrDefault(key, "0")) + 1;
+                values.put(key, Long.toString(value));
+                return value;
+            }
+            case "MGET": {
+                multiGets.incrementAndGet();
+                List<Object> reply = new ArrayList<>();
+                for (Object key : command.subList(1, command.size())) {
+                    multiGetKeys.incrementAndGet();
+                    Long expiry = valueExpiries.get(key.toString());
+                    reply.add(expiry != null && expiry <= now ? null : values.get(key.toString()));
+                }
+                return reply;
+            }
+            case "ZADD": {
+                var set = sortedSets.computeIfAbsent(command.get(1).toString(), k -> new HashMap<>());
+                long added = set.put(command.get(3).toString(), Double.parseDouble(command.get(2).toString())) == null ? 1 : 0;
+                return added;
+            }
+            case "ZRANGEBYSCORE": {
+                var set = sortedSets.getOrDefault(command.get(1).toString(), Map.of());
+                double min = bound(command.get(2).toString());
+                double max = bound(command.get(3).toString());
+                List<Object> reply = new ArrayList<>();
+                set.entrySet().stream()
+                        .filter(e -> inRange(e.getValue(), command.get(2).toString(), min, command.get(3).toString(), max))
+                        .sorted(Map.Entry.comparingByValue())
+                        .forEach(e -> {
+                            reply.add(e.getKey());
+                            reply.add(Long.toString(e.getValue().longValue()));
+                        });
+                return reply;
+            }
+            case "ZREMRANGEBYSCORE": {
+                var set = sortedSets.getOrDefault(command.get(1).toString(), new HashMap<>());
+                double min = bound(command.get(2).toString());
+                double max = bound(command.get(3).toString());
+                int before = set.size();
+                set.values().removeIf(score -> inRange(score, command.get(2).toString(), min, command.get(3).toString(), max));
+                if (set.isEmpty()) {
+                    sortedSets.remove(command.get(1).toString());
+                }
+                return (long) (before - set.size());
+            }
+            default:
+                return new IllegalStateException("ERR unknown command " + name);
+        }
+    }
+
+    private static double bound(String bound) {
+        String value = bound.startsWith("(") ? bound.substring(1) : bound;
+        return switch (value) {
+            case "-inf" -> Double.NEGATIVE_INFINITY;
+            case "+inf", "inf" -> Double.POSITIVE_INFINITY;
+            default -> Double.parseDouble(value);
+        };
+    }
+
+    private static boolean inRange(double score, String minBound, double min, String maxBound, double max) {
+        boolean aboveMin = minBound.startsWith("(") ? score > min : score >= min;
+        boolean belowMax = maxBound.startsWith("(") ? score < max : score <= max;
+        return aboveMin && belowMax;
+    }
+
+    private static void writeReply(OutputStream out, Object reply) throws IOException {
+        if (reply == null) {
+            out.write("$-1\r\n".getBytes(StandardCharsets.UTF_8));
+        } else if (reply instanceof IllegalStateException error) {
+            out.write(("-" + error.getMessage() + "\r\n").getBytes(StandardCharsets.UTF_8));
+        } else if (reply instanceof Long number) {
+            out.write((":" + number + "\r\n").getBytes(StandardCharsets.UTF_8));
+        } else if (reply instanceof List<?> elements) {
+            out.write(("*" + elements.size() + "\r\n").getBytes(StandardCharsets.UTF_8));
+            for (Object element : elements) {
+                writeReply(out, element);
+            }
+        } else {
+            byte[] bytes = reply.toString().getBytes(StandardCharsets.UTF_8);
+            out.write(("$" + bytes.length + "\r\n").getBytes(StandardCharsets.UTF_8));
+            out.write(bytes);
+            out.write("\r\n".getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Closes all connections, as if the store went down.
+     */
+    void dropConnections() throws IOException {
+        synchronized (connections) {
+            for (Socket socket : connections) {
+                socket.close();
+            }
+            connections.clear();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        dropConnections();
+    }
+}
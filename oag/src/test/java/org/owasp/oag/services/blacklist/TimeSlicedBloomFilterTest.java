@@ -0,0 +1,54 @@
+package org.owasp.oag.services.blacklist;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TimeSlicedBloomFilterTest {
+
+    @Test
+    public void testNoFalseNegativesWhileSlicesGrow() {
+
+        var filter = new TimeSlicedBloomFilter(60, 9, 0.001);
+        int entries = 5 * TimeSlicedBloomFilter.MIN_SLICE_CAPACITY;
+        for (int i = 0; i < entries; i++) {
+            filter.put(Long.toHexString(i * 0x9E3779B97F4A7C15L), 1000 + i % 120);
+        }
+        for (int i = 0; i < entries; i++) {
+            assertTrue(filter.mightContain(Long.toHexString(i * 0x9E3779B97F4A7C15L)));
+        }
+        assertEquals(3, filter.sliceCount());
+
+        var random = new SplittableRandom(1);
+        int falsePositives = 0;
+        int lookups = 200_000;
+        for (int i = 0; i < lookups; i++) {
+            if (filter.mightContain("unknown" + random.nextLong())) {
+                falsePositives++;
+            }
+        }
+        double rate = (double) falsePositives / lookups;
+        assertTrue(rate < 0.002, "false positive rate " + rate);
+        assertTrue(filter.estimatedFpp() < 0.001, "estimated false positive rate " + filter.estimatedFpp());
+    }
+
+    @Test
+    public void testExpiredSlicesAreDropped() {
+
+        var filter = new TimeSlicedBloomFilter(60, 9, 0.001);
+        filter.put("early", 119);
+        filter.put("late", 120);
+
+        assertEquals(0, filter.expire(119));
+        assertTrue(filter.mightContain("early"));
+
+        assertEquals(1, filter.expire(120));
+        assertFalse(filter.mightContain("early"));
+        assertTrue(filter.mightContain("late"));
+        assertEquals(1, filter.sliceCount());
+    }
+}
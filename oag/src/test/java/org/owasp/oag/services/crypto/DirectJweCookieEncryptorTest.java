@@ -0,0 +1,145 @@
+package org.owasp.oag.services.crypto;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nimbusds.jose.EncryptionMethod;
+import com.nimbusds.jose.JWEAlgorithm;
+import com.nimbusds.jose.JWEHeader;
+import com.nimbusds.jose.JWEObject;
+import com.nimbusds.jose.Payload;
+import com.nimbusds.jose.crypto.DirectEncrypter;
+import org.junit.jupiter.api.Test;
+import org.owasp.oag.cookies.LoginCookie;
+import org.owasp.oag.exception.CookieDecryptionException;
+import org.owasp.oag.session.UserModel;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DirectJweCookieEncryptorTest {
+
+    private final byte[] key = new byte[32];
+    private final DirectJweCookieEncryptor encryptor;
+    private final JweEncrypter jweEncrypter;
+
+    DirectJweCookieEncryptorTest() {
+        for (int i = 0; i < key.length; i++) {
+            key[i] = (byte) (i * 7 + 1);
+        }
+        encryptor = new DirectJweCookieEncryptor(key);
+        jweEncrypter = new JweEncrypter(key);
+    }
+
+    @Test
+    void roundTripsCookies() throws CookieDecryptionException {
+
+        var cookie = loginCookie();
+        String jwe = encryptor.encryptObject(cookie);
+
+        assertTrue(jwe.startsWith(DirectJweCookieEncryptor.HEADER + ".."));
+        assertEquals(5, jwe.split("\\.", -1).length);
+        assertNotEquals(jwe, encryptor.encryptObject(cookie));
+        assertCookie(encryptor.decryptObject(jwe, LoginCookie.class));
+    }
+
+    @Test
+    void isCompatibleWithJweEncrypter() throws CookieDecryptionException {
+
+        var cookie = loginCookie();
+        assertCookie(encryptor.decryptObject(jweEncrypter.encryptObject(cookie), LoginCookie.class));
+        assertCookie(jweEncrypter.decryptObject(encryptor.encryptObject(cookie), LoginCookie.class));
+    }
+
+    @Test
+    void payloadsOfEveryLengthRoundTrip() throws CookieDecryptionException {
+
+        var text = new StringBuilder();
+        for (int length = 0; length < 64; length++) {
+            String jwe = encryptor.encryptObject(text.toString());
+            assertEquals(text.toString(), encryptor.decryptObject(jwe, String.class));
+            assertEquals(text.toString(), jweEncrypter.decryptObject(jwe, String.class));
+            text.append((char) ('a' + length % 26));
+        }
+    }
+
+    @Test
+    void binaryPayloadsRoundTrip() throws CookieDecryptionException {
+
+        byte[] plaintext = new byte[256];
+        for (int i = 0; i < plaintext.length; i++) {
+            plaintext[i] = (byte) i;
+        }
+        assertArrayEquals(plaintext, encryptor.decryptBytes(encryptor.encryptBytes(plaintext)));
+        assertArrayEquals(plaintext, jweEncrypter.decryptBytes(encryptor.encryptBytes(plaintext)));
+        assertArrayEquals(plaintext, encryptor.decryptBytes(jweEncrypter.encryptBytes(plaintext)));
+    }
+
+    @Test
+    void binaryPayloadsRoundTripThroughTheDefaultMethods() throws CookieDecryptionException {
+
+        CookieEncryptor objectsOnly = new CookieEncryptor() {
+            @Override
+            public String encryptObject(Object payload) {
+                return jweEncrypter.encryptObject(payload);
+            }
+
+            @Override
+            public <T> T decryptObject(String jwe, Class<T> clazz) throws CookieDecryptionException {
+                return jweEncrypter.decryptObject(jwe, clazz);
+            }
+        };
+        byte[] plaintext = {0, 1, -1, 127, -128};
+        assertArrayEquals(plaintext, objectsOnly.decryptBytes(objectsOnly.encryptBytes(plaintext)));
+        assertThrows(CookieDecryptionException.class,
+                () -> objectsOnly.decryptBytes(jweEncrypter.encryptObject("not base64!")));
+    }
+
+    @Test
+    void acceptsTokensWithOtherHeaders() throws Exception {
+
+        var header = new JWEHeader.Builder(JWEAlgorithm.DIR, EncryptionMethod.A256GCM).contentType("JSON").build();
+        var jweObject = new JWEObject(header, new Payload(new ObjectMapper().writeValueAsString(loginCookie())));
+        jweObject.encrypt(new DirectEncrypter(new SecretKeySpec(key, "AES")));
+
+        assertCookie(encryptor.decryptObject(jweObject.serialize(), LoginCookie.class));
+    }
+
+    @Test
+    void rejectsTamperedAndMalformedTokens() {
+
+        String jwe = encryptor.encryptObject(loginCookie());
+        int ciphertextStart = jwe.lastIndexOf('.', jwe.lastIndexOf('.') - 1) + 1;
+        char flipped = jwe.charAt(ciphertextStart) == 'A' ? 'B' : 'A';
+        String tampered = jwe.substring(0, ciphertextStart) + flipped + jwe.substring(ciphertextStart + 1);
+
+        assertThrows(CookieDecryptionException.class, () -> encryptor.decryptObject(tampered, LoginCookie.class));
+        assertThrows(CookieDecryptionException.class, () -> encryptor.decryptObject(jwe + ".x", LoginCookie.class));
+        assertThrows(CookieDecryptionException.class, () -> encryptor.decryptObject(jwe.replace("..", ".a."), LoginCookie.class));
+        String invalidBase64 = jwe.substring(0, ciphertextStart) + '+' + jwe.substring(ciphertextStart + 1);
+        assertThrows(CookieDecryptionException.class, () -> encryptor.decryptObject(invalidBase64, LoginCookie.class));
+        assertThrows(CookieDecryptionException.class, () -> encryptor.decryptObject("garbage", LoginCookie.class));
+        assertThrows(CookieDecryptionException.class,
+                () -> new DirectJweCookieEncryptor(new byte[32]).decryptObject(jwe, LoginCookie.class));
+    }
+
+    private static LoginCookie loginCookie() {
+        var user = new UserModel("alice");
+        user.getMappings().put("email", "alice@example.com");
+        var cookie = new LoginCookie(1_700_000_000, "iam", user, "session-id");
+        cookie.setCsrfToken("csrf");
+        return cookie;
+    }
+
+    private static void assertCookie(LoginCookie cookie) {
+        assertEquals("session-id", cookie.getId());
+        assertEquals(1_700_000_000, cookie.getSessionExpSeconds());
+        assertEquals("iam", cookie.getProviderKey());
+        assertEquals("csrf", cookie.getCsrfToken());
+        assertEquals("alice", cookie.getUserModel().getId());
+        assertEquals("alice@example.com", cookie.getUserModel().getMappings().get("email"));
+    }
+}
@@ -3,15 +3,20 @@ package org.owasp.oag.services.crypto;
 import com.nimbusds.jwt.SignedJWT;
 import org.junit.jupiter.api.Test;
 import org.owasp.oag.config.configuration.GatewayRoute;
+import org.owasp.oag.config.configuration.SecurityProfile;
 import org.owasp.oag.filters.GatewayRouteContext;
+import org.owasp.oag.filters.RouteRuntime;
 import org.owasp.oag.infrastructure.GlobalClockSource;
 import org.owasp.oag.services.crypto.jwt.StubJwtSignerFactory;
+import org.owasp.oag.services.csrf.CsrfNoneValidation;
 import org.owasp.oag.services.tokenMapping.jwt.JwtTokenUserMapper;
 import org.owasp.oag.services.tokenMapping.jwt.JwtTokenUserMappingSettings;
+import org.owasp.oag.services.tokenMapping.nouser.NoUserMapper;
 import org.owasp.oag.session.Session;
 import org.owasp.oag.session.UserModel;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -38,7 +43,10 @@ class JwtTokenUserMapperTest {
 
         var route = new GatewayRoute("/api/**", routeUrl, "type", true, null);
         var session = new Session(300, 300, provider, model, null, "sessionId");
-        routeContext = new GatewayRouteContext("routeName", route, null, "https://request/uri", "https://upstream/url", Optional.of(session));
+        var profile = new SecurityProfile();
+        profile.setAllowedMethods(List.of("GET"));
+        var runtime = new RouteRuntime("routeName", route, profile, new CsrfNoneValidation(), new NoUserMapper());
+        routeContext = new GatewayRouteContext(runtime, "https://request/uri", "https://upstream/url", Optional.of(session));
     }
 
     @Test
@@ -0,0 +1,114 @@
+package org.owasp.oag.services.crypto;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.owasp.oag.cookies.LoginCookie;
+import org.owasp.oag.cookies.LoginCookieCodec;
+import org.owasp.oag.exception.CookieDecryptionException;
+import org.owasp.oag.infrastructure.GlobalClockSource;
+import org.owasp.oag.session.UserModel;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class LoginCookieCacheTest {
+
+    private final GlobalClockSource clockSource = new GlobalClockSource();
+    private final CountingEncryptor encryptor = new CountingEncryptor();
+    private final LoginCookieCodec codec = new LoginCookieCodec(encryptor, true, true);
+
+    @Test
+    void decryptsEachCookieOnce() throws CookieDecryptionException {
+
+        var cache = new LoginCookieCache(codec, clockSource, 100, Duration.ofMinutes(5));
+        encryptor.cookies.put("a", cookie("a", 300));
+        encryptor.cookies.put("b", cookie("b", 300));
+
+        var first = cache.decrypt("a");
+        assertSame(first, cache.decrypt("a"));
+        assertEquals("b", cache.decrypt("b").getId());
+        assertEquals(2, encryptor.decryptions);
+    }
+
+    @Test
+    void expiredSessionsAndInvalidCookiesAreNotCached() {
+
+        var cache = new LoginCookieCache(codec, clockSource, 100, Duration.ofMinutes(5));
+        encryptor.cookies.put("expired", cookie("expired", -1));
+
+        assertNotSame(decrypt(cache, "expired"), decrypt(cache, "expired"));
+        assertThrows(CookieDecryptionException.class, () -> cache.decrypt("unknown"));
+        assertThrows(CookieDecryptionException.class, () -> cache.decrypt("unknown"));
+        assertEquals(4, encryptor.decryptions);
+    }
+
+    @Test
+    void sizeZeroDecryptsEveryTime() throws CookieDecryptionException {
+
+        var cache = new LoginCookieCache(codec, clockSource, 0, Duration.ofMinutes(5));
+        encryptor.cookies.put("a", cookie("a", 300));
+
+        assertNotSame(cache.decrypt("a"), cache.decrypt("a"));
+        assertEquals(2, encryptor.decryptions);
+    }
+
+    private LoginCookie cookie(String id, int remainingSeconds) {
+        return new LoginCookie(clockSource.getEpochSeconds() + remainingSeconds, "provider", new UserModel("user-" + id), id);
+    }
+
+    private static LoginCookie decrypt(LoginCookieCache cache, String value) {
+        try {
+            return cache.decrypt(value);
+        } catch (CookieDecryptionException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Returns the registered cookie as JSON for every decryption, so each decryption yields a new
+     * instance as a real one would.
+     */
+    private static class CountingEncryptor implements CookieEncryptor {
+
+        private static final ObjectMapper JSON = new ObjectMapper();
+
+        final Map<String, LoginCookie> cookies = new HashMap<>();
+        int decryptions;
+
+        @Override
+        public String encryptObject(Object payload) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <T> T decryptObject(String jwe, Class<T> clazz) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String encryptBytes(byte[] plaintext) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public byte[] decryptBytes(String jwe) throws CookieDecryptionException {
+            decryptions++;
+            var cookie = cookies.get(jwe);
+            if (cookie == null) {
+                throw new CookieDecryptionException("Unknown cookie");
+            }
+            try {
+                return JSON.writeValueAsBytes(cookie);
+            } catch (JsonProcessingException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+}